@@ -0,0 +1,42 @@
+#!/bin/sh
+# Run the benchmarks on two commits and compare the results.
+#
+# usage: ./compare-commits.sh <baseline-rev> <candidate-rev> [jmh options]
+#
+# Every revision is checked out into a temporary worktree, BiVeS-Core is
+# installed into the local Maven repository, and the benchmarks of the
+# *current* working copy are built against it, so both revisions run exactly
+# the same benchmark code. Results are stored in results-<rev>.json.
+
+set -e
+
+if [ $# -lt 2 ]
+then
+	echo "usage: $0 <baseline-rev> <candidate-rev> [jmh options]" >&2
+	exit 2
+fi
+
+BASELINE=$1
+CANDIDATE=$2
+shift 2
+JMH_OPTS=${*:-"-prof gc"}
+
+BENCHDIR=$(cd "$(dirname "$0")" && pwd)
+REPODIR=$(cd "$BENCHDIR/.." && pwd)
+WORKDIR=$(mktemp -d)
+trap 'git -C "$REPODIR" worktree remove --force "$WORKDIR/src" >/dev/null 2>&1; rm -rf "$WORKDIR"' EXIT
+
+for REV in "$BASELINE" "$CANDIDATE"
+do
+	echo "### benchmarking $REV"
+	git -C "$REPODIR" worktree add --detach "$WORKDIR/src" "$REV" >/dev/null
+	(cd "$WORKDIR/src" && mvn -B -q install -DskipTests -Dgpg.skip -Dmaven.javadoc.skip)
+	(cd "$BENCHDIR" && mvn -B -q clean package)
+	java -Dbives.testdir="$REPODIR/test" -jar "$BENCHDIR/target/benchmarks.jar" \
+		-jvmArgsAppend "-Dbives.testdir=$REPODIR/test" \
+		$JMH_OPTS -rf json -rff "$BENCHDIR/results-$REV.json"
+	git -C "$REPODIR" worktree remove --force "$WORKDIR/src"
+done
+
+java -cp "$BENCHDIR/target/benchmarks.jar" de.unirostock.sems.bives.benchmark.CompareResults \
+	"$BENCHDIR/results-$BASELINE.json" "$BENCHDIR/results-$CANDIDATE.json"
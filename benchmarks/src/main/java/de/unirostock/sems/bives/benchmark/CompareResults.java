@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+
+/**
+ * The Class CompareResults to compare two JMH result files, e.g. of two commits.
+ *
+ * <p>
+ * Usage: <code>java -cp target/benchmarks.jar de.unirostock.sems.bives.benchmark.CompareResults baseline.json candidate.json [threshold]</code>
+ * </p>
+ *
+ * <p>
+ * Prints the score, the 99th percentile (for sampled latencies), and the
+ * normalized allocation rate (if the results were recorded using
+ * <code>-prof gc</code>) of every benchmark in both files. Exits with status 1
+ * if any score got worse by more than the threshold, in percent, which
+ * defaults to 10.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class CompareResults
+{
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the baseline, the candidate, and optionally the threshold
+	 * @throws Exception the exception
+	 */
+	public static void main (String [] args) throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println ("usage: CompareResults baseline.json candidate.json [threshold-in-percent]");
+			System.exit (2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble (args[2]) : 10;
+
+		Map<String, JSONObject> baseline = read (args[0]);
+		Map<String, JSONObject> candidate = read (args[1]);
+
+		boolean regression = false;
+		System.out.println (String.format ("%-90s %14s %14s %9s %9s %9s", "benchmark", "baseline", "candidate", "score", "p99", "alloc/op"));
+		for (Map.Entry<String, JSONObject> entry : baseline.entrySet ())
+		{
+			JSONObject before = entry.getValue ();
+			JSONObject after = candidate.get (entry.getKey ());
+			if (after == null)
+			{
+				System.out.println (String.format ("%-90s %14.3f %14s", entry.getKey (), score (before), "-"));
+				continue;
+			}
+
+			// for throughput higher is better, for times lower is better
+			boolean higherIsBetter = "thrpt".equals (before.get ("mode"));
+			double change = change (score (before), score (after));
+			if ((higherIsBetter ? -change : change) > threshold)
+				regression = true;
+
+			System.out.println (String.format ("%-90s %14.3f %14.3f %9s %9s %9s", entry.getKey (), score (before), score (after), format (change), format (change (percentile (before, "99.0"), percentile (after, "99.0"))), format (change (allocation (before), allocation (after)))));
+		}
+
+		for (String key : candidate.keySet ())
+			if (!baseline.containsKey (key))
+				System.out.println (String.format ("%-90s %14s %14.3f", key, "-", score (candidate.get (key))));
+
+		if (regression)
+		{
+			System.out.println ("at least one score got worse by more than " + threshold + "%");
+			System.exit (1);
+		}
+	}
+
+
+	/**
+	 * Read a JMH result file.
+	 *
+	 * @param file the file
+	 * @return the results by benchmark, mode, and parameters
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws ParseException the parse exception
+	 */
+	private static Map<String, JSONObject> read (String file) throws IOException, ParseException
+	{
+		Map<String, JSONObject> results = new LinkedHashMap<String, JSONObject> ();
+		try (Reader in = new InputStreamReader (new FileInputStream (file), StandardCharsets.UTF_8))
+		{
+			for (Object o : (JSONArray) new JSONParser ().parse (in))
+			{
+				JSONObject result = (JSONObject) o;
+				String name = (String) result.get ("benchmark");
+				name = name.substring (name.lastIndexOf ('.', name.lastIndexOf ('.') - 1) + 1);
+				StringBuilder key = new StringBuilder (name).append (" ").append (result.get ("mode"));
+				JSONObject params = (JSONObject) result.get ("params");
+				if (params != null)
+					for (Object param : new TreeMap<Object, Object> (params).entrySet ())
+						key.append (" ").append (param);
+				results.put (key.toString (), result);
+			}
+		}
+		return results;
+	}
+
+
+	/**
+	 * Gets the primary score of a result.
+	 *
+	 * @param result the result
+	 * @return the score
+	 */
+	private static double score (JSONObject result)
+	{
+		return ((Number) ((JSONObject) result.get ("primaryMetric")).get ("score")).doubleValue ();
+	}
+
+
+	/**
+	 * Gets a percentile of a result.
+	 *
+	 * @param result the result
+	 * @param percentile the percentile, such as <code>99.0</code>
+	 * @return the percentile, or NaN if not recorded
+	 */
+	private static double percentile (JSONObject result, String percentile)
+	{
+		if (!"sample".equals (result.get ("mode")))
+			return Double.NaN;
+		JSONObject percentiles = (JSONObject) ((JSONObject) result.get ("primaryMetric")).get ("scorePercentiles");
+		if (percentiles == null || percentiles.get (percentile) == null)
+			return Double.NaN;
+		return ((Number) percentiles.get (percentile)).doubleValue ();
+	}
+
+
+	/**
+	 * Gets the normalized allocation rate of a result.
+	 *
+	 * @param result the result
+	 * @return the bytes allocated per operation, or NaN if not recorded
+	 */
+	private static double allocation (JSONObject result)
+	{
+		JSONObject secondary = (JSONObject) result.get ("secondaryMetrics");
+		if (secondary == null)
+			return Double.NaN;
+		// older versions of JMH prefix the name with a dot
+		for (Object metric : secondary.keySet ())
+			if (((String) metric).endsWith ("gc.alloc.rate.norm"))
+				return ((Number) ((JSONObject) secondary.get (metric)).get ("score")).doubleValue ();
+		return Double.NaN;
+	}
+
+
+	/**
+	 * Compute the relative change.
+	 *
+	 * @param before the former value
+	 * @param after the later value
+	 * @return the change in percent
+	 */
+	private static double change (double before, double after)
+	{
+		return (after - before) / before * 100;
+	}
+
+
+	/**
+	 * Format a change.
+	 *
+	 * @param change the change in percent
+	 * @return the formatted change
+	 */
+	private static String format (double change)
+	{
+		if (Double.isNaN (change) || Double.isInfinite (change))
+			return "-";
+		return String.format ("%+.1f%%", change);
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unirostock.sems.bives.api.Diff;
+import de.unirostock.sems.bives.api.RegularDiff;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class DiffBenchmark measuring {@link Diff#getDiff()} and the whole
+ * pipeline from strings to the XML patch.
+ *
+ * @author Martin Scharm
+ */
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class DiffBenchmark
+{
+
+	/**
+	 * A freshly mapped diff for every invocation, as the diff caches its patch.
+	 * Mapping takes milliseconds, so the overhead of a per-invocation setup is negligible.
+	 */
+	@State (Scope.Thread)
+	public static class MappedDiff
+	{
+
+		/** The former version. */
+		private TreeDocument treeA;
+
+		/** The later version. */
+		private TreeDocument treeB;
+
+		/** The diff. */
+		public Diff diff;
+
+
+		/**
+		 * Parse the documents.
+		 *
+		 * @param models the models
+		 * @throws Exception the exception
+		 */
+		@Setup (Level.Trial)
+		public void parse (Models models) throws Exception
+		{
+			treeA = models.parseA ();
+			treeB = models.parseB ();
+		}
+
+
+		/**
+		 * Map the documents.
+		 *
+		 * @throws Exception the exception
+		 */
+		@Setup (Level.Invocation)
+		public void map () throws Exception
+		{
+			diff = new RegularDiff (treeA, treeB);
+			diff.mapTrees ();
+		}
+	}
+
+
+	/**
+	 * Produce the XML patch of a mapped diff.
+	 *
+	 * @param mapped the mapped diff
+	 * @return the patch
+	 */
+	@Benchmark
+	public String getDiff (MappedDiff mapped)
+	{
+		return mapped.diff.getDiff ();
+	}
+
+
+	/**
+	 * Parse, map, and produce the XML patch.
+	 *
+	 * @param models the models
+	 * @return the patch
+	 * @throws Exception the exception
+	 */
+	@Benchmark
+	public String endToEnd (Models models) throws Exception
+	{
+		Diff diff = new RegularDiff (models.versionA, models.versionB);
+		diff.mapTrees ();
+		return diff.getDiff ();
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.ds.graph.GraphTranslator;
+import de.unirostock.sems.bives.ds.graph.GraphTranslatorDot;
+import de.unirostock.sems.bives.ds.graph.GraphTranslatorGraphML;
+import de.unirostock.sems.bives.ds.graph.GraphTranslatorJson;
+import de.unirostock.sems.bives.ds.graph.GraphTranslatorSbgnJson;
+import de.unirostock.sems.bives.ds.hn.HierarchyNetwork;
+import de.unirostock.sems.bives.ds.hn.HierarchyNetworkComponent;
+import de.unirostock.sems.bives.ds.hn.HierarchyNetworkVariable;
+import de.unirostock.sems.bives.ds.rn.ReactionNetwork;
+import de.unirostock.sems.bives.ds.rn.ReactionNetworkCompartment;
+import de.unirostock.sems.bives.ds.rn.ReactionNetworkReaction;
+import de.unirostock.sems.bives.ds.rn.ReactionNetworkSubstance;
+import de.unirostock.sems.bives.tools.SyntheticModel;
+import de.unirostock.sems.xmlutils.ds.DocumentNode;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class GraphBenchmark measuring the graph translators.
+ *
+ * <p>
+ * BiVeS-Core doesn't derive networks from regular XML documents, that's the
+ * job of the SBML and CellML modules. Thus, the networks are built from the
+ * species, compartments, and reactions of a synthetic model, linking entities
+ * of both versions as the modules would do.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class GraphBenchmark
+{
+
+	/**
+	 * The networks to translate.
+	 */
+	@State (Scope.Thread)
+	public static class Networks
+	{
+
+		/** The number of species. */
+		@Param ({"100", "1000"})
+		public int size;
+
+		/** The graph format. */
+		@Param ({"graphml", "dot", "json", "sbgn-json"})
+		public String format;
+
+		/** The reaction network. */
+		public ReactionNetwork rn;
+
+		/** The hierarchy network. */
+		public HierarchyNetwork hn;
+
+
+		/**
+		 * Build the networks.
+		 *
+		 * @throws Exception the exception
+		 */
+		@Setup
+		public void build () throws Exception
+		{
+			LOGGER.setMinLevel (LOGGER.ERROR);
+			SyntheticModel model = Models.generate (size);
+			TreeDocument docA = model.getTreeA ();
+			TreeDocument docB = model.getTreeB ();
+
+			rn = new ReactionNetwork ();
+			hn = new HierarchyNetwork ();
+			ReactionNetworkCompartment [] compartments = new ReactionNetworkCompartment [size];
+			HierarchyNetworkComponent [] components = new HierarchyNetworkComponent [size];
+			ReactionNetworkSubstance [] substances = new ReactionNetworkSubstance [size];
+			HierarchyNetworkVariable [] variables = new HierarchyNetworkVariable [size];
+
+			for (int c = 0; c < size; c++)
+			{
+				DocumentNode a = docA.getNodeById ("c" + c);
+				if (a == null)
+					break;
+				DocumentNode b = docB.getNodeById ("c" + c);
+				compartments[c] = new ReactionNetworkCompartment (rn, label (a), label (b), a, b);
+				rn.setCompartment (a, compartments[c]);
+				components[c] = new HierarchyNetworkComponent (hn, label (a), label (b), a, b);
+				hn.setComponent (a, components[c]);
+			}
+
+			for (int s = 0; s < size; s++)
+			{
+				DocumentNode a = docA.getNodeById ("s" + s);
+				DocumentNode b = docB.getNodeById ("s" + s);
+				ReactionNetworkCompartment compartment = compartments[Integer.parseInt (a.getAttributeValue ("compartment").substring (1))];
+				HierarchyNetworkComponent component = components[Integer.parseInt (a.getAttributeValue ("compartment").substring (1))];
+				substances[s] = new ReactionNetworkSubstance (rn, label (a), label (b), a, b, compartment, b == null ? null : compartment);
+				rn.setSubstance (a, substances[s]);
+				variables[s] = new HierarchyNetworkVariable (hn, label (a), label (b), a, b, component, b == null ? null : component);
+				hn.setVariable (a, variables[s]);
+				component.addVariable (variables[s]);
+				if (s > 0)
+				{
+					variables[s].addConnectionA (variables[s - 1]);
+					if (b != null && variables[s - 1].getB () != null)
+						variables[s].addConnectionB (variables[s - 1]);
+				}
+			}
+
+			for (int r = 0; r < size; r++)
+			{
+				DocumentNode a = docA.getNodeById ("r" + r);
+				DocumentNode b = docB.getNodeById ("r" + r);
+				ReactionNetworkReaction reaction = new ReactionNetworkReaction (rn, label (a), label (b), a, b, compartments[0], b == null ? null : compartments[0], false);
+				rn.setReaction (a, reaction);
+				ReactionNetworkSubstance substrate = substances[r];
+				ReactionNetworkSubstance product = substances[(r + 1) % size];
+				reaction.addInputA (substrate, null, null);
+				reaction.addOutputA (product, null, null);
+				if (b != null)
+				{
+					if (substrate.getB () != null)
+						reaction.addInputB (substrate, null, null);
+					if (product.getB () != null)
+						reaction.addOutputB (product, null, null);
+				}
+			}
+		}
+
+
+		/**
+		 * Creates a new translator for the format.
+		 *
+		 * @return the translator
+		 * @throws Exception the exception
+		 */
+		public GraphTranslator translator () throws Exception
+		{
+			if (format.equals ("graphml"))
+				return new GraphTranslatorGraphML ();
+			if (format.equals ("dot"))
+				return new GraphTranslatorDot ();
+			if (format.equals ("json"))
+				return new GraphTranslatorJson ();
+			if (format.equals ("sbgn-json"))
+				return new GraphTranslatorSbgnJson ();
+			throw new IllegalArgumentException ("unknown format: " + format);
+		}
+
+
+		/**
+		 * Gets the label of a node.
+		 *
+		 * @param node the node
+		 * @return the label, or null if there is no node
+		 */
+		private static String label (DocumentNode node)
+		{
+			return node == null ? null : node.getAttributeValue ("name");
+		}
+	}
+
+
+	/**
+	 * Translate the reaction network.
+	 *
+	 * @param networks the networks
+	 * @return the graph
+	 * @throws Exception the exception
+	 */
+	@Benchmark
+	public Object reactionNetwork (Networks networks) throws Exception
+	{
+		return networks.translator ().translate (networks.rn);
+	}
+
+
+	/**
+	 * Translate the hierarchy network.
+	 *
+	 * @param networks the networks
+	 * @return the graph
+	 * @throws Exception the exception
+	 */
+	@Benchmark
+	public Object hierarchyNetwork (Networks networks) throws Exception
+	{
+		return networks.translator ().translate (networks.hn);
+	}
+}
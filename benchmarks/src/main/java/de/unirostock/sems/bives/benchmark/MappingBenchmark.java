@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unirostock.sems.bives.api.RegularDiff;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class MappingBenchmark measuring {@link RegularDiff#mapTrees()}, that is
+ * the id mapping, the XyDiff, and the evaluation of the modifications.
+ *
+ * @author Martin Scharm
+ */
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class MappingBenchmark
+{
+
+	/**
+	 * The parsed documents. Mapping resets the modifications of the documents, so they can be mapped again and again.
+	 */
+	@State (Scope.Thread)
+	public static class Trees
+	{
+
+		/** The former version. */
+		public TreeDocument treeA;
+
+		/** The later version. */
+		public TreeDocument treeB;
+
+
+		/**
+		 * Parse the documents.
+		 *
+		 * @param models the models
+		 * @throws Exception the exception
+		 */
+		@Setup
+		public void parse (Models models) throws Exception
+		{
+			treeA = models.parseA ();
+			treeB = models.parseB ();
+		}
+	}
+
+
+	/**
+	 * Map the trees.
+	 *
+	 * @param trees the trees
+	 * @return the diff
+	 * @throws Exception the exception
+	 */
+	@Benchmark
+	public RegularDiff mapTrees (Trees trees) throws Exception
+	{
+		RegularDiff diff = new RegularDiff (trees.treeA, trees.treeB);
+		diff.mapTrees ();
+		return diff;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.tools.SyntheticModel;
+import de.unirostock.sems.bives.tools.SyntheticModelGenerator;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.tools.DocumentTools;
+import de.unirostock.sems.xmlutils.tools.XmlTools;
+
+
+/**
+ * The Class Models providing the pairs of documents to benchmark.
+ *
+ * <p>
+ * Real models are read from the <code>test</code> directory of BiVeS-Core,
+ * which is expected in <code>../test</code> (relative to the benchmark
+ * module) or in the directory given by the system property
+ * <code>bives.testdir</code>. Synthetic models are named
+ * <code>synthetic-N</code>, with N being the number of species and
+ * reactions, see {@link SyntheticModelGenerator}.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+@State (Scope.Benchmark)
+public class Models
+{
+
+	/** The seed for synthetic models. */
+	private static final long SEED = 42;
+
+	/** The pair of documents. */
+	@Param ({"BIOMD0000000006", "stuarts-math", "paper-supp", "synthetic-1000", "synthetic-10000"})
+	public String model;
+
+	/** The former version. */
+	public String versionA;
+
+	/** The later version. */
+	public String versionB;
+
+	/** The synthetic model including its edit script, or null for real models. */
+	public SyntheticModel synthetic;
+
+
+	/**
+	 * Read or generate the documents.
+	 *
+	 * @throws Exception the exception
+	 */
+	@Setup
+	public void load () throws Exception
+	{
+		LOGGER.setMinLevel (LOGGER.ERROR);
+
+		if (model.startsWith ("synthetic-"))
+		{
+			synthetic = generate (Integer.parseInt (model.substring ("synthetic-".length ())));
+			versionA = XmlTools.prettyPrintDocument (DocumentTools.getDoc (synthetic.getTreeA ()));
+			versionB = XmlTools.prettyPrintDocument (DocumentTools.getDoc (synthetic.getTreeB ()));
+		}
+		else if (model.equals ("BIOMD0000000006"))
+		{
+			versionA = read ("BIOMD0000000006-2009-03-25.xml");
+			versionB = read ("BIOMD0000000006-2012-12-12.xml");
+		}
+		else if (model.equals ("stuarts-math"))
+		{
+			versionA = read ("stuarts-math-v1.xml");
+			versionB = read ("stuarts-math-v2.xml");
+		}
+		else if (model.equals ("paper-supp"))
+		{
+			versionA = read ("paper-supp-1.xml");
+			versionB = read ("paper-supp-2.xml");
+		}
+		else
+			throw new IllegalArgumentException ("unknown model: " + model);
+	}
+
+
+	/**
+	 * Generate a synthetic model with the same number of species and reactions
+	 * and a compartment per 50 species.
+	 *
+	 * @param species the number of species
+	 * @return the model
+	 * @throws Exception the exception
+	 */
+	public static SyntheticModel generate (int species) throws Exception
+	{
+		SyntheticModelGenerator generator = new SyntheticModelGenerator (SEED);
+		generator.setSize (Math.max (1, species / 50), species, species);
+		return generator.generate ();
+	}
+
+
+	/**
+	 * Parse the former version.
+	 *
+	 * @return the document
+	 * @throws Exception the exception
+	 */
+	public TreeDocument parseA () throws Exception
+	{
+		return new TreeDocument (XmlTools.readDocument (versionA), null);
+	}
+
+
+	/**
+	 * Parse the later version.
+	 *
+	 * @return the document
+	 * @throws Exception the exception
+	 */
+	public TreeDocument parseB () throws Exception
+	{
+		return new TreeDocument (XmlTools.readDocument (versionB), null);
+	}
+
+
+	/**
+	 * Read a file of the test directory.
+	 *
+	 * @param name the name of the file
+	 * @return the contents
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static String read (String name) throws IOException
+	{
+		File dir = new File (System.getProperty ("bives.testdir", "../test"));
+		return new String (Files.readAllBytes (new File (dir, name).toPath ()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The Class ParseBenchmark measuring the construction of
+ * {@link de.unirostock.sems.xmlutils.ds.TreeDocument}s, including XML parsing
+ * and hashing of the subtrees.
+ *
+ * @author Martin Scharm
+ */
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ParseBenchmark
+{
+
+	/**
+	 * Parse both versions.
+	 *
+	 * @param models the models
+	 * @param bh the blackhole
+	 * @throws Exception the exception
+	 */
+	@Benchmark
+	public void parse (Models models, Blackhole bh) throws Exception
+	{
+		bh.consume (models.parseA ());
+		bh.consume (models.parseB ());
+	}
+}
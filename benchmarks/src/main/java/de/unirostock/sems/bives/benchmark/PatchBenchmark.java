@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.algorithm.general.PatchProducer;
+import de.unirostock.sems.bives.algorithm.general.XyDiffConnector;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class PatchBenchmark measuring {@link PatchProducer#produce(boolean)},
+ * that is collecting the operations, annotating them, and serializing the patch.
+ *
+ * @author Martin Scharm
+ */
+@BenchmarkMode ({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PatchBenchmark
+{
+
+	/**
+	 * The mapped documents.
+	 */
+	@State (Scope.Thread)
+	public static class Mapping
+	{
+
+		/** Should the patch include annotations? */
+		@Param ({"false", "true"})
+		public boolean annotations;
+
+		/** The former version. */
+		public TreeDocument treeA;
+
+		/** The later version. */
+		public TreeDocument treeB;
+
+		/** The connections. */
+		public SimpleConnectionManager connections;
+
+		/** The quality of the patch, if the model is synthetic. */
+		public PatchQuality quality;
+
+
+		/**
+		 * Parse and map the documents.
+		 * The patch of a synthetic model is checked against its edit script, so
+		 * a faster mapping that produces worse patches doesn't go unnoticed.
+		 *
+		 * @param models the models
+		 * @throws Exception the exception
+		 */
+		@Setup
+		public void map (Models models) throws Exception
+		{
+			treeA = models.parseA ();
+			treeB = models.parseB ();
+			XyDiffConnector con = new XyDiffConnector (treeA, treeB);
+			con.findConnections ();
+			connections = con.getConnections ();
+
+			if (models.synthetic != null)
+			{
+				PatchProducer producer = new PatchProducer ();
+				producer.init (connections, treeA, treeB);
+				quality = new PatchQuality (models.synthetic, producer.producePatch ());
+			}
+		}
+	}
+
+
+	/**
+	 * The quality of the patch, reported by JMH next to the scores.
+	 * Both counters are 0 for models without an edit script.
+	 */
+	@State (Scope.Thread)
+	@AuxCounters (AuxCounters.Type.EVENTS)
+	public static class Quality
+	{
+
+		/** The number of operations of the edit script. */
+		public int editsExpected;
+
+		/** The number of operations of the edit script that were found in the patch. */
+		public int editsFound;
+
+
+		/**
+		 * Take the counters from the mapping.
+		 * JMH doesn't reset auxiliary counters, so they are set once per iteration.
+		 *
+		 * @param mapping the mapping
+		 */
+		@Setup (Level.Iteration)
+		public void report (Mapping mapping)
+		{
+			editsExpected = mapping.quality == null ? 0 : mapping.quality.getNumExpected ();
+			editsFound = mapping.quality == null ? 0 : mapping.quality.getNumFound ();
+		}
+	}
+
+
+	/**
+	 * Produce the patch.
+	 *
+	 * @param mapping the mapping
+	 * @param quality the quality of the patch, reported alongside
+	 * @return the patch
+	 */
+	@Benchmark
+	public String produce (Mapping mapping, Quality quality)
+	{
+		PatchProducer producer = new PatchProducer ();
+		producer.init (mapping.connections, mapping.treeA, mapping.treeB);
+		return producer.produce (mapping.annotations);
+	}
+}
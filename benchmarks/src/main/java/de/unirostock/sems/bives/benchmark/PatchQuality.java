@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.benchmark;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jdom2.Element;
+
+import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.bives.tools.SyntheticModel;
+import de.unirostock.sems.bives.tools.SyntheticModel.EditOperation;
+
+
+/**
+ * The Class PatchQuality comparing a patch of a synthetic model with the edit
+ * script the model was generated from.
+ *
+ * <p>
+ * An operation of the edit script is found if the patch contains an operation
+ * of the same kind on the same path: deletes by their old path, inserts by
+ * their new path, moves by both paths, and updates and renames by the path and
+ * name of the attribute or by the parent of the updated text. The patch is
+ * usually larger than the edit script, as it lists every node and attribute of
+ * an inserted or deleted subtree and the updates triggered by a rename.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class PatchQuality
+{
+
+	/** The names of the operations. */
+	private static final String [] NAMES = {"insert", "delete", "update", "move", "rename"};
+
+	/** The number of operations of the edit script by type. */
+	private int [] expected;
+
+	/** The number of operations of the edit script that were found in the patch by type. */
+	private int [] found;
+
+	/** The number of operations of the patch: inserts, deletes, updates, and moves. */
+	private int [] reported;
+
+
+	/**
+	 * Compare a patch with the edit script of a synthetic model.
+	 *
+	 * @param model the synthetic model
+	 * @param patch the patch of the model's versions
+	 */
+	public PatchQuality (SyntheticModel model, Patch patch)
+	{
+		expected = new int [NAMES.length];
+		found = new int [NAMES.length];
+		reported = new int [] {patch.getNumInserts (), patch.getNumDeletes (), patch.getNumUpdates (), patch.getNumMoves (), 0};
+
+		Set<String> deleted = collect (patch.getDeletes (), "node", "oldPath");
+		Set<String> inserted = collect (patch.getInserts (), "node", "newPath");
+		Set<String> updatedAttributes = new HashSet<String> ();
+		for (Element attribute : patch.getUpdates ().getChildren ("attribute"))
+			updatedAttributes.add (attribute.getAttributeValue ("oldPath") + "/@" + attribute.getAttributeValue ("name"));
+		Set<String> updatedTexts = collect (patch.getUpdates (), "text", "oldParent");
+		Set<String> moved = new HashSet<String> ();
+		for (Element node : patch.getMoves ().getChildren ())
+			moved.add (node.getAttributeValue ("oldPath") + " -> " + node.getAttributeValue ("newPath"));
+
+		for (EditOperation op : model.getEditScript ())
+		{
+			boolean hit = false;
+			switch (op.getType ())
+			{
+				case EditOperation.INSERT:
+					hit = inserted.contains (op.getPathB ());
+					break;
+				case EditOperation.DELETE:
+					hit = deleted.contains (op.getPathA ());
+					break;
+				case EditOperation.MOVE:
+					hit = moved.contains (op.getPathA () + " -> " + op.getPathB ());
+					break;
+				default:
+					hit = op.getAttribute () == null ? updatedTexts.contains (op.getPathA ()) : updatedAttributes.contains (op.getPathA () + "/@" + op.getAttribute ());
+			}
+			expected[op.getType ()]++;
+			if (hit)
+				found[op.getType ()]++;
+		}
+	}
+
+
+	/**
+	 * Collect an attribute of the operations of a certain kind.
+	 *
+	 * @param operations the section of the patch, e.g. the deletes
+	 * @param kind the kind of operations, e.g. <code>node</code>
+	 * @param attribute the attribute, e.g. <code>oldPath</code>
+	 * @return the values
+	 */
+	private static Set<String> collect (Element operations, String kind, String attribute)
+	{
+		Set<String> values = new HashSet<String> ();
+		for (Element operation : operations.getChildren (kind))
+			values.add (operation.getAttributeValue (attribute));
+		return values;
+	}
+
+
+	/**
+	 * Gets the number of operations of the edit script.
+	 *
+	 * @return the number of operations
+	 */
+	public int getNumExpected ()
+	{
+		int all = 0;
+		for (int type = 0; type < NAMES.length; type++)
+			all += expected[type];
+		return all;
+	}
+
+
+	/**
+	 * Gets the number of operations of the edit script that were found in the patch.
+	 *
+	 * @return the number of operations found
+	 */
+	public int getNumFound ()
+	{
+		int hits = 0;
+		for (int type = 0; type < NAMES.length; type++)
+			hits += found[type];
+		return hits;
+	}
+
+
+	/**
+	 * Gets the fraction of operations of the edit script that were found in the patch.
+	 *
+	 * @return the recall, 1 if the edit script is empty
+	 */
+	public double getRecall ()
+	{
+		int all = getNumExpected ();
+		return all == 0 ? 1 : (double) getNumFound () / all;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString ()
+	{
+		StringBuilder str = new StringBuilder (String.format ("patch quality: %.1f%% of the edit script found", 100 * getRecall ()));
+		for (int type = 0; type < NAMES.length; type++)
+		{
+			str.append (String.format ("%n  %-7s %6d of %6d found", NAMES[type], found[type], expected[type]));
+			if (type != EditOperation.RENAME)
+				str.append (String.format (", %6d in the patch", reported[type]));
+		}
+		return str.toString ();
+	}
+}
@@ -3,8 +3,11 @@
  */
 package de.unirostock.sems.bives.algorithm;
 
+import java.util.ArrayList;
+
 import de.binfalse.bflog.LOGGER;
 import de.unirostock.sems.bives.api.Diff;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
@@ -36,6 +39,12 @@ public abstract class Connector
 	/** The modified document. */
 	protected TreeDocument docB;
 	
+	/** The listener to report metrics, or null. */
+	protected DiffListener listener;
+	
+	/** Should the trees be evaluated after the connections were found? */
+	protected boolean evaluate = true;
+	
 	/**
 	 * Instantiates a new connector.
 	 *
@@ -116,14 +125,30 @@ public abstract class Connector
 	 */
 	public final void findConnections () throws BivesConnectionException
 	{
+		PhaseTimer timer = new PhaseTimer (listener);
 		init ();
+		timer.finish (DiffListener.PHASE_CONNECTOR_INIT);
 		connect ();
+		timer.finish (DiffListener.PHASE_CONNECTOR_CONNECT);
 
-		docA.getRoot ().resetModifications ();
-		docA.getRoot ().evaluate (conMgmt);
+		if (evaluate)
+		{
+			docA.getRoot ().resetModifications ();
+			docA.getRoot ().evaluate (conMgmt);
+			
+			docB.getRoot ().resetModifications ();
+			docB.getRoot ().evaluate (conMgmt);
+			timer.finish (DiffListener.PHASE_CONNECTOR_EVALUATE);
+		}
 		
-		docB.getRoot ().resetModifications ();
-		docB.getRoot ().evaluate (conMgmt);
+		if (listener != null)
+		{
+			listener.count (DiffListener.COUNT_NODES_A, docA.getNumNodes ());
+			listener.count (DiffListener.COUNT_NODES_B, docB.getNumNodes ());
+			listener.count (DiffListener.COUNT_MATCHED, conMgmt.getNumConnections ());
+			listener.count (DiffListener.COUNT_UNMATCHED_A, conMgmt.getUnmatched (docA.getRoot (), new ArrayList<TreeNode> ()).size ());
+			listener.count (DiffListener.COUNT_UNMATCHED_B, conMgmt.getUnmatched (docB.getRoot (), new ArrayList<TreeNode> ()).size ());
+		}
 	}
 	
 	/**
@@ -136,6 +161,56 @@ public abstract class Connector
 		return conMgmt;
 	}
 	
+	/**
+	 * Sets the connection manager to collect the connections. Has to be called before {@link #findConnections()}.
+	 * 
+	 * Use an {@link IndexedConnectionManager} for large documents.
+	 *
+	 * @param conMgmt the new connection manager, must be empty and built for the documents of this connector
+	 */
+	public void setConnectionManager (SimpleConnectionManager conMgmt)
+	{
+		this.conMgmt = conMgmt;
+	}
+	
+	
+	/**
+	 * Sets whether the trees are evaluated at the end of {@link #findConnections()}.
+	 * The evaluation is a pass over both documents. Connectors that are run as a
+	 * preprocessor of another connector should disable it, as the other connector
+	 * will evaluate the final mapping anyway.
+	 *
+	 * @param evaluate should the trees be evaluated? (default: true)
+	 */
+	public void setEvaluation (boolean evaluate)
+	{
+		this.evaluate = evaluate;
+	}
+	
+	
+	/**
+	 * Sets the listener to report metrics of the mapping, such as the time spent in its phases and the number of matched nodes.
+	 *
+	 * @param listener the listener, or null to disable reporting
+	 */
+	public void setDiffListener (DiffListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	
+	/**
+	 * Gets the XPath of a node, memoized in the node index of the mapping.
+	 *
+	 * @param node the node
+	 * @return the XPath
+	 */
+	protected String getXPath (TreeNode node)
+	{
+		NodeIndex index = conMgmt.getIndex (node);
+		return index == null ? node.getXPath () : index.getXPath (index.getNumber (node));
+	}
+	
 	
 	/**
 	 * Assign two nodes to each other, as long as they don't have a connection.
@@ -147,8 +222,9 @@ public abstract class Connector
 	 */
 	protected boolean nodeAssign (TreeNode a, TreeNode b) throws BivesConnectionException
 	{
-		LOGGER.debug ("Matching old: ", a.getXPath (), " with new: ", b.getXPath ());
-		if (conMgmt.getConnectionForNode (a) != null || conMgmt.getConnectionForNode (b) != null)
+		if (LOGGER.isDebugEnabled ())
+			LOGGER.debug ("Matching old: ", getXPath (a), " with new: ", getXPath (b));
+		if (conMgmt.isConnected (a) || conMgmt.isConnected (b))
 		{
 			LOGGER.debug ("already assigned");
 			return true;
@@ -159,7 +235,7 @@ public abstract class Connector
 		
 		if ((a.getType () == TreeNode.DOC_NODE && ((DocumentNode) b).getTagName ().equals (((DocumentNode) a).getTagName ())) || a.getType () == TreeNode.TEXT_NODE)
 		{
-			conMgmt.addConnection (new NodeConnection (a, b));
+			conMgmt.connect (a, b);
 			return true;
 		}
 		return false;
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm;
+
+
+/**
+ * The Interface DiffListener to observe the costs of a comparison, e.g. to
+ * find out which phase dominates for a certain kind of documents.
+ *
+ * <p>
+ * A listener can be passed to {@link de.unirostock.sems.bives.api.Diff},
+ * {@link Connector}, and
+ * {@link de.unirostock.sems.bives.algorithm.general.PatchProducer}. Phases and
+ * counters are identified by the names defined in this interface. A phase or
+ * counter may be reported several times during a single comparison, e.g. once
+ * per region of a {@link de.unirostock.sems.bives.algorithm.general.PartitionedConnector},
+ * so implementations should sum up the reported values.
+ * Implementations must be thread-safe if the mapping runs in parallel.
+ * </p>
+ *
+ * @author Martin Scharm
+ * @see DiffMetrics
+ */
+public interface DiffListener
+{
+
+	/** Phase: preprocessing of a connector, e.g. the id mapping. */
+	public static final String PHASE_CONNECTOR_INIT = "connector.init";
+
+	/** Phase: searching for connections. */
+	public static final String PHASE_CONNECTOR_CONNECT = "connector.connect";
+
+	/** Phase: evaluating the modifications of the nodes after the mapping. */
+	public static final String PHASE_CONNECTOR_EVALUATE = "connector.evaluate";
+
+	/** Phase: the bottom-up step of the XyDiff. */
+	public static final String PHASE_XYDIFF_BOTTOMUP = "xydiff.bottomup";
+
+	/** Phase: the top-down step of the XyDiff. */
+	public static final String PHASE_XYDIFF_TOPDOWN = "xydiff.topdown";
+
+	/** Phase: the optimization step of the XyDiff. */
+	public static final String PHASE_XYDIFF_OPTIMIZE = "xydiff.optimize";
+
+	/** Phase: mapping both trees, including the evaluation. */
+	public static final String PHASE_DIFF_MAP = "diff.map";
+
+	/** Phase: collecting the operations of the patch. */
+	public static final String PHASE_PATCH_PRODUCE = "patch.produce";
+
+	/** Phase: serializing the patch to XML. */
+	public static final String PHASE_PATCH_SERIALIZE = "patch.serialize";
+
+	/** Counter: number of nodes in the original document. */
+	public static final String COUNT_NODES_A = "nodes.a";
+
+	/** Counter: number of nodes in the modified document. */
+	public static final String COUNT_NODES_B = "nodes.b";
+
+	/** Counter: number of connections. */
+	public static final String COUNT_MATCHED = "matched";
+
+	/** Counter: number of unmatched nodes in the original document. */
+	public static final String COUNT_UNMATCHED_A = "unmatched.a";
+
+	/** Counter: number of unmatched nodes in the modified document. */
+	public static final String COUNT_UNMATCHED_B = "unmatched.b";
+
+	/** Counter: number of candidate lists searched by the XyDiff. */
+	public static final String COUNT_CANDIDATE_LISTS = "candidates.lists";
+
+	/** Counter: sum of the sizes of all candidate lists searched by the XyDiff. */
+	public static final String COUNT_CANDIDATES = "candidates.total";
+
+	/** Counter: number of ids occurring in both documents that were not used for the mapping, as they are not unique. */
+	public static final String COUNT_SKIPPED_IDS = "ids.skipped";
+
+	/** Counter: number of inserts in the patch. */
+	public static final String COUNT_PATCH_INSERTS = "patch.inserts";
+
+	/** Counter: number of deletes in the patch. */
+	public static final String COUNT_PATCH_DELETES = "patch.deletes";
+
+	/** Counter: number of updates in the patch. */
+	public static final String COUNT_PATCH_UPDATES = "patch.updates";
+
+	/** Counter: number of moves in the patch. */
+	public static final String COUNT_PATCH_MOVES = "patch.moves";
+
+
+	/**
+	 * Called when a phase is finished.
+	 *
+	 * @param phase the name of the phase
+	 * @param nanos the wall time of the phase in nanoseconds
+	 * @param allocatedBytes an estimate of the bytes allocated by the current thread during the phase, or -1 if not supported by the JVM
+	 */
+	public void phaseFinished (String phase, long nanos, long allocatedBytes);
+
+
+	/**
+	 * Called to report a counter.
+	 *
+	 * @param counter the name of the counter
+	 * @param value the value
+	 */
+	public void count (String counter, long value);
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The Class DiffMetrics, a {@link DiffListener} collecting all reported values.
+ * Repeatedly reported phases and counters are summed up.
+ *
+ * @author Martin Scharm
+ */
+public class DiffMetrics
+	implements DiffListener
+{
+
+	/** The wall times of the phases in nanoseconds, in order of their first report. */
+	private LinkedHashMap<String, Long> nanos;
+
+	/** The allocation estimates of the phases in bytes. */
+	private LinkedHashMap<String, Long> allocated;
+
+	/** The counters. */
+	private LinkedHashMap<String, Long> counters;
+
+
+	/**
+	 * Instantiates a new, empty collection of metrics.
+	 */
+	public DiffMetrics ()
+	{
+		nanos = new LinkedHashMap<String, Long> ();
+		allocated = new LinkedHashMap<String, Long> ();
+		counters = new LinkedHashMap<String, Long> ();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.DiffListener#phaseFinished(java.lang.String, long, long)
+	 */
+	@Override
+	public synchronized void phaseFinished (String phase, long nanos, long allocatedBytes)
+	{
+		add (this.nanos, phase, nanos);
+		if (allocatedBytes >= 0)
+			add (allocated, phase, allocatedBytes);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.DiffListener#count(java.lang.String, long)
+	 */
+	@Override
+	public synchronized void count (String counter, long value)
+	{
+		add (counters, counter, value);
+	}
+
+
+	/**
+	 * Gets the wall time of a phase.
+	 *
+	 * @param phase the name of the phase
+	 * @return the time in nanoseconds, or -1 if the phase wasn't reported
+	 */
+	public synchronized long getNanos (String phase)
+	{
+		Long value = nanos.get (phase);
+		return value == null ? -1 : value;
+	}
+
+
+	/**
+	 * Gets the estimated allocations of a phase.
+	 *
+	 * @param phase the name of the phase
+	 * @return the allocated bytes, or -1 if unknown
+	 */
+	public synchronized long getAllocatedBytes (String phase)
+	{
+		Long value = allocated.get (phase);
+		return value == null ? -1 : value;
+	}
+
+
+	/**
+	 * Gets the value of a counter.
+	 *
+	 * @param counter the name of the counter
+	 * @return the value, or -1 if the counter wasn't reported
+	 */
+	public synchronized long getCount (String counter)
+	{
+		Long value = counters.get (counter);
+		return value == null ? -1 : value;
+	}
+
+
+	/**
+	 * Gets the wall times of all reported phases.
+	 *
+	 * @return the times in nanoseconds
+	 */
+	public synchronized Map<String, Long> getPhases ()
+	{
+		return Collections.unmodifiableMap (new LinkedHashMap<String, Long> (nanos));
+	}
+
+
+	/**
+	 * Gets all reported counters.
+	 *
+	 * @return the counters
+	 */
+	public synchronized Map<String, Long> getCounters ()
+	{
+		return Collections.unmodifiableMap (new LinkedHashMap<String, Long> (counters));
+	}
+
+
+	/**
+	 * Forget all reported values.
+	 */
+	public synchronized void reset ()
+	{
+		nanos.clear ();
+		allocated.clear ();
+		counters.clear ();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString ()
+	{
+		StringBuilder str = new StringBuilder ();
+		for (Map.Entry<String, Long> phase : nanos.entrySet ())
+		{
+			str.append (phase.getKey ()).append (": ").append (phase.getValue () / 1000000.).append (" ms");
+			Long bytes = allocated.get (phase.getKey ());
+			if (bytes != null)
+				str.append (", ").append (bytes / 1024).append (" KiB");
+			str.append ("\n");
+		}
+		for (Map.Entry<String, Long> counter : counters.entrySet ())
+			str.append (counter.getKey ()).append (": ").append (counter.getValue ()).append ("\n");
+		return str.toString ();
+	}
+
+
+	/**
+	 * Add a value to an entry of a map.
+	 *
+	 * @param map the map
+	 * @param key the key
+	 * @param value the value
+	 */
+	private static void add (Map<String, Long> map, String key, long value)
+	{
+		Long old = map.get (key);
+		map.put (key, old == null ? value : old + value);
+	}
+}
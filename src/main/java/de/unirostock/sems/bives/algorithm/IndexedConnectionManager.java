@@ -0,0 +1,580 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+
+import de.unirostock.sems.bives.ds.NodeIndex;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.xmlutils.comparison.Connection;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+
+
+/**
+ * The Class IndexedConnectionManager, a connection manager for large documents.
+ *
+ * <p>
+ * The nodes of both documents are numbered in preorder once, see
+ * {@link de.unirostock.sems.bives.ds.NodeIndex}. The mapping is stored in two
+ * <code>int</code> arrays of partner numbers and the weights in a
+ * <code>double</code> array. Hot paths should use the number-based accessors,
+ * such as {@link #getPartnerOfA(int)} and {@link #getWeightOfA(int)}, or the
+ * node-based ones, such as {@link #getPartner(TreeNode)}.
+ * </p>
+ *
+ * <p>
+ * {@link NodeConnection} objects are not stored. Methods returning
+ * connections create short-lived views, which read and write the weight
+ * stored in this manager and are only valid as long as the connection exists.
+ * Annotations of a view have to be added through
+ * {@link NodeConnection#addAnnotation(Property, RDFNode)}.
+ * </p>
+ *
+ * <p>
+ * All nodes to be connected must be part of the documents at construction
+ * time.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class IndexedConnectionManager
+	extends SimpleConnectionManager
+{
+
+	/** The index of the original document. */
+	private NodeIndex indexA;
+
+	/** The index of the modified document. */
+	private NodeIndex indexB;
+
+	/** The partners of the nodes in tree A, -1 if unmapped. */
+	private int [] partnerOfA;
+
+	/** The partners of the nodes in tree B, -1 if unmapped. */
+	private int [] partnerOfB;
+
+	/** The weights of the connections by node in tree A. */
+	private double [] weightOfA;
+
+	/** The annotations of the connections by node in tree A, only for annotated connections. */
+	private HashMap<Integer, List<Map.Entry<Property, RDFNode>>> annotationsOfA;
+
+	/** The nodes of tree A in the order their connections were added, may contain stale entries. */
+	private int [] order;
+
+	/** The number of entries in order. */
+	private int orderSize;
+
+	/** The position of the latest entry in order by node in tree A. */
+	private int [] positionOfA;
+
+	/** The number of connections. */
+	private int numConnections;
+
+
+	/**
+	 * Instantiates a new indexed connection manager.
+	 *
+	 * @param docA the original document
+	 * @param docB the modified document
+	 */
+	public IndexedConnectionManager (TreeDocument docA, TreeDocument docB)
+	{
+		super (docA, docB);
+		indexA = getIndexA ();
+		indexB = getIndexB ();
+		partnerOfA = new int [indexA.size ()];
+		partnerOfB = new int [indexB.size ()];
+		Arrays.fill (partnerOfA, -1);
+		Arrays.fill (partnerOfB, -1);
+		weightOfA = new double [indexA.size ()];
+		annotationsOfA = new HashMap<Integer, List<Map.Entry<Property, RDFNode>>> ();
+		positionOfA = new int [indexA.size ()];
+		order = new int [16];
+	}
+
+
+	/**
+	 * Gets the number of a node of tree A.
+	 *
+	 * @param node the node
+	 * @return the number, or -1 if the node is not part of tree A
+	 */
+	private int numberA (TreeNode node)
+	{
+		return indexA.getNumber (node);
+	}
+
+
+	/**
+	 * Gets the number of a node of tree B.
+	 *
+	 * @param node the node
+	 * @return the number, or -1 if the node is not part of tree B
+	 */
+	private int numberB (TreeNode node)
+	{
+		return indexB.getNumber (node);
+	}
+
+
+	/**
+	 * Gets the partner of a node of tree A.
+	 *
+	 * @param a the number of the node in tree A, see {@link #getIndexA()}
+	 * @return the number of its partner in tree B, or -1 if the node is not connected
+	 */
+	public int getPartnerOfA (int a)
+	{
+		return partnerOfA[a];
+	}
+
+
+	/**
+	 * Gets the partner of a node of tree B.
+	 *
+	 * @param b the number of the node in tree B, see {@link #getIndexB()}
+	 * @return the number of its partner in tree A, or -1 if the node is not connected
+	 */
+	public int getPartnerOfB (int b)
+	{
+		return partnerOfB[b];
+	}
+
+
+	/**
+	 * Gets the weight of the connection of a node of tree A.
+	 *
+	 * @param a the number of the node in tree A, must be connected
+	 * @return the weight
+	 */
+	public double getWeightOfA (int a)
+	{
+		return weightOfA[a];
+	}
+
+
+	/**
+	 * Sets the weight of the connection of a node of tree A.
+	 *
+	 * @param a the number of the node in tree A, must be connected
+	 * @param weight the weight
+	 */
+	public void setWeightOfA (int a, double weight)
+	{
+		weightOfA[a] = weight;
+	}
+
+
+	/**
+	 * Gets the number of the node in tree A taking part in the connection of a node.
+	 *
+	 * @param node the node of either tree
+	 * @return the number of the node in tree A, or -1 if the node is not connected
+	 */
+	private int connectedA (TreeNode node)
+	{
+		int a = numberA (node);
+		if (a >= 0 && partnerOfA[a] >= 0)
+			return a;
+		int b = numberB (node);
+		return b >= 0 ? partnerOfB[b] : -1;
+	}
+
+
+	/**
+	 * Store a connection of two nodes, given by their numbers.
+	 *
+	 * @param a the number of the node in tree A
+	 * @param b the number of the node in tree B
+	 * @param weight the weight of the connection
+	 * @throws BivesConnectionException
+	 */
+	private void store (int a, int b, double weight) throws BivesConnectionException
+	{
+		if (partnerOfA[a] >= 0)
+			throw new BivesConnectionException ("node " + indexA.getNode (a).getXPath () + " already connected. cannot add another connection");
+		if (partnerOfB[b] >= 0)
+			throw new BivesConnectionException ("node " + indexB.getNode (b).getXPath () + " already connected. cannot add another connection");
+
+		partnerOfA[a] = b;
+		partnerOfB[b] = a;
+		weightOfA[a] = weight;
+
+		if (orderSize == order.length)
+			compactOrder ();
+		positionOfA[a] = orderSize;
+		order[orderSize++] = a;
+		numConnections++;
+	}
+
+
+	/**
+	 * Remove stale entries from the order and grow it if necessary.
+	 */
+	private void compactOrder ()
+	{
+		int size = 0;
+		for (int i = 0; i < orderSize; i++)
+		{
+			int a = order[i];
+			if (partnerOfA[a] >= 0 && positionOfA[a] == i)
+			{
+				positionOfA[a] = size;
+				order[size++] = a;
+			}
+		}
+		orderSize = size;
+		if (orderSize * 2 > order.length)
+			order = Arrays.copyOf (order, order.length * 2);
+	}
+
+
+	/**
+	 * Create a view of the connection of a node in tree A.
+	 *
+	 * @param a the number of the node in tree A, must be connected
+	 * @return the connection
+	 */
+	private NodeConnection view (int a)
+	{
+		return new IndexedConnection (a, indexA.getNode (a), indexB.getNode (partnerOfA[a]));
+	}
+
+
+	/**
+	 * Drop the connection of a node in tree A.
+	 *
+	 * @param a the number of the node in tree A
+	 */
+	private void drop (int a)
+	{
+		int b = partnerOfA[a];
+		if (b < 0)
+			return;
+		partnerOfA[a] = -1;
+		partnerOfB[b] = -1;
+		weightOfA[a] = 0;
+		if (!annotationsOfA.isEmpty ())
+			annotationsOfA.remove (a);
+		numConnections--;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getConnections()
+	 */
+	@Override
+	public List<NodeConnection> getConnections ()
+	{
+		List<NodeConnection> connections = new ArrayList<NodeConnection> (numConnections);
+		for (int i = 0; i < orderSize; i++)
+		{
+			int a = order[i];
+			if (partnerOfA[a] >= 0 && positionOfA[a] == i)
+				connections.add (view (a));
+		}
+		return Collections.unmodifiableList (connections);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#scaleWeightOfAllConnections(double)
+	 */
+	@Override
+	public void scaleWeightOfAllConnections (double value)
+	{
+		for (int a = 0; a < partnerOfA.length; a++)
+			if (partnerOfA[a] >= 0)
+				weightOfA[a] *= value;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#addWeightToAllConnections(double)
+	 */
+	@Override
+	public void addWeightToAllConnections (double value)
+	{
+		for (int a = 0; a < partnerOfA.length; a++)
+			if (partnerOfA[a] >= 0)
+				weightOfA[a] += value;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#setWeightOfAllConnections(double)
+	 */
+	@Override
+	public void setWeightOfAllConnections (double value)
+	{
+		for (int a = 0; a < partnerOfA.length; a++)
+			if (partnerOfA[a] >= 0)
+				weightOfA[a] = value;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getNumConnections()
+	 */
+	@Override
+	public int getNumConnections ()
+	{
+		return numConnections;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#addConnection(de.unirostock.sems.bives.algorithm.NodeConnection)
+	 */
+	@Override
+	public boolean addConnection (NodeConnection c) throws BivesConnectionException
+	{
+		int a = numberA (c.getTreeA ());
+		int b = numberB (c.getTreeB ());
+		if (a < 0 || b < 0)
+			throw new BivesConnectionException ("cannot connect " + c.getTreeA ().getXPath () + " and " + c.getTreeB ().getXPath () + ": nodes are not indexed");
+		store (a, b, c.getWeight ());
+		// keep the list, so annotations added to c later are not lost
+		if (!c.getAnnotations ().isEmpty ())
+			annotationsOfA.put (a, c.getAnnotations ());
+		return true;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#connect(de.unirostock.sems.xmlutils.ds.TreeNode, de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public void connect (TreeNode a, TreeNode b) throws BivesConnectionException
+	{
+		int na = numberA (a);
+		int nb = numberB (b);
+		if (na < 0 || nb < 0)
+			throw new BivesConnectionException ("cannot connect " + a.getXPath () + " and " + b.getXPath () + ": nodes are not indexed");
+		store (na, nb, 1);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#dropConnection(de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public void dropConnection (TreeNode node)
+	{
+		int a = numberA (node);
+		if (a >= 0 && partnerOfA[a] >= 0)
+		{
+			drop (a);
+			return;
+		}
+		int b = numberB (node);
+		if (b >= 0 && partnerOfB[b] >= 0)
+			drop (partnerOfB[b]);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#dropConnection(de.unirostock.sems.xmlutils.comparison.Connection)
+	 */
+	@Override
+	public void dropConnection (Connection c)
+	{
+		int a = numberA (c.getTreeA ());
+		if (a >= 0 && partnerOfA[a] >= 0 && indexB.getNode (partnerOfA[a]) == c.getTreeB ())
+			drop (a);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getConnectionForNode(de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public Connection getConnectionForNode (TreeNode node)
+	{
+		int a = connectedA (node);
+		return a < 0 ? null : view (a);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#isConnected(de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public boolean isConnected (TreeNode node)
+	{
+		int a = numberA (node);
+		if (a >= 0 && partnerOfA[a] >= 0)
+			return true;
+		int b = numberB (node);
+		return b >= 0 && partnerOfB[b] >= 0;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getPartner(de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public TreeNode getPartner (TreeNode node)
+	{
+		int a = numberA (node);
+		if (a >= 0 && partnerOfA[a] >= 0)
+			return indexB.getNode (partnerOfA[a]);
+		int b = numberB (node);
+		if (b >= 0 && partnerOfB[b] >= 0)
+			return indexA.getNode (partnerOfB[b]);
+		return null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getConnectionOfNodes(de.unirostock.sems.xmlutils.ds.TreeNode, de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public Connection getConnectionOfNodes (TreeNode a, TreeNode b)
+	{
+		return areConnected (a, b) ? view (numberA (a)) : null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#areConnected(de.unirostock.sems.xmlutils.ds.TreeNode, de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public boolean areConnected (TreeNode a, TreeNode b)
+	{
+		int na = numberA (a);
+		return na >= 0 && partnerOfA[na] >= 0 && partnerOfA[na] == numberB (b);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#getAnnotations(de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	public List<Map.Entry<Property, RDFNode>> getAnnotations (TreeNode node)
+	{
+		int a = connectedA (node);
+		return a < 0 ? null : annotationsOfA.get (a);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.SimpleConnectionManager#toString()
+	 */
+	@Override
+	public String toString ()
+	{
+		List<NodeConnection> connections = getConnections ();
+		StringBuilder sb = new StringBuilder ("connections: "+connections.size ()+"-"+connections.size ()+"-"+connections.size ()+"\n");
+
+		for (Connection c : connections)
+			sb.append (c + "\n");
+
+		return sb.toString ();
+	}
+
+
+	/**
+	 * The Class IndexedConnection, a view of a connection stored in this manager.
+	 */
+	private class IndexedConnection
+		extends NodeConnection
+	{
+
+		/** The number of the node in tree A. */
+		private int a;
+
+
+		/**
+		 * Instantiates a new view.
+		 *
+		 * @param a the number of the node in tree A
+		 * @param nodeA the node in tree A
+		 * @param nodeB the node in tree B
+		 */
+		public IndexedConnection (int a, TreeNode nodeA, TreeNode nodeB)
+		{
+			super (nodeA, nodeB, null);
+			this.a = a;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#getAnnotations()
+		 */
+		@Override
+		public List<Map.Entry<Property, RDFNode>> getAnnotations ()
+		{
+			List<Map.Entry<Property, RDFNode>> annotations = annotationsOfA.get (a);
+			return annotations == null ? Collections.<Map.Entry<Property, RDFNode>> emptyList () : annotations;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#addAnnotation(org.apache.jena.rdf.model.Property, org.apache.jena.rdf.model.RDFNode)
+		 */
+		@Override
+		public void addAnnotation (Property predicate, RDFNode object)
+		{
+			List<Map.Entry<Property, RDFNode>> annotations = annotationsOfA.get (a);
+			if (annotations == null)
+			{
+				annotations = new ArrayList<Map.Entry<Property, RDFNode>> ();
+				annotationsOfA.put (a, annotations);
+			}
+			annotations.add (new AbstractMap.SimpleEntry<Property, RDFNode> (predicate, object));
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#setWeight(double)
+		 */
+		@Override
+		public void setWeight (double u)
+		{
+			weightOfA[a] = u;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#addWeight(double)
+		 */
+		@Override
+		public void addWeight (double u)
+		{
+			weightOfA[a] += u;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#scaleWeight(double)
+		 */
+		@Override
+		public void scaleWeight (double u)
+		{
+			weightOfA[a] *= u;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see de.unirostock.sems.bives.algorithm.NodeConnection#getWeight()
+		 */
+		@Override
+		public double getWeight ()
+		{
+			return weightOfA[a];
+		}
+	}
+}
@@ -77,6 +77,21 @@ public class NodeConnection implements  Connection
 		annotations = new ArrayList<Map.Entry<Property, RDFNode>> ();
 	}
 	
+	/**
+	 * Instantiates a new connection of weight 1 using an existing list of annotations, e.g. for views of connections stored elsewhere.
+	 *
+	 * @param a the node of tree 1
+	 * @param b the node of tree 2
+	 * @param annotations the annotations, or null if the subclass manages annotations on its own
+	 */
+	protected NodeConnection (TreeNode a, TreeNode b, List<Map.Entry<Property, RDFNode>> annotations)
+	{
+		this.a = a;
+		this.b = b;
+		weight = 1;
+		this.annotations = annotations;
+	}
+	
 	/**
 	 * Gets the annotations of this mapping. The annotation list is a list of predicates and objects.
 	 *
@@ -140,7 +155,7 @@ public class NodeConnection implements  Connection
 	
 	public String toString ()
 	{
-		return "[" + a.getXPath () + " => " + b.getXPath () + " (" + weight + ")]";
+		return "[" + a.getXPath () + " => " + b.getXPath () + " (" + getWeight () + ")]";
 	}
 	
 	public TreeNode getPartnerOf (TreeNode node)
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+/**
+ * The Class PhaseTimer to measure subsequent phases and report them to a
+ * {@link DiffListener}. Does nothing if there is no listener, so it is cheap to
+ * use it unconditionally.
+ *
+ * <p>
+ * Allocations are estimated using the per-thread allocation counter of the
+ * JVM, if supported. Thus, allocations of other threads, e.g. of a parallel
+ * bottom-up step, are not included.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class PhaseTimer
+{
+
+	/** The thread bean supporting allocation counters, or null if not supported. */
+	private static final ThreadMXBean THREADS = allocationCounter ();
+
+	/** The listener, or null. */
+	private DiffListener listener;
+
+	/** The start time of the current phase. */
+	private long start;
+
+	/** The allocation counter at the start of the current phase. */
+	private long startAllocated;
+
+
+	/**
+	 * Instantiates a new phase timer and starts the first phase.
+	 *
+	 * @param listener the listener, or null
+	 */
+	public PhaseTimer (DiffListener listener)
+	{
+		this.listener = listener;
+		if (listener != null)
+			restart ();
+	}
+
+
+	/**
+	 * Finish the current phase, report it, and start the next phase.
+	 *
+	 * @param phase the name of the finished phase
+	 */
+	public void finish (String phase)
+	{
+		if (listener == null)
+			return;
+		long nanos = System.nanoTime () - start;
+		long allocated = allocatedBytes ();
+		listener.phaseFinished (phase, nanos, allocated < 0 || startAllocated < 0 ? -1 : allocated - startAllocated);
+		restart ();
+	}
+
+
+	/**
+	 * Start a new phase, ignoring everything since the last phase.
+	 */
+	public void restart ()
+	{
+		if (listener == null)
+			return;
+		startAllocated = allocatedBytes ();
+		start = System.nanoTime ();
+	}
+
+
+	/**
+	 * Gets the number of bytes allocated by the current thread.
+	 *
+	 * @return the number of bytes, or -1 if not supported
+	 */
+	private static long allocatedBytes ()
+	{
+		if (THREADS == null)
+			return -1;
+		return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes (Thread.currentThread ().getId ());
+	}
+
+
+	/**
+	 * Looks up the thread bean, if it is able to count allocations.
+	 *
+	 * @return the thread bean, or null
+	 */
+	private static ThreadMXBean allocationCounter ()
+	{
+		try
+		{
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean ();
+			if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported () && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled ())
+				return bean;
+		}
+		catch (LinkageError e)
+		{
+			// not a HotSpot-like JVM
+		}
+		return null;
+	}
+}
@@ -3,11 +3,18 @@
  */
 package de.unirostock.sems.bives.algorithm;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
 
 import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
 import de.unirostock.sems.xmlutils.comparison.Connection;
 import de.unirostock.sems.xmlutils.comparison.ConnectionManager;
@@ -25,6 +32,7 @@ public class SimpleConnectionManager implements ConnectionManager
 	private List<NodeConnection> connections;
 	private HashMap<TreeNode, Connection> conByTree1, conByTree2;
 	private TreeDocument docA, docB;
+	private NodeIndex indexA, indexB;
 	
 	/**
 	 * Instantiates a new simple connection manager.
@@ -51,13 +59,93 @@ public class SimpleConnectionManager implements ConnectionManager
 	{
 		this.docA = toCopy.docA;
 		this.docB = toCopy.docB;
+		this.indexA = toCopy.indexA;
+		this.indexB = toCopy.indexB;
 		connections = new ArrayList<NodeConnection> ();
 		conByTree1 = new HashMap<TreeNode, Connection> ();
 		conByTree2 = new HashMap<TreeNode, Connection> ();
-		for (NodeConnection c : toCopy.connections)
+		for (NodeConnection c : toCopy.getConnections ())
 			addConnection (new NodeConnection (c));
 	}
 	
+	/**
+	 * Gets the index of the original document.
+	 * The index is created on first request and shared by everyone working on this mapping.
+	 *
+	 * @return the index of the original document
+	 */
+	public synchronized NodeIndex getIndexA ()
+	{
+		if (indexA == null)
+			indexA = new NodeIndex (docA);
+		return indexA;
+	}
+	
+	/**
+	 * Gets the index of the modified document.
+	 * The index is created on first request and shared by everyone working on this mapping.
+	 *
+	 * @return the index of the modified document
+	 */
+	public synchronized NodeIndex getIndexB ()
+	{
+		if (indexB == null)
+			indexB = new NodeIndex (docB);
+		return indexB;
+	}
+	
+	/**
+	 * Use the indexes of another connection manager for the same documents, so they don't need to be created again.
+	 *
+	 * @param other the other connection manager
+	 */
+	public synchronized void shareIndexes (SimpleConnectionManager other)
+	{
+		if (other.docA == docA && other.docB == docB)
+		{
+			indexA = other.getIndexA ();
+			indexB = other.getIndexB ();
+		}
+	}
+	
+	/**
+	 * Gets the index of the document containing a node.
+	 *
+	 * @param node the node
+	 * @return the index of the document containing the node, or null if the node is part of neither document
+	 */
+	public NodeIndex getIndex (TreeNode node)
+	{
+		NodeIndex index = getIndexA ();
+		if (index.getNumber (node) >= 0)
+			return index;
+		index = getIndexB ();
+		if (index.getNumber (node) >= 0)
+			return index;
+		return null;
+	}
+	
+	/**
+	 * Gets all connections. The returned list must not be modified.
+	 *
+	 * @return the connections
+	 */
+	public List<NodeConnection> getConnections ()
+	{
+		return Collections.unmodifiableList (connections);
+	}
+	
+
+	/**
+	 * Gets the number of connections.
+	 *
+	 * @return the number of connections
+	 */
+	public int getNumConnections ()
+	{
+		return connections.size ();
+	}
+	
 
 	/**
 	 * Scale the weight of all connections.
@@ -122,6 +210,20 @@ public class SimpleConnectionManager implements ConnectionManager
 		return true;
 	}
 	
+	/**
+	 * Connect two nodes with a connection of weight 1. Throws exception if one of the nodes already connected.
+	 * 
+	 * Other than {@link #addConnection(NodeConnection)} implementations may defer the creation of the connection object until it is requested.
+	 *
+	 * @param a the node of the original tree
+	 * @param b the node of the modified tree
+	 * @throws BivesConnectionException
+	 */
+	public void connect (TreeNode a, TreeNode b) throws BivesConnectionException
+	{
+		addConnection (new NodeConnection (a, b));
+	}
+	
 	/**
 	 * Create a ConnectionManager that combines all connections from this ConnectionManager and another instance. Weights are taken from this instance.
 	 * 
@@ -142,7 +244,7 @@ public class SimpleConnectionManager implements ConnectionManager
 		
 		SimpleConnectionManager union = new SimpleConnectionManager (docA, docB);
 		
-		for (NodeConnection c : connections)
+		for (NodeConnection c : getConnections ())
 		{
 			try
 			{
@@ -154,7 +256,7 @@ public class SimpleConnectionManager implements ConnectionManager
 			}
 		}
 		
-		for (NodeConnection c : cmgmt.connections)
+		for (NodeConnection c : cmgmt.getConnections ())
 			try
 			{
 				union.addConnection (new NodeConnection (c));
@@ -187,7 +289,7 @@ public class SimpleConnectionManager implements ConnectionManager
 		
 		SimpleConnectionManager intersection = new SimpleConnectionManager (docA, docB);
 		
-		for (NodeConnection c : connections)
+		for (NodeConnection c : getConnections ())
 		{
 			
 			if (cmgmt.getConnectionOfNodes (c.getTreeA (), c.getTreeB ()) != null)
@@ -224,7 +326,7 @@ public class SimpleConnectionManager implements ConnectionManager
 		
 		SimpleConnectionManager intersection = new SimpleConnectionManager (docA, docB);
 		
-		for (NodeConnection c : connections)
+		for (NodeConnection c : getConnections ())
 		{
 			if (cmgmt.getConnectionOfNodes (c.getTreeA (), c.getTreeB ()) == null)
 				try
@@ -313,6 +415,29 @@ public class SimpleConnectionManager implements ConnectionManager
 		return c;
 	}
 	
+	/**
+	 * Checks if a node is connected.
+	 *
+	 * @param node the node
+	 * @return true, if connected
+	 */
+	public boolean isConnected (TreeNode node)
+	{
+		return conByTree1.containsKey (node) || conByTree2.containsKey (node);
+	}
+	
+	/**
+	 * Gets the partner of a node. Returns null if the node is not connected.
+	 *
+	 * @param node the node
+	 * @return the node connected to <code>node</code>
+	 */
+	public TreeNode getPartner (TreeNode node)
+	{
+		Connection c = getConnectionForNode (node);
+		return c == null ? null : c.getPartnerOf (node);
+	}
+	
 	/**
 	 * Gets the connection of two certain nodes. Returns null if nodes are not connected.
 	 *
@@ -329,6 +454,30 @@ public class SimpleConnectionManager implements ConnectionManager
 		return null;
 	}
 	
+	/**
+	 * Checks if two certain nodes are connected. Other than {@link #getConnectionOfNodes(TreeNode, TreeNode)} this doesn't need a connection object.
+	 *
+	 * @param a the node of the original tree
+	 * @param b the node of the modified tree
+	 * @return true, if a is connected to b
+	 */
+	public boolean areConnected (TreeNode a, TreeNode b)
+	{
+		return getConnectionOfNodes (a, b) != null;
+	}
+	
+	/**
+	 * Gets the annotations of the connection of a node.
+	 *
+	 * @param node the node of either tree
+	 * @return the annotations, or null if the node is not connected or the connection has no annotations
+	 */
+	public List<Map.Entry<Property, RDFNode>> getAnnotations (TreeNode node)
+	{
+		Connection c = getConnectionForNode (node);
+		return c instanceof NodeConnection ? ((NodeConnection) c).getAnnotations () : null;
+	}
+	
 	public String toString ()
 	{
 		StringBuilder sb = new StringBuilder ("connections: "+connections.size ()+"-"+conByTree1.size ()+"-"+conByTree2.size ()+"\n");
@@ -348,15 +497,21 @@ public class SimpleConnectionManager implements ConnectionManager
 	 */
 	public List<TreeNode> getUnmatched (TreeNode subtree, List<TreeNode> unmatched)
 	{
-		Connection c = getConnectionForNode (subtree);
-		if (c == null)
-			unmatched.add (subtree);
-
-		if (subtree.getType () == TreeNode.DOC_NODE)
+		// preorder traversal on an explicit stack
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		stack.push (subtree);
+		while (!stack.isEmpty ())
 		{
-			DocumentNode dn = (DocumentNode) subtree;
-			for (TreeNode kid : dn.getChildren ())
-				getUnmatched (kid, unmatched);
+			TreeNode node = stack.pop ();
+			if (!isConnected (node))
+				unmatched.add (node);
+	
+			if (node.getType () == TreeNode.DOC_NODE)
+			{
+				List<TreeNode> kids = ((DocumentNode) node).getChildren ();
+				for (int i = kids.size () - 1; i >= 0; i--)
+					stack.push (kids.get (i));
+			}
 		}
 		return unmatched;
 	}
@@ -370,8 +525,7 @@ public class SimpleConnectionManager implements ConnectionManager
 	{
 		for (int c = vec.size () - 1; c >= 0; c--)
 		{
-			Connection ccs = getConnectionForNode (vec.get (c));
-			if (ccs != null)
+			if (isConnected (vec.get (c)))
 				vec.remove (c);
 		}
 	}
@@ -384,7 +538,19 @@ public class SimpleConnectionManager implements ConnectionManager
 	 */
 	public boolean parentsConnected (Connection c)
 	{
-		TreeNode pA = c.getTreeA ().getParent (), pB = c.getTreeB ().getParent ();
+		return parentsConnected (c.getTreeA (), c.getTreeB ());
+	}
+	
+	/**
+	 * Check if the parents of two connected nodes are connected, see {@link #parentsConnected(Connection)}.
+	 *
+	 * @param a the node of the original tree
+	 * @param b the node of the modified tree
+	 * @return true, if connected
+	 */
+	public boolean parentsConnected (TreeNode a, TreeNode b)
+	{
+		TreeNode pA = a.getParent (), pB = b.getParent ();
 		if (pA == null && pB == null)
 			// both roots
 			return true;
@@ -392,7 +558,7 @@ public class SimpleConnectionManager implements ConnectionManager
 			// one root one not-root
 			return false;
 		
-		return getConnectionOfNodes (pA, pB) != null;
+		return getPartner (pA) == pB;
 		
 	}
 }
@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm.general;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+
+
+/**
+ * The Class CandidateIndex implementing the precomputed index tables of
+ * XyDiff: it maps a subtree hash and an ancestor at a certain level to the
+ * nodes having this hash and this ancestor.
+ *
+ * <p>
+ * Tables are built lazily per hash, when the candidates for this hash are
+ * requested for the first time. Nodes that get connected are removed from the
+ * tables, see {@link #removeNode(TreeNode)}. The candidates of a table keep
+ * the order of {@link de.unirostock.sems.xmlutils.ds.TreeDocument#getNodesByHash(String)}.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+class CandidateIndex
+{
+
+	/** The document to index. */
+	private TreeDocument doc;
+
+	/** The maximum level of ancestors to index. */
+	private int maxLevel;
+
+	/** The tables: hash -&gt; level -&gt; ancestor -&gt; candidates. */
+	private HashMap<String, List<HashMap<TreeNode, LinkedHashSet<TreeNode>>>> tables;
+
+
+	/**
+	 * Instantiates a new candidate index.
+	 *
+	 * @param doc the document to index
+	 * @param maxLevel the maximum level of ancestors to index
+	 */
+	public CandidateIndex (TreeDocument doc, int maxLevel)
+	{
+		this.doc = doc;
+		this.maxLevel = maxLevel;
+		tables = new HashMap<String, List<HashMap<TreeNode, LinkedHashSet<TreeNode>>>> ();
+	}
+
+
+	/**
+	 * Gets the maximum level of ancestors that are indexed.
+	 *
+	 * @return the max level
+	 */
+	public int getMaxLevel ()
+	{
+		return maxLevel;
+	}
+
+
+	/**
+	 * Gets the candidates with a certain subtree hash having a certain ancestor
+	 * at a certain level.
+	 *
+	 * @param hash the subtree hash
+	 * @param level the level of the ancestor, 1 means parent; must not exceed {@link #getMaxLevel()}
+	 * @param ancestor the ancestor
+	 * @return the candidates
+	 */
+	public Collection<TreeNode> getCandidates (String hash, int level, TreeNode ancestor)
+	{
+		List<HashMap<TreeNode, LinkedHashSet<TreeNode>>> byLevel = tables.get (hash);
+		if (byLevel == null)
+		{
+			byLevel = buildTables (hash);
+			tables.put (hash, byLevel);
+		}
+
+		LinkedHashSet<TreeNode> candidates = byLevel.get (level - 1).get (ancestor);
+		if (candidates == null)
+			return Collections.<TreeNode> emptySet ();
+		return candidates;
+	}
+
+
+	/**
+	 * Removes a node from the tables. Should be called as soon as the node is connected.
+	 *
+	 * @param node the node
+	 */
+	public void removeNode (TreeNode node)
+	{
+		List<HashMap<TreeNode, LinkedHashSet<TreeNode>>> byLevel = tables.get (node.getSubTreeHash ());
+		if (byLevel == null)
+			return;
+
+		TreeNode ancestor = node;
+		for (int level = 1; level <= maxLevel; level++)
+		{
+			ancestor = ancestor.getParent ();
+			if (ancestor == null)
+				break;
+			LinkedHashSet<TreeNode> candidates = byLevel.get (level - 1).get (ancestor);
+			if (candidates != null)
+				candidates.remove (node);
+		}
+	}
+
+
+	/**
+	 * Builds the tables for a certain hash.
+	 *
+	 * @param hash the subtree hash
+	 * @return the tables by level
+	 */
+	private List<HashMap<TreeNode, LinkedHashSet<TreeNode>>> buildTables (String hash)
+	{
+		List<HashMap<TreeNode, LinkedHashSet<TreeNode>>> byLevel = new ArrayList<HashMap<TreeNode, LinkedHashSet<TreeNode>>> (maxLevel);
+		for (int level = 1; level <= maxLevel; level++)
+			byLevel.add (new HashMap<TreeNode, LinkedHashSet<TreeNode>> ());
+
+		List<TreeNode> nodes = doc.getNodesByHash (hash);
+		if (nodes == null)
+			return byLevel;
+
+		for (TreeNode node : nodes)
+		{
+			TreeNode ancestor = node;
+			for (int level = 1; level <= maxLevel; level++)
+			{
+				ancestor = ancestor.getParent ();
+				if (ancestor == null)
+					break;
+				HashMap<TreeNode, LinkedHashSet<TreeNode>> table = byLevel.get (level - 1);
+				LinkedHashSet<TreeNode> candidates = table.get (ancestor);
+				if (candidates == null)
+				{
+					candidates = new LinkedHashSet<TreeNode> ();
+					table.put (ancestor, candidates);
+				}
+				candidates.add (node);
+			}
+		}
+		return byLevel;
+	}
+}
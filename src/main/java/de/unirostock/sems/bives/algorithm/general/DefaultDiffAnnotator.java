@@ -3,8 +3,13 @@
  */
 package de.unirostock.sems.bives.algorithm.general;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
 import org.jdom2.Element;
 
 import de.unirostock.sems.bives.algorithm.DiffAnnotator;
@@ -142,46 +147,53 @@ public class DefaultDiffAnnotator
 		String baseUri = changeFac.getBaseUri ().toString () + "#";
 
 		Resource subject = model.createResource (baseUri + rootId);
+		Property type = model.createProperty (ChangeFactory.RDF_NS, "type");
+		
+		// collect the statements to add them in a single batch
+		List<Statement> statements = new ArrayList<Statement> ();
 		
 		// create the bives tool as a software agent
 		Resource bives = model.createResource (baseUri + "bives");
-		model.add (model.createStatement (bives,
-			model.createProperty (ChangeFactory.RDF_NS, "type"),
+		statements.add (model.createStatement (bives,
+			type,
 			model.createResource (ChangeFactory.PROV_NS + "SoftwareAgent")));
-		model.add (model.createLiteralStatement (bives,
+		statements.add (model.createLiteralStatement (bives,
 			model.createProperty (ChangeFactory.RDFS_NS + "label"),
 			"BiVeS"));
-		model.add (model.createLiteralStatement (bives,
+		statements.add (model.createLiteralStatement (bives,
 			model.createProperty (ChangeFactory.PAV_NS, "version"),
 			BivesTools.getBivesVersion ()));
 		
 		// create an activity which is associated to bives and produced the patch
 		Resource activity = model.createResource (baseUri + "createPatch");
-		model.add (model.createStatement (activity,
-			model.createProperty (ChangeFactory.RDF_NS, "type"),
+		statements.add (model.createStatement (activity,
+			type,
 			model.createResource (ChangeFactory.PROV_NS + "Activity")));
-		model.add (model.createStatement (activity,
+		statements.add (model.createStatement (activity,
 			model.createProperty (ChangeFactory.PROV_NS + "wasAssociatedWith"),
 			bives));
-		model.add (model.createStatement (activity,
+		statements.add (model.createStatement (activity,
 			model.createProperty (ChangeFactory.PROV_NS + "generated"),
 			subject));
 		
 		
 		// some information about our "subject"
-		model.add (model.createStatement (subject,
-			model.createProperty (ChangeFactory.RDF_NS, "type"),
+		statements.add (model.createStatement (subject,
+			type,
 			model.createResource (ChangeFactory.PROV_NS + "Entity")));
-		model.add (model.createStatement (subject,
-			model.createProperty (ChangeFactory.RDF_NS, "type"),
+		statements.add (model.createStatement (subject,
+			type,
 			model.createResource (ChangeFactory.ORE_NS + "Aggregation")));
 		
+		Property aggregates = model.createProperty (ChangeFactory.ORE_NS + "aggregates");
 		for (Change change : changeFac.getChanges ())
 		{
-			model.add (model.createStatement (subject,
-				model.createProperty (ChangeFactory.ORE_NS + "aggregates"),
+			statements.add (model.createStatement (subject,
+				aggregates,
 			change.getChangeAsResource ()));
 		}
+		
+		model.add (statements);
 	}
 	
 }
@@ -3,10 +3,14 @@
  */
 package de.unirostock.sems.bives.algorithm.general;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import de.binfalse.bflog.LOGGER;
 import de.unirostock.sems.bives.algorithm.Connector;
-import de.unirostock.sems.bives.algorithm.NodeConnection;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
@@ -15,8 +19,9 @@ import de.unirostock.sems.xmlutils.ds.TreeNode;
 
 
 /**
- * Connector to connect nodes with same id. If the ids aren't unique in both
- * documents it'll do exactly nothing.
+ * Connector to connect nodes with same id. Only ids that are unique in both
+ * documents are used, nodes sharing an ambiguous id are left to the
+ * following connectors. See {@link #getNumSkippedIds()}.
  * 
  * @author Martin Scharm
  * 
@@ -27,6 +32,9 @@ public class IdConnector
 	
 	private boolean	requireSameLabel;
 	
+	/** The number of ids occurring in both documents that were skipped because they are not unique. */
+	private int numSkippedIds;
+	
 	
 	/**
 	 * Instantiates a new XyDiffConnector. In this setting we'll run an ID mapper
@@ -55,32 +63,83 @@ public class IdConnector
 	@Override
 	protected void connect () throws BivesConnectionException
 	{
-		// we can only map by ids if they are unique...
-		if (!docA.uniqueIds () || !docB.uniqueIds ())
-			return;
-		
-		Set<String> ids = docA.getOccurringIds ();
+		numSkippedIds = 0;
+		Map<String, List<TreeNode>> idsA = collectIds (conMgmt.getIndexA ());
+		Map<String, List<TreeNode>> idsB = collectIds (conMgmt.getIndexB ());
 		
-		for (String id : ids)
+		for (Map.Entry<String, List<TreeNode>> entry : idsA.entrySet ())
 		{
-			TreeNode nB = docB.getNodeById (id);
-			if (nB == null)
+			List<TreeNode> nodesB = idsB.get (entry.getKey ());
+			if (nodesB == null)
 				continue;
 			
-			TreeNode nA = docA.getNodeById (id);
+			// we can only map by ids if they are unique...
+			if (entry.getValue ().size () > 1 || nodesB.size () > 1)
+			{
+				numSkippedIds++;
+				continue;
+			}
+			
+			TreeNode nA = entry.getValue ().get (0);
+			TreeNode nB = nodesB.get (0);
 			
 			if (!requireSameLabel)
 			{
-				conMgmt.addConnection (new NodeConnection (nA, nB));
+				conMgmt.connect (nA, nB);
 			}
 			else if (nB.getType () == TreeNode.DOC_NODE
 				&& nA.getType () == TreeNode.DOC_NODE
 				&& ((DocumentNode) nB).getTagName ().equals (
 					((DocumentNode) nA).getTagName ()))
 			{
-				conMgmt.addConnection (new NodeConnection (nA, nB));
+				conMgmt.connect (nA, nB);
 			}
 		}
+		
+		if (numSkippedIds > 0)
+			LOGGER.info ("skipped ", numSkippedIds, " ids that are not unique");
+	}
+	
+	
+	/**
+	 * Collect the nodes carrying an id, in document order.
+	 * 
+	 * @param index
+	 *          the index of the document
+	 * @return the nodes by id
+	 */
+	private static Map<String, List<TreeNode>> collectIds (NodeIndex index)
+	{
+		Map<String, List<TreeNode>> ids = new LinkedHashMap<String, List<TreeNode>> ();
+		for (int i = 0; i < index.size (); i++)
+		{
+			TreeNode node = index.getNode (i);
+			if (node.getType () != TreeNode.DOC_NODE)
+				continue;
+			String id = ((DocumentNode) node).getId ();
+			if (id == null)
+				continue;
+			List<TreeNode> nodes = ids.get (id);
+			if (nodes == null)
+			{
+				nodes = new ArrayList<TreeNode> (1);
+				ids.put (id, nodes);
+			}
+			nodes.add (node);
+		}
+		return ids;
+	}
+	
+	
+	/**
+	 * Gets the number of ids that occur in both documents but were skipped,
+	 * because they are not unique in at least one of them.
+	 * 
+	 * @return the number of skipped ids
+	 */
+	public int getNumSkippedIds ()
+	{
+		return numSkippedIds;
 	}
 	
 	
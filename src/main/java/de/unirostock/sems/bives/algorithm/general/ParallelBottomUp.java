@@ -0,0 +1,609 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm.general;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.algorithm.IndexedConnectionManager;
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.ds.NodeIndex;
+import de.unirostock.sems.xmlutils.ds.DocumentNode;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+
+
+/**
+ * The Class ParallelBottomUp implementing the full bottom-up step of the
+ * {@link XyDiffConnector} on a {@link java.util.concurrent.ForkJoinPool}.
+ *
+ * <p>
+ * Sibling subtrees of document B are processed concurrently. Workers never
+ * touch the connection manager, but record their assignments in a private
+ * {@link State}. The states of siblings are merged in document order. If a
+ * subtree tried to assign a node of document A that an earlier sibling claimed
+ * in the meantime, this subtree is computed again on top of the merged state.
+ * Thus, the final mapping is identical to the one of the sequential pass.
+ * As in the sequential pass, ties between candidates are won by the candidate
+ * that comes first in document order, so the result doesn't depend on the
+ * order of the votes.
+ * </p>
+ *
+ * <p>
+ * The votes are summed in primitive arrays indexed by node number. A task
+ * borrows these buffers from a pool while it votes and returns them
+ * afterwards, so there are never more buffers than running tasks, apart from
+ * recording assignments nothing is allocated per node, and the buffers are
+ * dropped with the pass. Tasks are forked for the upper
+ * {@link #MAX_FORK_LEVEL} levels only, deeper subtrees are processed using an
+ * explicit stack, so the stack needed doesn't grow with the depth of the
+ * document.
+ * </p>
+ *
+ * <p>
+ * Every node costs a unit of work, which is shared by all tasks. Once the
+ * budget is spent, the remaining nodes are not assigned and the mapping is
+ * partial, see {@link #isExpired()}.
+ * </p>
+ *
+ * <p>
+ * The assignments are returned by {@link #run(TreeNode)} in the order of the
+ * sequential pass, so the caller can commit them as it commits its own, e.g.
+ * keeping the candidate indexes of the {@link XyDiffConnector} up to date.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+class ParallelBottomUp
+{
+
+	/** The maximum level of forked tasks, deeper subtrees are processed sequentially. */
+	static final int MAX_FORK_LEVEL = 32;
+
+	/** The connection manager holding the mapping before this pass. */
+	private SimpleConnectionManager conMgmt;
+
+	/** The connection manager if it is indexed, to look up partners by number, or null. */
+	private IndexedConnectionManager indexed;
+
+	/** The index of tree A, to break ties by document order. */
+	private NodeIndex indexA;
+
+	/** The index of tree B. */
+	private NodeIndex indexB;
+
+	/** The buffers that are not in use by a task. */
+	private ConcurrentLinkedQueue<Scratch> spare = new ConcurrentLinkedQueue<Scratch> ();
+
+	/** The pool to run the tasks. */
+	private ForkJoinPool pool;
+
+	/** The minimum weight of a subtree to be processed in its own task. */
+	private double minWeight;
+
+	/** The maximum number of work units, or &lt;1 for no limit. */
+	private long workBudget;
+
+	/** The point in time (see {@link System#nanoTime()}) when the pass stops, or 0 for no deadline. */
+	private long deadline;
+
+	/** The number of work units spent by all tasks. */
+	private AtomicLong work = new AtomicLong ();
+
+	/** Was the budget spent? */
+	private volatile boolean expired;
+
+
+	/**
+	 * Instantiates a new parallel bottom-up pass.
+	 *
+	 * @param conMgmt the connection manager
+	 * @param pool the pool to run the tasks
+	 * @param minWeight the minimum weight of a subtree to be processed in its own task
+	 */
+	public ParallelBottomUp (SimpleConnectionManager conMgmt, ForkJoinPool pool, double minWeight)
+	{
+		this.conMgmt = conMgmt;
+		this.indexed = conMgmt instanceof IndexedConnectionManager ? (IndexedConnectionManager) conMgmt : null;
+		this.indexA = conMgmt.getIndexA ();
+		this.indexB = conMgmt.getIndexB ();
+		this.pool = pool;
+		this.minWeight = minWeight;
+	}
+
+
+	/**
+	 * Bound the effort of this pass.
+	 *
+	 * @param workBudget the maximum number of work units, or &lt;1 for no limit
+	 * @param deadline the point in time (see {@link System#nanoTime()}) when the pass stops, or 0 for no deadline
+	 */
+	public void setBudget (long workBudget, long deadline)
+	{
+		this.workBudget = workBudget;
+		this.deadline = deadline;
+	}
+
+
+	/**
+	 * Gets the number of work units spent.
+	 *
+	 * @return the work
+	 */
+	public long getWork ()
+	{
+		return work.get ();
+	}
+
+
+	/**
+	 * Checks if the budget was spent before all nodes were processed.
+	 *
+	 * @return true, if the pass stopped early
+	 */
+	public boolean isExpired ()
+	{
+		return expired;
+	}
+
+
+	/**
+	 * Spend a unit of work and check whether the budget is spent.
+	 *
+	 * @return true, if we should stop assigning nodes
+	 */
+	private boolean expired ()
+	{
+		if (expired)
+			return true;
+		long spent = work.incrementAndGet ();
+		// System.nanoTime is not for free, so check the clock only every now and then
+		if ((workBudget > 0 && spent > workBudget) || (deadline != 0 && (spent & 0xff) == 0 && System.nanoTime () - deadline > 0))
+			expired = true;
+		return expired;
+	}
+
+
+	/**
+	 * Run the bottom-up step on the subtree rooted by <code>nodeB</code>.
+	 * The connection manager is not modified, the caller has to connect the
+	 * resulting assignments in the returned order.
+	 *
+	 * @param nodeB the root of the subtree in document B
+	 * @return the new assignments, pairs of nodes in tree A and tree B
+	 */
+	public List<TreeNode []> run (TreeNode nodeB)
+	{
+		try
+		{
+			State state = pool.invoke (new SubtreeTask (nodeB, null, 0));
+			LOGGER.debug ("parallel bottom up found ", state.assigned.size (), " new connections");
+			return state.assigned;
+		}
+		finally
+		{
+			spare.clear ();
+		}
+	}
+
+
+	/**
+	 * Borrow buffers for the current task.
+	 *
+	 * @return the buffers
+	 */
+	private Scratch borrow ()
+	{
+		Scratch buffers = spare.poll ();
+		return buffers == null ? new Scratch () : buffers;
+	}
+
+
+	/**
+	 * Return buffers borrowed by {@link #borrow()}.
+	 *
+	 * @param buffers the buffers
+	 */
+	private void release (Scratch buffers)
+	{
+		spare.add (buffers);
+	}
+
+
+	/**
+	 * Process a subtree sequentially, recording everything in <code>state</code>.
+	 * This mirrors {@link XyDiffConnector}'s <code>fullBottomUp</code>.
+	 *
+	 * @param nodeB the node in tree B
+	 * @param state the state to record the assignments
+	 * @return the number of the node in tree A matching nodeB, or -1
+	 */
+	private int bottomUp (TreeNode nodeB, State state)
+	{
+		// visit the subtree in post order using an explicit stack
+		Scratch buffers = borrow ();
+		try
+		{
+			return bottomUp (nodeB, state, buffers);
+		}
+		finally
+		{
+			release (buffers);
+		}
+	}
+
+
+	/**
+	 * Process a subtree sequentially using the buffers of the current task.
+	 *
+	 * @param nodeB the node in tree B
+	 * @param state the state to record the assignments
+	 * @param buffers the buffers
+	 * @return the number of the node in tree A matching nodeB, or -1
+	 */
+	private int bottomUp (TreeNode nodeB, State state, Scratch buffers)
+	{
+		int depth = 1;
+		buffers.stackNodes[0] = indexB.getNumber (nodeB);
+		buffers.stackNext[0] = 0;
+		while (depth > 0)
+		{
+			int top = depth - 1;
+			TreeNode node = indexB.getNode (buffers.stackNodes[top]);
+			if (node.getType () == TreeNode.DOC_NODE)
+			{
+				List<TreeNode> children = ((DocumentNode) node).getChildren ();
+				if (buffers.stackNext[top] < children.size ())
+				{
+					// descend into the next child
+					TreeNode child = children.get (buffers.stackNext[top]++);
+					if (depth == buffers.stackNodes.length)
+					{
+						buffers.stackNodes = Arrays.copyOf (buffers.stackNodes, depth * 2);
+						buffers.stackNext = Arrays.copyOf (buffers.stackNext, depth * 2);
+					}
+					buffers.stackNodes[depth] = indexB.getNumber (child);
+					buffers.stackNext[depth] = 0;
+					depth++;
+					continue;
+				}
+			}
+			// all children are done
+			depth--;
+			buffers.matchOfB[buffers.stackNodes[top]] = self (node, state, buffers);
+		}
+		return buffers.matchOfB[indexB.getNumber (nodeB)];
+	}
+
+
+	/**
+	 * Do the self-part of the bottom-up step, after the matches of all children
+	 * were recorded in the buffers.
+	 *
+	 * @param nodeB the node in tree B
+	 * @param state the state to record the assignments
+	 * @param buffers the buffers of the current task
+	 * @return the number of the node in tree A matching nodeB, or -1
+	 */
+	private int self (TreeNode nodeB, State state, Scratch buffers)
+	{
+		int match = state.partnerOfB (nodeB);
+		if (expired () || match >= 0 || nodeB.getType () != TreeNode.DOC_NODE)
+			return match;
+
+		// collect the votes of the children
+		List<TreeNode> children = ((DocumentNode) nodeB).getChildren ();
+		int numTouched = 0;
+		for (int i = 0; i < children.size (); i++)
+		{
+			TreeNode child = children.get (i);
+			int childMatch = buffers.matchOfB[indexB.getNumber (child)];
+			if (childMatch < 0)
+				continue;
+			// childMatch is always connected in tree A, so it's its own partner
+			int candidate = indexA.getParent (childMatch);
+			if (candidate < 0)
+				continue;
+			if (!buffers.candidateVoted[candidate])
+			{
+				buffers.candidateVoted[candidate] = true;
+				buffers.candidateWeights[candidate] = 0;
+				buffers.touched[numTouched++] = candidate;
+			}
+			buffers.candidateWeights[candidate] += child.getWeight ();
+		}
+		if (numTouched < 1)
+			return -1;
+
+		// Find parent corresponding to largest part of children
+		double max = -1.0;
+		int bestMatch = -1;
+		for (int i = 0; i < numTouched; i++)
+		{
+			int candidate = buffers.touched[i];
+			if (buffers.candidateWeights[candidate] > max || (buffers.candidateWeights[candidate] == max && candidate < bestMatch))
+			{
+				bestMatch = candidate;
+				max = buffers.candidateWeights[candidate];
+			}
+			buffers.candidateVoted[candidate] = false;
+		}
+
+		// same semantics as Connector#nodeAssign
+		TreeNode best = indexA.getNode (bestMatch);
+		state.queried.add (best);
+		if (state.isAssignedA (best))
+			return bestMatch;
+
+		if (best.getType () == TreeNode.DOC_NODE && ((DocumentNode) nodeB).getTagName ().equals (((DocumentNode) best).getTagName ()))
+		{
+			state.assign (best, nodeB);
+			return bestMatch;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * The Class Scratch holding the buffers of a task.
+	 */
+	private class Scratch
+	{
+
+		/** The summed weights of the candidates by number in tree A. */
+		private double [] candidateWeights = new double [indexA.size ()];
+
+		/** Did the candidate get a vote from the current node? */
+		private boolean [] candidateVoted = new boolean [indexA.size ()];
+
+		/** The candidates that got a vote from the current node. */
+		private int [] touched = new int [indexA.size ()];
+
+		/** The matches of the processed nodes by number in tree B. */
+		private int [] matchOfB = new int [indexB.size ()];
+
+		/** The numbers of the nodes on the stack of the post order traversal. */
+		private int [] stackNodes = new int [64];
+
+		/** The next child to visit of the nodes on the stack. */
+		private int [] stackNext = new int [64];
+	}
+
+
+	/**
+	 * The Class State recording the assignments of a subtree on top of the frozen
+	 * states of its ancestors.
+	 */
+	private class State
+	{
+
+		/** The state of the parent task, frozen while this state is in use. */
+		private State parent;
+
+		/** The assignments by node in tree A. */
+		private HashMap<TreeNode, TreeNode> byA;
+
+		/** The assignments by node in tree B. */
+		private HashMap<TreeNode, TreeNode> byB;
+
+		/** The new assignments in the order of the sequential pass. */
+		private List<TreeNode []> assigned;
+
+		/** The nodes of tree A whose assignment was checked. */
+		private List<TreeNode> queried;
+
+		/** The number of the node in tree A matching the subtree root, or -1. */
+		private int match = -1;
+
+
+		/**
+		 * Instantiates a new state.
+		 *
+		 * @param parent the parent state, or null for the root
+		 */
+		public State (State parent)
+		{
+			this.parent = parent;
+			byA = new HashMap<TreeNode, TreeNode> ();
+			byB = new HashMap<TreeNode, TreeNode> ();
+			assigned = new ArrayList<TreeNode []> ();
+			queried = new ArrayList<TreeNode> ();
+		}
+
+
+		/**
+		 * Checks if a node of tree A is already assigned.
+		 *
+		 * @param a the node in tree A
+		 * @return true, if assigned
+		 */
+		public boolean isAssignedA (TreeNode a)
+		{
+			for (State s = this; s != null; s = s.parent)
+				if (s.byA.containsKey (a))
+					return true;
+			return conMgmt.isConnected (a);
+		}
+
+
+		/**
+		 * Gets the partner of a node of tree B.
+		 *
+		 * @param b the node in tree B
+		 * @return the number of the partner in tree A, or -1 if b is not assigned
+		 */
+		public int partnerOfB (TreeNode b)
+		{
+			for (State s = this; s != null; s = s.parent)
+			{
+				TreeNode a = s.byB.get (b);
+				if (a != null)
+					return indexA.getNumber (a);
+			}
+			if (indexed != null)
+				return indexed.getPartnerOfB (indexB.getNumber (b));
+			TreeNode a = conMgmt.getPartner (b);
+			return a == null ? -1 : indexA.getNumber (a);
+		}
+
+
+		/**
+		 * Assign two nodes.
+		 *
+		 * @param a the node in tree A
+		 * @param b the node in tree B
+		 */
+		public void assign (TreeNode a, TreeNode b)
+		{
+			byA.put (a, b);
+			byB.put (b, a);
+			assigned.add (new TreeNode [] {a, b});
+		}
+
+
+		/**
+		 * Merge the state of a child task into this state.
+		 *
+		 * @param child the state of the child task
+		 * @return false if the child is in conflict with assignments of its earlier siblings
+		 */
+		public boolean merge (State child)
+		{
+			for (TreeNode a : child.queried)
+				if (byA.containsKey (a))
+					return false;
+			for (TreeNode [] pair : child.assigned)
+			{
+				byA.put (pair[0], pair[1]);
+				byB.put (pair[1], pair[0]);
+			}
+			assigned.addAll (child.assigned);
+			queried.addAll (child.queried);
+			return true;
+		}
+	}
+
+
+	/**
+	 * The Class SubtreeTask computing the bottom-up step of a subtree.
+	 */
+	private class SubtreeTask
+		extends RecursiveTask<State>
+	{
+
+		/** The Constant serialVersionUID. */
+		private static final long	serialVersionUID	= 3206745468935641291L;
+
+		/** The root of the subtree in tree B. */
+		private TreeNode nodeB;
+
+		/** The frozen state of the parent task. */
+		private State parent;
+
+		/** The level of this task, the root task has level 0. */
+		private int level;
+
+
+		/**
+		 * Instantiates a new subtree task.
+		 *
+		 * @param nodeB the root of the subtree in tree B
+		 * @param parent the frozen state of the parent task
+		 * @param level the level of the task
+		 */
+		public SubtreeTask (TreeNode nodeB, State parent, int level)
+		{
+			this.nodeB = nodeB;
+			this.parent = parent;
+			this.level = level;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected State compute ()
+		{
+			State state = new State (parent);
+
+			// deep subtrees don't get tasks of their own
+			if (level >= MAX_FORK_LEVEL)
+			{
+				state.match = bottomUp (nodeB, state);
+				return state;
+			}
+
+			if (nodeB.getType () == TreeNode.DOC_NODE)
+			{
+				List<TreeNode> children = ((DocumentNode) nodeB).getChildren ();
+				State [] childStates = new State [children.size ()];
+
+				// fork heavy children, the others are done by this thread
+				List<SubtreeTask> tasks = new ArrayList<SubtreeTask> ();
+				for (TreeNode child : children)
+				{
+					if (child.getWeight () >= minWeight)
+					{
+						SubtreeTask task = new SubtreeTask (child, state, level + 1);
+						task.fork ();
+						tasks.add (task);
+					}
+				}
+				for (int i = 0; i < children.size (); i++)
+				{
+					TreeNode child = children.get (i);
+					if (child.getWeight () < minWeight)
+					{
+						childStates[i] = new State (state);
+						childStates[i].match = bottomUp (child, childStates[i]);
+					}
+				}
+				int task = 0;
+				for (int i = 0; i < children.size (); i++)
+					if (children.get (i).getWeight () >= minWeight)
+						childStates[i] = tasks.get (task++).join ();
+
+				// all children are done, so we can merge them in document order
+				for (int i = 0; i < children.size (); i++)
+				{
+					TreeNode child = children.get (i);
+					State childState = childStates[i];
+					if (!state.merge (childState))
+					{
+						if (LOGGER.isDebugEnabled ())
+							LOGGER.debug ("conflicting assignments in subtree ", indexB.getXPath (indexB.getNumber (child)), ", recomputing");
+						childState = new SubtreeTask (child, state, level + 1).compute ();
+						state.merge (childState);
+						childStates[i] = childState;
+					}
+				}
+
+				// the matches of the children are the votes of this node
+				Scratch buffers = borrow ();
+				try
+				{
+					for (int i = 0; i < children.size (); i++)
+						buffers.matchOfB[indexB.getNumber (children.get (i))] = childStates[i].match;
+					state.match = self (nodeB, state, buffers);
+				}
+				finally
+				{
+					release (buffers);
+				}
+				return state;
+			}
+
+			// a text node doesn't collect votes, so it needs no buffers
+			state.match = self (nodeB, state, null);
+			return state;
+		}
+	}
+}
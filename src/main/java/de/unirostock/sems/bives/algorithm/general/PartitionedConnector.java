@@ -0,0 +1,484 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.algorithm.general;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.algorithm.Connector;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.NodeConnection;
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.api.Diff;
+import de.unirostock.sems.bives.api.DiffConfig;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.xmlutils.ds.DocumentNode;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+
+
+/**
+ * The Class PartitionedConnector to map large documents region by region.
+ *
+ * <p>
+ * Starting at the roots we walk down as long as both documents have a single
+ * child with the same tag (e.g. <code>sbml/model</code>). The children of the
+ * deepest such pair are the regions, e.g. <code>listOfSpecies</code> or
+ * <code>listOfReactions</code>. Regions are paired by id, or by tag name if the
+ * tag is unique among the siblings in both documents. Every pair of regions is
+ * mapped by its own {@link XyDiffConnector} on the given executor. Afterwards,
+ * the mappings are merged in document order and a final
+ * {@link XyDiffConnector} run over the whole documents matches nodes that moved
+ * between regions or live in regions without a partner.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class PartitionedConnector
+	extends Connector
+{
+
+	/** The executor to map the regions. */
+	private ExecutorService executor;
+
+	/** The time budget of the mapping in milliseconds, or &lt;1 for no limit. */
+	private long timeBudget;
+
+	/** The maximum number of work units per connector, or &lt;1 for no limit. */
+	private long workBudget;
+
+	/** The configuration of the connectors, or null for defaults. */
+	private DiffConfig config;
+
+	/** The deadline shared by all connectors, or 0 for no deadline. */
+	private long deadline;
+
+	/** Did any of the connectors stop refining before its mapping was complete? */
+	private volatile boolean partial;
+
+
+	/**
+	 * Instantiates a new partitioned connector.
+	 *
+	 * @param docA the original document
+	 * @param docB the modified document
+	 * @param allowDifferentIds may mapped entities have different ids? see {@link de.unirostock.sems.bives.api.Diff#ALLOW_DIFFERENT_IDS}
+	 * @param careAboutNames should we care about names? see {@link de.unirostock.sems.bives.api.Diff#CARE_ABOUT_NAMES}
+	 * @param stricterNames should we handle the names very strictly? see {@link de.unirostock.sems.bives.api.Diff#STRICTER_NAMES}
+	 * @param executor the executor to map the regions, or null to map them sequentially
+	 */
+	public PartitionedConnector (TreeDocument docA, TreeDocument docB, boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames, ExecutorService executor)
+	{
+		super (docA, docB, allowDifferentIds, careAboutNames, stricterNames);
+		this.executor = executor;
+	}
+
+
+	/**
+	 * Instantiates a new partitioned connector.
+	 *
+	 * Uses default values for the mapping, see {@link de.unirostock.sems.bives.api.Diff#ALLOW_DIFFERENT_IDS}, {@link de.unirostock.sems.bives.api.Diff#CARE_ABOUT_NAMES}, and {@link de.unirostock.sems.bives.api.Diff#STRICTER_NAMES}.
+	 *
+	 * @param docA the original document
+	 * @param docB the modified document
+	 * @param executor the executor to map the regions, or null to map them sequentially
+	 */
+	public PartitionedConnector (TreeDocument docA, TreeDocument docB, ExecutorService executor)
+	{
+		this (docA, docB, Diff.ALLOW_DIFFERENT_IDS, Diff.CARE_ABOUT_NAMES, Diff.STRICTER_NAMES, executor);
+	}
+
+
+	/**
+	 * Bound the effort of the mapping, see {@link XyDiffConnector#setBudget(long, long)}.
+	 * The time budget is shared by all regions, the work budget applies to every connector.
+	 *
+	 * @param timeBudget the time budget in milliseconds, counting from the start of the mapping, or &lt;1 for no limit
+	 * @param workBudget the maximum number of work units per connector, or &lt;1 for no limit
+	 */
+	public void setBudget (long timeBudget, long workBudget)
+	{
+		this.timeBudget = timeBudget;
+		this.workBudget = workBudget;
+	}
+
+
+	/**
+	 * Apply a configuration to the connectors of all regions.
+	 * The budget of the configuration is shared as described in {@link #setBudget(long, long)}.
+	 *
+	 * @param config the configuration
+	 */
+	public void configure (DiffConfig config)
+	{
+		this.config = config;
+		setBudget (config.getTimeBudget (), config.getWorkBudget ());
+	}
+
+
+	/**
+	 * Checks if the mapping was stopped because the budget was spent.
+	 *
+	 * @return true, if the mapping is partial
+	 */
+	public boolean isPartial ()
+	{
+		return partial;
+	}
+
+
+	/**
+	 * Create a connector for the documents, respecting the configuration and the budget.
+	 *
+	 * @return the connector
+	 */
+	private XyDiffConnector createConnector ()
+	{
+		XyDiffConnector con = new XyDiffConnector (docA, docB, allowDifferentIds, careAboutNames, stricterNames);
+		if (config != null)
+			con.configure (config);
+		con.setBudget (0, workBudget);
+		con.setDeadline (deadline);
+		con.setDiffListener (listener);
+		return con;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.Connector#init()
+	 */
+	@Override
+	protected void init () throws BivesConnectionException
+	{
+		// same as the XyDiffConnector: start with an id mapping
+		IdConnector id = new IdConnector (docA, docB, true);
+		id.setConnectionManager (conMgmt);
+		id.setEvaluation (false);
+		id.findConnections ();
+		if (listener != null)
+			listener.count (DiffListener.COUNT_SKIPPED_IDS, id.getNumSkippedIds ());
+		conMgmt = id.getConnections ();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.Connector#connect()
+	 */
+	@Override
+	protected void connect () throws BivesConnectionException
+	{
+		partial = false;
+		deadline = timeBudget > 0 ? System.nanoTime () + timeBudget * 1000000L : 0;
+
+		// walk down the trunk
+		List<TreeNode []> trunk = new ArrayList<TreeNode []> ();
+		DocumentNode trunkA = docA.getRoot ();
+		DocumentNode trunkB = docB.getRoot ();
+		if (!pair (trunkA, trunkB, trunk))
+		{
+			LOGGER.info ("roots cannot be paired, falling back to a single XyDiff run");
+			finalPass ();
+			return;
+		}
+		while (true)
+		{
+			DocumentNode kidA = singleDocumentChild (trunkA);
+			DocumentNode kidB = singleDocumentChild (trunkB);
+			if (kidA == null || kidB == null || !kidA.getTagName ().equals (kidB.getTagName ()) || !pair (kidA, kidB, trunk))
+				break;
+			trunkA = kidA;
+			trunkB = kidB;
+		}
+
+		List<DocumentNode []> regions = pairRegions (trunkA, trunkB);
+		LOGGER.info ("found ", regions.size (), " pairs of regions below ", trunkA.getXPath ());
+		if (regions.size () < 2)
+		{
+			finalPass ();
+			return;
+		}
+
+		// map the regions
+		List<Callable<SimpleConnectionManager>> tasks = new ArrayList<Callable<SimpleConnectionManager>> ();
+		for (DocumentNode [] region : regions)
+			tasks.add (new RegionTask (region[0], region[1], seed (region[0], region[1], trunk)));
+
+		List<SimpleConnectionManager> results = new ArrayList<SimpleConnectionManager> ();
+		try
+		{
+			if (executor == null)
+				for (Callable<SimpleConnectionManager> task : tasks)
+					results.add (task.call ());
+			else
+				for (Future<SimpleConnectionManager> future : executor.invokeAll (tasks))
+					results.add (future.get ());
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause () instanceof BivesConnectionException)
+				throw (BivesConnectionException) e.getCause ();
+			throw new BivesConnectionException ("mapping a region failed: " + e.getCause ());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread ().interrupt ();
+			throw new BivesConnectionException ("interrupted while mapping regions");
+		}
+		catch (BivesConnectionException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new BivesConnectionException ("mapping a region failed: " + e);
+		}
+
+		// merge in document order, earlier regions win
+		for (SimpleConnectionManager result : results)
+			for (NodeConnection c : result.getConnections ())
+				if (!conMgmt.isConnected (c.getTreeA ()) && !conMgmt.isConnected (c.getTreeB ()))
+					conMgmt.connect (c.getTreeA (), c.getTreeB ());
+
+		finalPass ();
+	}
+
+
+	/**
+	 * Run the XyDiff over the whole documents, on top of the current mapping.
+	 *
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void finalPass () throws BivesConnectionException
+	{
+		XyDiffConnector con = createConnector ();
+		con.setConnectionManager (conMgmt);
+		con.connect ();
+		partial |= con.isPartial ();
+	}
+
+
+	/**
+	 * Pair two nodes of the trunk, unless they are already connected to other nodes.
+	 *
+	 * @param a the node in the original document
+	 * @param b the node in the modified document
+	 * @param trunk the list of pairs in the trunk
+	 * @return true, if a and b are paired
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private boolean pair (TreeNode a, TreeNode b, List<TreeNode []> trunk) throws BivesConnectionException
+	{
+		if (!conMgmt.areConnected (a, b))
+		{
+			if (conMgmt.isConnected (a) || conMgmt.isConnected (b))
+				return false;
+			conMgmt.connect (a, b);
+		}
+		trunk.add (new TreeNode [] {a, b});
+		return true;
+	}
+
+
+	/**
+	 * Gets the single child of a node that is a document node.
+	 *
+	 * @param node the node
+	 * @return the child, or null if there is not exactly one child or it is not a document node
+	 */
+	private DocumentNode singleDocumentChild (DocumentNode node)
+	{
+		List<TreeNode> kids = node.getChildren ();
+		if (kids.size () != 1 || kids.get (0).getType () != TreeNode.DOC_NODE)
+			return null;
+		return (DocumentNode) kids.get (0);
+	}
+
+
+	/**
+	 * Pair the regions below two nodes of the trunk.
+	 *
+	 * @param trunkA the deepest trunk node in the original document
+	 * @param trunkB the deepest trunk node in the modified document
+	 * @return the pairs of region roots
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private List<DocumentNode []> pairRegions (DocumentNode trunkA, DocumentNode trunkB) throws BivesConnectionException
+	{
+		HashMap<String, DocumentNode> keysB = regionKeys (trunkB);
+		HashMap<String, DocumentNode> keysA = regionKeys (trunkA);
+
+		List<DocumentNode []> regions = new ArrayList<DocumentNode []> ();
+		for (TreeNode kid : trunkA.getChildren ())
+		{
+			if (kid.getType () != TreeNode.DOC_NODE)
+				continue;
+			DocumentNode a = (DocumentNode) kid;
+			DocumentNode b = null;
+
+			// the id mapping knows better
+			TreeNode partner = conMgmt.getPartner (a);
+			if (partner != null)
+			{
+				if (partner.getParent () == trunkB)
+					b = (DocumentNode) partner;
+			}
+			else
+			{
+				String key = regionKey (a);
+				if (keysA.get (key) == a)
+				{
+					b = keysB.get (key);
+					if (b != null && (conMgmt.isConnected (b) || !b.getTagName ().equals (a.getTagName ())))
+						b = null;
+					if (b != null)
+						conMgmt.connect (a, b);
+				}
+			}
+
+			if (b != null)
+				regions.add (new DocumentNode [] {a, b});
+		}
+		return regions;
+	}
+
+
+	/**
+	 * Collect the region roots below a trunk node by their keys. Keys that are not unique are mapped to null.
+	 *
+	 * @param trunk the trunk node
+	 * @return the region roots by key
+	 */
+	private HashMap<String, DocumentNode> regionKeys (DocumentNode trunk)
+	{
+		HashMap<String, DocumentNode> keys = new HashMap<String, DocumentNode> ();
+		for (TreeNode kid : trunk.getChildren ())
+		{
+			if (kid.getType () != TreeNode.DOC_NODE)
+				continue;
+			String key = regionKey ((DocumentNode) kid);
+			if (keys.containsKey (key))
+				keys.put (key, null);
+			else
+				keys.put (key, (DocumentNode) kid);
+		}
+		return keys;
+	}
+
+
+	/**
+	 * Compute the key of a region root: its id if available, otherwise its tag name.
+	 *
+	 * @param node the region root
+	 * @return the key
+	 */
+	private String regionKey (DocumentNode node)
+	{
+		String id = node.getId ();
+		if (id != null)
+			return "id:" + id;
+		return "tag:" + node.getTagName ();
+	}
+
+
+	/**
+	 * Create the connection manager for a region, containing the pairs of the trunk and all connections inside the region.
+	 *
+	 * @param regionA the region root in the original document
+	 * @param regionB the region root in the modified document
+	 * @param trunk the pairs of the trunk
+	 * @return the connection manager for the region
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private SimpleConnectionManager seed (DocumentNode regionA, DocumentNode regionB, List<TreeNode []> trunk) throws BivesConnectionException
+	{
+		SimpleConnectionManager regionMgmt = new SimpleConnectionManager (docA, docB);
+		regionMgmt.shareIndexes (conMgmt);
+		for (TreeNode [] pair : trunk)
+			regionMgmt.connect (pair[0], pair[1]);
+		seed (regionA, regionB, regionMgmt);
+		return regionMgmt;
+	}
+
+
+	/**
+	 * Copy the connections of a subtree that stay inside the region.
+	 *
+	 * @param nodeA the root of the subtree in the original document
+	 * @param regionB the region root in the modified document
+	 * @param regionMgmt the connection manager of the region
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void seed (TreeNode nodeA, DocumentNode regionB, SimpleConnectionManager regionMgmt) throws BivesConnectionException
+	{
+		TreeNode partner = conMgmt.getPartner (nodeA);
+		if (partner != null)
+		{
+			for (TreeNode n = partner; n != null; n = n.getParent ())
+				if (n == regionB)
+				{
+					regionMgmt.connect (nodeA, partner);
+					break;
+				}
+		}
+
+		if (nodeA.getType () == TreeNode.DOC_NODE)
+			for (TreeNode kid : ((DocumentNode) nodeA).getChildren ())
+				seed (kid, regionB, regionMgmt);
+	}
+
+
+	/**
+	 * The Class RegionTask mapping a single pair of regions.
+	 */
+	private class RegionTask
+		implements Callable<SimpleConnectionManager>
+	{
+
+		/** The region root in the original document. */
+		private DocumentNode regionA;
+
+		/** The region root in the modified document. */
+		private DocumentNode regionB;
+
+		/** The connection manager of this region. */
+		private SimpleConnectionManager regionMgmt;
+
+
+		/**
+		 * Instantiates a new region task.
+		 *
+		 * @param regionA the region root in the original document
+		 * @param regionB the region root in the modified document
+		 * @param regionMgmt the connection manager of this region
+		 */
+		public RegionTask (DocumentNode regionA, DocumentNode regionB, SimpleConnectionManager regionMgmt)
+		{
+			this.regionA = regionA;
+			this.regionB = regionB;
+			this.regionMgmt = regionMgmt;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public SimpleConnectionManager call () throws BivesConnectionException
+		{
+			XyDiffConnector con = createConnector ();
+			con.setConnectionManager (regionMgmt);
+			con.setRegion (regionA, regionB);
+			con.connect ();
+			if (con.isPartial ())
+				partial = true;
+			return regionMgmt;
+		}
+	}
+}
@@ -3,12 +3,21 @@
  */
 package de.unirostock.sems.bives.algorithm.general;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.List;
+
 import de.binfalse.bflog.LOGGER;
 import de.unirostock.sems.bives.algorithm.DiffAnnotator;
-import de.unirostock.sems.bives.algorithm.NodeConnection;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.PhaseTimer;
 import de.unirostock.sems.bives.algorithm.Producer;
 import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
 import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.bives.ds.PatchStreamWriter;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
 import de.unirostock.sems.xmlutils.ds.TreeNode;
@@ -33,6 +42,9 @@ public class PatchProducer
 	/** The annotation infrastructure to store knowledge about the changes. */
 	private DiffAnnotator diffAnnotator;
 	
+	/** The listener to report metrics, or null. */
+	private DiffListener listener;
+	
 	/* (non-Javadoc)
 	 * @see de.unirostock.sems.bives.algorithm.Producer#init(de.unirostock.sems.bives.algorithm.SimpleConnectionManager, de.unirostock.sems.xmlutils.ds.TreeDocument, de.unirostock.sems.xmlutils.ds.TreeDocument)
 	 */
@@ -62,6 +74,16 @@ public class PatchProducer
 		LOGGER.info ("creating patch producer: ");// + conMgmt + " " + docA + " " + docB);
 	}
 	
+	/**
+	 * Sets the listener to report metrics of the production, such as the time spent and the number of operations in the patch.
+	 *
+	 * @param listener the listener, or null to disable reporting
+	 */
+	public void setDiffListener (DiffListener listener)
+	{
+		this.listener = listener;
+	}
+	
 	/**
 	 * Gets the patch.
 	 *
@@ -90,11 +112,30 @@ public class PatchProducer
 	public String produce (boolean inclAnnotations)
 	{
 		LOGGER.info ("producing patch -- incl annotations: ", inclAnnotations);
+		producePatch ();
+		LOGGER.info ("patch finished, producing xml output");
+		
+		PhaseTimer timer = new PhaseTimer (listener);
+		String xml = XmlTools.prettyPrintDocument (patch.getDocument (inclAnnotations));
+		timer.finish (DiffListener.PHASE_PATCH_SERIALIZE);
+		return xml;
+	}
+	
+	/**
+	 * Produce the patch without serializing it.
+	 * The changes are annotated not before the annotations are requested from the patch.
+	 *
+	 * @return the patch
+	 */
+	public Patch producePatch ()
+	{
+		PhaseTimer timer = new PhaseTimer (listener);
 		
 		if (diffAnnotator == null)
 			patch = new Patch (fullDiff);
 		else
 			patch = new Patch (fullDiff, diffAnnotator);
+		patch.setNodeIndexes (conMgmt.getIndexA (), conMgmt.getIndexB ());
 		
 		// examine original document
 		producePatchA (docA.getRoot ());
@@ -104,9 +145,94 @@ public class PatchProducer
 		
 		
 		patch.annotatePatch ();
-		LOGGER.info ("patch finished, producing xml output");
+		timer.finish (DiffListener.PHASE_PATCH_PRODUCE);
+		if (listener != null)
+		{
+			listener.count (DiffListener.COUNT_PATCH_INSERTS, patch.getNumInserts ());
+			listener.count (DiffListener.COUNT_PATCH_DELETES, patch.getNumDeletes ());
+			listener.count (DiffListener.COUNT_PATCH_UPDATES, patch.getNumUpdates ());
+			listener.count (DiffListener.COUNT_PATCH_MOVES, patch.getNumMoves ());
+		}
+		return patch;
+	}
+	
+	/**
+	 * Produce the patch and stream it to a writer, without annotations.
+	 * 
+	 * In contrast to {@link #produce(boolean)}, the operations are written as soon as they are found and never stored, so the memory needed does not grow with the size of the patch.
+	 * To write the sections in the order of the document, the trees are traversed once per section.
+	 * The written document equals the one of {@link Patch#getDocument(boolean) getDocument (false)}, but {@link #getPatch()} returns null afterwards.
+	 *
+	 * @param out the writer, which is flushed but not closed
+	 * @param pretty should the output be indented?
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void produce (Writer out, boolean pretty) throws IOException
+	{
+		produce (new PatchStreamWriter (out, pretty));
+	}
+	
+	/**
+	 * Produce the patch and stream it UTF-8 encoded, see {@link #produce(Writer, boolean)}.
+	 *
+	 * @param out the stream, which is flushed but not closed
+	 * @param pretty should the output be indented?
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void produce (OutputStream out, boolean pretty) throws IOException
+	{
+		produce (new PatchStreamWriter (out, pretty));
+	}
+	
+	/**
+	 * Produce the patch section by section and stream it to a writer.
+	 *
+	 * @param writer the writer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void produce (PatchStreamWriter writer) throws IOException
+	{
+		LOGGER.info ("streaming patch");
+		PhaseTimer timer = new PhaseTimer (listener);
+		
+		writer.writeStart ();
+		int [] counts = new int [PatchStreamWriter.SECTIONS.length];
+		for (int i = 0; i < PatchStreamWriter.SECTIONS.length; i++)
+		{
+			String section = PatchStreamWriter.SECTIONS[i];
+			int before = writer.getNumOperations ();
+			writer.startSection (section);
+			
+			// every pass starts with fresh ids, so all passes assign the same ids
+			patch = diffAnnotator == null ? new Patch (fullDiff) : new Patch (fullDiff, diffAnnotator);
+			patch.streamTo (writer, section);
+			patch.setNodeIndexes (conMgmt.getIndexA (), conMgmt.getIndexB ());
+			try
+			{
+				producePatchA (docA.getRoot ());
+				// the modified document only contributes inserts
+				if (section.equals ("insert"))
+					producePatchB (docB.getRoot ());
+			}
+			catch (UncheckedIOException e)
+			{
+				throw e.getCause ();
+			}
+			
+			writer.endSection ();
+			counts[i] = writer.getNumOperations () - before;
+		}
+		writer.writeEnd ();
+		patch = null;
 		
-		return XmlTools.prettyPrintDocument (patch.getDocument (inclAnnotations));
+		timer.finish (DiffListener.PHASE_PATCH_PRODUCE);
+		if (listener != null)
+		{
+			listener.count (DiffListener.COUNT_PATCH_UPDATES, counts[0]);
+			listener.count (DiffListener.COUNT_PATCH_DELETES, counts[1]);
+			listener.count (DiffListener.COUNT_PATCH_INSERTS, counts[2]);
+			listener.count (DiffListener.COUNT_PATCH_MOVES, counts[3]);
+		}
 	}
 	
 	/**
@@ -124,16 +250,23 @@ public class PatchProducer
 	
 	
 	/**
-	 * Produce patch parts of the original document, recursively.
+	 * Produce patch parts of the original document, visiting the nodes in preorder.
 	 *
-	 * @param node the node rooting the current subtree of interest
+	 * @param root the node rooting the subtree of interest
 	 */
-	private void producePatchA (TreeNode node)
+	private void producePatchA (TreeNode root)
 	{
-		if ((node.hasModification (TreeNode.SUBTREEUNMAPPED)))
-			patch.deleteSubtree (node, -1);
-		else
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		stack.push (root);
+		while (!stack.isEmpty ())
 		{
+			TreeNode node = stack.pop ();
+			if ((node.hasModification (TreeNode.SUBTREEUNMAPPED)))
+			{
+				patch.deleteSubtree (node, -1);
+				continue;
+			}
+			
 			if ((node.hasModification (TreeNode.UNMAPPED)))
 				patch.deleteNode (node, -1);
 			else
@@ -146,30 +279,32 @@ public class PatchProducer
 				}
 				else
 				{
-					patch.updateNode ((NodeConnection) conMgmt.getConnectionForNode (node), conMgmt);
+					patch.updateNode (node, conMgmt.getPartner (node), conMgmt);
 				}
 			}
 			
-			if (node.getType () == TreeNode.DOC_NODE)
-			{
-				DocumentNode dnode = (DocumentNode) node;
-				for (TreeNode n : dnode.getChildren ())
-					producePatchA (n);
-			}
+			pushChildren (stack, node);
 		}
 	}
 	
 	/**
-	 * Produce patch parts of the modified document, recursively.
+	 * Produce patch parts of the modified document, visiting the nodes in preorder.
 	 *
-	 * @param node the node rooting the current subtree of interest
+	 * @param root the node rooting the subtree of interest
 	 */
-	private void producePatchB (TreeNode node)
+	private void producePatchB (TreeNode root)
 	{
-		if ((node.hasModification (TreeNode.SUBTREEUNMAPPED)))
-			patch.insertSubtree (node, -1);
-		else
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		stack.push (root);
+		while (!stack.isEmpty ())
 		{
+			TreeNode node = stack.pop ();
+			if ((node.hasModification (TreeNode.SUBTREEUNMAPPED)))
+			{
+				patch.insertSubtree (node, -1);
+				continue;
+			}
+			
 			if ((node.hasModification (TreeNode.UNMAPPED)))
 				patch.insertNode (node, -1);
 			else
@@ -183,12 +318,23 @@ public class PatchProducer
 				// else part covered before
 			}
 			
-			if (node.getType () == TreeNode.DOC_NODE)
-			{
-				DocumentNode dnode = (DocumentNode) node;
-				for (TreeNode n : dnode.getChildren ())
-					producePatchB (n);
-			}
+			pushChildren (stack, node);
+		}
+	}
+	
+	/**
+	 * Push the children of a node onto a stack, so they are popped in document order.
+	 *
+	 * @param stack the stack
+	 * @param node the node
+	 */
+	private static void pushChildren (ArrayDeque<TreeNode> stack, TreeNode node)
+	{
+		if (node.getType () == TreeNode.DOC_NODE)
+		{
+			List<TreeNode> children = ((DocumentNode) node).getChildren ();
+			for (int i = children.size () - 1; i >= 0; i--)
+				stack.push (children.get (i));
 		}
 	}
 	
@@ -3,22 +3,31 @@
  */
 package de.unirostock.sems.bives.algorithm.general;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 import de.binfalse.bflog.LOGGER;
 import de.binfalse.bfutils.GeneralTools;
 import de.unirostock.sems.bives.algorithm.Connector;
+import de.unirostock.sems.bives.algorithm.DiffListener;
 import de.unirostock.sems.bives.algorithm.NodeConnection;
+import de.unirostock.sems.bives.algorithm.PhaseTimer;
 import de.unirostock.sems.bives.api.Diff;
+import de.unirostock.sems.bives.api.DiffConfig;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
-import de.unirostock.sems.xmlutils.comparison.Connection;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
-import de.unirostock.sems.xmlutils.ds.NodeDistance;
-import de.unirostock.sems.xmlutils.ds.NodeDistanceComparator;
 import de.unirostock.sems.xmlutils.ds.TextNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
 import de.unirostock.sems.xmlutils.ds.TreeNode;
@@ -35,13 +44,104 @@ public class XyDiffConnector
 	extends Connector
 {
 	
-	public static double MAX_ATTR_DIST = .8;
+	/** The default maximum attribute distance of nodes connected during the optimization. */
+	public static final double MAX_ATTR_DIST = .8;
 	
 	/** The level we definitely walk up (at least). */
 	private final int MIN_CANDIDATEPARENT_LEVEL = 6;
 	
+	/** The maximum number of cells of the table aligning groups of identical siblings, larger groups are paired in document order. */
+	private static final int MAX_GROUP_ALIGNMENT_CELLS = 1 << 22;
+	
+	/** The number of characters of names/ids used in the signatures of the bounded optimization. */
+	private static final int SIGNATURE_PREFIX_LENGTH = 3;
+	
+	/** Break ties between candidates by the distance of their child-index paths (default). */
+	public static final int TIE_BREAKER_STRUCTURAL = 0;
+	
+	/** Break ties between candidates by the Levenshtein distance of their XPaths. */
+	public static final int TIE_BREAKER_XPATH_LEVENSHTEIN = 1;
+	
+	/** The default maximum number of node pairs to compare at once in the optimization step. */
+	public static final int DEFAULT_MAX_OPTIMIZATION_PAIRS = 1 << 20;
+	
+	/** The default minimum weight of a subtree to get its own task in the parallel bottom-up step. */
+	public static final double DEFAULT_PARALLEL_MIN_WEIGHT = 1000;
+	
 	/** The preprocessor. */
 	private Connector preprocessor;
+	
+	/** The index tables for candidates in the original document. */
+	private CandidateIndex candidatesA;
+	
+	/** The index tables for candidates in the modified document. */
+	private CandidateIndex candidatesB;
+	
+	/** The metric to break ties between equally ranked candidates. */
+	private int tieBreaker = TIE_BREAKER_STRUCTURAL;
+	
+	/** The maximum attribute distance of nodes connected during the optimization. */
+	private double maxAttrDist = MAX_ATTR_DIST;
+	
+	/** The maximum number of node pairs to compare at once in the optimization step, or &lt;1 for no limit. */
+	private int maxOptimizationPairs = DEFAULT_MAX_OPTIMIZATION_PAIRS;
+	
+	/** The pool for the parallel bottom-up step, or null to run it sequentially. */
+	private ForkJoinPool bottomUpPool;
+	
+	/** The minimum weight of a subtree to get its own task in the parallel bottom-up step. */
+	private double parallelMinWeight = DEFAULT_PARALLEL_MIN_WEIGHT;
+	
+	/** The time budget of the mapping in milliseconds, or &lt;1 for no limit. */
+	private long timeBudget;
+	
+	/** The maximum number of work units, or &lt;1 for no limit. */
+	private long workBudget;
+	
+	/** The point in time (see {@link System#nanoTime()}) when refining the mapping stops, or 0 for no deadline. */
+	private long deadline;
+	
+	/** Was the deadline set by {@link #setDeadline(long)}? Otherwise it is computed from the time budget whenever the mapping starts. */
+	private boolean sharedDeadline;
+	
+	/** The number of work units spent so far. */
+	private long work;
+	
+	/** Did we stop refining before the mapping was complete? */
+	private boolean partial;
+	
+	/** The number of candidate lists searched so far. */
+	private long candidateLists;
+	
+	/** The sum of the sizes of all candidate lists searched so far. */
+	private long candidatesTotal;
+	
+	/** The root of the region to map in the original document, or null to map the whole document. */
+	private DocumentNode regionA;
+	
+	/** The root of the region to map in the modified document, or null to map the whole document. */
+	private DocumentNode regionB;
+	
+	/** The parents in the modified document whose children were already aligned as groups. */
+	private Set<TreeNode> alignedParents;
+	
+	/** Scratch buffer of the bottom-up step: the summed weights of the candidates, by number in the original document. */
+	private double [] candidateWeights;
+	
+	/** Scratch buffer of the bottom-up step: was a candidate voted for by the current node? */
+	private boolean [] candidateVoted;
+	
+	/** Scratch buffer of the bottom-up step: the candidates voted for by the current node, in the order of the votes. */
+	private int [] touched;
+	
+	/** Scratch buffer of the bottom-up step: the matches of processed nodes, by number in the modified document. */
+	private int [] matchOfB;
+	
+	/** Scratch buffer of the bottom-up step: the nodes on the traversal stack. */
+	private int [] stackNodes;
+	
+	/** Scratch buffer of the bottom-up step: the next child to visit for every node on the traversal stack. */
+	private int [] stackNext;
 
 	/**
 	 * Instantiates a new XyDiffConnector.
@@ -105,6 +205,183 @@ public class XyDiffConnector
 	
 	
 	
+	/**
+	 * Run the full bottom-up step in parallel using the given pool.
+	 * 
+	 * Sibling subtrees with a weight of at least <code>minWeight</code> are processed in their own fork-join tasks.
+	 * The resulting mapping is identical to the one of the sequential step.
+	 * Pass <code>null</code> as pool to go back to the sequential implementation.
+	 *
+	 * @param pool the fork-join pool, or null to run sequentially
+	 * @param minWeight the minimum weight of a subtree to get its own task, see {@link #DEFAULT_PARALLEL_MIN_WEIGHT}
+	 */
+	public void setParallelBottomUp (ForkJoinPool pool, double minWeight)
+	{
+		this.bottomUpPool = pool;
+		this.parallelMinWeight = minWeight;
+	}
+	
+	
+	/**
+	 * Bound the optimization step.
+	 * 
+	 * If there are more than <code>maxPairs</code> pairs of unmatched siblings with the same tag, the siblings will be bucketed by cheap signatures and only nodes in the same bucket will be compared.
+	 * Buckets that are still too large are split into windows in document order.
+	 * Defaults to {@link #DEFAULT_MAX_OPTIMIZATION_PAIRS}, set <code>maxPairs</code> &lt;1 to compare all pairs.
+	 *
+	 * @param maxPairs the maximum number of pairs to compare at once
+	 */
+	public void setBoundedOptimization (int maxPairs)
+	{
+		this.maxOptimizationPairs = maxPairs;
+	}
+	
+	
+	/**
+	 * Sets the metric to break ties between candidates of the same level.
+	 * Defaults to {@link #TIE_BREAKER_STRUCTURAL}, {@link #TIE_BREAKER_XPATH_LEVENSHTEIN} is the former, more expensive metric.
+	 *
+	 * @param tieBreaker the tie breaker, either {@link #TIE_BREAKER_STRUCTURAL} or {@link #TIE_BREAKER_XPATH_LEVENSHTEIN}
+	 */
+	public void setTieBreaker (int tieBreaker)
+	{
+		this.tieBreaker = tieBreaker;
+	}
+	
+	
+	/**
+	 * Sets the maximum attribute distance of nodes that are connected during the optimization step.
+	 * Defaults to {@link #MAX_ATTR_DIST}.
+	 *
+	 * @param maxAttrDist the maximum distance
+	 */
+	public void setMaxAttributeDistance (double maxAttrDist)
+	{
+		this.maxAttrDist = maxAttrDist;
+	}
+	
+	
+	/**
+	 * Apply all settings of a configuration that concern this connector.
+	 *
+	 * @param config the configuration
+	 */
+	public void configure (DiffConfig config)
+	{
+		setMaxAttributeDistance (config.getMaxAttributeDistance ());
+		setTieBreaker (config.getTieBreaker ());
+		setBoundedOptimization (config.getMaxOptimizationPairs ());
+		setParallelBottomUp (config.getBottomUpPool (), config.getParallelMinWeight ());
+		setBudget (config.getTimeBudget (), config.getWorkBudget ());
+	}
+	
+	
+	/**
+	 * Bound the effort of the mapping.
+	 * 
+	 * If the time budget is spent or the number of work units (nodes visited in the top-down and optimization steps, candidates tested) is exceeded, the connector stops refining the mapping.
+	 * The connections found so far are kept, so the resulting patch is still correct, but might be less minimal, see {@link #isPartial()}.
+	 *
+	 * @param timeBudget the time budget in milliseconds, counting from the start of the mapping, or &lt;1 for no limit
+	 * @param workBudget the maximum number of work units, or &lt;1 for no limit
+	 */
+	public void setBudget (long timeBudget, long workBudget)
+	{
+		this.timeBudget = timeBudget;
+		this.workBudget = workBudget;
+	}
+	
+	
+	/**
+	 * Checks if the mapping was stopped because the budget was spent.
+	 *
+	 * @return true, if the mapping is partial
+	 */
+	public boolean isPartial ()
+	{
+		return partial;
+	}
+	
+	
+	/**
+	 * Sets an absolute deadline, which is shared by several connectors, see {@link PartitionedConnector}.
+	 *
+	 * @param deadline the point in time (see {@link System#nanoTime()}) when refining stops
+	 */
+	void setDeadline (long deadline)
+	{
+		this.deadline = deadline;
+		sharedDeadline = true;
+	}
+	
+	
+	/**
+	 * Spend a unit of work and check whether the budget is spent.
+	 *
+	 * @return true, if we should stop refining the mapping
+	 */
+	private boolean expired ()
+	{
+		return expired (1);
+	}
+	
+	
+	/**
+	 * Spend a number of work units and check whether the budget is spent.
+	 *
+	 * @param units the number of work units
+	 * @return true, if we should stop refining the mapping
+	 */
+	private boolean expired (long units)
+	{
+		if (partial)
+			return true;
+		long before = work;
+		work += units;
+		// System.nanoTime is not for free, so check the clock only every 256 units
+		if ((workBudget > 0 && work > workBudget) || (deadline != 0 && (work >>> 8) != (before >>> 8) && System.nanoTime () - deadline > 0))
+		{
+			LOGGER.warn ("budget of XY Diff spent after ", work, " work units, the mapping will be partial");
+			partial = true;
+		}
+		return partial;
+	}
+	
+	
+	/**
+	 * Restrict the mapping to a pair of regions, see {@link PartitionedConnector}.
+	 * 
+	 * The connection manager is expected to already contain connections for all ancestors of the region roots.
+	 * Only nodes inside the regions will be considered as candidates.
+	 *
+	 * @param regionA the root of the region in the original document
+	 * @param regionB the root of the region in the modified document
+	 */
+	void setRegion (DocumentNode regionA, DocumentNode regionB)
+	{
+		this.regionA = regionA;
+		this.regionB = regionB;
+	}
+	
+	
+	/**
+	 * Checks if a node is part of a region.
+	 *
+	 * @param node the node
+	 * @param region the root of the region, or null if the whole document is mapped
+	 * @return true, if the node is in the region
+	 */
+	private boolean inRegion (TreeNode node, TreeNode region)
+	{
+		if (region == null)
+			return true;
+		for (TreeNode n = node; n != null; n = n.getParent ())
+			if (n == region)
+				return true;
+		return false;
+	}
+	
+	
 	/* (non-Javadoc)
 	 * @see de.unirostock.sems.bives.algorithm.Connector#init(de.unirostock.sems.xmlutils.ds.TreeDocument, de.unirostock.sems.xmlutils.ds.TreeDocument)
 	 */
@@ -116,7 +393,13 @@ public class XyDiffConnector
 		{
 			// then we'll use an id-connector by default...
 			IdConnector id = new IdConnector (docA, docB, true);
+			// keep the kind of connection manager that was chosen for this connector
+			id.setConnectionManager (conMgmt);
+			// we'll evaluate the trees once the mapping is complete
+			id.setEvaluation (false);
 			id.findConnections ();
+			if (listener != null)
+				listener.count (DiffListener.COUNT_SKIPPED_IDS, id.getNumSkippedIds ());
 	
 			conMgmt = id.getConnections ();
 		}
@@ -124,6 +407,7 @@ public class XyDiffConnector
 		{
 			// otherwise let the preprocessor do its work
 			//preprocessor.init (docA, docB);
+			preprocessor.setEvaluation (false);
 			preprocessor.findConnections ();
 	
 			conMgmt = preprocessor.getConnections ();
@@ -138,6 +422,12 @@ public class XyDiffConnector
 	protected void connect () throws BivesConnectionException
 	{
 		LOGGER.info ("starting XY Diff");
+		work = 0;
+		partial = false;
+		candidateLists = 0;
+		candidatesTotal = 0;
+		if (!sharedDeadline)
+			deadline = timeBudget > 0 ? System.nanoTime () + timeBudget * 1000000L : 0;
 		boolean debug = LOGGER.isDebugEnabled();
 		if (debug)
 		{
@@ -145,28 +435,72 @@ public class XyDiffConnector
 			LOGGER.debug (conMgmt.toString ());
 		}
 		
+		candidatesA = new CandidateIndex (docA, MIN_CANDIDATEPARENT_LEVEL);
+		candidatesB = new CandidateIndex (docB, MIN_CANDIDATEPARENT_LEVEL);
+		alignedParents = Collections.newSetFromMap (new IdentityHashMap<TreeNode, Boolean> ());
+		
+		DocumentNode rootA = regionA == null ? docA.getRoot () : regionA;
+		DocumentNode rootB = regionB == null ? docB.getRoot () : regionB;
+		
 		// document roots always match...
-		if (conMgmt.getConnectionOfNodes (docA.getRoot (), docB.getRoot ()) == null)
-			conMgmt.addConnection (new NodeConnection (docA.getRoot (), docB.getRoot ()));
+		if (!conMgmt.areConnected (rootA, rootB))
+			conMgmt.connect (rootA, rootB);
+		
+		// identical documents (modulo formatting) map one to one
+		if (rootA.getSubTreeHash ().equals (rootB.getSubTreeHash ()))
+		{
+			LOGGER.info ("documents are identical, assigning them one to one");
+			recursiveAssign (rootA, rootB);
+			if (conMgmt.getUnmatched (rootA, new ArrayList<TreeNode> ()).isEmpty () && conMgmt.getUnmatched (rootB, new ArrayList<TreeNode> ()).isEmpty ())
+			{
+				LOGGER.info ("finished XY Diff");
+				return;
+			}
+		}
+		
+		// so do subtrees of id-matched nodes that didn't change
+		for (NodeConnection c : new ArrayList<NodeConnection> (conMgmt.getConnections ()))
+		{
+			TreeNode a = c.getTreeA ();
+			TreeNode b = c.getTreeB ();
+			if (a.getType () == TreeNode.DOC_NODE && inRegion (a, regionA) && inRegion (b, regionB) && a.getSubTreeHash ().equals (b.getSubTreeHash ()))
+				recursiveAssign (a, b);
+		}
 		
 
 		// doing full bottom up
 		LOGGER.info ("doing full bottom up");
-		fullBottomUp (docB.getRoot ());
+		PhaseTimer timer = new PhaseTimer (listener);
+		if (expired ())
+			LOGGER.info ("skipping full bottom up");
+		else
+			bottomUp (rootB);
+
+		timer.finish (DiffListener.PHASE_XYDIFF_BOTTOMUP);
 
 		if (debug)
 			LOGGER.debug (conMgmt.toString ());
 		
 		// doing top-down
 		LOGGER.info ("doing top down");
-		topdownMatch (docA.getRoot (), docB.getRoot ());
+		timer.restart ();
+		topdownMatch (rootA, rootB);
+		timer.finish (DiffListener.PHASE_XYDIFF_TOPDOWN);
 
 		if (debug)
 			LOGGER.debug (conMgmt.toString ());
 
 		// optimize the mapping
 		LOGGER.info ("doing optimizations");
-		optimize (docA.getRoot ());
+		timer.restart ();
+		optimize (rootA);
+		timer.finish (DiffListener.PHASE_XYDIFF_OPTIMIZE);
+		
+		if (listener != null)
+		{
+			listener.count (DiffListener.COUNT_CANDIDATE_LISTS, candidateLists);
+			listener.count (DiffListener.COUNT_CANDIDATES, candidatesTotal);
+		}
 
 		if (debug)
 		{
@@ -176,93 +510,189 @@ public class XyDiffConnector
 			LOGGER.debug ("unmatched in A:");
 			List<TreeNode> unmatched = conMgmt.getUnmatched (docA.getRoot (), new ArrayList<TreeNode> ());
 			for (TreeNode u : unmatched)
-				LOGGER.debug (u.getXPath ());
+				if (LOGGER.isDebugEnabled ())
+					LOGGER.debug (getXPath (u));
 	
 			LOGGER.debug ("unmatched in B:");
 			unmatched = conMgmt.getUnmatched (docB.getRoot (), new ArrayList<TreeNode> ());
 			for (TreeNode u : unmatched)
-				LOGGER.debug (u.getXPath ());
+				if (LOGGER.isDebugEnabled ())
+					LOGGER.debug (getXPath (u));
 		}
 		LOGGER.info ("finished XY Diff");
 	}
 	
+	/**
+	 * Run the full bottom-up step only, on top of the connections found by {@link #init()}.
+	 * Used to test the bottom-up step on its own.
+	 *
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	void findBottomUpConnections () throws BivesConnectionException
+	{
+		init ();
+		candidatesA = new CandidateIndex (docA, MIN_CANDIDATEPARENT_LEVEL);
+		candidatesB = new CandidateIndex (docB, MIN_CANDIDATEPARENT_LEVEL);
+		bottomUp (docB.getRoot ());
+	}
+	
+	/**
+	 * Bottom-up step, sequentially or in parallel if a pool was set.
+	 *
+	 * @param rootB the root of the subtree in tree B
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void bottomUp (TreeNode rootB) throws BivesConnectionException
+	{
+		if (bottomUpPool == null)
+		{
+			fullBottomUp (rootB);
+			return;
+		}
+		
+		ParallelBottomUp parallel = new ParallelBottomUp (conMgmt, bottomUpPool, parallelMinWeight);
+		parallel.setBudget (workBudget > 0 ? Math.max (1, workBudget - work) : 0, deadline);
+		// connect like the sequential pass, so connected nodes leave the candidate indexes
+		for (TreeNode [] pair : parallel.run (rootB))
+			nodeAssign (pair[0], pair[1]);
+		work += parallel.getWork ();
+		if (parallel.isExpired ())
+		{
+			LOGGER.warn ("budget of XY Diff spent in parallel bottom up, the mapping will be partial");
+			partial = true;
+		}
+	}
+	
 	/**
 	 * Full-bottomUp step.
+	 * 
+	 * Visits the subtree in post order: every node votes for the parents of the matches of its children, weighted by the weight of the children, and the candidate with the largest sum is assigned.
+	 * Ties are won by the candidate that comes first in document order.
+	 * The traversal uses an explicit stack, and the votes are summed in primitive arrays indexed by node number, which are reset using the list of touched candidates.
+	 * So, apart from growing the scratch buffers, this step doesn't allocate anything.
 	 *
-	 * @param nodeB the node in tree B
-	 * @return the tree node
+	 * @param rootB the root of the subtree in tree B
 	 * @throws BivesConnectionException the bives connection exception
 	 */
-	private TreeNode fullBottomUp (TreeNode nodeB) throws BivesConnectionException
+	private void fullBottomUp (TreeNode rootB) throws BivesConnectionException
 	{
-		HashMap<TreeNode, Double> weightByCandidate = new HashMap<TreeNode, Double> ();
+		NodeIndex indexA = conMgmt.getIndexA ();
+		NodeIndex indexB = conMgmt.getIndexB ();
+		if (candidateWeights == null || candidateWeights.length < indexA.size ())
+		{
+			candidateWeights = new double [indexA.size ()];
+			candidateVoted = new boolean [indexA.size ()];
+			touched = new int [indexA.size ()];
+		}
+		if (matchOfB == null || matchOfB.length < indexB.size ())
+			matchOfB = new int [indexB.size ()];
+		if (stackNodes == null)
+		{
+			stackNodes = new int [64];
+			stackNext = new int [64];
+		}
 		
-		// Apply to children
-		if (nodeB.getType () == TreeNode.DOC_NODE)
+		int depth = 1;
+		stackNodes[0] = indexB.getNumber (rootB);
+		stackNext[0] = 0;
+		while (depth > 0)
 		{
-			List<TreeNode> children = ((DocumentNode) nodeB).getChildren ();
-			for (TreeNode child : children)
+			int top = depth - 1;
+			TreeNode nodeB = indexB.getNode (stackNodes[top]);
+			if (nodeB.getType () == TreeNode.DOC_NODE)
 			{
-				TreeNode childMatch = fullBottomUp (child);
-				if (childMatch != null)
+				List<TreeNode> children = ((DocumentNode) nodeB).getChildren ();
+				if (stackNext[top] < children.size ())
 				{
-					// get the parent of this node
-					//LOGGER.error (childMatch.getTagName ());
-					TreeNode v0childParent = conMgmt.getConnectionForNode (childMatch).getTreeA ().getParent ();
-					/*Connection c = conMgmt.getConnectionForNode (childMatch);
-					TreeNode node = c.getTreeA ();
-					TreeNode v0childParent = node.getParent ();*/
-					if (v0childParent != null)
+					// descend into the next child
+					TreeNode child = children.get (stackNext[top]++);
+					if (depth == stackNodes.length)
 					{
-						if (weightByCandidate.get (v0childParent) == null)
-							weightByCandidate.put (v0childParent, child.getWeight ());
-						else
-							weightByCandidate.put (v0childParent, weightByCandidate.get (v0childParent) + child.getWeight ());
+						stackNodes = Arrays.copyOf (stackNodes, depth * 2);
+						stackNext = Arrays.copyOf (stackNext, depth * 2);
 					}
+					stackNodes[depth] = indexB.getNumber (child);
+					stackNext[depth] = 0;
+					depth++;
+					continue;
 				}
 			}
+			// all children are done
+			if (expired ())
+			{
+				LOGGER.info ("stopping full bottom up");
+				return;
+			}
+			depth--;
+			matchOfB[stackNodes[top]] = bottomUpSelf (nodeB, indexA, indexB);
 		}
-		
-		// Do self
-		if (conMgmt.getConnectionForNode (nodeB) != null)
+	}
+	
+	/**
+	 * Do the self-part of the bottom-up step, after all children of a node were processed.
+	 *
+	 * @param nodeB the node in tree B
+	 * @param indexA the index of tree A
+	 * @param indexB the index of tree B
+	 * @return the number of the node in tree A matching nodeB, or -1
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private int bottomUpSelf (TreeNode nodeB, NodeIndex indexA, NodeIndex indexB) throws BivesConnectionException
+	{
+		if (conMgmt.isConnected (nodeB))
 		{
-			TreeNode match = conMgmt.getConnectionForNode (nodeB).getTreeA ();
-			LOGGER.debug ("v1 node ", nodeB.getXPath (), " already has a match, returning ", match.getXPath ());
-			return match;
+			TreeNode match = conMgmt.getPartner (nodeB);
+			if (LOGGER.isDebugEnabled ())
+				LOGGER.debug ("v1 node ", getXPath (nodeB), " already has a match, returning ", getXPath (match));
+			return indexA.getNumber (match);
 		}
-		if (weightByCandidate.size () < 1)
+		if (nodeB.getType () != TreeNode.DOC_NODE)
+			return -1;
+		
+		// collect the votes of the children
+		List<TreeNode> children = ((DocumentNode) nodeB).getChildren ();
+		int numTouched = 0;
+		for (int i = 0; i < children.size (); i++)
 		{
-			TreeNode match = null;
-			if (conMgmt.getConnectionForNode (nodeB) != null)
+			TreeNode child = children.get (i);
+			int childMatch = matchOfB[indexB.getNumber (child)];
+			if (childMatch < 0)
+				continue;
+			// childMatch is always connected in tree A, so it's its own partner
+			int candidate = indexA.getParent (childMatch);
+			if (candidate < 0)
+				continue;
+			if (!candidateVoted[candidate])
 			{
-				match = conMgmt.getConnectionForNode (nodeB).getTreeA ();
-				LOGGER.debug ("v1 node ", nodeB.getXPath (), " has no matched children, returning ", match.getXPath ());
+				candidateVoted[candidate] = true;
+				candidateWeights[candidate] = 0;
+				touched[numTouched++] = candidate;
 			}
-			else
-				LOGGER.debug ("v1 node ", nodeB.getXPath (), " has no matched children, returning ", match);
-			return match;
+			candidateWeights[candidate] += child.getWeight ();
 		}
+		if (numTouched < 1)
+			return -1;
 		
 		// Find parent corresponding to largest part of children
-		LOGGER.debug ("v0 parents of v0 nodes matching v1 children of v1 node ", nodeB.getXPath (), " are:");
-		double max=-1.0;
-		TreeNode bestMatch=null;
-		for (TreeNode node : weightByCandidate.keySet ())
+		double max = -1.0;
+		int bestMatch = -1;
+		for (int i = 0; i < numTouched; i++)
 		{
-			LOGGER.debug ("v0 node ", node.getXPath (), " with total weight among children of ", weightByCandidate.get (node));
-			if (weightByCandidate.get (node) > max)
+			int candidate = touched[i];
+			if (candidateWeights[candidate] > max || (candidateWeights[candidate] == max && candidate < bestMatch))
 			{
-				bestMatch = node;
-				max = weightByCandidate.get (node);
+				bestMatch = candidate;
+				max = candidateWeights[candidate];
 			}
+			candidateVoted[candidate] = false;
 		}
-		if (bestMatch == null)
-			return null;
 		
-		LOGGER.debug ("best parent is v0 node ", bestMatch.getXPath (), " with total weight among children of ", max);
-		if (nodeAssign (bestMatch, nodeB))
+		TreeNode best = indexA.getNode (bestMatch);
+		if (LOGGER.isDebugEnabled ())
+			LOGGER.debug ("best parent of v1 node ", getXPath (nodeB), " is v0 node ", getXPath (best), " with total weight among children of ", max);
+		if (nodeAssign (best, nodeB))
 			return bestMatch;
-		return null;
+		return -1;
 	}
 	
 	/**
@@ -279,10 +709,17 @@ public class XyDiffConnector
 		toMatch.add (rootB);
 		while (toMatch.size () > 0)
 		{
+			if (expired ())
+			{
+				// unmatched nodes will just be inserted/deleted
+				LOGGER.info ("stopping top down with ", toMatch.size (), " subtrees left");
+				break;
+			}
 			TreeNode nodeID = toMatch.poll ();
 			
 			String v1hash = nodeID.getSubTreeHash ();
-			LOGGER.debug ("Trying new node ", nodeID.getXPath (), ", hash=", v1hash);
+			if (LOGGER.isDebugEnabled ())
+				LOGGER.debug ("Trying new node ", getXPath (nodeID), ", hash=", v1hash);
 			
 			//CandidateResult matcher = null;
 			CandidateResult matchInA = null;
@@ -290,7 +727,7 @@ public class XyDiffConnector
 					String nodeInBHash = nodeID.getSubTreeHash ();
 		  // consistency check: has it already been done ???
 			
-			if (conMgmt.getConnectionForNode (nodeID) != null)
+			if (conMgmt.isConnected (nodeID))
 			{
 				LOGGER.debug ("skipping Full Subtree check because subtree node is already assigned.");
 			}
@@ -300,10 +737,13 @@ public class XyDiffConnector
 				// a 'renameRoot' operation will be added later if necessary
 				if (nodeID == rootB)
 				{
-					conMgmt.addConnection (new NodeConnection (rootA, rootB));
+					conMgmt.connect (rootA, rootB);
 				}
 				else
 				{
+					// identical siblings are aligned as a group, without searching candidates for every single one
+					if (alignSiblingGroups (nodeInB))
+						continue;
 					
 					matchInA = getBestCandidate(nodeInB, nodeInBHash);
 				}
@@ -349,7 +789,8 @@ public class XyDiffConnector
 					else
 					{
 						// put children in the vector so they'll be taken care of later
-						LOGGER.debug ("Subtree rooted at ", nodeID.getXPath (), " not fully matched, programming children");
+						if (LOGGER.isDebugEnabled ())
+							LOGGER.debug ("Subtree rooted at ", getXPath (nodeID), " not fully matched, programming children");
 						if (nodeID.getType () == TreeNode.DOC_NODE)
 						{
 							List<TreeNode> children = ((DocumentNode) nodeID).getChildren ();
@@ -389,7 +830,7 @@ public class XyDiffConnector
 			else
 			{
 				// put children in the vector so they'll be taken care of later
-				LOGGER.debug ("Subtree rooted at ", nodeID.getXPath (), " not fully matched, programming children");
+				LOGGER.debug ("Subtree rooted at ", getXPath (nodeID), " not fully matched, programming children");
 				if (nodeID.getType () == TreeNode.DOC_NODE)
 				{
 					List<TreeNode> children = ((DocumentNode) nodeID).getChildren ();
@@ -404,20 +845,241 @@ public class XyDiffConnector
 	}
 	
 	/**
-	 * Optimization step.
+	 * Align the groups of identical siblings of a node at once.
+	 * 
+	 * Documents often contain runs of identical subtrees, such as equal
+	 * <code>speciesReference</code>s in SBML. As they share a subtree hash, each
+	 * of them would have to choose among all the others. Instead, the unmatched
+	 * children of the node's parent whose hash occurs more than once are aligned
+	 * in a single order-preserving pass, when the node is visited first. If the
+	 * parent is not yet matched, it is matched to the only child with the same
+	 * tag name of the partner of its parent, if there are groups to align and
+	 * the parents' attributes are not too different.
 	 *
-	 * @param nodeA the node a
+	 * @param nodeB the node in the modified document
+	 * @return true, if the node was connected during the alignment
 	 * @throws BivesConnectionException the bives connection exception
 	 */
-	private void optimize (DocumentNode nodeA) throws BivesConnectionException
+	private boolean alignSiblingGroups (TreeNode nodeB) throws BivesConnectionException
+	{
+		TreeNode parentB = nodeB.getParent ();
+		if (parentB == null || alignedParents.contains (parentB))
+			return false;
+		
+		TreeNode parentA = conMgmt.getPartner (parentB);
+		boolean assignParents = false;
+		if (parentA == null)
+		{
+			// try the parents, if they are unique among their siblings
+			TreeNode grandParentB = parentB.getParent ();
+			TreeNode grandParentA = grandParentB == null ? null : conMgmt.getPartner (grandParentB);
+			if (grandParentA == null || getOnlyUnmatchedChild ((DocumentNode) grandParentB, ((DocumentNode) parentB).getTagName ()) != parentB)
+				return false;
+			parentA = getOnlyUnmatchedChild ((DocumentNode) grandParentA, ((DocumentNode) parentB).getTagName ());
+			if (parentA == null)
+				return false;
+			assignParents = true;
+		}
+		if (!inRegion (parentA, regionA))
+			return false;
+		
+		// collect the members of groups
+		List<TreeNode> groupA = new ArrayList<TreeNode> ();
+		List<TreeNode> groupB = new ArrayList<TreeNode> ();
+		HashMap<String, int []> counts = new HashMap<String, int []> ();
+		countUnmatchedChildren ((DocumentNode) parentA, counts, 0);
+		countUnmatchedChildren ((DocumentNode) parentB, counts, 1);
+		collectGroupMembers ((DocumentNode) parentA, counts, groupA);
+		collectGroupMembers ((DocumentNode) parentB, counts, groupB);
+		if (groupA.isEmpty () || groupB.isEmpty ())
+			return false;
+		// the siblings of the node won't find anything else to align
+		alignedParents.add (parentB);
+		
+		// unique parents still have to be similar
+		if (assignParents && ((DocumentNode) parentA).getAttributeDistance ((DocumentNode) parentB, allowDifferentIds, careAboutNames, stricterNames) >= maxAttrDist)
+			return false;
+		if (assignParents && !nodeAssign (parentA, parentB))
+			return false;
+		if (LOGGER.isDebugEnabled ())
+			LOGGER.debug ("aligning ", groupA.size (), " and ", groupB.size (), " identical siblings below ", getXPath (parentB));
+		
+		int n = groupA.size ();
+		int m = groupB.size ();
+		String [] hashesA = new String [n];
+		String [] hashesB = new String [m];
+		for (int i = 0; i < n; i++)
+			hashesA[i] = groupA.get (i).getSubTreeHash ();
+		for (int j = 0; j < m; j++)
+			hashesB[j] = groupB.get (j).getSubTreeHash ();
+		boolean [] pairedA = new boolean [n];
+		boolean [] pairedB = new boolean [m];
+		
+		// longest common subsequence of the hashes, so the order of the siblings is kept
+		if ((long) (n + 1) * (m + 1) <= MAX_GROUP_ALIGNMENT_CELLS)
+		{
+			// lengths of the common subsequences of the suffixes
+			int width = m + 1;
+			int [] lcs = new int [(n + 1) * width];
+			for (int i = n - 1; i >= 0; i--)
+				for (int j = m - 1; j >= 0; j--)
+					if (hashesA[i].equals (hashesB[j]))
+						lcs[i * width + j] = lcs[(i + 1) * width + j + 1] + 1;
+					else
+						lcs[i * width + j] = Math.max (lcs[(i + 1) * width + j], lcs[i * width + j + 1]);
+			
+			int i = 0;
+			int j = 0;
+			while (i < n && j < m)
+			{
+				if (hashesA[i].equals (hashesB[j]))
+				{
+					if (expired ())
+						return conMgmt.isConnected (nodeB);
+					recursiveAssign (groupA.get (i), groupB.get (j));
+					pairedA[i++] = true;
+					pairedB[j++] = true;
+				}
+				else if (lcs[(i + 1) * width + j] >= lcs[i * width + j + 1])
+					i++;
+				else
+					j++;
+			}
+		}
+		
+		// pair the rest of every group in document order
+		HashMap<String, ArrayDeque<TreeNode>> rest = new HashMap<String, ArrayDeque<TreeNode>> ();
+		for (int i = 0; i < n; i++)
+			if (!pairedA[i])
+			{
+				ArrayDeque<TreeNode> queue = rest.get (hashesA[i]);
+				if (queue == null)
+				{
+					queue = new ArrayDeque<TreeNode> ();
+					rest.put (hashesA[i], queue);
+				}
+				queue.add (groupA.get (i));
+			}
+		for (int j = 0; j < m; j++)
+			if (!pairedB[j])
+			{
+				ArrayDeque<TreeNode> queue = rest.get (hashesB[j]);
+				if (queue == null || queue.isEmpty ())
+					continue;
+				if (expired ())
+					break;
+				recursiveAssign (queue.poll (), groupB.get (j));
+			}
+		
+		return conMgmt.isConnected (nodeB);
+	}
+	
+	/**
+	 * Gets the only unmatched child of a node with a certain tag name.
+	 *
+	 * @param parent the parent
+	 * @param tagName the tag name
+	 * @return the child, or null if there is none or more than one
+	 */
+	private TreeNode getOnlyUnmatchedChild (DocumentNode parent, String tagName)
+	{
+		TreeNode found = null;
+		for (TreeNode child : parent.getChildren ())
+			if (child.getType () == TreeNode.DOC_NODE && !conMgmt.isConnected (child) && ((DocumentNode) child).getTagName ().equals (tagName))
+			{
+				if (found != null)
+					return null;
+				found = child;
+			}
+		return found;
+	}
+	
+	/**
+	 * Count the subtree hashes of the unmatched children of a node.
+	 *
+	 * @param parent the parent
+	 * @param counts the counts of the hashes: number of children of the original and of the modified node
+	 * @param side 0 for the original document, 1 for the modified document
+	 */
+	private void countUnmatchedChildren (DocumentNode parent, HashMap<String, int []> counts, int side)
+	{
+		for (TreeNode child : parent.getChildren ())
+			if (!conMgmt.isConnected (child))
+			{
+				int [] count = counts.get (child.getSubTreeHash ());
+				if (count == null)
+				{
+					count = new int [2];
+					counts.put (child.getSubTreeHash (), count);
+				}
+				count[side]++;
+			}
+	}
+	
+	/**
+	 * Collect the unmatched children of a node that are members of a group: their hash occurs on both sides and more than once on at least one side.
+	 *
+	 * @param parent the parent
+	 * @param counts the counts of the hashes, see {@link #countUnmatchedChildren(DocumentNode, HashMap, int)}
+	 * @param members the list to collect the members
+	 */
+	private void collectGroupMembers (DocumentNode parent, HashMap<String, int []> counts, List<TreeNode> members)
+	{
+		for (TreeNode child : parent.getChildren ())
+			if (!conMgmt.isConnected (child))
+			{
+				int [] count = counts.get (child.getSubTreeHash ());
+				if (count[0] > 0 && count[1] > 0 && (count[0] > 1 || count[1] > 1))
+					members.add (child);
+			}
+	}
+	
+	/**
+	 * Optimization step, visiting the document nodes of the subtree in preorder using an explicit stack.
+	 *
+	 * @param rootA the root of the subtree in the original document
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void optimize (DocumentNode rootA) throws BivesConnectionException
+	{
+		ArrayDeque<DocumentNode> stack = new ArrayDeque<DocumentNode> ();
+		stack.push (rootA);
+		while (!stack.isEmpty ())
+		{
+			// once expired, all remaining nodes are skipped
+			if (expired ())
+				return;
+			
+			DocumentNode nodeA = stack.pop ();
+			if (!optimizeChildren (nodeA))
+				continue;
+			
+			// Apply on children
+			List<TreeNode> children = nodeA.getChildren ();
+			for (int i = children.size () - 1; i >= 0; i--)
+			{
+				TreeNode child = children.get (i);
+				if (child.getType () == TreeNode.DOC_NODE)
+					stack.push ((DocumentNode) child);
+			}
+		}
+	}
+	
+	/**
+	 * Optimization of the children of a single node: try to match its free children with the free children of its partner.
+	 *
+	 * @param nodeA the node in the original document
+	 * @return false if the partner of the node is not a document node, so the subtree must not be optimized
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private boolean optimizeChildren (DocumentNode nodeA) throws BivesConnectionException
 	{
 		// If node is matched, we can try to do some work
-		Connection c = conMgmt.getConnectionForNode (nodeA);
-		if (c != null)
+		TreeNode tnb = conMgmt.getPartner (nodeA);
+		if (tnb != null)
 		{
-			TreeNode tnb = c.getPartnerOf (nodeA);
 			if (tnb.getType () != TreeNode.DOC_NODE)
-				return;
+				return false;
 			DocumentNode nodeB = (DocumentNode) tnb;
 			
 			// Get Free nodes in v0
@@ -425,7 +1087,7 @@ public class XyDiffConnector
 			List<TreeNode> kidsA = nodeA.getChildren ();
 			for (TreeNode node : kidsA)
 			{
-				if (conMgmt.getConnectionForNode (node) != null)
+				if (conMgmt.isConnected (node))
 					continue;
 				String tag = node.getTagName ();
 				if (kidsMapA.get (tag) == null)
@@ -438,7 +1100,7 @@ public class XyDiffConnector
 			List<TreeNode> kidsB = nodeB.getChildren ();
 			for (TreeNode node : kidsB)
 			{
-				if (conMgmt.getConnectionForNode (node) != null)
+				if (conMgmt.isConnected (node))
 					continue;
 				String tag = node.getTagName ();
 				if (kidsMapB.get (tag) == null)
@@ -466,15 +1128,8 @@ public class XyDiffConnector
 			// End-if - Assigned(v0nodeID)
 			}*/
 		} //endif
-		
-		// Apply recursivly on children
-		List<TreeNode> children = nodeA.getChildren ();
-		for (TreeNode child : children)
-		{
-			if (child.getType () == TreeNode.DOC_NODE)
-				optimize ((DocumentNode) child);
-		}
-	}// end optimize
+		return true;
+	}
 	
 	/**
 	 * Optimization step.
@@ -498,10 +1153,11 @@ public class XyDiffConnector
 			if (!textNodes)
 			{
 				DocumentNode dnodeA = (DocumentNode) nodeA, dnodeB = (DocumentNode) nodeB;
-				if (dnodeA.getAttributeDistance (dnodeB, allowDifferentIds, careAboutNames, stricterNames) < MAX_ATTR_DIST)
+				if (dnodeA.getAttributeDistance (dnodeB, allowDifferentIds, careAboutNames, stricterNames) < maxAttrDist)
 				{
-					LOGGER.debug ("connect unambiguos nodes during optimization: ", nodeA.getXPath (), " --> ", nodeB.getXPath ());
-					conMgmt.addConnection (new NodeConnection (nodeA, nodeB));
+					if (LOGGER.isDebugEnabled ())
+						LOGGER.debug ("connect unambiguos nodes during optimization: ", getXPath (nodeA), " --> ", getXPath (nodeB));
+					conMgmt.connect (nodeA, nodeB);
 				}
 			}
 			else if (textNodes)
@@ -509,41 +1165,235 @@ public class XyDiffConnector
 				TextNode tnodeA = (TextNode) nodeA, tnodeB = (TextNode) nodeB;
 				if (tnodeA.getTextDistance (tnodeB) < .5)
 				{
-					LOGGER.debug ("connect unambiguos nodes during optimization: ", nodeA.getXPath (), " --> ", nodeB.getXPath ());
-					conMgmt.addConnection (new NodeConnection (nodeA, nodeB));
+					if (LOGGER.isDebugEnabled ())
+						LOGGER.debug ("connect unambiguos nodes during optimization: ", getXPath (nodeA), " --> ", getXPath (nodeB));
+					conMgmt.connect (nodeA, nodeB);
 				}
 			}
 			return;
 		}
 		
+		if (maxOptimizationPairs > 0 && (long) nodesA.size () * nodesB.size () > maxOptimizationPairs)
+			optimizeBuckets (nodesA, nodesB, textNodes);
+		else
+			greedyConnect (nodesA, nodesB, textNodes);
+	}
+	
+	/**
+	 * Greedily connect the most similar pairs of nodes.
+	 * Pairs that are too different are dropped as soon as their distance is known, the others are polled from a heap.
+	 * Pairs of equal distance are connected in the order of their generation, as with a stable sort of all pairs.
+	 *
+	 * @param nodesA the nodes a
+	 * @param nodesB the nodes b
+	 * @param textNodes are we connecting text nodes?
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void greedyConnect (List<TreeNode> nodesA, List<TreeNode> nodesB, boolean textNodes) throws BivesConnectionException
+	{
+		double maxDist = textNodes ? .5 : maxAttrDist;
+		
 		// calculate distances between nodes
-		List<NodeDistance> distances = new ArrayList<NodeDistance> ();
+		PriorityQueue<ScoredPair> distances = new PriorityQueue<ScoredPair> ();
+		int sequence = 0;
 		for (TreeNode nodeA : nodesA)
+		{
+			// scoring a node costs a unit per candidate, once expired the pairs scored so far are connected
+			if (expired (nodesB.size ()))
+				break;
 			for (TreeNode nodeB : nodesB)
 			{
+				double distance;
 				if (nodeA.getType () == TreeNode.TEXT_NODE)
-				{
-					TextNode tnodeA = (TextNode) nodeA, tnodeB = (TextNode) nodeB;
-					distances.add (new NodeDistance (nodeA, nodeB, tnodeA.getTextDistance (tnodeB)));
-				}
+					distance = ((TextNode) nodeA).getTextDistance ((TextNode) nodeB);
 				else
-					distances.add (new NodeDistance (nodeA, nodeB, ((DocumentNode) nodeA).getAttributeDistance ((DocumentNode) nodeB, allowDifferentIds, careAboutNames, stricterNames)));
+					distance = ((DocumentNode) nodeA).getAttributeDistance ((DocumentNode) nodeB, allowDifferentIds, careAboutNames, stricterNames);
+				sequence++;
+				// too different nodes will never be connected
+				if (distance > maxDist)
+					continue;
+				distances.add (new ScoredPair (nodeA, nodeB, distance, sequence));
 			}
-		// sort by distance
-		Collections.sort (distances, new NodeDistanceComparator (false));
+		}
 		
 		// greedy connect nodes
-		for (NodeDistance comp : distances)
+		while (distances.size () > 0)
 		{
-			// stop at too different nodes
-			if ((textNodes &&  comp.distance > 0.5) || (!textNodes && comp.distance > MAX_ATTR_DIST))
-				break;
+			ScoredPair comp = distances.poll ();
 			TreeNode na = comp.nodeA, nb = comp.nodeB;
-			if (conMgmt.getConnectionForNode (na) == null && conMgmt.getConnectionForNode (nb) == null)
-				conMgmt.addConnection (new NodeConnection (na, nb));
+			if (!conMgmt.isConnected (na) && !conMgmt.isConnected (nb))
+				conMgmt.connect (na, nb);
 		}
 	}
 	
+	/**
+	 * Bounded optimization step for huge lists of siblings.
+	 * Nodes are bucketed by a cheap signature (see {@link #getSignature(TreeNode)}) and only nodes in the same bucket are compared.
+	 * Buckets with more than {@link #maxOptimizationPairs} pairs are split into windows of nodes at the same positions in document order, and only nodes in the same window are compared.
+	 * Leftovers are compared afterwards if there are at most {@link #maxOptimizationPairs} pairs of them.
+	 *
+	 * @param nodesA the nodes a
+	 * @param nodesB the nodes b
+	 * @param textNodes are we connecting text nodes?
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private void optimizeBuckets (List<TreeNode> nodesA, List<TreeNode> nodesB, boolean textNodes) throws BivesConnectionException
+	{
+		LOGGER.info ("bounded optimization of ", nodesA.size (), " x ", nodesB.size (), " nodes");
+		
+		LinkedHashMap<String, List<TreeNode>> bucketsA = new LinkedHashMap<String, List<TreeNode>> ();
+		for (TreeNode node : nodesA)
+		{
+			String signature = getSignature (node);
+			if (bucketsA.get (signature) == null)
+				bucketsA.put (signature, new ArrayList<TreeNode> ());
+			bucketsA.get (signature).add (node);
+		}
+		HashMap<String, List<TreeNode>> bucketsB = new HashMap<String, List<TreeNode>> ();
+		for (TreeNode node : nodesB)
+		{
+			String signature = getSignature (node);
+			if (bucketsB.get (signature) == null)
+				bucketsB.put (signature, new ArrayList<TreeNode> ());
+			bucketsB.get (signature).add (node);
+		}
+		
+		for (String signature : bucketsA.keySet ())
+		{
+			if (expired ())
+				return;
+			List<TreeNode> bucketA = bucketsA.get (signature);
+			List<TreeNode> bucketB = bucketsB.get (signature);
+			if (bucketB == null)
+				continue;
+			if ((long) bucketA.size () * bucketB.size () <= maxOptimizationPairs)
+			{
+				greedyConnect (bucketA, bucketB, textNodes);
+				continue;
+			}
+			
+			// too large, compare windows of nodes in document order
+			int window = Math.max (1, (int) Math.sqrt (maxOptimizationPairs));
+			LOGGER.info ("splitting bucket of ", bucketA.size (), " x ", bucketB.size (), " nodes into windows of ", window);
+			for (int start = 0; start < bucketA.size () && start < bucketB.size (); start += window)
+			{
+				if (expired ())
+					return;
+				greedyConnect (bucketA.subList (start, Math.min (start + window, bucketA.size ())), bucketB.subList (start, Math.min (start + window, bucketB.size ())), textNodes);
+			}
+		}
+		
+		// give the leftovers a chance if that's affordable
+		List<TreeNode> restA = new ArrayList<TreeNode> (nodesA);
+		conMgmt.deleteMatchedNodes (restA);
+		List<TreeNode> restB = new ArrayList<TreeNode> (nodesB);
+		conMgmt.deleteMatchedNodes (restB);
+		if ((long) restA.size () * restB.size () <= maxOptimizationPairs)
+			greedyConnect (restA, restB, textNodes);
+		else
+			LOGGER.info ("bounded optimization leaves ", restA.size (), " x ", restB.size (), " nodes unmatched");
+	}
+	
+	/**
+	 * Gets a cheap signature of a node for the bounded optimization.
+	 * For text nodes that's the length band (log2) of the text, for document nodes it's the set of attribute names and the prefix of the name or id.
+	 *
+	 * @param node the node
+	 * @return the signature
+	 */
+	private String getSignature (TreeNode node)
+	{
+		if (node.getType () == TreeNode.TEXT_NODE)
+		{
+			String text = ((TextNode) node).getText ();
+			int length = text == null ? 0 : text.length ();
+			return "#text" + (32 - Integer.numberOfLeadingZeros (length));
+		}
+		
+		DocumentNode dnode = (DocumentNode) node;
+		StringBuilder signature = new StringBuilder ();
+		for (String attr : new TreeSet<String> (dnode.getAttributes ()))
+			signature.append (attr).append (' ');
+		
+		String label = dnode.getAttributeValue ("name");
+		if (label == null)
+			label = dnode.getAttributeValue ("id");
+		if (label != null)
+			signature.append ('|').append (label, 0, Math.min (SIGNATURE_PREFIX_LENGTH, label.length ()));
+		return signature.toString ();
+	}
+	
+	/**
+	 * The Class ScoredPair storing the distance of two nodes. Pairs are ordered by distance and then by the order of their generation.
+	 */
+	private static class ScoredPair implements Comparable<ScoredPair>
+	{
+		TreeNode nodeA;
+		TreeNode nodeB;
+		double distance;
+		int sequence;
+		public ScoredPair (TreeNode nodeA, TreeNode nodeB, double distance, int sequence)
+		{
+			this.nodeA = nodeA;
+			this.nodeB = nodeB;
+			this.distance = distance;
+			this.sequence = sequence;
+		}
+		@Override
+		public int compareTo (ScoredPair other)
+		{
+			if (distance < other.distance)
+				return -1;
+			if (distance > other.distance)
+				return 1;
+			return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+		}
+	}
+	
+	/**
+	 * Gets the path of child numbers from the root to a node, using the node index of the mapping.
+	 *
+	 * @param node the node
+	 * @return the child-number path
+	 */
+	private int [] getChildIndexPath (TreeNode node)
+	{
+		NodeIndex index = conMgmt.getIndex (node);
+		if (index != null)
+			return index.getChildNoPath (index.getNumber (node));
+		
+		// not part of the documents, walk up the tree
+		int depth = 0;
+		for (TreeNode n = node; n.getParent () != null; n = n.getParent ())
+			depth++;
+		int [] path = new int [depth];
+		for (TreeNode n = node; n.getParent () != null; n = n.getParent ())
+			path[--depth] = n.getParent ().getNoOfChild (n);
+		return path;
+	}
+	
+	/**
+	 * Computes the structural distance of two nodes, based on their child-index paths.
+	 * That is the number of levels below the deepest common position plus the sum of the positional deltas on aligned levels.
+	 *
+	 * @param nodeA the first node
+	 * @param nodeB the second node
+	 * @return the structural distance
+	 */
+	private int getStructuralDistance (TreeNode nodeA, TreeNode nodeB)
+	{
+		int [] a = getChildIndexPath (nodeA);
+		int [] b = getChildIndexPath (nodeB);
+		int aligned = Math.min (a.length, b.length);
+		int prefix = 0;
+		while (prefix < aligned && a[prefix] == b[prefix])
+			prefix++;
+		
+		int dist = (a.length - prefix) + (b.length - prefix);
+		for (int i = prefix; i < aligned; i++)
+			dist += Math.abs (a[i] - b[i]);
+		return dist;
+	}
 	
 
 	class CandidateResult implements Comparable<CandidateResult>
@@ -551,18 +1401,23 @@ public class XyDiffConnector
 		TreeNode candidate;
 		int level;
 		int dist;
-		String xPath;
-		public CandidateResult (TreeNode candidate, int level, String xPath)
+		TreeNode reference;
+		public CandidateResult (TreeNode candidate, int level, TreeNode reference)
 		{
 			this.candidate = candidate;
 			this.level = level;
 			this.dist = -1;
-			this.xPath = xPath;
+			this.reference = reference;
 		}
 		public int getDist ()
 		{
 			if (dist == -1)
-				dist = GeneralTools.computeLevenshteinDistance (xPath, candidate.getXPath ());
+			{
+				if (tieBreaker == TIE_BREAKER_XPATH_LEVENSHTEIN)
+					dist = GeneralTools.computeLevenshteinDistance (getXPath (reference), getXPath (candidate));
+				else
+					dist = getStructuralDistance (reference, candidate);
+			}
 			return dist;
 		}
 		@Override
@@ -641,22 +1496,15 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 				LOGGER.debug ("but node doesn't not have ancesters up to this level\n");
 				return null;
 			}
-			LOGGER.debug ("    pass v1nodeRelative=", v1nodeRelative.getXPath ());
+			if (LOGGER.isDebugEnabled ())
+				LOGGER.debug ("    pass v1nodeRelative=", getXPath (v1nodeRelative));
 			
-			if (conMgmt.getConnectionForNode (v1nodeRelative) == null)
+			if (!conMgmt.isConnected (v1nodeRelative))
 			{
 				LOGGER.debug ("but v1 relative at this level has no match");
 			}
 			else
 			{
-				/* For the lower levels, use precomputed index tables to acces candidates given the parent */
-				
-				if (false && candidateRelativeLevel<=MIN_CANDIDATEPARENT_LEVEL)
-				{
-					// TODO: no idea...
-				}
-				/* For higher levels, try every candidate and this if its ancestor is a match for us */
-				else
 				{
 					List<TreeNode> theList = docA.getNodesByHash (selfkey);
 					if (theList == null || theList.size () < 1)
@@ -665,21 +1513,33 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 						return null;
 					}
 					LOGGER.debug ("  num candidates: ", theList.size ());
-					if (theList.size () > 50)
-						LOGGER.warn ("it seems that there are too many candidates (", theList.size (), ") for a match of ", v1nodeID.getXPath (), " (", selfkey, ")");
 					
-					final String xPath = v1nodeID.getXPath ();
+					Collection<TreeNode> toTest = theList;
+					/* For the lower levels, use precomputed index tables to acces candidates given the parent */
+					if (candidateRelativeLevel <= candidatesA.getMaxLevel ())
+						toTest = candidatesA.getCandidates (selfkey, candidateRelativeLevel, conMgmt.getPartner (v1nodeRelative));
+					/* For higher levels, try every candidate and this if its ancestor is a match for us */
+					else if (theList.size () > 50)
+						LOGGER.warn ("it seems that there are too many candidates (", theList.size (), ") for a match of ", getXPath (v1nodeID), " (", selfkey, ")");
+					
+					candidateLists++;
+					candidatesTotal += toTest.size ();
+					
 					List<CandidateResult> candidates = new ArrayList<CandidateResult> ();
 					
 					//for (int i = 0; i < theList.size (); i++)
-					for (TreeNode candidate : theList)
+					for (TreeNode candidate : toTest)
 					{
+						if (expired ())
+							break;
 						
-						LOGGER.debug ("    trying " + candidate.getXPath ());
+						if (LOGGER.isDebugEnabled ())
+							LOGGER.debug ("    trying " + getXPath (candidate));
 						//TreeNode candidate = theList.get (i);
-						if (conMgmt.getConnectionForNode (candidate) == null)
+						if (!conMgmt.isConnected (candidate) && inRegion (candidate, regionA))
 						{// Node still not assigned
-							LOGGER.debug ("(", candidate.getXPath (), ")");
+							if (LOGGER.isDebugEnabled ())
+								LOGGER.debug ("(", getXPath (candidate), ")");
 							TreeNode candidateRelative = candidate;
 							for (int j = 0; j < candidateRelativeLevel; j++)
 							{
@@ -690,7 +1550,7 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 							// if relative is ok at required level, test matching
 							if (candidateRelative != null)
 							{
-								if (conMgmt.getConnectionOfNodes (candidateRelative, v1nodeRelative) != null)
+								if (conMgmt.areConnected (candidateRelative, v1nodeRelative))
 								{
 									
 									// check if there is a better option for candidate...
@@ -712,7 +1572,7 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 											System.out.println (candidateRelativeLevel);
 									}
 									//return candidate;
-									candidates.add (new CandidateResult (candidate, candidateRelativeLevel, xPath));
+									candidates.add (new CandidateResult (candidate, candidateRelativeLevel, v1nodeID));
 								}
 							}
 						}
@@ -736,13 +1596,14 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 							}
 						}*/
 						
-						LOGGER.debug (" took candidate: ", candidate.candidate.getXPath ());
+						if (LOGGER.isDebugEnabled ())
+							LOGGER.debug (" took candidate: ", getXPath (candidate.candidate));
 						/*if (candidates.size () == 2)
 						{
 							LOGGER.debug ("    all candidates");
 							for (CandidateResult c : candidates)
 							{
-								LOGGER.debug ("    candidate: " + c.level + "/" + c.dist + " -> " + c.candidate.getXPath ());
+								LOGGER.debug ("    candidate: " + c.level + "/" + c.dist + " -> " + getXPath (c.candidate));
 							}
 						}*/
 			
@@ -756,7 +1617,6 @@ private CandidateResult getBestCandidate (TreeNode v1nodeID, String selfkey) thr
 						//System.exit (2);
 
 						
-						LOGGER.setLevel (LOGGER.ERROR);
 						return candidate;
 					}
 					
@@ -824,22 +1684,15 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 			LOGGER.debug ("but node doesn't not have ancesters up to this level\n");
 			return null;
 		}
-		LOGGER.debug ("    pass v0nodeRelative=", v0nodeRelative.getXPath ());
+		if (LOGGER.isDebugEnabled ())
+			LOGGER.debug ("    pass v0nodeRelative=", getXPath (v0nodeRelative));
 		
-		if (conMgmt.getConnectionForNode (v0nodeRelative) == null)
+		if (!conMgmt.isConnected (v0nodeRelative))
 		{
 			LOGGER.debug ("but v0 relative at this level has no match");
 		}
 		else
 		{
-			/* For the lower levels, use precomputed index tables to acces candidates given the parent */
-			
-			/*if (false && candidateRelativeLevel<=MIN_CANDIDATEPARENT_LEVEL)
-			{
-				
-			}*/
-			/* For higher levels, try every candidate and this if its ancestor is a match for us */
-			//else
 			{
 				List<TreeNode> theList = docB.getNodesByHash (selfkey);
 				if (theList == null || theList.size () < 1)
@@ -848,20 +1701,32 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 					return null;
 				}
 				LOGGER.debug ("  num candidates: ", theList.size ());
-				if (theList.size () > 50)
-					LOGGER.warn ("it seems that there are too many candidates (", theList.size (), ") for a match of ", v0nodeID.getXPath (), " (", selfkey, ")");
 				
-				final String xPath = v0nodeID.getXPath ();
+				Collection<TreeNode> toTest = theList;
+				/* For the lower levels, use precomputed index tables to acces candidates given the parent */
+				if (candidateRelativeLevel <= candidatesB.getMaxLevel ())
+					toTest = candidatesB.getCandidates (selfkey, candidateRelativeLevel, conMgmt.getPartner (v0nodeRelative));
+				/* For higher levels, try every candidate and this if its ancestor is a match for us */
+				else if (theList.size () > 50)
+					LOGGER.warn ("it seems that there are too many candidates (", theList.size (), ") for a match of ", getXPath (v0nodeID), " (", selfkey, ")");
+				
+				candidateLists++;
+				candidatesTotal += toTest.size ();
+				
 				List<CandidateResult> candidates = new ArrayList<CandidateResult> ();
 				
 				//for (int i = 0; i < theList.size (); i++)
-				for (TreeNode candidate : theList)
+				for (TreeNode candidate : toTest)
 				{
-					LOGGER.debug ("    trying " + candidate.getXPath ());
+					if (expired ())
+						break;
+					if (LOGGER.isDebugEnabled ())
+						LOGGER.debug ("    trying " + getXPath (candidate));
 					//TreeNode candidate = theList.get (i);
-					if (conMgmt.getConnectionForNode (candidate) == null)
+					if (!conMgmt.isConnected (candidate) && inRegion (candidate, regionB))
 					{// Node still not assigned
-						LOGGER.debug ("(", candidate.getXPath (), ")");
+						if (LOGGER.isDebugEnabled ())
+							LOGGER.debug ("(", getXPath (candidate), ")");
 						TreeNode candidateRelative = candidate;
 						for (int j = 0; j < candidateRelativeLevel; j++)
 						{
@@ -872,7 +1737,7 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 						// if relative is ok at required level, test matching
 						if (candidateRelative != null)
 						{
-							if (conMgmt.getConnectionOfNodes (v0nodeRelative, candidateRelative) != null)
+							if (conMgmt.areConnected (v0nodeRelative, candidateRelative))
 							{
 								
 								// check if there is a better option for candidate...
@@ -893,7 +1758,7 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 										System.out.println (candidateRelativeLevel);
 								}
 								//return candidate;
-								candidates.add (new CandidateResult (candidate, candidateRelativeLevel, xPath));
+								candidates.add (new CandidateResult (candidate, candidateRelativeLevel, v0nodeID));
 							}
 						}
 					}
@@ -905,13 +1770,14 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 					Collections.sort (candidates);
 					// get min
 					CandidateResult candidate = candidates.get (0);
-					LOGGER.debug (" took candidate: ", candidate.candidate.getXPath ());
+					if (LOGGER.isDebugEnabled ())
+						LOGGER.debug (" took candidate: ", getXPath (candidate.candidate));
 					/*if (candidates.size () == 2)
 					{
 						LOGGER.debug ("    all candidates");
 						for (CandidateResult c : candidates)
 						{
-							LOGGER.debug ("    candidate: " + c.level + "/" + c.dist + " -> " + c.candidate.getXPath ());
+							LOGGER.debug ("    candidate: " + c.level + "/" + c.dist + " -> " + getXPath (c.candidate));
 						}
 					}*/
 					
@@ -919,7 +1785,6 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 					//System.exit (2);
 
 					
-					LOGGER.setLevel (LOGGER.ERROR);
 					return candidate;
 				}
 				
@@ -932,8 +1797,25 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 }
 
 	
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.algorithm.Connector#nodeAssign(de.unirostock.sems.xmlutils.ds.TreeNode, de.unirostock.sems.xmlutils.ds.TreeNode)
+	 */
+	@Override
+	protected boolean nodeAssign (TreeNode a, TreeNode b) throws BivesConnectionException
+	{
+		if (!super.nodeAssign (a, b))
+			return false;
+		
+		// keep the index tables free of connected nodes
+		if (conMgmt.isConnected (a))
+			candidatesA.removeNode (a);
+		if (conMgmt.isConnected (b))
+			candidatesB.removeNode (b);
+		return true;
+	}
+	
 	/**
-	 * Recursively assign subtrees to each other.
+	 * Assign subtrees to each other, node by node in preorder.
 	 *
 	 * @param v0nodeID the node rooting the subtree in the original document
 	 * @param v1nodeID the node rooting the subtree in the modified document
@@ -943,20 +1825,33 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 	{
 		if (v0nodeID == null || v1nodeID == null)
 		{
-			LOGGER.debug ("recursiveAssign::bad arguments (", v0nodeID, ", ", v0nodeID, ")");
+			LOGGER.debug ("recursiveAssign::bad arguments (", v0nodeID, ", ", v1nodeID, ")");
 			return;
 		}
 		
-		nodeAssign (v0nodeID, v1nodeID);
-
-		if (v0nodeID.getType () == TreeNode.DOC_NODE && v1nodeID.getType () == TreeNode.DOC_NODE)
+		// pairs of nodes to assign, in preorder
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		stack.push (v1nodeID);
+		stack.push (v0nodeID);
+		while (!stack.isEmpty ())
 		{
-			List<TreeNode> v0children = ((DocumentNode) v0nodeID).getChildren ();
-			List<TreeNode> v1children = ((DocumentNode) v1nodeID).getChildren ();
-			if (v0children.size () != v1children.size ())
-				LOGGER.debug ("recursiveAssign::diff # children: ", v0children.size (), " -vs- ", v1children.size ());
-			for (int i = 0; i < v0children.size (); i++)
-				recursiveAssign(v0children.get (i), v1children.get (i));
+			TreeNode v0node = stack.pop ();
+			TreeNode v1node = stack.pop ();
+			
+			nodeAssign (v0node, v1node);
+	
+			if (v0node.getType () == TreeNode.DOC_NODE && v1node.getType () == TreeNode.DOC_NODE)
+			{
+				List<TreeNode> v0children = ((DocumentNode) v0node).getChildren ();
+				List<TreeNode> v1children = ((DocumentNode) v1node).getChildren ();
+				if (v0children.size () != v1children.size ())
+					LOGGER.debug ("recursiveAssign::diff # children: ", v0children.size (), " -vs- ", v1children.size ());
+				for (int i = v0children.size () - 1; i >= 0; i--)
+				{
+					stack.push (v1children.get (i));
+					stack.push (v0children.get (i));
+				}
+			}
 		}
 	}
 	
@@ -985,12 +1880,12 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 			if (v0ascendant==null||v1ascendant==null)
 				return;
 			
-			if (conMgmt.getConnectionForNode (v0ascendant) != null)
+			if (conMgmt.isConnected (v0ascendant))
 			{
 				LOGGER.debug ("forceParentsAssign stopped at level ", i, " because v0 ascendant is already assigned");
 				return;
 			}
-			if (conMgmt.getConnectionForNode (v1ascendant) != null)
+			if (conMgmt.isConnected (v1ascendant))
 			{
 				LOGGER.debug ("forceParentsAssign stopped at level ", i, " because v1 ascendant is already assigned");
 				return;
@@ -998,7 +1893,8 @@ private CandidateResult getBestCandidateOw (TreeNode v0nodeID, String selfkey, i
 			
 			if (!nodeAssign( v0ascendant, v1ascendant))
 			{
-				LOGGER.debug ("forceParentsAssign stopped because relatives (", v0ascendant.getXPath (), ", ", v1ascendant.getXPath (), ") do not have the same label");
+				if (LOGGER.isDebugEnabled ())
+					LOGGER.debug ("forceParentsAssign stopped because relatives (", getXPath (v0ascendant), ", ", getXPath (v1ascendant), ") do not have the same label");
 				return;
 			}
 			
@@ -3,17 +3,31 @@
  */
 package de.unirostock.sems.bives.api;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 import org.jdom2.Document;
 import org.jdom2.JDOMException;
 
+import de.binfalse.bflog.LOGGER;
 import de.unirostock.sems.bives.algorithm.DiffAnnotator;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.PhaseTimer;
 import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.algorithm.general.DefaultDiffAnnotator;
 import de.unirostock.sems.bives.algorithm.general.PatchProducer;
+import de.unirostock.sems.bives.cache.DiffCache;
+import de.unirostock.sems.bives.cache.DiffCacheEntry;
+import de.unirostock.sems.bives.cache.DiffCacheKey;
 import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.bives.ds.PatchStreamWriter;
 import de.unirostock.sems.bives.ds.graph.GraphTranslator;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
 import de.unirostock.sems.bives.markup.Typesetting;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
@@ -67,6 +81,12 @@ public abstract class Diff
 	/** The connections. */
 	protected SimpleConnectionManager	connections;
 	
+	/** Was the mapping stopped before it was complete? */
+	protected boolean									partialMapping;
+	
+	/** The listener to report metrics, or null. */
+	protected DiffListener						diffListener;
+	
 	/** The patch producer to produce a patch from the computed mapping. */
 	private PatchProducer							patchProducer;
 	
@@ -82,6 +102,15 @@ public abstract class Diff
 	/** The annotation infrastructure to store knowledge about the changes. */
 	private DiffAnnotator diffAnnotator;
 	
+	/** The cache for diff results, or null. */
+	private DiffCache cache;
+	
+	/** The key of this diff in the cache. */
+	private DiffCacheKey cacheKey;
+	
+	/** The cached result of this diff. */
+	private DiffCacheEntry cacheEntry;
+	
 	
 	/**
 	 * Instantiates a new diff object in order to compare two documents stored in
@@ -212,17 +241,72 @@ public abstract class Diff
 	public String getDiff (boolean inclAnnotations)
 	{
 		
+		// annotations depend on the annotator
+		String artifact = inclAnnotations
+			? DiffCacheEntry.ARTIFACT_PATCH_ANNOTATED + ":" + (diffAnnotator == null ? DefaultDiffAnnotator.class : diffAnnotator.getClass ()).getName ()
+			: DiffCacheEntry.ARTIFACT_PATCH;
+		String cached = getCachedArtifact (artifact);
+		if (cached != null)
+			return cached;
+		
 		if (patch == null)
 			producePatch ();
+		PhaseTimer timer = new PhaseTimer (diffListener);
 		if (inclAnnotations && xmlPatchInclAnnotations == null)
+		{
 			xmlPatchInclAnnotations = XmlTools.prettyPrintDocument (patch.getDocument (true));
+			timer.finish (DiffListener.PHASE_PATCH_SERIALIZE);
+		}
 		if (!inclAnnotations && xmlPatch == null)
+		{
 			xmlPatch = XmlTools.prettyPrintDocument (patch.getDocument (false));
+			timer.finish (DiffListener.PHASE_PATCH_SERIALIZE);
+		}
 		
+		cacheArtifact (artifact, inclAnnotations ? xmlPatchInclAnnotations : xmlPatch);
 		return inclAnnotations ? xmlPatchInclAnnotations : xmlPatch;
 	}
 	
 	
+	/**
+	 * Write the differences encoded in XML to a writer, without annotations.
+	 * 
+	 * If the patch was not yet produced, it is streamed while it is produced, so the memory needed does not grow with the size of the patch, see {@link PatchProducer#produce(Writer, boolean)}.
+	 * The patch is not kept afterwards.
+	 *
+	 * @param out the writer, which is flushed but not closed
+	 * @param pretty should the output be indented?
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeDiff (Writer out, boolean pretty) throws IOException
+	{
+		if (patch != null)
+		{
+			new PatchStreamWriter (out, pretty).writePatch (patch);
+			return;
+		}
+		PatchProducer producer = new PatchProducer ();
+		producer.init (connections, treeA, treeB, diffAnnotator);
+		producer.setDiffListener (diffListener);
+		producer.produce (out, pretty);
+	}
+	
+	
+	/**
+	 * Write the differences encoded in XML to a stream using UTF-8, see {@link #writeDiff(Writer, boolean)}.
+	 *
+	 * @param out the stream, which is flushed but not closed
+	 * @param pretty should the output be indented?
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeDiff (OutputStream out, boolean pretty) throws IOException
+	{
+		Writer writer = new BufferedWriter (new OutputStreamWriter (out, StandardCharsets.UTF_8));
+		writeDiff (writer, pretty);
+		writer.flush ();
+	}
+	
+	
 	/**
 	 * Gets the patch object.
 	 * 
@@ -245,11 +329,186 @@ public abstract class Diff
 		{
 			patchProducer = new PatchProducer ();
 			patchProducer.init (connections, treeA, treeB, diffAnnotator);
+			patchProducer.setDiffListener (diffListener);
 			xmlPatch = null;
-			xmlPatchInclAnnotations = patchProducer.produce (true);
-			patch = patchProducer.getPatch ();
+			xmlPatchInclAnnotations = null;
+			patch = patchProducer.producePatch ();
+		}
+		
+	}
+	
+	
+	/**
+	 * Checks if the mapping was stopped before it was complete, e.g. because a time budget was spent.
+	 * The patch of a partial mapping is still correct, but might be less minimal.
+	 *
+	 * @return true, if the mapping is partial
+	 */
+	public boolean isPartialMapping ()
+	{
+		return partialMapping;
+	}
+	
+	
+	/**
+	 * Sets the listener to report metrics of the comparison, such as the time spent in the mapping and patch production, node counts, and the number of operations in the patch.
+	 * Has to be set before the trees are mapped.
+	 *
+	 * @param diffListener the listener, or null to disable reporting
+	 * @see de.unirostock.sems.bives.algorithm.DiffMetrics
+	 */
+	public void setDiffListener (DiffListener diffListener)
+	{
+		this.diffListener = diffListener;
+	}
+	
+	
+	/**
+	 * Sets the cache for diff results. Has to be set before the trees are mapped.
+	 *
+	 * @param cache the cache, or null to disable caching
+	 */
+	public void setCache (DiffCache cache)
+	{
+		this.cache = cache;
+	}
+	
+	
+	/**
+	 * Gets the variant of this diff's mapping for cache keys. Subclasses with settings that change the resulting mapping have to return a distinct variant for every combination of settings.
+	 *
+	 * @return the variant, empty by default
+	 */
+	protected String getCacheVariant ()
+	{
+		return "";
+	}
+	
+	
+	/**
+	 * Restore the mapping from the cache. Implementations of {@link #mapTrees(boolean, boolean, boolean)} should call this method first and skip the mapping if it returns true.
+	 *
+	 * @param allowDifferentIds are mapped entities allowed to have different ids?
+	 * @param careAboutNames should we care about names?
+	 * @param stricterNames should we handle names very strictly?
+	 * @return true, if the mapping was restored from the cache
+	 */
+	protected boolean restoreMapping (boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames)
+	{
+		if (cache == null)
+			return false;
+		
+		cacheKey = new DiffCacheKey (getClass ().getName () + getCacheVariant (), treeA, treeB, allowDifferentIds, careAboutNames, stricterNames);
+		DiffCacheEntry entry = cache.get (cacheKey);
+		if (entry == null)
+			return false;
+		
+		try
+		{
+			connections = entry.toConnections (treeA, treeB);
 		}
+		catch (BivesConnectionException e)
+		{
+			LOGGER.warn (e, "cannot restore cached mapping, mapping the trees again");
+			return false;
+		}
+		cacheEntry = entry;
+		
+		treeA.getRoot ().resetModifications ();
+		treeA.getRoot ().evaluate (connections);
+		
+		treeB.getRoot ().resetModifications ();
+		treeB.getRoot ().evaluate (connections);
+		
+		LOGGER.info ("restored mapping from cache: ", cacheKey);
+		return true;
+	}
+	
+	
+	/**
+	 * Store the mapping in the cache. Implementations of {@link #mapTrees(boolean, boolean, boolean)} should call this method after the mapping was computed.
+	 */
+	protected void storeMapping ()
+	{
+		if (cache == null || cacheKey == null)
+			return;
+		
+		cacheEntry = DiffCacheEntry.fromConnections (connections, treeA, treeB);
+		cache.put (cacheKey, cacheEntry);
+	}
+	
+	
+	/**
+	 * Gets an artifact, such as a report, from the cache.
+	 *
+	 * @param name the name of the artifact
+	 * @return the artifact, or null if not cached
+	 */
+	protected String getCachedArtifact (String name)
+	{
+		if (cacheEntry == null)
+			return null;
+		return cacheEntry.getArtifact (name);
+	}
+	
+	
+	/**
+	 * Gets an artifact, such as a report, by name. The artifact is served from the cache if available, otherwise it is produced and stored in the cache.
+	 *
+	 * @param name the name of the artifact, e.g. {@link DiffCacheEntry#ARTIFACT_HTML_REPORT}
+	 * @return the artifact, or null if this diff does not provide it
+	 * @throws Exception if the artifact cannot be produced
+	 */
+	public String getArtifact (String name) throws Exception
+	{
+		if (DiffCacheEntry.ARTIFACT_PATCH.equals (name))
+			return getDiff (false);
+		if (DiffCacheEntry.ARTIFACT_PATCH_ANNOTATED.equals (name))
+			return getDiff (true);
+		
+		String artifact = getCachedArtifact (name);
+		if (artifact != null)
+			return artifact;
+		
+		if (DiffCacheEntry.ARTIFACT_HTML_REPORT.equals (name))
+			artifact = getHTMLReport ();
+		else if (DiffCacheEntry.ARTIFACT_MARKDOWN_REPORT.equals (name))
+			artifact = getMarkDownReport ();
+		else if (DiffCacheEntry.ARTIFACT_RST_REPORT.equals (name))
+			artifact = getReStructuredTextReport ();
+		else if (DiffCacheEntry.ARTIFACT_REACTIONS_GRAPHML.equals (name))
+			artifact = getReactionsGraphML ();
+		else if (DiffCacheEntry.ARTIFACT_REACTIONS_DOT.equals (name))
+			artifact = getReactionsDotGraph ();
+		else if (DiffCacheEntry.ARTIFACT_REACTIONS_JSON.equals (name))
+			artifact = getReactionsJsonGraph ();
+		else if (DiffCacheEntry.ARTIFACT_HIERARCHY_GRAPHML.equals (name))
+			artifact = getHierarchyGraphML ();
+		else if (DiffCacheEntry.ARTIFACT_HIERARCHY_DOT.equals (name))
+			artifact = getHierarchyDotGraph ();
+		else if (DiffCacheEntry.ARTIFACT_HIERARCHY_JSON.equals (name))
+			artifact = getHierarchyJsonGraph ();
+		else
+			throw new IllegalArgumentException ("unknown artifact: " + name);
+		
+		cacheArtifact (name, artifact);
+		return artifact;
+	}
+	
+	
+	/**
+	 * Store an artifact, such as a report, in the cache.
+	 *
+	 * @param name the name of the artifact
+	 * @param value the artifact
+	 */
+	protected void cacheArtifact (String name, String value)
+	{
+		if (cacheEntry == null || value == null)
+			return;
 		
+		cacheEntry.setArtifact (name, value);
+		cache.put (cacheKey, cacheEntry);
 	}
 	
 	
@@ -0,0 +1,504 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import de.unirostock.sems.bives.algorithm.Connector;
+import de.unirostock.sems.bives.algorithm.IndexedConnectionManager;
+import de.unirostock.sems.bives.algorithm.general.XyDiffConnector;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class DiffConfig, an immutable configuration of the mapping.
+ *
+ * <p>
+ * A configuration can be shared by any number of diffs running concurrently,
+ * see {@link DiffEngine}. Create configurations using a {@link Builder}:
+ * </p>
+ *
+ * <pre>
+ * DiffConfig config = new DiffConfig.Builder ()
+ * 	.setMaxAttributeDistance (.6)
+ * 	.setMappingBudget (10000, 0)
+ * 	.build ();
+ * </pre>
+ *
+ * @author Martin Scharm
+ */
+public final class DiffConfig
+{
+
+	/**
+	 * The Interface ConnectorFactory to create the connector that finds initial connections before the XyDiff refines them.
+	 * Factories are shared by concurrent diffs, so they must be thread-safe.
+	 */
+	public static interface ConnectorFactory
+	{
+
+		/**
+		 * Creates a connector for two documents.
+		 *
+		 * @param docA the original document
+		 * @param docB the modified document
+		 * @param config the configuration of the diff
+		 * @return the connector
+		 */
+		public Connector createConnector (TreeDocument docA, TreeDocument docB, DiffConfig config);
+	}
+
+
+	/** The default configuration. */
+	public static final DiffConfig DEFAULT = new Builder ().build ();
+
+	/** Are mappings of nodes with different ids allowed? */
+	private final boolean allowDifferentIds;
+
+	/** Do we care about names? */
+	private final boolean careAboutNames;
+
+	/** Should we handle names very strictly? */
+	private final boolean stricterNames;
+
+	/** The maximum attribute distance of nodes connected during the optimization. */
+	private final double maxAttributeDistance;
+
+	/** The metric to break ties between candidates. */
+	private final int tieBreaker;
+
+	/** The maximum number of node pairs to compare at once in the optimization step, or &lt;1 for no limit. */
+	private final int maxOptimizationPairs;
+
+	/** The time budget of the mapping in milliseconds, or &lt;1 for no limit. */
+	private final long timeBudget;
+
+	/** The work budget of the mapping, or &lt;1 for no limit. */
+	private final long workBudget;
+
+	/** The factory for the preprocessor, or null to map by ids. */
+	private final ConnectorFactory preprocessor;
+
+	/** The executor to map regions of the documents in parallel, or null to map the documents at once. */
+	private final ExecutorService partitionExecutor;
+
+	/** The pool for the parallel bottom-up step, or null to run it sequentially. */
+	private final ForkJoinPool bottomUpPool;
+
+	/** The minimum weight of a subtree to get its own task in the parallel bottom-up step. */
+	private final double parallelMinWeight;
+
+	/** Should the connections be stored in an {@link IndexedConnectionManager}? */
+	private final boolean indexedConnections;
+
+
+	/**
+	 * Instantiates a new configuration.
+	 *
+	 * @param builder the builder
+	 */
+	private DiffConfig (Builder builder)
+	{
+		allowDifferentIds = builder.allowDifferentIds;
+		careAboutNames = builder.careAboutNames;
+		stricterNames = builder.stricterNames;
+		maxAttributeDistance = builder.maxAttributeDistance;
+		tieBreaker = builder.tieBreaker;
+		maxOptimizationPairs = builder.maxOptimizationPairs;
+		timeBudget = builder.timeBudget;
+		workBudget = builder.workBudget;
+		preprocessor = builder.preprocessor;
+		partitionExecutor = builder.partitionExecutor;
+		bottomUpPool = builder.bottomUpPool;
+		parallelMinWeight = builder.parallelMinWeight;
+		indexedConnections = builder.indexedConnections;
+	}
+
+
+	/**
+	 * Are mappings of nodes with different ids allowed? See {@link Diff#ALLOW_DIFFERENT_IDS}.
+	 *
+	 * @return true, if allowed
+	 */
+	public boolean isAllowDifferentIds ()
+	{
+		return allowDifferentIds;
+	}
+
+
+	/**
+	 * Do we care about names? See {@link Diff#CARE_ABOUT_NAMES}.
+	 *
+	 * @return true, if we care
+	 */
+	public boolean isCareAboutNames ()
+	{
+		return careAboutNames;
+	}
+
+
+	/**
+	 * Should we handle names very strictly? See {@link Diff#STRICTER_NAMES}.
+	 *
+	 * @return true, if strict
+	 */
+	public boolean isStricterNames ()
+	{
+		return stricterNames;
+	}
+
+
+	/**
+	 * Gets the maximum attribute distance of nodes connected during the optimization.
+	 *
+	 * @return the maximum distance
+	 */
+	public double getMaxAttributeDistance ()
+	{
+		return maxAttributeDistance;
+	}
+
+
+	/**
+	 * Gets the metric to break ties between candidates.
+	 *
+	 * @return the tie breaker, see {@link XyDiffConnector#setTieBreaker(int)}
+	 */
+	public int getTieBreaker ()
+	{
+		return tieBreaker;
+	}
+
+
+	/**
+	 * Gets the maximum number of node pairs to compare at once in the optimization step.
+	 *
+	 * @return the maximum number of pairs, or &lt;1 for no limit
+	 */
+	public int getMaxOptimizationPairs ()
+	{
+		return maxOptimizationPairs;
+	}
+
+
+	/**
+	 * Gets the time budget of the mapping.
+	 *
+	 * @return the time budget in milliseconds, or &lt;1 for no limit
+	 */
+	public long getTimeBudget ()
+	{
+		return timeBudget;
+	}
+
+
+	/**
+	 * Gets the work budget of the mapping.
+	 *
+	 * @return the work budget, or &lt;1 for no limit
+	 */
+	public long getWorkBudget ()
+	{
+		return workBudget;
+	}
+
+
+	/**
+	 * Gets the factory for the connector finding initial connections.
+	 *
+	 * @return the factory, or null to map by ids
+	 */
+	public ConnectorFactory getPreprocessor ()
+	{
+		return preprocessor;
+	}
+
+
+	/**
+	 * Gets the executor to map regions of the documents in parallel.
+	 *
+	 * @return the executor, or null to map the documents at once
+	 */
+	public ExecutorService getPartitionExecutor ()
+	{
+		return partitionExecutor;
+	}
+
+
+	/**
+	 * Gets the pool for the parallel bottom-up step.
+	 *
+	 * @return the pool, or null to run the step sequentially
+	 */
+	public ForkJoinPool getBottomUpPool ()
+	{
+		return bottomUpPool;
+	}
+
+
+	/**
+	 * Gets the minimum weight of a subtree to get its own task in the parallel bottom-up step.
+	 *
+	 * @return the minimum weight
+	 */
+	public double getParallelMinWeight ()
+	{
+		return parallelMinWeight;
+	}
+
+
+	/**
+	 * Should the connections be stored in an {@link IndexedConnectionManager}?
+	 *
+	 * @return true, if indexed
+	 */
+	public boolean isIndexedConnections ()
+	{
+		return indexedConnections;
+	}
+
+
+	/**
+	 * Gets a signature of all settings that affect the resulting mapping, e.g. to distinguish cached results.
+	 * The budgets are not part of the signature, as partial mappings are not cached.
+	 *
+	 * @return the signature
+	 */
+	public String getMappingSignature ()
+	{
+		return "dist=" + maxAttributeDistance + ";tie=" + tieBreaker + ";pairs=" + maxOptimizationPairs
+			+ (preprocessor == null ? "" : ";pre=" + preprocessor.getClass ().getName ())
+			+ (partitionExecutor == null ? "" : ";partitioned");
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString ()
+	{
+		return "DiffConfig[ids=" + allowDifferentIds + ";names=" + careAboutNames + ";strict=" + stricterNames + ";" + getMappingSignature () + ";time=" + timeBudget + ";work=" + workBudget + "]";
+	}
+
+
+	/**
+	 * The Class Builder to create configurations.
+	 */
+	public static class Builder
+	{
+
+		/** Are mappings of nodes with different ids allowed? */
+		private boolean allowDifferentIds = Diff.ALLOW_DIFFERENT_IDS;
+
+		/** Do we care about names? */
+		private boolean careAboutNames = Diff.CARE_ABOUT_NAMES;
+
+		/** Should we handle names very strictly? */
+		private boolean stricterNames = Diff.STRICTER_NAMES;
+
+		/** The maximum attribute distance. */
+		private double maxAttributeDistance = XyDiffConnector.MAX_ATTR_DIST;
+
+		/** The tie breaker. */
+		private int tieBreaker = XyDiffConnector.TIE_BREAKER_STRUCTURAL;
+
+		/** The maximum number of pairs in the optimization. */
+		private int maxOptimizationPairs = XyDiffConnector.DEFAULT_MAX_OPTIMIZATION_PAIRS;
+
+		/** The time budget. */
+		private long timeBudget;
+
+		/** The work budget. */
+		private long workBudget;
+
+		/** The preprocessor. */
+		private ConnectorFactory preprocessor;
+
+		/** The executor for partitioned mappings. */
+		private ExecutorService partitionExecutor;
+
+		/** The pool for the bottom-up step. */
+		private ForkJoinPool bottomUpPool;
+
+		/** The minimum weight in the parallel bottom-up step. */
+		private double parallelMinWeight = XyDiffConnector.DEFAULT_PARALLEL_MIN_WEIGHT;
+
+		/** Store the connections in an indexed connection manager? */
+		private boolean indexedConnections;
+
+
+		/**
+		 * Instantiates a new builder using the default values.
+		 */
+		public Builder ()
+		{
+		}
+
+
+		/**
+		 * Instantiates a new builder starting with the values of an existing configuration.
+		 *
+		 * @param config the configuration to start with
+		 */
+		public Builder (DiffConfig config)
+		{
+			allowDifferentIds = config.allowDifferentIds;
+			careAboutNames = config.careAboutNames;
+			stricterNames = config.stricterNames;
+			maxAttributeDistance = config.maxAttributeDistance;
+			tieBreaker = config.tieBreaker;
+			maxOptimizationPairs = config.maxOptimizationPairs;
+			timeBudget = config.timeBudget;
+			workBudget = config.workBudget;
+			preprocessor = config.preprocessor;
+			partitionExecutor = config.partitionExecutor;
+			bottomUpPool = config.bottomUpPool;
+			parallelMinWeight = config.parallelMinWeight;
+			indexedConnections = config.indexedConnections;
+		}
+
+
+		/**
+		 * Sets the flags for mapping the trees, see {@link Diff#mapTrees(boolean, boolean, boolean)}.
+		 *
+		 * @param allowDifferentIds are mapped entities allowed to have different ids?
+		 * @param careAboutNames should we care about names?
+		 * @param stricterNames should we handle names very strictly?
+		 * @return this builder
+		 */
+		public Builder setMappingFlags (boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames)
+		{
+			this.allowDifferentIds = allowDifferentIds;
+			this.careAboutNames = careAboutNames;
+			this.stricterNames = stricterNames;
+			return this;
+		}
+
+
+		/**
+		 * Sets the maximum attribute distance of nodes connected during the optimization, defaults to {@link XyDiffConnector#MAX_ATTR_DIST}.
+		 *
+		 * @param maxAttributeDistance the maximum distance
+		 * @return this builder
+		 */
+		public Builder setMaxAttributeDistance (double maxAttributeDistance)
+		{
+			this.maxAttributeDistance = maxAttributeDistance;
+			return this;
+		}
+
+
+		/**
+		 * Sets the metric to break ties between candidates, see {@link XyDiffConnector#setTieBreaker(int)}.
+		 *
+		 * @param tieBreaker the tie breaker
+		 * @return this builder
+		 */
+		public Builder setTieBreaker (int tieBreaker)
+		{
+			this.tieBreaker = tieBreaker;
+			return this;
+		}
+
+
+		/**
+		 * Bound the optimization step, see {@link XyDiffConnector#setBoundedOptimization(int)}.
+		 *
+		 * @param maxPairs the maximum number of pairs to compare at once, or &lt;1 for no limit
+		 * @return this builder
+		 */
+		public Builder setBoundedOptimization (int maxPairs)
+		{
+			this.maxOptimizationPairs = maxPairs;
+			return this;
+		}
+
+
+		/**
+		 * Bound the effort of the mapping, see {@link XyDiffConnector#setBudget(long, long)}.
+		 *
+		 * @param timeBudget the time budget in milliseconds, or &lt;1 for no limit
+		 * @param workBudget the maximum number of work units, or &lt;1 for no limit
+		 * @return this builder
+		 */
+		public Builder setMappingBudget (long timeBudget, long workBudget)
+		{
+			this.timeBudget = timeBudget;
+			this.workBudget = workBudget;
+			return this;
+		}
+
+
+		/**
+		 * Sets the factory for the connector finding initial connections, which are refined by the XyDiff.
+		 * By default, nodes are connected by their ids. Cannot be combined with a partitioned mapping.
+		 *
+		 * @param preprocessor the factory, or null to connect by ids
+		 * @return this builder
+		 */
+		public Builder setPreprocessor (ConnectorFactory preprocessor)
+		{
+			this.preprocessor = preprocessor;
+			return this;
+		}
+
+
+		/**
+		 * Map independent top-level regions of the documents in parallel, see {@link de.unirostock.sems.bives.algorithm.general.PartitionedConnector}.
+		 *
+		 * @param executor the executor to map the regions, or null to map the documents at once
+		 * @return this builder
+		 */
+		public Builder setPartitionedMapping (ExecutorService executor)
+		{
+			this.partitionExecutor = executor;
+			return this;
+		}
+
+
+		/**
+		 * Run the bottom-up step in parallel, see {@link XyDiffConnector#setParallelBottomUp(ForkJoinPool, double)}.
+		 *
+		 * @param pool the pool, or null to run sequentially
+		 * @param minWeight the minimum weight of a subtree to get its own task
+		 * @return this builder
+		 */
+		public Builder setParallelBottomUp (ForkJoinPool pool, double minWeight)
+		{
+			this.bottomUpPool = pool;
+			this.parallelMinWeight = minWeight;
+			return this;
+		}
+
+
+		/**
+		 * Store the connections in an {@link IndexedConnectionManager}, which needs less memory for large documents.
+		 * The resulting mapping is the same.
+		 *
+		 * @param indexedConnections store the connections indexed?
+		 * @return this builder
+		 */
+		public Builder setIndexedConnections (boolean indexedConnections)
+		{
+			this.indexedConnections = indexedConnections;
+			return this;
+		}
+
+
+		/**
+		 * Builds the configuration.
+		 *
+		 * @return the configuration
+		 * @throws IllegalStateException if the settings contradict each other
+		 */
+		public DiffConfig build ()
+		{
+			if (preprocessor != null && partitionExecutor != null)
+				throw new IllegalStateException ("a partitioned mapping cannot be combined with a preprocessor");
+			return new DiffConfig (this);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jdom2.JDOMException;
+
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.cache.DiffCache;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.exception.XmlDocumentParseException;
+
+
+/**
+ * The Class DiffEngine to compare any number of documents using a single, immutable configuration.
+ *
+ * <p>
+ * The engine does not hold any state besides its configuration and the
+ * (thread-safe) cache, so a single engine can serve concurrent calls to
+ * {@link #diff(TreeDocument, TreeDocument)}. Every call creates its own
+ * {@link RegularDiff}, which is mapped on return and must not be shared
+ * between threads. Mapping modifies the tree documents, so a
+ * {@link TreeDocument} must not be passed to concurrent calls.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class DiffEngine
+{
+
+	/** The configuration. */
+	private final DiffConfig config;
+
+	/** The cache, or null. */
+	private final DiffCache cache;
+
+
+	/**
+	 * Instantiates a new diff engine.
+	 *
+	 * @param config the configuration
+	 */
+	public DiffEngine (DiffConfig config)
+	{
+		this (config, null);
+	}
+
+
+	/**
+	 * Instantiates a new diff engine caching the mappings.
+	 *
+	 * @param config the configuration
+	 * @param cache the cache, or null to disable caching
+	 */
+	public DiffEngine (DiffConfig config, DiffCache cache)
+	{
+		this.config = config == null ? DiffConfig.DEFAULT : config;
+		this.cache = cache;
+	}
+
+
+	/**
+	 * Gets the configuration.
+	 *
+	 * @return the configuration
+	 */
+	public DiffConfig getConfig ()
+	{
+		return config;
+	}
+
+
+	/**
+	 * Compare two tree documents.
+	 *
+	 * @param treeA the former version
+	 * @param treeB the later version
+	 * @return the mapped diff
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	public RegularDiff diff (TreeDocument treeA, TreeDocument treeB) throws BivesConnectionException
+	{
+		return diff (treeA, treeB, null);
+	}
+
+
+	/**
+	 * Compare two tree documents and report metrics of the comparison.
+	 *
+	 * @param treeA the former version
+	 * @param treeB the later version
+	 * @param listener the listener, or null
+	 * @return the mapped diff
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	public RegularDiff diff (TreeDocument treeA, TreeDocument treeB, DiffListener listener) throws BivesConnectionException
+	{
+		return map (new RegularDiff (treeA, treeB), listener);
+	}
+
+
+	/**
+	 * Compare two documents stored in strings.
+	 *
+	 * @param docA the former version
+	 * @param docB the later version
+	 * @return the mapped diff
+	 * @throws XmlDocumentParseException the xml document parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws JDOMException the jDOM exception
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	public RegularDiff diff (String docA, String docB) throws XmlDocumentParseException, IOException, JDOMException, BivesConnectionException
+	{
+		return map (new RegularDiff (docA, docB), null);
+	}
+
+
+	/**
+	 * Compare two documents stored in files.
+	 *
+	 * @param fileA the file containing the former version
+	 * @param fileB the file containing the later version
+	 * @return the mapped diff
+	 * @throws XmlDocumentParseException the xml document parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws JDOMException the jDOM exception
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	public RegularDiff diff (File fileA, File fileB) throws XmlDocumentParseException, IOException, JDOMException, BivesConnectionException
+	{
+		return map (new RegularDiff (fileA, fileB), null);
+	}
+
+
+	/**
+	 * Configure and map a diff.
+	 *
+	 * @param diff the diff
+	 * @param listener the listener, or null
+	 * @return the mapped diff
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private RegularDiff map (RegularDiff diff, DiffListener listener) throws BivesConnectionException
+	{
+		diff.setConfig (config);
+		diff.setCache (cache);
+		diff.setDiffListener (listener);
+		diff.mapTrees ();
+		return diff;
+	}
+}
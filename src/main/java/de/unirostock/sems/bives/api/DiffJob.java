@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jdom2.JDOMException;
+
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.exception.XmlDocumentParseException;
+import de.unirostock.sems.xmlutils.tools.XmlTools;
+
+
+/**
+ * The Class DiffJob describing a comparison to be run by a {@link DiffService}: two documents and the requested outputs.
+ *
+ * <p>
+ * Outputs are combined using bitwise or, e.g.
+ * <code>new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH | DiffJob.OUTPUT_HTML_REPORT)</code>.
+ * The documents are not parsed before the job is run.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class DiffJob
+{
+
+	/** The patch encoded in XML, see {@link Diff#getDiff()}. */
+	public static final int OUTPUT_PATCH = 1;
+
+	/** The report encoded in HTML, see {@link RegularDiff#getHTMLReport()}. */
+	public static final int OUTPUT_HTML_REPORT = 2;
+
+	/** The report encoded in MarkDown, see {@link RegularDiff#getMarkDownReport()}. */
+	public static final int OUTPUT_MARKDOWN_REPORT = 4;
+
+	/** The report encoded in ReStructuredText, see {@link RegularDiff#getReStructuredTextReport()}. */
+	public static final int OUTPUT_RST_REPORT = 8;
+
+	/** The reaction network encoded in GraphML, see {@link RegularDiff#getReactionsGraphML()}. */
+	public static final int OUTPUT_REACTIONS_GRAPHML = 16;
+
+	/** The reaction network encoded in DOT language, see {@link RegularDiff#getReactionsDotGraph()}. */
+	public static final int OUTPUT_REACTIONS_DOT = 32;
+
+	/** The reaction network encoded in JSON, see {@link RegularDiff#getReactionsJsonGraph()}. */
+	public static final int OUTPUT_REACTIONS_JSON = 64;
+
+	/** The hierarchy graph encoded in GraphML, see {@link RegularDiff#getHierarchyGraphML()}. */
+	public static final int OUTPUT_HIERARCHY_GRAPHML = 128;
+
+	/** The hierarchy graph encoded in DOT language, see {@link RegularDiff#getHierarchyDotGraph()}. */
+	public static final int OUTPUT_HIERARCHY_DOT = 256;
+
+	/** The hierarchy graph encoded in JSON, see {@link RegularDiff#getHierarchyJsonGraph()}. */
+	public static final int OUTPUT_HIERARCHY_JSON = 512;
+
+	/** The file containing the former version, or null. */
+	private File fileA;
+
+	/** The file containing the later version, or null. */
+	private File fileB;
+
+	/** The former version, if not read from a file. */
+	private String docA;
+
+	/** The later version, if not read from a file. */
+	private String docB;
+
+	/** The former version, if read from a stream. */
+	private byte [] bytesA;
+
+	/** The later version, if read from a stream. */
+	private byte [] bytesB;
+
+	/** The requested outputs. */
+	private int outputs;
+
+	/** The timeout in milliseconds, or &lt;0 to use the service's default. */
+	private long timeout = -1;
+
+
+	/**
+	 * Instantiates a new job to compare two files.
+	 *
+	 * @param fileA the file containing the former version
+	 * @param fileB the file containing the later version
+	 * @param outputs the requested outputs, e.g. {@link #OUTPUT_PATCH}
+	 */
+	public DiffJob (File fileA, File fileB, int outputs)
+	{
+		this.fileA = fileA;
+		this.fileB = fileB;
+		this.outputs = outputs;
+	}
+
+
+	/**
+	 * Instantiates a new job to compare two documents stored in strings.
+	 *
+	 * @param docA the former version
+	 * @param docB the later version
+	 * @param outputs the requested outputs, e.g. {@link #OUTPUT_PATCH}
+	 */
+	public DiffJob (String docA, String docB, int outputs)
+	{
+		this.docA = docA;
+		this.docB = docB;
+		this.outputs = outputs;
+	}
+
+
+	/**
+	 * Instantiates a new job to compare two documents read from streams.
+	 * The raw bytes of the streams are read (but not closed) immediately, so the size of the job is known on submission.
+	 * They are decoded by the parser when the job runs, so the encoding is detected from the documents.
+	 *
+	 * @param streamA the stream providing the former version
+	 * @param streamB the stream providing the later version
+	 * @param outputs the requested outputs, e.g. {@link #OUTPUT_PATCH}
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public DiffJob (InputStream streamA, InputStream streamB, int outputs) throws IOException
+	{
+		this.bytesA = read (streamA);
+		this.bytesB = read (streamB);
+		this.outputs = outputs;
+	}
+
+
+	/**
+	 * Read the bytes of a stream.
+	 *
+	 * @param in the stream
+	 * @return the contents
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static byte [] read (InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		byte [] buffer = new byte [8192];
+		int n;
+		while ((n = in.read (buffer)) > 0)
+			out.write (buffer, 0, n);
+		return out.toByteArray ();
+	}
+
+
+	/**
+	 * Sets the timeout of this job, counting from the moment it starts running.
+	 *
+	 * @param timeout the timeout in milliseconds, 0 for no timeout, or &lt;0 to use the default of the service
+	 * @return this job
+	 */
+	public DiffJob setTimeout (long timeout)
+	{
+		this.timeout = timeout;
+		return this;
+	}
+
+
+	/**
+	 * Gets the timeout of this job.
+	 *
+	 * @return the timeout in milliseconds, 0 for no timeout, or &lt;0 to use the default of the service
+	 */
+	public long getTimeout ()
+	{
+		return timeout;
+	}
+
+
+	/**
+	 * Gets the requested outputs.
+	 *
+	 * @return the outputs, combined using bitwise or
+	 */
+	public int getOutputs ()
+	{
+		return outputs;
+	}
+
+
+	/**
+	 * Gets the size of the input, which is the size of the files, the number of bytes read from the streams, or the length of the strings.
+	 *
+	 * @return the size of the input
+	 */
+	public long getInputSize ()
+	{
+		if (fileA != null)
+			return fileA.length () + fileB.length ();
+		return getBufferedSize ();
+	}
+
+
+	/**
+	 * Gets the size of the input held in memory while the job is waiting, which is 0 for files.
+	 *
+	 * @return the size of the buffered input
+	 */
+	long getBufferedSize ()
+	{
+		if (bytesA != null)
+			return bytesA.length + bytesB.length;
+		if (docA != null)
+			return docA.length () + docB.length ();
+		return 0;
+	}
+
+
+	/**
+	 * Parse the former version.
+	 *
+	 * @return the document
+	 * @throws XmlDocumentParseException the xml document parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws JDOMException the jDOM exception
+	 */
+	TreeDocument parseA () throws XmlDocumentParseException, IOException, JDOMException
+	{
+		return parse (fileA, bytesA, docA);
+	}
+
+
+	/**
+	 * Parse the later version.
+	 *
+	 * @return the document
+	 * @throws XmlDocumentParseException the xml document parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws JDOMException the jDOM exception
+	 */
+	TreeDocument parseB () throws XmlDocumentParseException, IOException, JDOMException
+	{
+		return parse (fileB, bytesB, docB);
+	}
+
+
+	/**
+	 * Parse a document.
+	 *
+	 * @param file the file, or null
+	 * @param bytes the bytes read from a stream, or null
+	 * @param doc the document if neither stored in a file nor read from a stream
+	 * @return the document
+	 * @throws XmlDocumentParseException the xml document parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws JDOMException the jDOM exception
+	 */
+	private static TreeDocument parse (File file, byte [] bytes, String doc) throws XmlDocumentParseException, IOException, JDOMException
+	{
+		if (file != null)
+			return new TreeDocument (XmlTools.readDocument (file), file.toURI ());
+		if (bytes != null)
+			return new TreeDocument (XmlTools.readDocument (new ByteArrayInputStream (bytes)), null);
+		return new TreeDocument (XmlTools.readDocument (doc), null);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString ()
+	{
+		if (fileA != null)
+			return "DiffJob[" + fileA + " -> " + fileB + "]";
+		if (bytesA != null)
+			return "DiffJob[" + getInputSize () + " bytes]";
+		return "DiffJob[" + getInputSize () + " chars]";
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.unirostock.sems.bives.algorithm.DiffMetrics;
+
+
+/**
+ * The Class DiffResult containing the outputs of a {@link DiffJob}.
+ *
+ * @author Martin Scharm
+ */
+public class DiffResult
+{
+
+	/** The outputs. */
+	private Map<Integer, String> outputs;
+
+	/** Is the mapping partial? */
+	private boolean partialMapping;
+
+	/** The metrics of the comparison. */
+	private DiffMetrics metrics;
+
+
+	/**
+	 * Instantiates a new result.
+	 *
+	 * @param partialMapping is the mapping partial?
+	 * @param metrics the metrics of the comparison
+	 */
+	public DiffResult (boolean partialMapping, DiffMetrics metrics)
+	{
+		this.outputs = new HashMap<Integer, String> ();
+		this.partialMapping = partialMapping;
+		this.metrics = metrics;
+	}
+
+
+	/**
+	 * Sets an output.
+	 *
+	 * @param output the output, e.g. {@link DiffJob#OUTPUT_PATCH}
+	 * @param value the value
+	 */
+	void setOutput (int output, String value)
+	{
+		outputs.put (output, value);
+	}
+
+
+	/**
+	 * Gets an output.
+	 *
+	 * @param output the output, e.g. {@link DiffJob#OUTPUT_PATCH}
+	 * @return the value, or null if not requested or not available
+	 */
+	public String getOutput (int output)
+	{
+		return outputs.get (output);
+	}
+
+
+	/**
+	 * Checks if the mapping is partial, see {@link Diff#isPartialMapping()}.
+	 *
+	 * @return true, if the mapping is partial
+	 */
+	public boolean isPartialMapping ()
+	{
+		return partialMapping;
+	}
+
+
+	/**
+	 * Gets the metrics of the comparison.
+	 *
+	 * @return the metrics
+	 */
+	public DiffMetrics getMetrics ()
+	{
+		return metrics;
+	}
+}
@@ -0,0 +1,606 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.algorithm.DiffMetrics;
+import de.unirostock.sems.bives.cache.DiffCache;
+import de.unirostock.sems.bives.cache.DiffCacheEntry;
+import de.unirostock.sems.bives.exception.BivesRejectedException;
+
+
+/**
+ * The Class DiffService to run {@link DiffJob}s in the background.
+ *
+ * <p>
+ * Submitted jobs wait in a bounded queue and are started in submission order
+ * as long as fewer than {@link #setMaxConcurrentJobs(int)} jobs are running
+ * and the summed input size of the running jobs stays below
+ * {@link #setMaxInFlightSize(long)}. A single job is always started if nothing
+ * else is running, so jobs larger than the in-flight limit are not starved;
+ * use {@link #setMaxJobSize(long)} to reject those. Inputs held in memory,
+ * such as strings and streams, count against the in-flight limit as soon as
+ * they are queued. If the queue is full, or the buffered input of a new job
+ * doesn't fit, new jobs are rejected or the submitting thread is blocked, see
+ * {@link #setQueuePolicy(int)}.
+ * </p>
+ *
+ * <p>
+ * Results are delivered as {@link CompletableFuture}s. Rejected jobs complete
+ * exceptionally with a {@link BivesRejectedException}, jobs exceeding their
+ * timeout with a {@link TimeoutException}. A timed-out job is interrupted and
+ * its mapping stops at the time budget, but its input size is only released
+ * once its thread actually returned.
+ * </p>
+ *
+ * <p>
+ * By default, documents are compared as regular XML documents, which only
+ * results in patches. Jobs asking for reports or graphs are rejected, unless
+ * a {@link VersionChain.DiffFactory} creating diffs of a specific kind, such
+ * as SBML or CellML, is set using {@link #setDiffFactory(VersionChain.DiffFactory)}.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class DiffService
+{
+
+	/** Reject jobs if the queue is full. */
+	public static final int POLICY_REJECT = 0;
+
+	/** Block the submitting thread until the queue has space. */
+	public static final int POLICY_BLOCK = 1;
+
+	/** The default capacity of the queue. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+	/**
+	 * The Class Task, a job on its way through the service.
+	 */
+	private class Task
+		implements Runnable
+	{
+
+		/** The job. */
+		private DiffJob job;
+
+		/** The input size of the job. */
+		private long size;
+
+		/** The size of the input held in memory while the job is waiting. */
+		private long buffered;
+
+		/** The factory creating the diff, or null for a regular diff. */
+		private VersionChain.DiffFactory factory;
+
+		/** The future to complete. */
+		private CompletableFuture<DiffResult> future;
+
+		/** The future of the running job. */
+		private Future<?> execution;
+
+		/** The scheduled timeout. */
+		private ScheduledFuture<?> timeout;
+
+
+		/**
+		 * Instantiates a new task.
+		 *
+		 * @param job the job
+		 * @param size the input size of the job
+		 * @param factory the factory creating the diff, or null for a regular diff
+		 */
+		public Task (DiffJob job, long size, VersionChain.DiffFactory factory)
+		{
+			this.job = job;
+			this.size = size;
+			this.factory = factory;
+			this.buffered = job.getBufferedSize ();
+			this.future = new CompletableFuture<DiffResult> ();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run ()
+		{
+			try
+			{
+				if (!future.isDone ())
+					future.complete (runJob (job, factory, getTimeout (job)));
+			}
+			catch (Throwable e)
+			{
+				future.completeExceptionally (e);
+			}
+			finally
+			{
+				finished (this);
+			}
+		}
+	}
+
+	/** The configuration of the diffs. */
+	private DiffConfig config;
+
+	/** The cache, or null. */
+	private DiffCache cache;
+
+	/** The factory creating the diffs, or null for regular diffs. */
+	private VersionChain.DiffFactory diffFactory;
+
+	/** The executor to run the jobs. */
+	private ExecutorService executor;
+
+	/** Did we create the executor? */
+	private boolean ownExecutor;
+
+	/** The timer to enforce timeouts. */
+	private ScheduledThreadPoolExecutor timer;
+
+	/** The queued tasks. */
+	private LinkedList<Task> queue;
+
+	/** The capacity of the queue. */
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+	/** The policy if the queue is full. */
+	private int queuePolicy = POLICY_REJECT;
+
+	/** The maximum number of running jobs. */
+	private int maxConcurrentJobs;
+
+	/** The maximum input size of a job, or &lt;1 for no limit. */
+	private long maxJobSize;
+
+	/** The maximum summed input size of running jobs and buffered queued jobs, or &lt;1 for no limit. */
+	private long maxInFlightSize;
+
+	/** The default timeout in milliseconds, or &lt;1 for no timeout. */
+	private long defaultTimeout;
+
+	/** The number of running jobs. */
+	private int running;
+
+	/** The summed input size of running jobs. */
+	private long inFlightSize;
+
+	/** The summed size of the inputs of queued jobs held in memory. */
+	private long queuedSize;
+
+	/** Was the service shut down? */
+	private boolean shutdown;
+
+
+	/**
+	 * Instantiates a new diff service using its own executor, see {@link #createDefaultExecutor()}.
+	 *
+	 * @param config the configuration of the diffs
+	 */
+	public DiffService (DiffConfig config)
+	{
+		this (config, null, null);
+	}
+
+
+	/**
+	 * Instantiates a new diff service.
+	 *
+	 * @param config the configuration of the diffs
+	 * @param cache the cache, or null to disable caching
+	 * @param executor the executor to run the jobs, or null to create one, see {@link #createDefaultExecutor()}
+	 */
+	public DiffService (DiffConfig config, DiffCache cache, ExecutorService executor)
+	{
+		this.config = config == null ? DiffConfig.DEFAULT : config;
+		this.cache = cache;
+		this.ownExecutor = executor == null;
+		this.executor = ownExecutor ? createDefaultExecutor () : executor;
+		this.maxConcurrentJobs = Runtime.getRuntime ().availableProcessors ();
+		this.queue = new LinkedList<Task> ();
+		this.timer = new ScheduledThreadPoolExecutor (1, new ThreadFactory ()
+		{
+			@Override
+			public Thread newThread (Runnable r)
+			{
+				Thread t = new Thread (r, "bives-diff-timeout");
+				t.setDaemon (true);
+				return t;
+			}
+		});
+		this.timer.setRemoveOnCancelPolicy (true);
+	}
+
+
+	/**
+	 * Create an executor using a virtual thread per task if the JVM supports virtual threads, or a fixed pool with a thread per processor otherwise.
+	 *
+	 * @return the executor
+	 */
+	public static ExecutorService createDefaultExecutor ()
+	{
+		try
+		{
+			Method virtual = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke (null);
+		}
+		catch (Exception e)
+		{
+			LOGGER.debug ("virtual threads not available, using a fixed thread pool");
+			return Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors ());
+		}
+	}
+
+
+	/**
+	 * Sets the factory creating the diffs of submitted jobs, e.g. to compare SBML or CellML documents.
+	 * Only those diffs produce reports and graphs.
+	 * The configuration of the service only applies to diffs that are {@link RegularDiff}s.
+	 *
+	 * @param diffFactory the factory, or null to compare regular XML documents, which only results in patches (default)
+	 */
+	public synchronized void setDiffFactory (VersionChain.DiffFactory diffFactory)
+	{
+		this.diffFactory = diffFactory;
+	}
+
+
+	/**
+	 * Sets the capacity of the queue of jobs waiting to be run. Defaults to {@link #DEFAULT_QUEUE_CAPACITY}.
+	 *
+	 * @param queueCapacity the capacity
+	 */
+	public synchronized void setQueueCapacity (int queueCapacity)
+	{
+		this.queueCapacity = queueCapacity;
+		notifyAll ();
+	}
+
+
+	/**
+	 * Sets the policy if a job is submitted while the queue is full. Defaults to {@link #POLICY_REJECT}.
+	 *
+	 * @param queuePolicy either {@link #POLICY_REJECT} or {@link #POLICY_BLOCK}
+	 */
+	public synchronized void setQueuePolicy (int queuePolicy)
+	{
+		this.queuePolicy = queuePolicy;
+		notifyAll ();
+	}
+
+
+	/**
+	 * Sets the maximum number of jobs running at the same time. Defaults to the number of processors.
+	 *
+	 * @param maxConcurrentJobs the maximum number of jobs
+	 */
+	public synchronized void setMaxConcurrentJobs (int maxConcurrentJobs)
+	{
+		this.maxConcurrentJobs = Math.max (1, maxConcurrentJobs);
+		dispatch ();
+	}
+
+
+	/**
+	 * Sets the maximum input size of a job, see {@link DiffJob#getInputSize()}. Larger jobs are rejected.
+	 *
+	 * @param maxJobSize the maximum size, or &lt;1 for no limit (default)
+	 */
+	public synchronized void setMaxJobSize (long maxJobSize)
+	{
+		this.maxJobSize = maxJobSize;
+	}
+
+
+	/**
+	 * Sets the maximum summed input size of jobs running at the same time, see {@link DiffJob#getInputSize()}.
+	 * The inputs of queued jobs held in memory, such as strings and streams, count against this limit, too.
+	 *
+	 * @param maxInFlightSize the maximum size, or &lt;1 for no limit (default)
+	 */
+	public synchronized void setMaxInFlightSize (long maxInFlightSize)
+	{
+		this.maxInFlightSize = maxInFlightSize;
+		notifyAll ();
+		dispatch ();
+	}
+
+
+	/**
+	 * Sets the timeout for jobs that do not specify their own timeout, see {@link DiffJob#setTimeout(long)}.
+	 *
+	 * @param defaultTimeout the timeout in milliseconds, or &lt;1 for no timeout (default)
+	 */
+	public synchronized void setDefaultTimeout (long defaultTimeout)
+	{
+		this.defaultTimeout = defaultTimeout;
+	}
+
+
+	/**
+	 * Gets the number of queued jobs.
+	 *
+	 * @return the number of queued jobs
+	 */
+	public synchronized int getQueueSize ()
+	{
+		return queue.size ();
+	}
+
+
+	/**
+	 * Gets the number of running jobs.
+	 *
+	 * @return the number of running jobs
+	 */
+	public synchronized int getRunningJobs ()
+	{
+		return running;
+	}
+
+
+	/**
+	 * Submit a job.
+	 *
+	 * If the queue is full and the policy is {@link #POLICY_BLOCK}, this method blocks until the queue has space.
+	 *
+	 * @param job the job
+	 * @return the future result
+	 */
+	public CompletableFuture<DiffResult> submit (DiffJob job)
+	{
+		Task task;
+		synchronized (this)
+		{
+			task = new Task (job, job.getInputSize (), diffFactory);
+			if (maxJobSize > 0 && task.size > maxJobSize)
+				return reject (task, "job too large: " + task.size + " > " + maxJobSize);
+			if (task.factory == null && (job.getOutputs () & ~DiffJob.OUTPUT_PATCH) != 0)
+				return reject (task, "regular diffs only produce patches, set a diff factory to request reports or graphs");
+			while (!shutdown && isFull (task))
+			{
+				if (queuePolicy != POLICY_BLOCK)
+					return reject (task, queue.size () >= queueCapacity
+						? "queue full: " + queue.size () + " jobs waiting"
+						: "input in flight exceeds the limit: " + (inFlightSize + queuedSize + task.buffered) + " > " + maxInFlightSize);
+				try
+				{
+					wait ();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread ().interrupt ();
+					return reject (task, "interrupted while waiting for the queue");
+				}
+			}
+			if (shutdown)
+				return reject (task, "service is shut down");
+			queue.add (task);
+			queuedSize += task.buffered;
+			dispatch ();
+		}
+		return task.future;
+	}
+
+
+	/**
+	 * Checks if a new task has to wait for space in the queue.
+	 * A task fits if the queue has space and its buffered input fits into the in-flight limit together with the running and queued jobs.
+	 * As when jobs are started, the buffered input of a task always fits if nothing else is running or queued.
+	 *
+	 * @param task the new task
+	 * @return true, if the task doesn't fit
+	 */
+	private boolean isFull (Task task)
+	{
+		if (queue.size () >= queueCapacity)
+			return true;
+		return maxInFlightSize > 0 && task.buffered > 0 && (running > 0 || !queue.isEmpty ())
+			&& inFlightSize + queuedSize + task.buffered > maxInFlightSize;
+	}
+
+
+	/**
+	 * Reject a task.
+	 *
+	 * @param task the task
+	 * @param reason the reason
+	 * @return the failed future
+	 */
+	private CompletableFuture<DiffResult> reject (Task task, String reason)
+	{
+		LOGGER.info ("rejecting ", task.job, ": ", reason);
+		task.future.completeExceptionally (new BivesRejectedException (reason));
+		return task.future;
+	}
+
+
+	/**
+	 * Start queued tasks as long as the limits allow.
+	 */
+	private synchronized void dispatch ()
+	{
+		while (!queue.isEmpty () && running < maxConcurrentJobs)
+		{
+			Task task = queue.peek ();
+			if (running > 0 && maxInFlightSize > 0 && inFlightSize + task.size > maxInFlightSize)
+				return;
+			queue.poll ();
+			queuedSize -= task.buffered;
+			notifyAll ();
+
+			// cancelled while waiting
+			if (task.future.isDone ())
+				continue;
+
+			running++;
+			inFlightSize += task.size;
+			try
+			{
+				task.execution = executor.submit (task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				running--;
+				inFlightSize -= task.size;
+				task.future.completeExceptionally (new BivesRejectedException ("executor rejected the job: " + e.getMessage ()));
+				continue;
+			}
+
+			long timeout = getTimeout (task.job);
+			if (timeout > 0)
+			{
+				final Task t = task;
+				task.timeout = timer.schedule (new Runnable ()
+				{
+					@Override
+					public void run ()
+					{
+						if (t.future.completeExceptionally (new TimeoutException ("job timed out: " + t.job)))
+						{
+							LOGGER.warn ("job timed out: ", t.job);
+							t.execution.cancel (true);
+						}
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+
+	/**
+	 * Release the resources of a finished task and start waiting tasks.
+	 *
+	 * @param task the task
+	 */
+	private synchronized void finished (Task task)
+	{
+		running--;
+		inFlightSize -= task.size;
+		if (task.timeout != null)
+			task.timeout.cancel (false);
+		// blocked submitters might fit now
+		notifyAll ();
+		dispatch ();
+		if (shutdown && running == 0 && queue.isEmpty ())
+			terminate ();
+	}
+
+
+	/**
+	 * Gets the timeout of a job.
+	 *
+	 * @param job the job
+	 * @return the timeout in milliseconds, or &lt;1 for no timeout
+	 */
+	private synchronized long getTimeout (DiffJob job)
+	{
+		return job.getTimeout () < 0 ? defaultTimeout : job.getTimeout ();
+	}
+
+
+	/**
+	 * Run a job.
+	 *
+	 * @param job the job
+	 * @param factory the factory creating the diff, or null for a regular diff
+	 * @param timeout the timeout of the job, used as time budget of the mapping unless the configuration sets a budget
+	 * @return the result
+	 * @throws Exception the exception
+	 */
+	private DiffResult runJob (DiffJob job, VersionChain.DiffFactory factory, long timeout) throws Exception
+	{
+		DiffConfig jobConfig = config;
+		if (timeout > 0 && config.getTimeBudget () < 1)
+			jobConfig = new DiffConfig.Builder (config).setMappingBudget (timeout, config.getWorkBudget ()).build ();
+
+		DiffMetrics metrics = new DiffMetrics ();
+		Diff diff;
+		if (factory == null)
+			diff = new DiffEngine (jobConfig, cache).diff (job.parseA (), job.parseB (), metrics);
+		else
+		{
+			diff = factory.createDiff (job.parseA (), job.parseB ());
+			if (diff instanceof RegularDiff)
+				((RegularDiff) diff).setConfig (jobConfig);
+			diff.setCache (cache);
+			diff.setDiffListener (metrics);
+			diff.mapTrees ();
+		}
+		DiffResult result = new DiffResult (diff.isPartialMapping (), metrics);
+
+		int outputs = job.getOutputs ();
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_PATCH, DiffCacheEntry.ARTIFACT_PATCH);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_HTML_REPORT, DiffCacheEntry.ARTIFACT_HTML_REPORT);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_MARKDOWN_REPORT, DiffCacheEntry.ARTIFACT_MARKDOWN_REPORT);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_RST_REPORT, DiffCacheEntry.ARTIFACT_RST_REPORT);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_REACTIONS_GRAPHML, DiffCacheEntry.ARTIFACT_REACTIONS_GRAPHML);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_REACTIONS_DOT, DiffCacheEntry.ARTIFACT_REACTIONS_DOT);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_REACTIONS_JSON, DiffCacheEntry.ARTIFACT_REACTIONS_JSON);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_HIERARCHY_GRAPHML, DiffCacheEntry.ARTIFACT_HIERARCHY_GRAPHML);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_HIERARCHY_DOT, DiffCacheEntry.ARTIFACT_HIERARCHY_DOT);
+		setOutput (result, diff, outputs, DiffJob.OUTPUT_HIERARCHY_JSON, DiffCacheEntry.ARTIFACT_HIERARCHY_JSON);
+		return result;
+	}
+
+
+	/**
+	 * Produce an output of a job, if it was requested.
+	 *
+	 * @param result the result of the job
+	 * @param diff the mapped diff
+	 * @param outputs the requested outputs
+	 * @param output the output to produce, e.g. {@link DiffJob#OUTPUT_PATCH}
+	 * @param artifact the name of the corresponding artifact, e.g. {@link DiffCacheEntry#ARTIFACT_PATCH}
+	 * @throws Exception if the output cannot be produced, or if the diff does not provide it
+	 */
+	private static void setOutput (DiffResult result, Diff diff, int outputs, int output, String artifact) throws Exception
+	{
+		if ((outputs & output) == 0)
+			return;
+		String value = diff.getArtifact (artifact);
+		if (value == null)
+			throw new BivesRejectedException (diff.getClass ().getSimpleName () + " cannot produce " + artifact);
+		result.setOutput (output, value);
+	}
+
+
+	/**
+	 * Shut the service down. New jobs are rejected, queued and running jobs are completed.
+	 * If the service created its executor, the executor is shut down afterwards.
+	 */
+	public synchronized void shutdown ()
+	{
+		shutdown = true;
+		notifyAll ();
+		if (running == 0 && queue.isEmpty ())
+			terminate ();
+	}
+
+
+	/**
+	 * Release the executors after the shutdown.
+	 */
+	private void terminate ()
+	{
+		timer.shutdownNow ();
+		if (ownExecutor)
+			executor.shutdown ();
+	}
+}
@@ -5,9 +5,15 @@ package de.unirostock.sems.bives.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import org.jdom2.JDOMException;
 
+import de.unirostock.sems.bives.algorithm.Connector;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.IndexedConnectionManager;
+import de.unirostock.sems.bives.algorithm.PhaseTimer;
+import de.unirostock.sems.bives.algorithm.general.PartitionedConnector;
 import de.unirostock.sems.bives.algorithm.general.XyDiffConnector;
 import de.unirostock.sems.bives.ds.graph.GraphTranslator;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
@@ -26,6 +32,9 @@ public class RegularDiff
 	extends Diff
 {
 	
+	/** The configuration of the mapping. */
+	private DiffConfig config = DiffConfig.DEFAULT;
+	
 	/**
 	 * Instantiates a new regular diff object in order to compare two documents
 	 * stored in files fileA and fileB.
@@ -73,26 +82,133 @@ public class RegularDiff
 	}
 	
 	
+	/**
+	 * Sets the configuration of the mapping. Has to be set before the trees are mapped.
+	 * The flags of the configuration are only used by {@link #mapTrees()}, explicit arguments to {@link #mapTrees(boolean, boolean, boolean)} take precedence.
+	 *
+	 * @param config the configuration
+	 */
+	public void setConfig (DiffConfig config)
+	{
+		this.config = config == null ? DiffConfig.DEFAULT : config;
+	}
+	
+	
+	/**
+	 * Gets the configuration of the mapping.
+	 *
+	 * @return the configuration
+	 */
+	public DiffConfig getConfig ()
+	{
+		return config;
+	}
+	
+	
+	/**
+	 * Map independent top-level regions of the documents in parallel, see {@link de.unirostock.sems.bives.algorithm.general.PartitionedConnector}.
+	 * Pass <code>null</code> to map the documents at once (default).
+	 *
+	 * @param executor the executor to map the regions
+	 */
+	public void setPartitionedMapping (ExecutorService executor)
+	{
+		config = new DiffConfig.Builder (config).setPartitionedMapping (executor).build ();
+	}
+	
+	
+	/**
+	 * Bound the effort of the mapping, see {@link de.unirostock.sems.bives.algorithm.general.XyDiffConnector#setBudget(long, long)}.
+	 * If the budget is spent, the mapping found so far is used and {@link #isPartialMapping()} returns true.
+	 *
+	 * @param timeBudget the time budget in milliseconds, or &lt;1 for no limit
+	 * @param workBudget the maximum number of work units, or &lt;1 for no limit
+	 */
+	public void setMappingBudget (long timeBudget, long workBudget)
+	{
+		config = new DiffConfig.Builder (config).setMappingBudget (timeBudget, workBudget).build ();
+	}
+	
+	
 	/* (non-Javadoc)
 	 * @see de.unirostock.sems.bives.api.Diff#mapTrees(boolean, boolean, boolean)
 	 */
 	@Override
 	public boolean mapTrees (boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames) throws BivesConnectionException
 	{
-		XyDiffConnector con = new XyDiffConnector (treeA, treeB, allowDifferentIds, careAboutNames, stricterNames);
-		con.findConnections ();
-		connections = con.getConnections ();
-		
-		treeA.getRoot ().resetModifications ();
-		treeA.getRoot ().evaluate (connections);
+		PhaseTimer timer = new PhaseTimer (diffListener);
+		if (restoreMapping (allowDifferentIds, careAboutNames, stricterNames))
+		{
+			timer.finish (DiffListener.PHASE_DIFF_MAP);
+			return true;
+		}
 		
-		treeB.getRoot ().resetModifications ();
-		treeB.getRoot ().evaluate (connections);
+		Connector con;
+		if (config.getPartitionExecutor () == null)
+		{
+			XyDiffConnector xy;
+			if (config.getPreprocessor () == null)
+			{
+				xy = new XyDiffConnector (treeA, treeB, allowDifferentIds, careAboutNames, stricterNames);
+				if (config.isIndexedConnections ())
+					xy.setConnectionManager (new IndexedConnectionManager (treeA, treeB));
+			}
+			else
+			{
+				// the preprocessor collects the connections refined by the XyDiff
+				Connector preprocessor = config.getPreprocessor ().createConnector (treeA, treeB, config);
+				if (config.isIndexedConnections ())
+					preprocessor.setConnectionManager (new IndexedConnectionManager (treeA, treeB));
+				xy = new XyDiffConnector (preprocessor, allowDifferentIds, careAboutNames, stricterNames);
+			}
+			xy.configure (config);
+			xy.setDiffListener (diffListener);
+			xy.findConnections ();
+			partialMapping = xy.isPartial ();
+			con = xy;
+		}
+		else
+		{
+			PartitionedConnector partitioned = new PartitionedConnector (treeA, treeB, allowDifferentIds, careAboutNames, stricterNames, config.getPartitionExecutor ());
+			if (config.isIndexedConnections ())
+				partitioned.setConnectionManager (new IndexedConnectionManager (treeA, treeB));
+			partitioned.configure (config);
+			partitioned.setDiffListener (diffListener);
+			partitioned.findConnections ();
+			partialMapping = partitioned.isPartial ();
+			con = partitioned;
+		}
+		// the connector already evaluated both trees with the final mapping
+		connections = con.getConnections ();
+		timer.finish (DiffListener.PHASE_DIFF_MAP);
 		
+		// partial results are not worth caching
+		if (!partialMapping)
+			storeMapping ();
 		return true;
 	}
 	
 	
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.api.Diff#mapTrees()
+	 */
+	@Override
+	public boolean mapTrees () throws BivesConnectionException
+	{
+		return mapTrees (config.isAllowDifferentIds (), config.isCareAboutNames (), config.isStricterNames ());
+	}
+	
+	
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.api.Diff#getCacheVariant()
+	 */
+	@Override
+	protected String getCacheVariant ()
+	{
+		return "[" + config.getMappingSignature () + "]";
+	}
+	
+	
 	/*
 	 * (non-Javadoc)
 	 * 
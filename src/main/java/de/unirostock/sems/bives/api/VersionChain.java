@@ -0,0 +1,394 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.api;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.tools.XmlTools;
+
+
+/**
+ * The Class VersionChain to compare a history of versions, e.g. all releases
+ * of a model: v1 to v2, v2 to v3, and so on.
+ *
+ * <p>
+ * Every version is parsed exactly once and shared by the two comparisons it
+ * takes part in. While version i is compared to version i+1, version i+2 is
+ * parsed on the executor, if there is one. Thus, at most three documents are
+ * in memory at a time, unless the consumer keeps the steps.
+ * </p>
+ *
+ * <p>
+ * The documents of a step are shared with the neighbouring steps, and the
+ * next comparison resets their modification flags. Therefore, the patch of
+ * every step is produced and annotated before the step is handed out, and
+ * the {@link Diff} of a step should not be used after advancing to the next
+ * step.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class VersionChain
+{
+
+	/**
+	 * The Interface DiffFactory to create the diffs of a chain, e.g. for a certain kind of documents.
+	 */
+	public static interface DiffFactory
+	{
+
+		/**
+		 * Creates the diff of two versions.
+		 *
+		 * @param treeA the former version
+		 * @param treeB the later version
+		 * @return the diff
+		 */
+		public Diff createDiff (TreeDocument treeA, TreeDocument treeB);
+	}
+
+
+	/**
+	 * The Class Step, the result of comparing two subsequent versions.
+	 */
+	public static class Step
+	{
+
+		/** The index of the former version in the chain. */
+		private int index;
+
+		/** The former version. */
+		private File versionA;
+
+		/** The later version. */
+		private File versionB;
+
+		/** The diff. */
+		private Diff diff;
+
+		/** The patch. */
+		private Patch patch;
+
+
+		/**
+		 * Instantiates a new step.
+		 *
+		 * @param index the index of the former version in the chain
+		 * @param versionA the former version
+		 * @param versionB the later version
+		 * @param diff the diff
+		 * @param patch the patch
+		 */
+		public Step (int index, File versionA, File versionB, Diff diff, Patch patch)
+		{
+			this.index = index;
+			this.versionA = versionA;
+			this.versionB = versionB;
+			this.diff = diff;
+			this.patch = patch;
+		}
+
+
+		/**
+		 * Gets the index of the former version in the chain.
+		 *
+		 * @return the index
+		 */
+		public int getIndex ()
+		{
+			return index;
+		}
+
+
+		/**
+		 * Gets the former version.
+		 *
+		 * @return the former version
+		 */
+		public File getVersionA ()
+		{
+			return versionA;
+		}
+
+
+		/**
+		 * Gets the later version.
+		 *
+		 * @return the later version
+		 */
+		public File getVersionB ()
+		{
+			return versionB;
+		}
+
+
+		/**
+		 * Gets the diff. Should not be used after advancing to the next step.
+		 *
+		 * @return the diff
+		 */
+		public Diff getDiff ()
+		{
+			return diff;
+		}
+
+
+		/**
+		 * Gets the patch, including its annotations.
+		 *
+		 * @return the patch
+		 */
+		public Patch getPatch ()
+		{
+			return patch;
+		}
+	}
+
+
+	/** The versions, in chronological order. */
+	private List<File> versions;
+
+	/** The executor to parse versions ahead, or null. */
+	private ExecutorService executor;
+
+	/** The factory for diffs. */
+	private DiffFactory factory;
+
+	/** The mapping flags. */
+	private boolean allowDifferentIds, careAboutNames, stricterNames;
+
+
+	/**
+	 * Instantiates a new version chain comparing regular XML documents.
+	 *
+	 * @param versions the versions, in chronological order
+	 * @param executor the executor to parse the next version while the current one is compared, or null to parse in the consuming thread
+	 */
+	public VersionChain (List<File> versions, ExecutorService executor)
+	{
+		this (versions, executor, new DiffFactory ()
+		{
+			@Override
+			public Diff createDiff (TreeDocument treeA, TreeDocument treeB)
+			{
+				return new RegularDiff (treeA, treeB);
+			}
+		});
+	}
+
+
+	/**
+	 * Instantiates a new version chain.
+	 *
+	 * @param versions the versions, in chronological order
+	 * @param executor the executor to parse the next version while the current one is compared, or null to parse in the consuming thread
+	 * @param factory the factory to create the diffs
+	 */
+	public VersionChain (List<File> versions, ExecutorService executor, DiffFactory factory)
+	{
+		this.versions = versions;
+		this.executor = executor;
+		this.factory = factory;
+		allowDifferentIds = Diff.ALLOW_DIFFERENT_IDS;
+		careAboutNames = Diff.CARE_ABOUT_NAMES;
+		stricterNames = Diff.STRICTER_NAMES;
+	}
+
+
+	/**
+	 * Sets the flags for mapping the trees, see {@link Diff#mapTrees(boolean, boolean, boolean)}.
+	 *
+	 * @param allowDifferentIds are mapped entities allowed to have different ids?
+	 * @param careAboutNames should we care about names?
+	 * @param stricterNames should we handle names very strictly?
+	 */
+	public void setMappingFlags (boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames)
+	{
+		this.allowDifferentIds = allowDifferentIds;
+		this.careAboutNames = careAboutNames;
+		this.stricterNames = stricterNames;
+	}
+
+
+	/**
+	 * Gets the comparisons of subsequent versions as a lazy, sequential stream.
+	 * Versions are parsed and compared while the stream is consumed.
+	 * A failing comparison throws an {@link IllegalStateException}.
+	 *
+	 * @return the steps
+	 */
+	public Stream<Step> stream ()
+	{
+		return StreamSupport.stream (Spliterators.spliterator (iterator (), Math.max (0, versions.size () - 1), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+
+	/**
+	 * Gets the comparisons of subsequent versions as a lazy iterator.
+	 *
+	 * @return the steps
+	 */
+	public Iterator<Step> iterator ()
+	{
+		return new StepIterator ();
+	}
+
+
+	/**
+	 * Start parsing a version.
+	 *
+	 * @param index the index of the version
+	 * @return the future document, or null if there is no such version
+	 */
+	private Future<TreeDocument> parse (int index)
+	{
+		if (index >= versions.size ())
+			return null;
+
+		final File file = versions.get (index);
+		Callable<TreeDocument> task = new Callable<TreeDocument> ()
+		{
+			@Override
+			public TreeDocument call () throws Exception
+			{
+				return new TreeDocument (XmlTools.readDocument (file), file.toURI ());
+			}
+		};
+
+		if (executor != null)
+			return executor.submit (task);
+
+		// parse lazily in the consuming thread
+		return new FutureTask<TreeDocument> (task);
+	}
+
+
+	/**
+	 * Wait for a version to be parsed.
+	 *
+	 * @param future the future document
+	 * @param index the index of the version
+	 * @return the document
+	 */
+	private TreeDocument get (Future<TreeDocument> future, int index)
+	{
+		if (future instanceof FutureTask && !future.isDone ())
+			((FutureTask<TreeDocument>) future).run ();
+		try
+		{
+			return future.get ();
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException ("cannot parse " + versions.get (index), e.getCause ());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread ().interrupt ();
+			throw new IllegalStateException ("interrupted while parsing " + versions.get (index), e);
+		}
+	}
+
+
+	/**
+	 * The Class StepIterator comparing one pair of versions per step.
+	 */
+	private class StepIterator
+		implements Iterator<Step>
+	{
+
+		/** The index of the next former version. */
+		private int index;
+
+		/** The next former version, already parsed. */
+		private TreeDocument current;
+
+		/** The next later version. */
+		private Future<TreeDocument> next;
+
+
+		/**
+		 * Instantiates a new step iterator.
+		 */
+		public StepIterator ()
+		{
+			index = 0;
+			if (versions.size () > 1)
+			{
+				Future<TreeDocument> first = parse (0);
+				next = parse (1);
+				current = get (first, 0);
+			}
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext ()
+		{
+			return index + 1 < versions.size ();
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public Step next ()
+		{
+			if (!hasNext ())
+				throw new NoSuchElementException ();
+
+			TreeDocument later = get (next, index + 1);
+			// parse ahead while we're comparing
+			next = parse (index + 2);
+
+			LOGGER.info ("comparing ", versions.get (index), " to ", versions.get (index + 1));
+			Diff diff = factory.createDiff (current, later);
+			try
+			{
+				diff.mapTrees (allowDifferentIds, careAboutNames, stricterNames);
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException ("cannot compare " + versions.get (index) + " to " + versions.get (index + 1), e);
+			}
+			Patch patch = diff.getPatch ();
+			// the annotations are deferred until requested, but the next comparison modifies the documents
+			patch.getAnnotations ();
+			Step step = new Step (index, versions.get (index), versions.get (index + 1), diff, patch);
+
+			current = later;
+			index++;
+			return step;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove ()
+		{
+			throw new UnsupportedOperationException ();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.cache;
+
+
+/**
+ * The Interface DiffCache to store the results of diffs, so that a repeated
+ * comparison of the same documents doesn't need to map the trees again.
+ *
+ * <p>
+ * Implementations must be thread safe.
+ * </p>
+ *
+ * @author Martin Scharm
+ * @see MemoryDiffCache
+ * @see DiskDiffCache
+ */
+public interface DiffCache
+{
+
+	/**
+	 * Gets the entry of a key.
+	 *
+	 * @param key the key
+	 * @return the entry, or null if not cached
+	 */
+	public DiffCacheEntry get (DiffCacheKey key);
+
+
+	/**
+	 * Stores an entry. Is also called if the artifacts of a cached entry changed.
+	 *
+	 * @param key the key
+	 * @param entry the entry
+	 */
+	public void put (DiffCacheKey key, DiffCacheEntry entry);
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.unirostock.sems.bives.algorithm.NodeConnection;
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.ds.NodeIndex;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class DiffCacheEntry storing the result of a diff: the mapping as pairs
+ * of preorder numbers (see {@link de.unirostock.sems.bives.ds.NodeIndex}) and
+ * a number of produced artifacts, such as the XML patch or reports.
+ *
+ * @author Martin Scharm
+ */
+public class DiffCacheEntry
+{
+
+	/** The artifact name of the XML patch. */
+	public static final String ARTIFACT_PATCH = "patch";
+
+	/** The artifact name of the XML patch including annotations, followed by the class name of the annotator. */
+	public static final String ARTIFACT_PATCH_ANNOTATED = "patch-annotated";
+
+	/** The artifact name of the report encoded in HTML. */
+	public static final String ARTIFACT_HTML_REPORT = "report-html";
+
+	/** The artifact name of the report encoded in MarkDown. */
+	public static final String ARTIFACT_MARKDOWN_REPORT = "report-md";
+
+	/** The artifact name of the report encoded in ReStructuredText. */
+	public static final String ARTIFACT_RST_REPORT = "report-rst";
+
+	/** The artifact name of the reaction network encoded in GraphML. */
+	public static final String ARTIFACT_REACTIONS_GRAPHML = "reactions-graphml";
+
+	/** The artifact name of the reaction network encoded in DOT. */
+	public static final String ARTIFACT_REACTIONS_DOT = "reactions-dot";
+
+	/** The artifact name of the reaction network encoded in JSON. */
+	public static final String ARTIFACT_REACTIONS_JSON = "reactions-json";
+
+	/** The artifact name of the hierarchy encoded in GraphML. */
+	public static final String ARTIFACT_HIERARCHY_GRAPHML = "hierarchy-graphml";
+
+	/** The artifact name of the hierarchy encoded in DOT. */
+	public static final String ARTIFACT_HIERARCHY_DOT = "hierarchy-dot";
+
+	/** The artifact name of the hierarchy encoded in JSON. */
+	public static final String ARTIFACT_HIERARCHY_JSON = "hierarchy-json";
+
+	/** The mapping, pairs of preorder numbers in tree A and tree B. */
+	private int [] mapping;
+
+	/** The artifacts by name. */
+	private HashMap<String, String> artifacts;
+
+
+	/**
+	 * Instantiates a new cache entry.
+	 *
+	 * @param mapping the mapping, pairs of preorder numbers in tree A and tree B
+	 */
+	public DiffCacheEntry (int [] mapping)
+	{
+		this.mapping = mapping;
+		artifacts = new HashMap<String, String> ();
+	}
+
+
+	/**
+	 * Create an entry from the connections of a diff.
+	 *
+	 * @param connections the connections
+	 * @param treeA the original document
+	 * @param treeB the modified document
+	 * @return the cache entry
+	 */
+	public static DiffCacheEntry fromConnections (SimpleConnectionManager connections, TreeDocument treeA, TreeDocument treeB)
+	{
+		NodeIndex indexA = new NodeIndex (treeA);
+		NodeIndex indexB = new NodeIndex (treeB);
+		List<NodeConnection> cons = connections.getConnections ();
+		int [] mapping = new int [cons.size () * 2];
+		int i = 0;
+		for (NodeConnection c : cons)
+		{
+			mapping[i++] = indexA.getNumber (c.getTreeA ());
+			mapping[i++] = indexB.getNumber (c.getTreeB ());
+		}
+		return new DiffCacheEntry (mapping);
+	}
+
+
+	/**
+	 * Restore the connections of a diff.
+	 *
+	 * @param treeA the original document
+	 * @param treeB the modified document
+	 * @return the connections
+	 * @throws BivesConnectionException if the mapping does not fit the documents
+	 */
+	public SimpleConnectionManager toConnections (TreeDocument treeA, TreeDocument treeB) throws BivesConnectionException
+	{
+		NodeIndex indexA = new NodeIndex (treeA);
+		NodeIndex indexB = new NodeIndex (treeB);
+		SimpleConnectionManager connections = new SimpleConnectionManager (treeA, treeB);
+		for (int i = 0; i < mapping.length; i += 2)
+		{
+			if (mapping[i] < 0 || mapping[i] >= indexA.size () || mapping[i + 1] < 0 || mapping[i + 1] >= indexB.size ())
+				throw new BivesConnectionException ("cached mapping does not fit the documents");
+			connections.connect (indexA.getNode (mapping[i]), indexB.getNode (mapping[i + 1]));
+		}
+		return connections;
+	}
+
+
+	/**
+	 * Gets the mapping. The returned array must not be modified.
+	 *
+	 * @return the mapping, pairs of preorder numbers in tree A and tree B
+	 */
+	public int [] getMapping ()
+	{
+		return mapping;
+	}
+
+
+	/**
+	 * Gets an artifact.
+	 *
+	 * @param name the name of the artifact
+	 * @return the artifact, or null if not available
+	 */
+	public synchronized String getArtifact (String name)
+	{
+		return artifacts.get (name);
+	}
+
+
+	/**
+	 * Sets an artifact.
+	 *
+	 * @param name the name of the artifact
+	 * @param value the artifact
+	 */
+	public synchronized void setArtifact (String name, String value)
+	{
+		artifacts.put (name, value);
+	}
+
+
+	/**
+	 * Gets all artifacts.
+	 *
+	 * @return a copy of the artifacts by name
+	 */
+	public synchronized Map<String, String> getArtifacts ()
+	{
+		return Collections.unmodifiableMap (new HashMap<String, String> (artifacts));
+	}
+
+
+	/**
+	 * Estimate the size of this entry in bytes.
+	 *
+	 * @return the estimated size
+	 */
+	public synchronized long getSize ()
+	{
+		long size = 64 + mapping.length * 4L;
+		for (Map.Entry<String, String> artifact : artifacts.entrySet ())
+			size += 64 + 2L * (artifact.getKey ().length () + artifact.getValue ().length ());
+		return size;
+	}
+}
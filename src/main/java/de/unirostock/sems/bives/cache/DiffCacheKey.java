@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class DiffCacheKey identifying the result of a diff by the contents of
+ * both documents, the kind of diff, and the mapping flags.
+ *
+ * <p>
+ * The contents are identified by the subtree hashes of the document roots, so
+ * documents that only differ in formatting share the same key.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class DiffCacheKey
+{
+
+	/** The kind of diff, e.g. the name of the class. */
+	private String type;
+
+	/** The content hash of the original document. */
+	private String hashA;
+
+	/** The content hash of the modified document. */
+	private String hashB;
+
+	/** The mapping flags. */
+	private boolean allowDifferentIds, careAboutNames, stricterNames;
+
+
+	/**
+	 * Instantiates a new cache key.
+	 *
+	 * @param type the kind of diff, e.g. the name of the class
+	 * @param hashA the content hash of the original document
+	 * @param hashB the content hash of the modified document
+	 * @param allowDifferentIds may mapped entities have different ids?
+	 * @param careAboutNames do we care about names?
+	 * @param stricterNames do we handle names very strictly?
+	 */
+	public DiffCacheKey (String type, String hashA, String hashB, boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames)
+	{
+		this.type = type;
+		this.hashA = hashA;
+		this.hashB = hashB;
+		this.allowDifferentIds = allowDifferentIds;
+		this.careAboutNames = careAboutNames;
+		this.stricterNames = stricterNames;
+	}
+
+
+	/**
+	 * Instantiates a new cache key for two documents.
+	 *
+	 * @param type the kind of diff, e.g. the name of the class
+	 * @param treeA the original document
+	 * @param treeB the modified document
+	 * @param allowDifferentIds may mapped entities have different ids?
+	 * @param careAboutNames do we care about names?
+	 * @param stricterNames do we handle names very strictly?
+	 */
+	public DiffCacheKey (String type, TreeDocument treeA, TreeDocument treeB, boolean allowDifferentIds, boolean careAboutNames, boolean stricterNames)
+	{
+		this (type, treeA.getRoot ().getSubTreeHash (), treeB.getRoot ().getSubTreeHash (), allowDifferentIds, careAboutNames, stricterNames);
+	}
+
+
+	/**
+	 * Gets a digest of this key, suitable as a file name.
+	 *
+	 * @return the hex encoded SHA-256 digest
+	 */
+	public String getDigest ()
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance ("SHA-256");
+			byte [] digest = md.digest (toString ().getBytes (StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder ();
+			for (byte b : digest)
+				sb.append (String.format ("%02x", b));
+			return sb.toString ();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every java platform is required to support SHA-256
+			throw new IllegalStateException (e);
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode ()
+	{
+		return toString ().hashCode ();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals (Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof DiffCacheKey))
+			return false;
+		DiffCacheKey other = (DiffCacheKey) obj;
+		return type.equals (other.type) && hashA.equals (other.hashA) && hashB.equals (other.hashB)
+			&& allowDifferentIds == other.allowDifferentIds && careAboutNames == other.careAboutNames && stricterNames == other.stricterNames;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString ()
+	{
+		return type + ":" + hashA + ":" + hashB + ":" + (allowDifferentIds ? 1 : 0) + (careAboutNames ? 1 : 0) + (stricterNames ? 1 : 0);
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import de.binfalse.bflog.LOGGER;
+
+
+/**
+ * The Class DiskDiffCache storing diff results in files of a directory.
+ *
+ * <p>
+ * Every entry is stored in a file named by the digest of its key. Entries are
+ * written to a temporary file first, which is renamed afterwards, so readers
+ * never see partial entries. Broken or unreadable files are treated as misses.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class DiskDiffCache
+	implements DiffCache
+{
+
+	/** The version of the file format. */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The directory to store the entries. */
+	private File dir;
+
+
+	/**
+	 * Instantiates a new disk cache.
+	 *
+	 * @param dir the directory to store the entries, will be created if necessary
+	 * @throws IOException if the directory cannot be created
+	 */
+	public DiskDiffCache (File dir) throws IOException
+	{
+		if (!dir.isDirectory () && !dir.mkdirs ())
+			throw new IOException ("cannot create cache directory " + dir);
+		this.dir = dir;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.cache.DiffCache#get(de.unirostock.sems.bives.cache.DiffCacheKey)
+	 */
+	@Override
+	public DiffCacheEntry get (DiffCacheKey key)
+	{
+		File file = new File (dir, key.getDigest ());
+		if (!file.canRead ())
+			return null;
+
+		// lengths read from the file are never trusted beyond its size
+		long size = file.length ();
+		try (DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (file))))
+		{
+			if (in.readInt () != FORMAT_VERSION)
+				return null;
+			if (!key.toString ().equals (readString (in, size)))
+				return null;
+
+			int [] mapping = new int [readLength (in, size / 4)];
+			for (int i = 0; i < mapping.length; i++)
+				mapping[i] = in.readInt ();
+			DiffCacheEntry entry = new DiffCacheEntry (mapping);
+
+			int numArtifacts = readLength (in, size);
+			for (int i = 0; i < numArtifacts; i++)
+				entry.setArtifact (readString (in, size), readString (in, size));
+			return entry;
+		}
+		catch (IOException | RuntimeException | OutOfMemoryError e)
+		{
+			LOGGER.warn (e, "cannot read cached diff from ", file);
+			return null;
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.cache.DiffCache#put(de.unirostock.sems.bives.cache.DiffCacheKey, de.unirostock.sems.bives.cache.DiffCacheEntry)
+	 */
+	@Override
+	public void put (DiffCacheKey key, DiffCacheEntry entry)
+	{
+		File file = new File (dir, key.getDigest ());
+		File tmp = new File (dir, key.getDigest () + "." + Thread.currentThread ().getId () + ".tmp");
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp))))
+			{
+				out.writeInt (FORMAT_VERSION);
+				writeString (out, key.toString ());
+
+				int [] mapping = entry.getMapping ();
+				out.writeInt (mapping.length);
+				for (int n : mapping)
+					out.writeInt (n);
+
+				Map<String, String> artifacts = entry.getArtifacts ();
+				out.writeInt (artifacts.size ());
+				for (Map.Entry<String, String> artifact : artifacts.entrySet ())
+				{
+					writeString (out, artifact.getKey ());
+					writeString (out, artifact.getValue ());
+				}
+			}
+			if (!tmp.renameTo (file))
+			{
+				// some platforms don't replace existing files
+				file.delete ();
+				if (!tmp.renameTo (file))
+					throw new IOException ("cannot move " + tmp + " to " + file);
+			}
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn (e, "cannot write cached diff to ", file);
+			tmp.delete ();
+		}
+	}
+
+
+	/**
+	 * Write a length-prefixed UTF-8 string.
+	 *
+	 * @param out the stream to write to
+	 * @param str the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeString (DataOutputStream out, String str) throws IOException
+	{
+		byte [] bytes = str.getBytes (StandardCharsets.UTF_8);
+		out.writeInt (bytes.length);
+		out.write (bytes);
+	}
+
+
+	/**
+	 * Read a length and check that it is in range.
+	 *
+	 * @param in the stream to read from
+	 * @param max the maximum length
+	 * @return the length
+	 * @throws IOException if the length is negative or greater than max
+	 */
+	private static int readLength (DataInputStream in, long max) throws IOException
+	{
+		int length = in.readInt ();
+		if (length < 0 || length > max)
+			throw new IOException ("invalid length in cached diff: " + length);
+		return length;
+	}
+
+
+	/**
+	 * Read a length-prefixed UTF-8 string.
+	 *
+	 * @param in the stream to read from
+	 * @param max the maximum length in bytes
+	 * @return the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static String readString (DataInputStream in, long max) throws IOException
+	{
+		byte [] bytes = new byte [readLength (in, max)];
+		in.readFully (bytes);
+		return new String (bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The Class MemoryDiffCache, an in-memory LRU cache for diff results.
+ *
+ * <p>
+ * If the estimated size of all entries exceeds the limit, the least recently
+ * used entries are evicted. Another cache, e.g. a {@link DiskDiffCache}, may
+ * serve as a second tier: misses are looked up there and all entries are
+ * written through.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class MemoryDiffCache
+	implements DiffCache
+{
+
+	/** The entries in access order. */
+	private LinkedHashMap<DiffCacheKey, DiffCacheEntry> entries;
+
+	/** The estimated sizes of the entries when they were stored. */
+	private HashMap<DiffCacheKey, Long> sizes;
+
+	/** The maximum size of all entries in bytes. */
+	private long maxSize;
+
+	/** The current size of all entries in bytes. */
+	private long size;
+
+	/** The second tier, or null. */
+	private DiffCache next;
+
+
+	/**
+	 * Instantiates a new in-memory cache.
+	 *
+	 * @param maxSize the maximum estimated size of all entries in bytes
+	 */
+	public MemoryDiffCache (long maxSize)
+	{
+		this (maxSize, null);
+	}
+
+
+	/**
+	 * Instantiates a new in-memory cache with a second tier.
+	 *
+	 * @param maxSize the maximum estimated size of all entries in bytes
+	 * @param next the second tier, or null
+	 */
+	public MemoryDiffCache (long maxSize, DiffCache next)
+	{
+		this.maxSize = maxSize;
+		this.next = next;
+		entries = new LinkedHashMap<DiffCacheKey, DiffCacheEntry> (16, .75f, true);
+		sizes = new HashMap<DiffCacheKey, Long> ();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.cache.DiffCache#get(de.unirostock.sems.bives.cache.DiffCacheKey)
+	 */
+	@Override
+	public DiffCacheEntry get (DiffCacheKey key)
+	{
+		synchronized (this)
+		{
+			DiffCacheEntry entry = entries.get (key);
+			if (entry != null || next == null)
+				return entry;
+		}
+
+		DiffCacheEntry entry = next.get (key);
+		if (entry != null)
+			store (key, entry);
+		return entry;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.unirostock.sems.bives.cache.DiffCache#put(de.unirostock.sems.bives.cache.DiffCacheKey, de.unirostock.sems.bives.cache.DiffCacheEntry)
+	 */
+	@Override
+	public void put (DiffCacheKey key, DiffCacheEntry entry)
+	{
+		store (key, entry);
+		if (next != null)
+			next.put (key, entry);
+	}
+
+
+	/**
+	 * Gets the estimated size of all entries.
+	 *
+	 * @return the size in bytes
+	 */
+	public synchronized long getSize ()
+	{
+		return size;
+	}
+
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int getNumEntries ()
+	{
+		return entries.size ();
+	}
+
+
+	/**
+	 * Store an entry in memory and evict the least recently used entries if necessary.
+	 *
+	 * @param key the key
+	 * @param entry the entry
+	 */
+	private synchronized void store (DiffCacheKey key, DiffCacheEntry entry)
+	{
+		long entrySize = entry.getSize ();
+		Long old = sizes.put (key, entrySize);
+		if (old != null)
+			size -= old;
+		entries.put (key, entry);
+		size += entrySize;
+
+		Iterator<Map.Entry<DiffCacheKey, DiffCacheEntry>> it = entries.entrySet ().iterator ();
+		while (size > maxSize && it.hasNext ())
+		{
+			DiffCacheKey eldest = it.next ().getKey ();
+			if (eldest.equals (key))
+				continue;
+			it.remove ();
+			size -= sizes.remove (eldest);
+		}
+	}
+}
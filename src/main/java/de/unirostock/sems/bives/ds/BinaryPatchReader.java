@@ -0,0 +1,273 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.ds;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Element;
+
+
+/**
+ * The Class BinaryPatchReader to decode patches written by a {@link BinaryPatchWriter}.
+ *
+ * <p>
+ * The decoded patch contains the same operations as the encoded patch, with
+ * the same attributes in the same order, so its XML serialization equals the
+ * one of the original patch without annotations, see
+ * {@link Patch#getDocument(boolean)}. The binary format does not contain the
+ * RDF annotations, thus, the annotations of the decoded patch are empty.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class BinaryPatchReader
+{
+
+	/** The stream to read from. */
+	private InputStream in;
+
+	/** The dictionary of names and tags. */
+	private List<String> tokens;
+
+	/** The dictionary of XPath prefixes, the first one is the empty prefix. */
+	private List<String> prefixes;
+
+	/** The previous id. */
+	private long lastId;
+
+
+	/**
+	 * Instantiates a new binary patch reader.
+	 *
+	 * @param in the stream to read from
+	 */
+	public BinaryPatchReader (InputStream in)
+	{
+		this.in = in;
+	}
+
+
+	/**
+	 * Decode a patch.
+	 *
+	 * @param bytes the binary patch
+	 * @return the patch
+	 * @throws IOException if the binary patch is malformed
+	 */
+	public static Patch decode (byte [] bytes) throws IOException
+	{
+		return new BinaryPatchReader (new ByteArrayInputStream (bytes)).read ();
+	}
+
+
+	/**
+	 * Read a patch from the stream. The stream is not closed.
+	 *
+	 * @return the patch
+	 * @throws IOException Signals that an I/O exception has occurred, or that the binary patch is malformed.
+	 */
+	public Patch read () throws IOException
+	{
+		tokens = new ArrayList<String> ();
+		prefixes = new ArrayList<String> ();
+		prefixes.add ("");
+		lastId = 0;
+
+		for (byte b : BinaryPatchWriter.MAGIC)
+			if (readByte () != b)
+				throw new IOException ("not a binary BiVeS patch");
+		int version = readByte ();
+		if (version != BinaryPatchWriter.VERSION)
+			throw new IOException ("unsupported version of binary patch: " + version);
+		int flags = readByte ();
+
+		Patch patch = new Patch ((flags & BinaryPatchWriter.FLAG_FULL_DIFF) != 0);
+		readSection (patch.getUpdates ());
+		readSection (patch.getDeletes ());
+		readSection (patch.getInserts ());
+		readSection (patch.getMoves ());
+		return patch;
+	}
+
+
+	/**
+	 * Read the operations of a section.
+	 *
+	 * @param section the section to add the operations to
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void readSection (Element section) throws IOException
+	{
+		int operations = readInt ();
+		for (int i = 0; i < operations; i++)
+		{
+			Element operation = new Element (readToken ());
+			int attributes = readInt ();
+			for (int j = 0; j < attributes; j++)
+			{
+				int type = readByte ();
+				String name = readToken ();
+				operation.setAttribute (name, readValue (type, name));
+			}
+			section.addContent (operation);
+		}
+	}
+
+
+	/**
+	 * Read the value of an attribute.
+	 *
+	 * @param type the type of the value
+	 * @param name the name of the attribute
+	 * @return the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readValue (int type, String name) throws IOException
+	{
+		switch (type)
+		{
+			case BinaryPatchWriter.TYPE_STRING:
+				return readString ();
+			case BinaryPatchWriter.TYPE_UINT:
+				return Long.toString (readVarint ());
+			case BinaryPatchWriter.TYPE_ID:
+			{
+				long encoded = readVarint ();
+				long id = lastId + ((encoded >>> 1) ^ -(encoded & 1));
+				if (name.equals ("id"))
+					lastId = id;
+				return Long.toString (id);
+			}
+			case BinaryPatchWriter.TYPE_PATH:
+				return readPath ();
+			case BinaryPatchWriter.TYPE_TOKEN:
+				return readToken ();
+			default:
+				throw new IOException ("unknown type of value: " + type);
+		}
+	}
+
+
+	/**
+	 * Read an XPath, extending the dictionary of prefixes.
+	 *
+	 * @return the path
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readPath () throws IOException
+	{
+		int prefix = readInt ();
+		if (prefix >= prefixes.size ())
+			throw new IOException ("invalid reference to path prefix: " + prefix);
+		String path = prefixes.get (prefix);
+		int steps = readInt ();
+		for (int i = 0; i < steps; i++)
+		{
+			String tag = readToken ();
+			int position = readInt ();
+			path = path + "/" + (position > 0 ? tag + "[" + position + "]" : tag);
+			prefixes.add (path);
+		}
+		return path;
+	}
+
+
+	/**
+	 * Read a token: either a reference to the dictionary, or a new string.
+	 *
+	 * @return the token
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readToken () throws IOException
+	{
+		int index = readInt ();
+		if (index == 0)
+		{
+			String token = readString ();
+			tokens.add (token);
+			return token;
+		}
+		if (index > tokens.size ())
+			throw new IOException ("invalid reference to token: " + index);
+		return tokens.get (index - 1);
+	}
+
+
+	/**
+	 * Read a length-prefixed UTF-8 string.
+	 *
+	 * @return the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readString () throws IOException
+	{
+		int length = readInt ();
+		byte [] bytes = new byte [length];
+		int read = 0;
+		while (read < length)
+		{
+			int n = in.read (bytes, read, length - read);
+			if (n < 0)
+				throw new EOFException ("unexpected end of binary patch");
+			read += n;
+		}
+		return new String (bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Read a varint that has to fit into an int.
+	 *
+	 * @return the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private int readInt () throws IOException
+	{
+		long value = readVarint ();
+		if (value < 0 || value > Integer.MAX_VALUE)
+			throw new IOException ("value out of range: " + value);
+		return (int) value;
+	}
+
+
+	/**
+	 * Read an unsigned varint.
+	 *
+	 * @return the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long readVarint () throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte ();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException ("malformed varint");
+	}
+
+
+	/**
+	 * Read a single byte.
+	 *
+	 * @return the byte
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private int readByte () throws IOException
+	{
+		int b = in.read ();
+		if (b < 0)
+			throw new EOFException ("unexpected end of binary patch");
+		return b;
+	}
+}
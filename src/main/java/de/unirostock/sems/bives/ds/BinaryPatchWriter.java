@@ -0,0 +1,355 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.ds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+
+/**
+ * The Class BinaryPatchWriter to encode a {@link Patch} in a compact binary format.
+ *
+ * <p>
+ * The format stores the operations of the patch, that is the children of
+ * {@link Patch#getUpdates()}, {@link Patch#getDeletes()},
+ * {@link Patch#getInserts()}, and {@link Patch#getMoves()} (in this order),
+ * including all their attributes in their original order:
+ * </p>
+ * <ul>
+ * <li>the file starts with the magic bytes <code>BVP</code>, a version byte,
+ * and a flags byte (bit 0: full diff),</li>
+ * <li>every section is prefixed by the number of operations, every operation by
+ * its name and the number of attributes,</li>
+ * <li>every attribute is written as a type byte, its name, and its value,</li>
+ * <li>names, tags, and path steps are tokens: the index in a per-patch
+ * dictionary, or 0 followed by the string, which is then appended to the
+ * dictionary,</li>
+ * <li>XPaths reference the longest previously seen prefix and only append the
+ * remaining steps,</li>
+ * <li>ids are stored as difference to the previous id, child numbers as
+ * varints, and all other values as length-prefixed UTF-8 strings.</li>
+ * </ul>
+ *
+ * <p>
+ * Integers are unsigned LEB128 varints, signed values are zigzag encoded. The
+ * RDF annotations of the patch are not part of the format, see
+ * {@link BinaryPatchReader}.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class BinaryPatchWriter
+{
+
+	/** The magic bytes starting every binary patch. */
+	static final byte [] MAGIC = {'B', 'V', 'P'};
+
+	/** The version of the format. */
+	static final int VERSION = 1;
+
+	/** The flag marking a full diff. */
+	static final int FLAG_FULL_DIFF = 1;
+
+	/** The value is a length-prefixed string. */
+	static final int TYPE_STRING = 0;
+
+	/** The value is a non-negative integer. */
+	static final int TYPE_UINT = 1;
+
+	/** The value is an id, stored as difference to the previous id. */
+	static final int TYPE_ID = 2;
+
+	/** The value is an XPath, stored as reference to a known prefix and the remaining steps. */
+	static final int TYPE_PATH = 3;
+
+	/** The value is a token of the dictionary. */
+	static final int TYPE_TOKEN = 4;
+
+	/** The stream to write to. */
+	private OutputStream out;
+
+	/** The dictionary of names and tags. */
+	private HashMap<String, Integer> tokens;
+
+	/** The dictionary of XPath prefixes, keyed by the index of the parent prefix and the step. */
+	private HashMap<String, Integer> prefixes;
+
+	/** The previous id. */
+	private long lastId;
+
+
+	/**
+	 * Instantiates a new binary patch writer.
+	 *
+	 * @param out the stream to write to
+	 */
+	public BinaryPatchWriter (OutputStream out)
+	{
+		this.out = out;
+	}
+
+
+	/**
+	 * Encode a patch.
+	 *
+	 * @param patch the patch
+	 * @return the binary patch
+	 */
+	public static byte [] encode (Patch patch)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		try
+		{
+			new BinaryPatchWriter (bytes).write (patch);
+		}
+		catch (IOException e)
+		{
+			// cannot happen when writing to memory
+			throw new IllegalStateException (e);
+		}
+		return bytes.toByteArray ();
+	}
+
+
+	/**
+	 * Write a patch to the stream. The stream is flushed, but not closed.
+	 *
+	 * @param patch the patch
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write (Patch patch) throws IOException
+	{
+		tokens = new HashMap<String, Integer> ();
+		prefixes = new HashMap<String, Integer> ();
+		lastId = 0;
+
+		out.write (MAGIC);
+		out.write (VERSION);
+		out.write (patch.isFullDiff () ? FLAG_FULL_DIFF : 0);
+
+		writeSection (patch.getUpdates ());
+		writeSection (patch.getDeletes ());
+		writeSection (patch.getInserts ());
+		writeSection (patch.getMoves ());
+		out.flush ();
+	}
+
+
+	/**
+	 * Write the operations of a section.
+	 *
+	 * @param section the section, such as the updates
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeSection (Element section) throws IOException
+	{
+		List<Element> operations = section.getChildren ();
+		writeVarint (operations.size ());
+		for (Element operation : operations)
+		{
+			writeToken (operation.getName ());
+			List<Attribute> attributes = operation.getAttributes ();
+			writeVarint (attributes.size ());
+			for (Attribute attribute : attributes)
+				writeAttribute (attribute.getName (), attribute.getValue ());
+		}
+	}
+
+
+	/**
+	 * Write an attribute of an operation, choosing the most compact encoding for its value.
+	 *
+	 * @param name the name of the attribute
+	 * @param value the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeAttribute (String name, String value) throws IOException
+	{
+		if ((name.equals ("id") || name.equals ("triggeredBy")) && isInteger (value))
+		{
+			out.write (TYPE_ID);
+			writeToken (name);
+			long id = Long.parseLong (value);
+			writeVarint (zigzag (id - lastId));
+			if (name.equals ("id"))
+				lastId = id;
+		}
+		else if (name.endsWith ("ChildNo") && isInteger (value) && !value.startsWith ("-"))
+		{
+			out.write (TYPE_UINT);
+			writeToken (name);
+			writeVarint (Long.parseLong (value));
+		}
+		else if ((name.endsWith ("Path") || name.endsWith ("Parent")) && value.startsWith ("/"))
+		{
+			out.write (TYPE_PATH);
+			writeToken (name);
+			writePath (value);
+		}
+		else if (name.equals ("name") || name.endsWith ("Tag"))
+		{
+			out.write (TYPE_TOKEN);
+			writeToken (name);
+			writeToken (value);
+		}
+		else
+		{
+			out.write (TYPE_STRING);
+			writeToken (name);
+			writeString (value);
+		}
+	}
+
+
+	/**
+	 * Checks if a value is an integer in canonical form, so it can be restored from its numeric value.
+	 *
+	 * @param value the value
+	 * @return true, if the value is an integer
+	 */
+	private static boolean isInteger (String value)
+	{
+		try
+		{
+			return Long.toString (Long.parseLong (value)).equals (value);
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+	}
+
+
+	/**
+	 * Write an XPath: the index of the longest known prefix, the number of remaining steps, and the remaining steps as tag and position.
+	 * Every written step extends the dictionary of prefixes.
+	 *
+	 * @param path the path, starting with a slash
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writePath (String path) throws IOException
+	{
+		String [] steps = path.substring (1).split ("/", -1);
+
+		// walk down the known prefixes
+		int prefix = 0;
+		int known = 0;
+		while (known < steps.length)
+		{
+			Integer next = prefixes.get (prefix + "/" + steps[known]);
+			if (next == null)
+				break;
+			prefix = next;
+			known++;
+		}
+
+		writeVarint (prefix);
+		writeVarint (steps.length - known);
+		for (int i = known; i < steps.length; i++)
+		{
+			String step = steps[i];
+			int position = getPosition (step);
+			writeToken (position > 0 ? step.substring (0, step.lastIndexOf ('[')) : step);
+			writeVarint (position);
+
+			int index = prefixes.size () + 1;
+			prefixes.put (prefix + "/" + step, index);
+			prefix = index;
+		}
+	}
+
+
+	/**
+	 * Gets the position of a step such as <code>species[3]</code>.
+	 *
+	 * @param step the step
+	 * @return the position, or 0 if the step has no canonical positional predicate
+	 */
+	static int getPosition (String step)
+	{
+		int open = step.lastIndexOf ('[');
+		if (open < 0 || !step.endsWith ("]"))
+			return 0;
+		String position = step.substring (open + 1, step.length () - 1);
+		try
+		{
+			int p = Integer.parseInt (position);
+			return p > 0 && Integer.toString (p).equals (position) ? p : 0;
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Write a token: the index in the dictionary, or 0 followed by the string if it is not yet known.
+	 *
+	 * @param token the token
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeToken (String token) throws IOException
+	{
+		Integer index = tokens.get (token);
+		if (index != null)
+		{
+			writeVarint (index);
+			return;
+		}
+		writeVarint (0);
+		writeString (token);
+		tokens.put (token, tokens.size () + 1);
+	}
+
+
+	/**
+	 * Write a length-prefixed UTF-8 string.
+	 *
+	 * @param str the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeString (String str) throws IOException
+	{
+		byte [] bytes = str.getBytes (StandardCharsets.UTF_8);
+		writeVarint (bytes.length);
+		out.write (bytes);
+	}
+
+
+	/**
+	 * Write an unsigned varint.
+	 *
+	 * @param value the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeVarint (long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.write ((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write ((int) value);
+	}
+
+
+	/**
+	 * Zigzag encode a signed value, so small negative values result in small varints.
+	 *
+	 * @param value the value
+	 * @return the encoded value
+	 */
+	private static long zigzag (long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+}
@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.ds;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.unirostock.sems.xmlutils.ds.DocumentNode;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+
+
+/**
+ * The Class NodeIndex numbering the nodes of a {@link de.unirostock.sems.xmlutils.ds.TreeDocument} in preorder.
+ *
+ * <p>
+ * The numbering is computed once in a single traversal. Afterwards, the node of
+ * a number is an array read and the number of a node is a probe in an identity
+ * hash table without any boxing. Nodes added to the document after the
+ * numbering are unknown to the index.
+ * </p>
+ *
+ * <p>
+ * The traversal also records the parent and the child number of every node,
+ * so they don't need to be searched in the list of siblings. XPaths are
+ * requested from a node only once and memoized.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class NodeIndex
+{
+
+	/** The indexed document. */
+	private TreeDocument doc;
+
+	/** The nodes by number. */
+	private TreeNode [] nodes;
+
+	/** The keys of the identity hash table. */
+	private TreeNode [] keys;
+
+	/** The numbers of the identity hash table. */
+	private int [] values;
+
+	/** The mask to map hashes to slots. */
+	private int mask;
+
+	/** The numbers of the parents by number, -1 for the root. */
+	private int [] parents;
+
+	/** The child numbers by number, as returned by {@link DocumentNode#getNoOfChild(TreeNode)}, -1 for the root. */
+	private int [] childNumbers;
+
+	/** The memoized XPaths by number, null if not yet requested. */
+	private String [] xPaths;
+
+
+	/**
+	 * Instantiates a new node index, numbering all nodes of the document in preorder.
+	 *
+	 * @param doc the document
+	 */
+	public NodeIndex (TreeDocument doc)
+	{
+		this.doc = doc;
+
+		List<TreeNode> preorder = new ArrayList<TreeNode> ();
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		// parent numbers and child positions of the nodes on the stack
+		int [] stackParents = new int [16];
+		int [] stackPositions = new int [16];
+		int [] parentList = new int [16];
+		int [] positionList = new int [16];
+		// child numbers are counted from the number of the first child
+		int firstChildNo = -1;
+
+		stack.push (doc.getRoot ());
+		stackParents[0] = -1;
+		stackPositions[0] = -1;
+		while (!stack.isEmpty ())
+		{
+			int top = stack.size () - 1;
+			TreeNode node = stack.pop ();
+			int number = preorder.size ();
+			preorder.add (node);
+			if (number == parentList.length)
+			{
+				parentList = Arrays.copyOf (parentList, number * 2);
+				positionList = Arrays.copyOf (positionList, number * 2);
+			}
+			parentList[number] = stackParents[top];
+			positionList[number] = stackPositions[top];
+
+			if (node.getType () == TreeNode.DOC_NODE)
+			{
+				DocumentNode dnode = (DocumentNode) node;
+				List<TreeNode> children = dnode.getChildren ();
+				if (children.isEmpty ())
+					continue;
+				if (firstChildNo < 0)
+					firstChildNo = dnode.getNoOfChild (children.get (0));
+				if (top + children.size () > stackParents.length)
+				{
+					int length = Math.max (stackParents.length * 2, top + children.size ());
+					stackParents = Arrays.copyOf (stackParents, length);
+					stackPositions = Arrays.copyOf (stackPositions, length);
+				}
+				for (int i = children.size () - 1; i >= 0; i--)
+				{
+					stackParents[stack.size ()] = number;
+					stackPositions[stack.size ()] = i;
+					stack.push (children.get (i));
+				}
+			}
+		}
+		nodes = preorder.toArray (new TreeNode [preorder.size ()]);
+		parents = Arrays.copyOf (parentList, nodes.length);
+		childNumbers = Arrays.copyOf (positionList, nodes.length);
+		for (int i = 0; i < nodes.length; i++)
+			if (parents[i] >= 0)
+				childNumbers[i] += firstChildNo;
+		xPaths = new String [nodes.length];
+
+		int capacity = 2;
+		while (capacity < nodes.length * 2)
+			capacity <<= 1;
+		keys = new TreeNode [capacity];
+		values = new int [capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < nodes.length; i++)
+		{
+			int slot = slot (nodes[i]);
+			while (keys[slot] != null)
+				slot = (slot + 1) & mask;
+			keys[slot] = nodes[i];
+			values[slot] = i;
+		}
+	}
+
+
+	/**
+	 * Gets the indexed document.
+	 *
+	 * @return the document
+	 */
+	public TreeDocument getDocument ()
+	{
+		return doc;
+	}
+
+
+	/**
+	 * Gets the number of indexed nodes.
+	 *
+	 * @return the number of nodes
+	 */
+	public int size ()
+	{
+		return nodes.length;
+	}
+
+
+	/**
+	 * Gets the node with a certain number.
+	 *
+	 * @param number the number
+	 * @return the node
+	 */
+	public TreeNode getNode (int number)
+	{
+		return nodes[number];
+	}
+
+
+	/**
+	 * Gets the preorder number of a node.
+	 *
+	 * @param node the node
+	 * @return the number, or -1 if the node is not part of this index
+	 */
+	public int getNumber (TreeNode node)
+	{
+		int slot = slot (node);
+		while (keys[slot] != null)
+		{
+			if (keys[slot] == node)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Gets the number of the parent of a node.
+	 *
+	 * @param number the number of the node
+	 * @return the number of the parent, or -1 for the root
+	 */
+	public int getParent (int number)
+	{
+		return parents[number];
+	}
+
+
+	/**
+	 * Gets the child number of a node, that is its position in the list of children of its parent.
+	 *
+	 * @param number the number of the node
+	 * @return the child number, or -1 for the root
+	 */
+	public int getChildNo (int number)
+	{
+		return childNumbers[number];
+	}
+
+
+	/**
+	 * Gets the XPath of a node. The path is memoized.
+	 *
+	 * @param number the number of the node
+	 * @return the XPath
+	 */
+	public String getXPath (int number)
+	{
+		String xPath = xPaths[number];
+		if (xPath == null)
+		{
+			xPath = nodes[number].getXPath ();
+			xPaths[number] = xPath;
+		}
+		return xPath;
+	}
+
+
+	/**
+	 * Gets the XPath of the parent of a node.
+	 *
+	 * @param number the number of the node
+	 * @return the XPath of the parent, or an empty string for the root
+	 */
+	public String getParentXPath (int number)
+	{
+		return parents[number] < 0 ? "" : getXPath (parents[number]);
+	}
+
+
+	/**
+	 * Gets the path of child numbers from the root to a node.
+	 *
+	 * @param number the number of the node
+	 * @return the child numbers of all ancestors, starting below the root, and of the node itself
+	 */
+	public int [] getChildNoPath (int number)
+	{
+		int depth = 0;
+		for (int n = number; parents[n] >= 0; n = parents[n])
+			depth++;
+		int [] path = new int [depth];
+		for (int n = number; parents[n] >= 0; n = parents[n])
+			path[--depth] = childNumbers[n];
+		return path;
+	}
+
+
+	/**
+	 * Computes the first slot of a node in the hash table.
+	 *
+	 * @param node the node
+	 * @return the slot
+	 */
+	private int slot (TreeNode node)
+	{
+		int h = System.identityHashCode (node);
+		// spread the bits, identity hashes tend to have poor low bits
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+}
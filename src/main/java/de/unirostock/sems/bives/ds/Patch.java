@@ -3,8 +3,13 @@
  */
 package de.unirostock.sems.bives.ds;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,6 +24,7 @@ import de.unirostock.sems.bives.algorithm.DiffAnnotator;
 import de.unirostock.sems.bives.algorithm.NodeConnection;
 import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
 import de.unirostock.sems.bives.algorithm.general.DefaultDiffAnnotator;
+import de.unirostock.sems.bives.ds.rdf.RdfXmlBuilder;
 import de.unirostock.sems.bives.tools.BivesTools;
 import de.unirostock.sems.comodi.Change;
 import de.unirostock.sems.comodi.ChangeFactory;
@@ -30,6 +36,15 @@ import de.unirostock.sems.xmlutils.tools.XmlTools;
 
 /**
  * The Class Patch storing all operations necessary to transfer one document into another.
+ * 
+ * <p>
+ * The annotations of the differences are created lazily: while operations are
+ * added only lightweight change events are recorded. They are passed to the
+ * {@link DiffAnnotator} when the annotations are requested for the first time,
+ * see {@link #getAnnotations()}, {@link #getAnnotationDocumentXml()},
+ * {@link #getNumAnnotations()}, and {@link #getDocument(boolean)}. Thus, a
+ * patch that is never asked for its annotations doesn't create any RDF.
+ * </p>
  *
  * @author Martin Scharm
  * @see <a href="https://sems.uni-rostock.de/trac/bives-core/wiki/BivesDelta">delta documentation</a>
@@ -43,9 +58,26 @@ public class Patch
 	/** The actual current patch file name. */
 	private URI patchFileName;
 	
-	/** The change annotation factory. */
+	/** Change event: deletion of a node. */
+	private static final int DELETION = 0;
+	/** Change event: insertion of a node. */
+	private static final int INSERTION = 1;
+	/** Change event: move of a node. */
+	private static final int MOVE = 2;
+	/** Change event: update of an attribute. */
+	private static final int UPDATE_ATTRIBUTE = 3;
+	/** Change event: update of a text node. */
+	private static final int UPDATE_TEXT = 4;
+	
+	/** The change annotation factory, null until the annotations are requested. */
 	private ChangeFactory changeAnnotationFactory;
 	
+	/** The changes that are not yet annotated. */
+	private List<ChangeEvent> changeEvents;
+	
+	/** Should the whole patch be annotated, once the changes are annotated? */
+	private boolean patchAnnotationPending;
+	
 	/** The annotator for differences. */
 	private DiffAnnotator diffAnnotator;
 	
@@ -68,6 +100,24 @@ public class Patch
 	/** The fullDiff flag indicating whether this diff is a full diff. */
 	private boolean fullDiff;
 	
+	/** The cached subtree of RDF annotations. */
+	private Element annotationElement;
+	
+	/** The number of annotation statements when the subtree was cached. */
+	private long annotationStatements = -1;
+	
+	/** The writer to stream operations to, or null to keep the operations in this patch. */
+	private PatchStreamWriter stream;
+	
+	/** The name of the streamed section, operations of other sections are skipped. */
+	private String streamSection;
+	
+	/** The index of the original document, or null. */
+	private NodeIndex indexA;
+	
+	/** The index of the modified document, or null. */
+	private NodeIndex indexB;
+	
 	
 	/**
 	 * Instantiates a new patch specifying the file name of the resulting patch and an annotator to annotate the differences.
@@ -199,6 +249,79 @@ public class Patch
 		init (PATCH_FILE_NAME, new DefaultDiffAnnotator ());
 	}
 	
+	/**
+	 * Checks if this is a full diff, which can be used to transform one version of a document into the other.
+	 *
+	 * @return true, if this is a full diff
+	 */
+	public boolean isFullDiff ()
+	{
+		return fullDiff;
+	}
+	
+	/**
+	 * Stream the operations of a single section to a writer instead of storing them in this patch.
+	 * 
+	 * Operations of other sections are skipped, but still consume their ids, so producing the same patch once per section results in the same operations as producing it in memory.
+	 * Streamed operations are not annotated.
+	 * An {@link IOException} of the writer is rethrown as {@link UncheckedIOException} by the methods adding operations.
+	 *
+	 * @param stream the writer, with the section already opened
+	 * @param section the name of the section, see {@link PatchStreamWriter#SECTIONS}
+	 */
+	public void streamTo (PatchStreamWriter stream, String section)
+	{
+		this.stream = stream;
+		this.streamSection = section;
+	}
+	
+	/**
+	 * Sets the indexes of the compared documents, to look up child numbers and XPaths of nodes instead of computing them for every operation.
+	 * Nodes that are not part of the indexes are processed without the indexes.
+	 *
+	 * @param indexA the index of the original document, or null
+	 * @param indexB the index of the modified document, or null
+	 */
+	public void setNodeIndexes (NodeIndex indexA, NodeIndex indexB)
+	{
+		this.indexA = indexA;
+		this.indexB = indexB;
+	}
+	
+	/**
+	 * Checks if operations of a section are skipped, because another section is streamed.
+	 *
+	 * @param section the section
+	 * @return true, if the operations are skipped
+	 */
+	private boolean skips (Element section)
+	{
+		return stream != null && !section.getName ().equals (streamSection);
+	}
+	
+	/**
+	 * Add an operation to a section, or write it to the stream.
+	 *
+	 * @param section the section
+	 * @param operation the operation
+	 */
+	private void addOperation (Element section, Element operation)
+	{
+		if (stream == null)
+		{
+			section.addContent (operation);
+			return;
+		}
+		try
+		{
+			stream.writeOperation (operation);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException (e);
+		}
+	}
+	
 	/**
 	 * Gets the number of stored move operations.
 	 *
@@ -348,18 +471,49 @@ public class Patch
 		
 		if (inclAnnotations)
 		{
-			String xml = changeAnnotationFactory.getRdfXml ();
+			Element annotations = getAnnotationElement ();
+			if (annotations != null)
+				rootElement.addContent (annotations.clone ());
+		}
+		
+		return xmlDoc;
+	}
+	
+	
+	/**
+	 * Gets the subtree of RDF annotations, with URIs relative to the patch.
+	 * The subtree is built directly from the annotation model and cached until further annotations are added.
+	 *
+	 * @return the annotations subtree, or null if it cannot be created
+	 */
+	private Element getAnnotationElement ()
+	{
+		annotate ();
+		long statements = changeAnnotationFactory.getNumStatements ();
+		if (annotationElement != null && annotationStatements == statements)
+			return annotationElement;
+		
+		try
+		{
+			annotationElement = new RdfXmlBuilder (patchFileName.toString ()).build (changeAnnotationFactory.getAnnotaions ());
+		}
+		catch (IllegalArgumentException e)
+		{
+			// e.g. a property that cannot be written as an XML element name -- let jena's writer decide
+			LOGGER.warn (e, "cannot build rdf-annotations subtree directly, falling back to parsing the rdf/xml");
 			try
 			{
-				rootElement.addContent (XmlTools.readDocument (xml.replaceAll (patchFileName.toString (), "")).getRootElement ().detach ());
+				String xml = changeAnnotationFactory.getRdfXml ();
+				annotationElement = XmlTools.readDocument (xml.replace (patchFileName.toString (), "")).getRootElement ().detach ();
 			}
-			catch (Exception e)
+			catch (Exception ex)
 			{
-				LOGGER.error (e, "wasn't able to read rdf-annotations subtree to add it to the diff");
+				LOGGER.error (ex, "wasn't able to read rdf-annotations subtree to add it to the diff");
+				annotationElement = null;
 			}
 		}
-		
-		return xmlDoc;
+		annotationStatements = statements;
+		return annotationElement;
 	}
 	
 	
@@ -370,7 +524,68 @@ public class Patch
 	 */
 	public int getNumAnnotations ()
 	{
-		return changeAnnotationFactory.getNumStatements ();
+		return annotate ().getNumStatements ();
+	}
+	
+	/**
+	 * Checks if the annotations of the differences have already been created.
+	 * The annotations are created when they are requested for the first time.
+	 *
+	 * @return true, if the annotations exist
+	 */
+	public boolean isAnnotated ()
+	{
+		return changeAnnotationFactory != null;
+	}
+	
+	/**
+	 * Annotate all recorded changes that are not yet annotated.
+	 * The factory is created on first use, so patches that are never asked for annotations don't touch the RDF model.
+	 * 
+	 * The annotator processes the nodes of the documents when the annotations are requested, so the documents must not be modified in between.
+	 *
+	 * @return the change annotation factory
+	 */
+	private ChangeFactory annotate ()
+	{
+		if (changeAnnotationFactory == null)
+			changeAnnotationFactory = new ChangeFactory (patchFileName);
+		
+		if (!changeEvents.isEmpty ())
+		{
+			LOGGER.info ("annotating ", changeEvents.size (), " changes");
+			for (ChangeEvent event : changeEvents)
+				event.annotate (diffAnnotator, changeAnnotationFactory);
+			changeEvents.clear ();
+		}
+		
+		if (patchAnnotationPending)
+		{
+			diffAnnotator.annotatePatch ("bivesPatch", changeAnnotationFactory);
+			patchAnnotationPending = false;
+		}
+		return changeAnnotationFactory;
+	}
+	
+	/**
+	 * Record a change, to be annotated when the annotations are requested.
+	 * Streamed operations are not annotated.
+	 *
+	 * @param type the type of the change, such as {@link #MOVE}
+	 * @param a the node in the original document, or the node in question for insertions and deletions
+	 * @param b the node in the modified document, or null for insertions and deletions
+	 * @param attribute the name of the updated attribute, or null
+	 * @param diffElement the operation in the patch
+	 * @param permutation is a move just a permutation?
+	 * @return the recorded event, or null if the operation is not annotated
+	 */
+	private ChangeEvent recordChange (int type, TreeNode a, TreeNode b, String attribute, Element diffElement, boolean permutation)
+	{
+		if (stream != null)
+			return null;
+		ChangeEvent event = new ChangeEvent (type, a, b, attribute, diffElement, permutation);
+		changeEvents.add (event);
+		return event;
 	}
 	
 	/**
@@ -390,7 +605,7 @@ public class Patch
 	 */
 	public String getAnnotationDocumentXml ()
 	{
-		return changeAnnotationFactory.getRdfXml ();
+		return annotate ().getRdfXml ();
 	}
 	
 	/**
@@ -400,7 +615,7 @@ public class Patch
 	 */
 	public ChangeFactory getAnnotations ()
 	{
-		return changeAnnotationFactory;
+		return annotate ();
 	}
 	
 	/**
@@ -423,7 +638,7 @@ public class Patch
 		insert = new Element("insert");
 		move = new Element("move");
 		
-		changeAnnotationFactory = new ChangeFactory (this.patchFileName);
+		changeEvents = new ArrayList<ChangeEvent> ();
 		
 		LOGGER.info ("initialized patch");
 	}
@@ -582,23 +797,37 @@ public class Patch
 	 */
 	public void deleteSubtree (TreeNode toDelete, int chainId)
 	{
-		switch (toDelete.getType ())
+		// preorder traversal on an explicit stack, every node is triggered by the deletion of its parent
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		ArrayDeque<Integer> chains = new ArrayDeque<Integer> ();
+		stack.push (toDelete);
+		chains.push (chainId);
+		while (!stack.isEmpty ())
 		{
-			case TreeNode.DOC_NODE:
-			{
-				DocumentNode dnode = (DocumentNode) toDelete;
-				int parentId = deleteNode (dnode, chainId);
-				for (TreeNode tn : dnode.getChildren ())
-					deleteSubtree (tn, parentId);
-				break;
-			}
-			case TreeNode.TEXT_NODE:
-				deleteNode ((TextNode) toDelete, chainId);
-				break;
-			default:
+			TreeNode node = stack.pop ();
+			int chain = chains.pop ();
+			switch (node.getType ())
 			{
-				LOGGER.error ("unsupported tree node type for deletion...");
-				throw new UnsupportedOperationException ("unsupported tree node type...");
+				case TreeNode.DOC_NODE:
+				{
+					DocumentNode dnode = (DocumentNode) node;
+					int parentId = deleteNode (dnode, chain);
+					List<TreeNode> children = dnode.getChildren ();
+					for (int i = children.size () - 1; i >= 0; i--)
+					{
+						stack.push (children.get (i));
+						chains.push (parentId);
+					}
+					break;
+				}
+				case TreeNode.TEXT_NODE:
+					deleteNode ((TextNode) node, chain);
+					break;
+				default:
+				{
+					LOGGER.error ("unsupported tree node type for deletion...");
+					throw new UnsupportedOperationException ("unsupported tree node type...");
+				}
 			}
 		}
 	}
@@ -636,12 +865,15 @@ public class Patch
 	 */
 	private int deleteNode (DocumentNode toDelete, int chainId)
 	{
-		LOGGER.info ("deleting node ", toDelete.getXPath ());
+		LOGGER.info ("deleting node ", getXpath (toDelete));
 		int nodeId = ++id;
 		
-		Element diffElement = createNodeElement (nodeId, getParentXpath (toDelete), null, toDelete.getXPath (), null, getChildNo (toDelete), -1, toDelete.getTagName (), null, chainId);
-		delete.addContent (diffElement);
-		diffAnnotator.annotateDeletion (toDelete, diffElement, changeAnnotationFactory);
+		if (!skips (delete))
+		{
+			Element diffElement = createNodeElement (nodeId, getParentXpath (toDelete), null, getXpath (toDelete), null, getChildNo (toDelete), -1, toDelete.getTagName (), null, chainId);
+			addOperation (delete, diffElement);
+			recordChange (DELETION, toDelete, null, null, diffElement, false);
+		}
 		
 		if (!fullDiff)
 			return nodeId;
@@ -661,11 +893,14 @@ public class Patch
 	 */
 	private void deleteAttribute (DocumentNode node, String attribute, int chainId)
 	{
-		LOGGER.info ("deleting attribute ", attribute, " of ", node.getXPath ());
+		LOGGER.info ("deleting attribute ", attribute, " of ", getXpath (node));
 		
-		Element diffElement = createAttributeElement (++id, node.getXPath (), null, attribute, node.getAttributeValue (attribute), null, chainId);
-		delete.addContent (diffElement);
-		diffAnnotator.annotateDeletion (node, diffElement, changeAnnotationFactory);
+		int nodeId = ++id;
+		if (skips (delete))
+			return;
+		Element diffElement = createAttributeElement (nodeId, getXpath (node), null, attribute, node.getAttributeValue (attribute), null, chainId);
+		addOperation (delete, diffElement);
+		recordChange (DELETION, node, null, null, diffElement, false);
 	}
 	
 	/**
@@ -676,11 +911,14 @@ public class Patch
 	 */
 	private void deleteNode (TextNode toDelete, int chainId)
 	{
-		LOGGER.info ("deleting text of ", toDelete.getXPath ());
+		LOGGER.info ("deleting text of ", getXpath (toDelete));
 		
-		Element diffElement = createTextElement (++id, getParentXpath (toDelete), null, toDelete.getXPath (), null, getChildNo (toDelete), -1, toDelete.getText (), null, chainId); 
-		delete.addContent (diffElement);
-		diffAnnotator.annotateDeletion (toDelete, diffElement, changeAnnotationFactory);
+		int nodeId = ++id;
+		if (skips (delete))
+			return;
+		Element diffElement = createTextElement (nodeId, getParentXpath (toDelete), null, getXpath (toDelete), null, getChildNo (toDelete), -1, toDelete.getText (), null, chainId); 
+		addOperation (delete, diffElement);
+		recordChange (DELETION, toDelete, null, null, diffElement, false);
 	}
 	
 	/**
@@ -691,21 +929,35 @@ public class Patch
 	 */
 	public void insertSubtree (TreeNode toInsert, int chainId)
 	{
-		switch (toInsert.getType ())
+		// preorder traversal on an explicit stack, every node is triggered by the insertion of its parent
+		ArrayDeque<TreeNode> stack = new ArrayDeque<TreeNode> ();
+		ArrayDeque<Integer> chains = new ArrayDeque<Integer> ();
+		stack.push (toInsert);
+		chains.push (chainId);
+		while (!stack.isEmpty ())
 		{
-			case TreeNode.DOC_NODE:
-				DocumentNode dnode = (DocumentNode) toInsert;
-				int parentId = insertNode (dnode, chainId);
-				for (TreeNode tn : dnode.getChildren ())
-					insertSubtree (tn, parentId);
-				break;
-			case TreeNode.TEXT_NODE:
-				insertNode ((TextNode) toInsert, chainId);
-				break;
-			default:
+			TreeNode node = stack.pop ();
+			int chain = chains.pop ();
+			switch (node.getType ())
 			{
-				LOGGER.error ("unsupported tree node type for insertion...");
-				throw new UnsupportedOperationException ("unsupported tree node type...");
+				case TreeNode.DOC_NODE:
+					DocumentNode dnode = (DocumentNode) node;
+					int parentId = insertNode (dnode, chain);
+					List<TreeNode> children = dnode.getChildren ();
+					for (int i = children.size () - 1; i >= 0; i--)
+					{
+						stack.push (children.get (i));
+						chains.push (parentId);
+					}
+					break;
+				case TreeNode.TEXT_NODE:
+					insertNode ((TextNode) node, chain);
+					break;
+				default:
+				{
+					LOGGER.error ("unsupported tree node type for insertion...");
+					throw new UnsupportedOperationException ("unsupported tree node type...");
+				}
 			}
 		}
 	}
@@ -743,12 +995,15 @@ public class Patch
 	 */
 	public int insertNode (DocumentNode toInsert, int chainId)
 	{
-		LOGGER.info ("inserting node ", toInsert.getXPath ());
+		LOGGER.info ("inserting node ", getXpath (toInsert));
 		int nodeId = ++id;
 		
-		Element diffElement = createNodeElement (nodeId, null, getParentXpath (toInsert), null, toInsert.getXPath (), -1, getChildNo (toInsert), null, toInsert.getTagName (), chainId);
-		insert.addContent (diffElement);
-		diffAnnotator.annotateInsertion (toInsert, diffElement, changeAnnotationFactory);
+		if (!skips (insert))
+		{
+			Element diffElement = createNodeElement (nodeId, null, getParentXpath (toInsert), null, getXpath (toInsert), -1, getChildNo (toInsert), null, toInsert.getTagName (), chainId);
+			addOperation (insert, diffElement);
+			recordChange (INSERTION, toInsert, null, null, diffElement, false);
+		}
 		
 		if (!fullDiff)
 			return nodeId;
@@ -768,11 +1023,14 @@ public class Patch
 	 */
 	private void insertAttribute (DocumentNode node, String attribute, int chainId)
 	{
-		LOGGER.info ("inserting attribute ", attribute, " of ", node.getXPath ());
+		LOGGER.info ("inserting attribute ", attribute, " of ", getXpath (node));
 		
-		Element diffElement = createAttributeElement (++id, null, node.getXPath (), attribute, null, node.getAttributeValue (attribute), chainId);
-		insert.addContent (diffElement);
-		diffAnnotator.annotateInsertion (node, diffElement, changeAnnotationFactory);
+		int nodeId = ++id;
+		if (skips (insert))
+			return;
+		Element diffElement = createAttributeElement (nodeId, null, getXpath (node), attribute, null, node.getAttributeValue (attribute), chainId);
+		addOperation (insert, diffElement);
+		recordChange (INSERTION, node, null, null, diffElement, false);
 	}
 	
 	/**
@@ -783,11 +1041,14 @@ public class Patch
 	 */
 	private void insertNode (TextNode toInsert, int chainId)
 	{
-		LOGGER.info ("inserting text of ", toInsert.getXPath ());
+		LOGGER.info ("inserting text of ", getXpath (toInsert));
 		
-		Element diffElement = createTextElement (++id, null, getParentXpath (toInsert), null, toInsert.getXPath (), -1, getChildNo (toInsert), null, toInsert.getText (), chainId);
-		insert.addContent (diffElement);
-		diffAnnotator.annotateInsertion (toInsert, diffElement, changeAnnotationFactory);
+		int nodeId = ++id;
+		if (skips (insert))
+			return;
+		Element diffElement = createTextElement (nodeId, null, getParentXpath (toInsert), null, getXpath (toInsert), -1, getChildNo (toInsert), null, toInsert.getText (), chainId);
+		addOperation (insert, diffElement);
+		recordChange (INSERTION, toInsert, null, null, diffElement, false);
 	}
 	
 	/**
@@ -798,9 +1059,19 @@ public class Patch
 	 */
 	public void updateNode (NodeConnection c, SimpleConnectionManager conMgmt)
 	{
-		TreeNode a = c.getTreeA ();
-		TreeNode b = c.getTreeB ();
-		LOGGER.info ("updating node ", a.getXPath (), " to become ", b.getXPath ());
+		updateNode (c.getTreeA (), c.getTreeB (), conMgmt);
+	}
+	
+	/**
+	 * Update a node without requesting a connection object from the connection manager.
+	 *
+	 * @param a the old version of the node
+	 * @param b the new version of the node, connected to a
+	 * @param conMgmt the connection manager
+	 */
+	public void updateNode (TreeNode a, TreeNode b, SimpleConnectionManager conMgmt)
+	{
+		LOGGER.info ("updating node ", getXpath (a), " to become ", getXpath (b));
 		
 		if (a.getType () != b.getType ())
 		{
@@ -813,9 +1084,9 @@ public class Patch
 		
 		boolean moveThem = (a.getModification () & (TreeNode.MOVED | TreeNode.SWAPPEDKID)) != 0;
 		if (moveThem && LOGGER.isInfoEnabled ())
-			LOGGER.info ("will move them: par: ", conMgmt.parentsConnected (c), " chNoA: ", getChildNo (a), " chNoB: ", getChildNo (b));
+			LOGGER.info ("will move them: par: ", conMgmt.parentsConnected (a, b), " chNoA: ", getChildNo (a), " chNoB: ", getChildNo (b));
 		
-		Change change = null;
+		ChangeEvent change = null;
 		
 		// text node
 		if (a.getType () == TreeNode.TEXT_NODE)
@@ -823,31 +1094,34 @@ public class Patch
 			if ((a.getModification () & TreeNode.MODIFIED) != 0)
 			{
 				LOGGER.info ("text differs");
-				Element e = createTextElement (++id, getParentXpath (a), getParentXpath (b), a.getXPath (), b.getXPath (), getChildNo (a), getChildNo (b), ((TextNode) a).getText (), ((TextNode) b).getText (), -1);
-				change = diffAnnotator.annotateUpdateText ((TextNode) a, (TextNode) b, e, changeAnnotationFactory);
+				int nodeId = ++id;
+				if (skips (moveThem ? move : update))
+					return;
+				Element e = createTextElement (nodeId, getParentXpath (a), getParentXpath (b), getXpath (a), getXpath (b), getChildNo (a), getChildNo (b), ((TextNode) a).getText (), ((TextNode) b).getText (), -1);
+				change = recordChange (UPDATE_TEXT, a, b, null, e, false);
 				
 				if (moveThem)
 				{
-					move.addContent (e);
-					change = diffAnnotator.annotateMove (a, b, e, changeAnnotationFactory, conMgmt.parentsConnected (c));
+					addOperation (move, e);
+					change = recordChange (MOVE, a, b, null, e, conMgmt.parentsConnected (a, b));
 				}
 				else
 				{
-					update.addContent (e);
+					addOperation (update, e);
 				}
 			}
 			else if (moveThem)
 			{
 				LOGGER.info ("equal text");
-				Element diffElement = createTextElement (++id, getParentXpath (a), getParentXpath (b), a.getXPath (), b.getXPath (), getChildNo (a), getChildNo (b), null, null, -1);
-				move.addContent (diffElement);
-				change = diffAnnotator.annotateMove (a, b, diffElement, changeAnnotationFactory, conMgmt.parentsConnected (c));
+				int nodeId = ++id;
+				if (skips (move))
+					return;
+				Element diffElement = createTextElement (nodeId, getParentXpath (a), getParentXpath (b), getXpath (a), getXpath (b), getChildNo (a), getChildNo (b), null, null, -1);
+				addOperation (move, diffElement);
+				change = recordChange (MOVE, a, b, null, diffElement, conMgmt.parentsConnected (a, b));
 			}
 			if (change != null)
-			{
-				for (Map.Entry<Property, RDFNode> annotation : c.getAnnotations ())
-					change.addAnnotation (annotation.getKey (), annotation.getValue ());
-			}
+				change.connections = conMgmt;
 			return;
 		}
 
@@ -863,9 +1137,13 @@ public class Patch
 			{
 				LOGGER.info ("nodes unmodified");
 				
-				Element diffElement = createNodeElement (++id, getParentXpath (a), getParentXpath (b), a.getXPath (), b.getXPath (), getChildNo (a), getChildNo (b), null, null, -1);
-				move.addContent (diffElement);
-				change = diffAnnotator.annotateMove (a, b, diffElement, changeAnnotationFactory, conMgmt.parentsConnected (c));
+				int nodeId = ++id;
+				if (!skips (move))
+				{
+					Element diffElement = createNodeElement (nodeId, getParentXpath (a), getParentXpath (b), getXpath (a), getXpath (b), getChildNo (a), getChildNo (b), null, null, -1);
+					addOperation (move, diffElement);
+					change = recordChange (MOVE, a, b, null, diffElement, conMgmt.parentsConnected (a, b));
+				}
 			}
 		}
 		else
@@ -875,16 +1153,24 @@ public class Patch
 			{
 				LOGGER.info ("label of nodes differ -> updating");
 				
-				Element diffElement = createNodeElement (++id, getParentXpath (a), getParentXpath (b), a.getXPath (), b.getXPath (), getChildNo (a), getChildNo (b), dA.getTagName (), dB.getTagName (), -1);
-				update.addContent (diffElement);
+				int nodeId = ++id;
+				if (!skips (update))
+				{
+					Element diffElement = createNodeElement (nodeId, getParentXpath (a), getParentXpath (b), getXpath (a), getXpath (b), getChildNo (a), getChildNo (b), dA.getTagName (), dB.getTagName (), -1);
+					addOperation (update, diffElement);
+				}
 			}
 			else if (moveThem)
 			{
 				LOGGER.info ("label of nodes do not differ -> moving");
 				
-				Element diffElement = createNodeElement (++id, getParentXpath (a), getParentXpath (b), a.getXPath (), b.getXPath (), getChildNo (a), getChildNo (b), null, null, -1);
-				move.addContent (diffElement);
-				change = diffAnnotator.annotateMove (a, b, diffElement, changeAnnotationFactory, conMgmt.parentsConnected (c));
+				int nodeId = ++id;
+				if (!skips (move))
+				{
+					Element diffElement = createNodeElement (nodeId, getParentXpath (a), getParentXpath (b), getXpath (a), getXpath (b), getChildNo (a), getChildNo (b), null, null, -1);
+					addOperation (move, diffElement);
+					change = recordChange (MOVE, a, b, null, diffElement, conMgmt.parentsConnected (a, b));
+				}
 			}
 			
 			if (fullDiff)
@@ -904,18 +1190,33 @@ public class Patch
 						deleteAttribute (dA, attr, -1);
 					else if (!aA.equals (bA))
 					{
-						Element diffElement = createAttributeElement (++id, a.getXPath (), b.getXPath (), attr, aA, bA, -1);
-						update.addContent (diffElement);
-						change = diffAnnotator.annotateUpdateAttribute (a, b, attr, diffElement, changeAnnotationFactory);
+						int nodeId = ++id;
+						if (skips (update))
+							continue;
+						Element diffElement = createAttributeElement (nodeId, getXpath (a), getXpath (b), attr, aA, bA, -1);
+						addOperation (update, diffElement);
+						change = recordChange (UPDATE_ATTRIBUTE, a, b, attr, diffElement, false);
 					}
 				}
 			}
 		}
 		if (change != null)
-		{
-			for (Map.Entry<Property, RDFNode> annotation : c.getAnnotations ())
-				change.addAnnotation (annotation.getKey (), annotation.getValue ());
-		}
+			change.connections = conMgmt;
+	}
+	
+	/**
+	 * Gets the index containing a node.
+	 *
+	 * @param n the node of interest
+	 * @return the index, or null if the node isn't indexed
+	 */
+	private NodeIndex getIndex (TreeNode n)
+	{
+		if (indexA != null && indexA.getNumber (n) >= 0)
+			return indexA;
+		if (indexB != null && indexB.getNumber (n) >= 0)
+			return indexB;
+		return null;
 	}
 	
 	/**
@@ -926,6 +1227,9 @@ public class Patch
 	 */
 	private int getChildNo (TreeNode n)
 	{
+		NodeIndex index = getIndex (n);
+		if (index != null)
+			return index.getChildNo (index.getNumber (n));
 		return n.isRoot () ? -1 : n.getParent ().getNoOfChild (n);
 	}
 	
@@ -937,14 +1241,119 @@ public class Patch
 	 */
 	private String getParentXpath (TreeNode n)
 	{
+		NodeIndex index = getIndex (n);
+		if (index != null)
+			return index.getParentXPath (index.getNumber (n));
 		return n.isRoot () ? "" : n.getParent ().getXPath ();
 	}
+	
+	/**
+	 * Gets the XPath of a node.
+	 *
+	 * @param n the node of interest
+	 * @return the XPath
+	 */
+	private String getXpath (TreeNode n)
+	{
+		NodeIndex index = getIndex (n);
+		if (index != null)
+			return index.getXPath (index.getNumber (n));
+		return n.getXPath ();
+	}
 
 	/**
 	 * Annotate the whole patch.
+	 * If the changes are not yet annotated, the patch will be annotated after them, as soon as the annotations are requested.
 	 */
 	public void annotatePatch ()
 	{
-		diffAnnotator.annotatePatch ("bivesPatch", changeAnnotationFactory);
+		if (changeAnnotationFactory == null || !changeEvents.isEmpty ())
+			patchAnnotationPending = true;
+		else
+			diffAnnotator.annotatePatch ("bivesPatch", changeAnnotationFactory);
+	}
+
+	/**
+	 * The Class ChangeEvent recording a change until it is annotated.
+	 */
+	private static class ChangeEvent
+	{
+		
+		/** The type of the change. */
+		private int type;
+		
+		/** The node in the original document, or the node in question for insertions and deletions. */
+		private TreeNode a;
+		
+		/** The node in the modified document. */
+		private TreeNode b;
+		
+		/** The name of the updated attribute. */
+		private String attribute;
+		
+		/** The operation in the patch. */
+		private Element diffElement;
+		
+		/** Is a move just a permutation? */
+		private boolean permutation;
+		
+		/** The connection manager holding the connection whose annotations should be attached to the change, or null. */
+		private SimpleConnectionManager connections;
+		
+		/**
+		 * Instantiates a new change event.
+		 *
+		 * @param type the type of the change
+		 * @param a the node in the original document, or the node in question for insertions and deletions
+		 * @param b the node in the modified document
+		 * @param attribute the name of the updated attribute
+		 * @param diffElement the operation in the patch
+		 * @param permutation is a move just a permutation?
+		 */
+		public ChangeEvent (int type, TreeNode a, TreeNode b, String attribute, Element diffElement, boolean permutation)
+		{
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.attribute = attribute;
+			this.diffElement = diffElement;
+			this.permutation = permutation;
+		}
+		
+		/**
+		 * Annotate the change.
+		 *
+		 * @param diffAnnotator the annotator
+		 * @param changeFac the change factory
+		 */
+		public void annotate (DiffAnnotator diffAnnotator, ChangeFactory changeFac)
+		{
+			Change change = null;
+			switch (type)
+			{
+				case DELETION:
+					change = diffAnnotator.annotateDeletion (a, diffElement, changeFac);
+					break;
+				case INSERTION:
+					change = diffAnnotator.annotateInsertion (a, diffElement, changeFac);
+					break;
+				case MOVE:
+					change = diffAnnotator.annotateMove (a, b, diffElement, changeFac, permutation);
+					break;
+				case UPDATE_ATTRIBUTE:
+					change = diffAnnotator.annotateUpdateAttribute (a, b, attribute, diffElement, changeFac);
+					break;
+				case UPDATE_TEXT:
+					change = diffAnnotator.annotateUpdateText ((TextNode) a, (TextNode) b, diffElement, changeFac);
+					break;
+			}
+			
+			if (change == null || connections == null)
+				return;
+			List<Map.Entry<Property, RDFNode>> annotations = connections.getAnnotations (a);
+			if (annotations != null)
+				for (Map.Entry<Property, RDFNode> annotation : annotations)
+					change.addAnnotation (annotation.getKey (), annotation.getValue ());
+		}
 	}
 }
@@ -0,0 +1,301 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.ds;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+import de.unirostock.sems.bives.tools.BivesTools;
+
+
+/**
+ * The Class PatchStreamWriter to write the XML encoding of a patch operation by operation.
+ *
+ * <p>
+ * The writer produces the same document as {@link Patch#getDocument(boolean)}
+ * without annotations: a <code>bives</code> root containing the sections
+ * <code>update</code>, <code>delete</code>, <code>insert</code>, and
+ * <code>move</code>, in this order. Sections have to be opened using
+ * {@link #startSection(String)}, operations are written as soon as they are
+ * passed to {@link #writeOperation(Element)}, so nothing but the current
+ * operation is kept in memory.
+ * </p>
+ *
+ * <p>
+ * Line breaks and tabs in attribute values are written as character
+ * references, as a parser would otherwise normalize them to spaces.
+ * </p>
+ *
+ * @author Martin Scharm
+ * @see de.unirostock.sems.bives.algorithm.general.PatchProducer#produce(Writer, boolean)
+ */
+public class PatchStreamWriter
+{
+
+	/** The sections of a patch in the order of the document. */
+	public static final String [] SECTIONS = {"update", "delete", "insert", "move"};
+
+	/** The indentation of pretty output. */
+	private static final String INDENT = "  ";
+
+	/** The writer. */
+	private Writer out;
+
+	/** Should the output be indented? */
+	private boolean pretty;
+
+	/** The currently open section, or null. */
+	private String section;
+
+	/** Does the current section have any operations? */
+	private boolean sectionEmpty;
+
+	/** The number of operations written. */
+	private int numOperations;
+
+
+	/**
+	 * Instantiates a new patch stream writer writing UTF-8 to a stream.
+	 *
+	 * @param out the stream
+	 * @param pretty should the output be indented?
+	 */
+	public PatchStreamWriter (OutputStream out, boolean pretty)
+	{
+		this (new BufferedWriter (new OutputStreamWriter (out, StandardCharsets.UTF_8)), pretty);
+	}
+
+
+	/**
+	 * Instantiates a new patch stream writer.
+	 *
+	 * @param out the writer
+	 * @param pretty should the output be indented?
+	 */
+	public PatchStreamWriter (Writer out, boolean pretty)
+	{
+		this.out = out;
+		this.pretty = pretty;
+	}
+
+
+	/**
+	 * Write the XML declaration and open the root element.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeStart () throws IOException
+	{
+		out.write ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		newLine ();
+		out.write ("<bives type=\"fullDiff\" id=\"bivesPatch\">");
+		newLine ();
+		indent (1);
+		out.write ("<!--");
+		out.write (BivesTools.getBivesVersion ());
+		out.write ("-->");
+		newLine ();
+	}
+
+
+	/**
+	 * Open a section.
+	 *
+	 * @param name the name of the section, see {@link #SECTIONS}
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void startSection (String name) throws IOException
+	{
+		if (section != null)
+			throw new IllegalStateException ("section " + section + " is still open");
+		section = name;
+		sectionEmpty = true;
+		indent (1);
+		out.write ("<");
+		out.write (name);
+	}
+
+
+	/**
+	 * Write an operation into the current section.
+	 *
+	 * @param operation the operation, such as a <code>node</code> element
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeOperation (Element operation) throws IOException
+	{
+		if (section == null)
+			throw new IllegalStateException ("no open section");
+		if (sectionEmpty)
+		{
+			out.write (">");
+			newLine ();
+			sectionEmpty = false;
+		}
+		indent (2);
+		out.write ("<");
+		out.write (operation.getName ());
+		List<Attribute> attributes = operation.getAttributes ();
+		for (Attribute attribute : attributes)
+		{
+			out.write (" ");
+			out.write (attribute.getName ());
+			out.write ("=\"");
+			writeEscaped (attribute.getValue ());
+			out.write ("\"");
+		}
+		out.write (" />");
+		newLine ();
+		numOperations++;
+	}
+
+
+	/**
+	 * Close the current section.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void endSection () throws IOException
+	{
+		if (section == null)
+			throw new IllegalStateException ("no open section");
+		if (sectionEmpty)
+			out.write (" />");
+		else
+		{
+			indent (1);
+			out.write ("</");
+			out.write (section);
+			out.write (">");
+		}
+		newLine ();
+		section = null;
+	}
+
+
+	/**
+	 * Close the root element and flush the writer. The writer is not closed.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeEnd () throws IOException
+	{
+		if (section != null)
+			throw new IllegalStateException ("section " + section + " is still open");
+		out.write ("</bives>");
+		newLine ();
+		out.flush ();
+	}
+
+
+	/**
+	 * Write a whole patch that is already stored in memory, without annotations.
+	 *
+	 * @param patch the patch
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writePatch (Patch patch) throws IOException
+	{
+		writeStart ();
+		for (Element section : new Element [] {patch.getUpdates (), patch.getDeletes (), patch.getInserts (), patch.getMoves ()})
+		{
+			startSection (section.getName ());
+			for (Element operation : section.getChildren ())
+				writeOperation (operation);
+			endSection ();
+		}
+		writeEnd ();
+	}
+
+
+	/**
+	 * Gets the number of operations written so far.
+	 *
+	 * @return the number of operations
+	 */
+	public int getNumOperations ()
+	{
+		return numOperations;
+	}
+
+
+	/**
+	 * Write an attribute value, escaping markup, quotes, and white space that would not survive parsing.
+	 *
+	 * @param value the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeEscaped (String value) throws IOException
+	{
+		int start = 0;
+		for (int i = 0; i < value.length (); i++)
+		{
+			String replacement;
+			switch (value.charAt (i))
+			{
+				case '&':
+					replacement = "&amp;";
+					break;
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '"':
+					replacement = "&quot;";
+					break;
+				case '\n':
+					replacement = "&#xA;";
+					break;
+				case '\r':
+					replacement = "&#xD;";
+					break;
+				case '\t':
+					replacement = "&#x9;";
+					break;
+				default:
+					continue;
+			}
+			out.write (value, start, i - start);
+			out.write (replacement);
+			start = i + 1;
+		}
+		out.write (value, start, value.length () - start);
+	}
+
+
+	/**
+	 * Indent the next line, if the output is pretty.
+	 *
+	 * @param level the level of indentation
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void indent (int level) throws IOException
+	{
+		if (pretty)
+			for (int i = 0; i < level; i++)
+				out.write (INDENT);
+	}
+
+
+	/**
+	 * Start a new line, if the output is pretty.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void newLine () throws IOException
+	{
+		if (pretty)
+			out.write ("\n");
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.ds.rdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+
+/**
+ * The Class RdfXmlBuilder to build an RDF/XML subtree directly from a Jena model.
+ *
+ * <p>
+ * The subtree is written in the striped RDF/XML syntax, with one
+ * <code>rdf:Description</code> per subject. URIs starting with the base URI
+ * are written relative to it, blank nodes get an <code>rdf:nodeID</code>.
+ * Subjects and their statements are sorted, so the same model always results
+ * in the same subtree.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class RdfXmlBuilder
+{
+
+	/** The RDF namespace. */
+	public static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	/** The datatype of plain literals. */
+	private static final String XSD_STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+	/** The datatype of literals with a language tag. */
+	private static final String RDF_LANG_STRING = RDF_NS + "langString";
+
+	/** The RDF namespace. */
+	private static final Namespace RDF = Namespace.getNamespace ("rdf", RDF_NS);
+
+	/** The base URI. */
+	private String base;
+
+	/** The namespaces by URI. */
+	private Map<String, Namespace> namespaces;
+
+	/** The prefixes of the model. */
+	private Map<String, String> prefixes;
+
+	/** The ids of blank nodes. */
+	private Map<Resource, String> blankIds;
+
+
+	/**
+	 * Instantiates a new builder.
+	 *
+	 * @param base the base URI, URIs starting with it will be relative, or null to keep all URIs absolute
+	 */
+	public RdfXmlBuilder (String base)
+	{
+		this.base = base;
+	}
+
+
+	/**
+	 * Build the RDF/XML subtree of a model.
+	 *
+	 * @param model the model
+	 * @return the <code>rdf:RDF</code> element
+	 */
+	public Element build (Model model)
+	{
+		namespaces = new HashMap<String, Namespace> ();
+		blankIds = new HashMap<Resource, String> ();
+		prefixes = model.getNsPrefixMap ();
+		namespaces.put (RDF_NS, RDF);
+
+		// group the statements by subject
+		Map<String, List<Statement>> subjects = new TreeMap<String, List<Statement>> ();
+		StmtIterator it = model.listStatements ();
+		while (it.hasNext ())
+		{
+			Statement statement = it.next ();
+			String key = getKey (statement.getSubject ());
+			List<Statement> statements = subjects.get (key);
+			if (statements == null)
+			{
+				statements = new ArrayList<Statement> ();
+				subjects.put (key, statements);
+			}
+			statements.add (statement);
+		}
+
+		Element root = new Element ("RDF", RDF);
+		Comparator<Statement> order = new Comparator<Statement> ()
+		{
+			@Override
+			public int compare (Statement a, Statement b)
+			{
+				int c = a.getPredicate ().getURI ().compareTo (b.getPredicate ().getURI ());
+				return c != 0 ? c : getKey (a.getObject ()).compareTo (getKey (b.getObject ()));
+			}
+		};
+		for (List<Statement> statements : subjects.values ())
+		{
+			Collections.sort (statements, order);
+			root.addContent (createDescription (statements));
+		}
+
+		for (Namespace ns : namespaces.values ())
+			if (ns != RDF)
+				root.addNamespaceDeclaration (ns);
+		return root;
+	}
+
+
+	/**
+	 * Creates the description of a subject.
+	 *
+	 * @param statements the statements about the subject
+	 * @return the description
+	 */
+	private Element createDescription (List<Statement> statements)
+	{
+		Resource subject = statements.get (0).getSubject ();
+		Element description = new Element ("Description", RDF);
+		if (subject.isAnon ())
+			description.setAttribute ("nodeID", getBlankId (subject), RDF);
+		else
+			description.setAttribute ("about", relativize (subject.getURI ()), RDF);
+
+		for (Statement statement : statements)
+		{
+			Property predicate = statement.getPredicate ();
+			Element property = new Element (predicate.getLocalName (), getNamespace (predicate.getNameSpace ()));
+			RDFNode object = statement.getObject ();
+			if (object.isLiteral ())
+			{
+				Literal literal = object.asLiteral ();
+				if (literal.getLanguage () != null && !literal.getLanguage ().isEmpty ())
+					property.setAttribute ("lang", literal.getLanguage (), Namespace.XML_NAMESPACE);
+				else if (literal.getDatatypeURI () != null && !literal.getDatatypeURI ().equals (XSD_STRING) && !literal.getDatatypeURI ().equals (RDF_LANG_STRING))
+					property.setAttribute ("datatype", literal.getDatatypeURI (), RDF);
+				property.setText (literal.getLexicalForm ());
+			}
+			else if (object.isAnon ())
+				property.setAttribute ("nodeID", getBlankId (object.asResource ()), RDF);
+			else
+				property.setAttribute ("resource", relativize (object.asResource ().getURI ()), RDF);
+			description.addContent (property);
+		}
+		return description;
+	}
+
+
+	/**
+	 * Gets the namespace of a property, reusing the prefix of the model if there is one.
+	 *
+	 * @param uri the URI of the namespace
+	 * @return the namespace
+	 */
+	private Namespace getNamespace (String uri)
+	{
+		Namespace ns = namespaces.get (uri);
+		if (ns != null)
+			return ns;
+
+		String prefix = null;
+		for (Map.Entry<String, String> entry : prefixes.entrySet ())
+			if (entry.getValue ().equals (uri) && !entry.getKey ().isEmpty () && !isPrefixUsed (entry.getKey ()))
+				prefix = entry.getKey ();
+		if (prefix == null)
+		{
+			int n = namespaces.size ();
+			while (isPrefixUsed ("ns" + n))
+				n++;
+			prefix = "ns" + n;
+		}
+		ns = Namespace.getNamespace (prefix, uri);
+		namespaces.put (uri, ns);
+		return ns;
+	}
+
+
+	/**
+	 * Checks if a prefix is already bound.
+	 *
+	 * @param prefix the prefix
+	 * @return true, if the prefix is used
+	 */
+	private boolean isPrefixUsed (String prefix)
+	{
+		for (Namespace ns : namespaces.values ())
+			if (ns.getPrefix ().equals (prefix))
+				return true;
+		return false;
+	}
+
+
+	/**
+	 * Make a URI relative to the base URI.
+	 *
+	 * @param uri the URI
+	 * @return the relative URI, or the URI itself if it doesn't start with the base URI
+	 */
+	private String relativize (String uri)
+	{
+		if (base != null && uri.startsWith (base))
+			return uri.substring (base.length ());
+		return uri;
+	}
+
+
+	/**
+	 * Gets the id of a blank node.
+	 *
+	 * @param node the blank node
+	 * @return the id
+	 */
+	private String getBlankId (Resource node)
+	{
+		String id = blankIds.get (node);
+		if (id == null)
+		{
+			id = "b" + (blankIds.size () + 1);
+			blankIds.put (node, id);
+		}
+		return id;
+	}
+
+
+	/**
+	 * Gets a key to sort nodes.
+	 *
+	 * @param node the node
+	 * @return the key
+	 */
+	private static String getKey (RDFNode node)
+	{
+		if (node.isURIResource ())
+			return node.asResource ().getURI ();
+		if (node.isAnon ())
+			return "_:" + node.asResource ().getId ().getLabelString ();
+		return "\"" + node.toString ();
+	}
+}
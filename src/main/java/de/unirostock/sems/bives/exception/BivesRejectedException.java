@@ -0,0 +1,29 @@
+/**
+ * 
+ */
+package de.unirostock.sems.bives.exception;
+
+/**
+ * The Class BivesRejectedException signaling that a job was not accepted, e.g. because a queue is full.
+ * 
+ * @author Martin Scharm
+ */
+public class BivesRejectedException
+	extends BivesException
+{
+	
+	/** The Constant serialVersionUID. */
+	private static final long	serialVersionUID	= 4913287305512830763L;
+	
+	
+	/**
+	 * Instantiates a new bives rejected exception.
+	 * 
+	 * @param msg
+	 *          the message
+	 */
+	public BivesRejectedException (String msg)
+	{
+		super (msg);
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.tools;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+
+
+/**
+ * The Class SyntheticModel, a pair of generated model versions together with
+ * the edit script that turns the former into the later version.
+ *
+ * @author Martin Scharm
+ * @see SyntheticModelGenerator
+ */
+public class SyntheticModel
+{
+
+	/**
+	 * The Class EditOperation, a single operation of the ground-truth edit script.
+	 * Paths are XPaths as used by {@link de.unirostock.sems.xmlutils.ds.TreeNode#getXPath()}.
+	 */
+	public static class EditOperation
+	{
+
+		/** An entity was inserted. */
+		public static final int INSERT = 0;
+
+		/** An entity was deleted. */
+		public static final int DELETE = 1;
+
+		/** An attribute or the text of an element was updated. */
+		public static final int UPDATE = 2;
+
+		/** An entity was moved to another position in its list. */
+		public static final int MOVE = 3;
+
+		/** The id of an entity was renamed. References to the entity are updated by additional {@link #UPDATE}s. */
+		public static final int RENAME = 4;
+
+		/** The type of the operation. */
+		private int type;
+
+		/** The path in the former version, or null for inserts. */
+		private String pathA;
+
+		/** The path in the later version, or null for deletes. */
+		private String pathB;
+
+		/** The updated attribute, or null if the text of the element was updated or the operation isn't an update. */
+		private String attribute;
+
+		/** The old value of an update. */
+		private String oldValue;
+
+		/** The new value of an update. */
+		private String newValue;
+
+
+		/**
+		 * Instantiates a new edit operation.
+		 *
+		 * @param type the type, e.g. {@link #INSERT}
+		 * @param pathA the path in the former version, or null for inserts
+		 * @param pathB the path in the later version, or null for deletes
+		 * @param attribute the updated attribute, or null
+		 * @param oldValue the old value, or null
+		 * @param newValue the new value, or null
+		 */
+		public EditOperation (int type, String pathA, String pathB, String attribute, String oldValue, String newValue)
+		{
+			this.type = type;
+			this.pathA = pathA;
+			this.pathB = pathB;
+			this.attribute = attribute;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+
+		/**
+		 * Gets the type of the operation.
+		 *
+		 * @return the type, e.g. {@link #INSERT}
+		 */
+		public int getType ()
+		{
+			return type;
+		}
+
+
+		/**
+		 * Gets the path in the former version.
+		 *
+		 * @return the path, or null for inserts
+		 */
+		public String getPathA ()
+		{
+			return pathA;
+		}
+
+
+		/**
+		 * Gets the path in the later version.
+		 *
+		 * @return the path, or null for deletes
+		 */
+		public String getPathB ()
+		{
+			return pathB;
+		}
+
+
+		/**
+		 * Gets the updated attribute.
+		 *
+		 * @return the attribute, or null if the text was updated or the operation isn't an update
+		 */
+		public String getAttribute ()
+		{
+			return attribute;
+		}
+
+
+		/**
+		 * Gets the old value of an update or rename.
+		 *
+		 * @return the old value
+		 */
+		public String getOldValue ()
+		{
+			return oldValue;
+		}
+
+
+		/**
+		 * Gets the new value of an update or rename.
+		 *
+		 * @return the new value
+		 */
+		public String getNewValue ()
+		{
+			return newValue;
+		}
+
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString ()
+		{
+			String [] names = {"insert", "delete", "update", "move", "rename"};
+			StringBuilder str = new StringBuilder (names[type]);
+			if (pathA != null)
+				str.append (" ").append (pathA);
+			if (pathB != null)
+				str.append (pathA == null ? " " : " -> ").append (pathB);
+			if (type == UPDATE || type == RENAME)
+				str.append (" ").append (attribute == null ? "text()" : "@" + attribute).append (": ").append (oldValue).append (" -> ").append (newValue);
+			return str.toString ();
+		}
+	}
+
+
+	/** The former version. */
+	private TreeDocument treeA;
+
+	/** The later version. */
+	private TreeDocument treeB;
+
+	/** The edit script. */
+	private List<EditOperation> editScript;
+
+
+	/**
+	 * Instantiates a new synthetic model.
+	 *
+	 * @param treeA the former version
+	 * @param treeB the later version
+	 * @param editScript the edit script
+	 */
+	public SyntheticModel (TreeDocument treeA, TreeDocument treeB, List<EditOperation> editScript)
+	{
+		this.treeA = treeA;
+		this.treeB = treeB;
+		this.editScript = editScript;
+	}
+
+
+	/**
+	 * Gets the former version.
+	 *
+	 * @return the former version
+	 */
+	public TreeDocument getTreeA ()
+	{
+		return treeA;
+	}
+
+
+	/**
+	 * Gets the later version.
+	 *
+	 * @return the later version
+	 */
+	public TreeDocument getTreeB ()
+	{
+		return treeB;
+	}
+
+
+	/**
+	 * Gets the edit script turning the former into the later version.
+	 *
+	 * @return the edit script
+	 */
+	public List<EditOperation> getEditScript ()
+	{
+		return Collections.unmodifiableList (editScript);
+	}
+
+
+	/**
+	 * Count the operations of a certain type in the edit script.
+	 *
+	 * @param type the type, e.g. {@link EditOperation#INSERT}
+	 * @return the number of operations
+	 */
+	public int count (int type)
+	{
+		int n = 0;
+		for (EditOperation op : editScript)
+			if (op.getType () == type)
+				n++;
+		return n;
+	}
+}
@@ -0,0 +1,579 @@
+/**
+ *
+ */
+package de.unirostock.sems.bives.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+import de.unirostock.sems.bives.tools.SyntheticModel.EditOperation;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.exception.XmlDocumentParseException;
+
+
+/**
+ * The Class SyntheticModelGenerator to generate SBML-like models of arbitrary
+ * size, e.g. to measure how the costs of a comparison scale.
+ *
+ * <p>
+ * A model consists of compartments, species, and reactions with MathML kinetic
+ * laws and RDF annotations. The later version is derived from the former one
+ * by mutating a configurable fraction of the species and reactions: new
+ * entities are inserted, entities are deleted, moved to another position,
+ * their values are updated, or their ids are renamed (including all
+ * references). Compartments are only updated. Every entity is mutated at most
+ * once. The mutations are recorded in an edit script, which serves as the
+ * ground truth to judge the quality of a patch.
+ * </p>
+ *
+ * <p>
+ * The generator is seeded, so it produces the same models for the same
+ * settings.
+ * </p>
+ *
+ * @author Martin Scharm
+ */
+public class SyntheticModelGenerator
+{
+
+	/** The SBML namespace. */
+	public static final Namespace SBML_NS = Namespace.getNamespace ("http://www.sbml.org/sbml/level2/version4");
+
+	/** The MathML namespace. */
+	public static final Namespace MATHML_NS = Namespace.getNamespace ("http://www.w3.org/1998/Math/MathML");
+
+	/** The RDF namespace. */
+	public static final Namespace RDF_NS = Namespace.getNamespace ("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+
+	/** The namespace of the biology qualifiers. */
+	public static final Namespace BQBIOL_NS = Namespace.getNamespace ("bqbiol", "http://biomodels.net/biology-qualifiers/");
+
+	/** The number of species per compartment when the size is estimated. */
+	private static final int SPECIES_PER_COMPARTMENT = 50;
+
+	/** Kind of entity: compartment. */
+	private static final int COMPARTMENT = 0;
+
+	/** Kind of entity: species. */
+	private static final int SPECIES = 1;
+
+	/** Kind of entity: reaction. */
+	private static final int REACTION = 2;
+
+	/** The tag names of the entities by kind. */
+	private static final String [] TAGS = {"compartment", "species", "reaction"};
+
+	/** The prefixes of the ids by kind. */
+	private static final String [] ID_PREFIXES = {"c", "s", "r"};
+
+	/** The lists containing the entities by kind. */
+	private static final String [] LISTS = {"listOfCompartments", "listOfSpecies", "listOfReactions"};
+
+	/** The attributes carrying the value of an entity by kind. */
+	private static final String [] VALUE_ATTRIBUTES = {"size", "initialConcentration", "value"};
+
+	/** The path from an entity to the element carrying its value by kind. */
+	private static final String [] VALUE_PATHS = {"", "", "/kineticLaw[1]/listOfParameters[1]/parameter[1]"};
+
+	/** The prefixes of the annotated URIs by kind. */
+	private static final String [] ANNOTATION_URIS = {"http://identifiers.org/go/GO:", "http://identifiers.org/chebi/CHEBI:", "http://identifiers.org/kegg.reaction/R"};
+
+	/** The path to the model. */
+	private static final String MODEL_PATH = "/sbml[1]/model[1]/";
+
+
+	/**
+	 * The Class Entity, a compartment, species, or reaction and its fate.
+	 */
+	private static class Entity
+	{
+
+		/** The kind. */
+		private int kind;
+
+		/** The id in the former version. */
+		private String id;
+
+		/** The meta id, which never changes. */
+		private String metaId;
+
+		/** The name. */
+		private String name;
+
+		/** The value, e.g. the initial concentration of a species. */
+		private double value;
+
+		/** The index of the compartment of a species. */
+		private int compartment;
+
+		/** The index of the substrate of a reaction. */
+		private int substrate;
+
+		/** The index of the product of a reaction. */
+		private int product;
+
+		/** The annotated term. */
+		private int term;
+
+		/** The position in the former version, starting at 1, or 0 if inserted. */
+		private int positionA;
+
+		/** The mutation, see {@link EditOperation}, or -1. */
+		private int mutation = -1;
+
+		/** The new value of an update. */
+		private double newValue;
+
+		/** The new id of a rename. */
+		private String newId;
+
+		/** The index of the entity in front of which a moved entity is placed. */
+		private int target;
+
+		/** The entity inserted after this one. */
+		private Entity inserted;
+
+
+		/**
+		 * Gets the id.
+		 *
+		 * @param later the id in the later version?
+		 * @return the id
+		 */
+		public String getId (boolean later)
+		{
+			return later && newId != null ? newId : id;
+		}
+
+
+		/**
+		 * Gets the value.
+		 *
+		 * @param later the value in the later version?
+		 * @return the value
+		 */
+		public double getValue (boolean later)
+		{
+			return later && mutation == EditOperation.UPDATE ? newValue : value;
+		}
+	}
+
+
+	/** The seed. */
+	private long seed;
+
+	/** The number of compartments. */
+	private int numCompartments = 2;
+
+	/** The number of species. */
+	private int numSpecies = 100;
+
+	/** The number of reactions. */
+	private int numReactions = 100;
+
+	/** Should the entities be annotated? */
+	private boolean annotations = true;
+
+	/** The fractions of species and reactions that are mutated by kind, see {@link EditOperation}. */
+	private double [] rates = {.01, .01, .01, .01, .01};
+
+	/** The random generator. */
+	private Random random;
+
+	/** The entities by kind. */
+	private List<List<Entity>> entities;
+
+	/** The edit script. */
+	private List<EditOperation> editScript;
+
+
+	/**
+	 * Instantiates a new generator.
+	 *
+	 * @param seed the seed for the random generator
+	 */
+	public SyntheticModelGenerator (long seed)
+	{
+		this.seed = seed;
+	}
+
+
+	/**
+	 * Sets the size of the models.
+	 *
+	 * @param compartments the number of compartments, at least 1
+	 * @param species the number of species, at least 1
+	 * @param reactions the number of reactions
+	 */
+	public void setSize (int compartments, int species, int reactions)
+	{
+		if (compartments < 1 || species < 1 || reactions < 0)
+			throw new IllegalArgumentException ("need at least one compartment and one species");
+		numCompartments = compartments;
+		numSpecies = species;
+		numReactions = reactions;
+	}
+
+
+	/**
+	 * Sets the size of the models by the approximate number of nodes in the former version.
+	 * There will be as many species as reactions, and a compartment per 50 species.
+	 * Has to be called after {@link #setAnnotations(boolean)}.
+	 *
+	 * @param nodes the number of nodes
+	 */
+	public void setApproximateSize (int nodes)
+	{
+		// a species has 1 node, a reaction 15 nodes, and an annotation another 6 nodes
+		int nodesPerPair = annotations ? 28 : 16;
+		int species = Math.max (1, nodes / nodesPerPair);
+		setSize (Math.max (1, species / SPECIES_PER_COMPARTMENT), species, species);
+	}
+
+
+	/**
+	 * Should the entities be annotated with RDF? Defaults to true.
+	 *
+	 * @param annotations annotate the entities?
+	 */
+	public void setAnnotations (boolean annotations)
+	{
+		this.annotations = annotations;
+	}
+
+
+	/**
+	 * Sets the mix of mutations as the fractions of species and reactions that are mutated. Defaults to 1% each.
+	 *
+	 * @param insert the fraction of entities that get a new entity inserted next to them
+	 * @param delete the fraction of entities that are deleted
+	 * @param update the fraction of entities whose value is updated, also applies to compartments
+	 * @param move the fraction of entities that are moved to another position
+	 * @param rename the fraction of entities whose id is renamed
+	 */
+	public void setMutationRates (double insert, double delete, double update, double move, double rename)
+	{
+		if (insert < 0 || delete < 0 || update < 0 || move < 0 || rename < 0 || insert + delete + update + move + rename > 1)
+			throw new IllegalArgumentException ("the rates must be positive and must not sum up to more than 1");
+		rates = new double [] {insert, delete, update, move, rename};
+	}
+
+
+	/**
+	 * Generate the former and the later version.
+	 *
+	 * @return the versions and the edit script
+	 * @throws XmlDocumentParseException if the documents cannot be converted to trees
+	 */
+	public SyntheticModel generate () throws XmlDocumentParseException
+	{
+		random = new Random (seed);
+		editScript = new ArrayList<EditOperation> ();
+		entities = new ArrayList<List<Entity>> ();
+		int [] sizes = {numCompartments, numSpecies, numReactions};
+		for (int kind = COMPARTMENT; kind <= REACTION; kind++)
+		{
+			List<Entity> list = new ArrayList<Entity> (sizes[kind]);
+			for (int i = 0; i < sizes[kind]; i++)
+				list.add (createEntity (kind, ID_PREFIXES[kind] + i));
+			entities.add (list);
+		}
+		for (int kind = COMPARTMENT; kind <= REACTION; kind++)
+			mutate (entities.get (kind), kind != COMPARTMENT);
+
+		TreeDocument treeA = new TreeDocument (render (false), null);
+		TreeDocument treeB = new TreeDocument (render (true), null);
+		SyntheticModel model = new SyntheticModel (treeA, treeB, editScript);
+		entities = null;
+		editScript = null;
+		return model;
+	}
+
+
+	/**
+	 * Create a new entity.
+	 *
+	 * @param kind the kind
+	 * @param id the id
+	 * @return the entity
+	 */
+	private Entity createEntity (int kind, String id)
+	{
+		Entity e = new Entity ();
+		e.kind = kind;
+		e.id = id;
+		e.metaId = "_" + id;
+		e.name = TAGS[kind] + " " + id;
+		e.value = Math.round (random.nextDouble () * 1000) / 100.;
+		e.compartment = random.nextInt (numCompartments);
+		e.substrate = random.nextInt (numSpecies);
+		e.product = random.nextInt (numSpecies);
+		e.term = 1 + random.nextInt (99999);
+		return e;
+	}
+
+
+	/**
+	 * Decide on the mutations of a list of entities.
+	 *
+	 * @param list the entities
+	 * @param all apply all kinds of mutations? otherwise just updates
+	 */
+	private void mutate (List<Entity> list, boolean all)
+	{
+		for (int i = 0; i < list.size (); i++)
+		{
+			Entity e = list.get (i);
+			e.positionA = i + 1;
+			double dice = random.nextDouble ();
+			if (!all)
+			{
+				if (dice < rates[EditOperation.UPDATE])
+					e.mutation = EditOperation.UPDATE;
+			}
+			else if ((dice -= rates[EditOperation.INSERT]) < 0)
+			{
+				e.mutation = EditOperation.INSERT;
+				e.inserted = createEntity (e.kind, "new_" + e.id);
+			}
+			else if ((dice -= rates[EditOperation.DELETE]) < 0)
+				e.mutation = EditOperation.DELETE;
+			else if ((dice -= rates[EditOperation.UPDATE]) < 0)
+				e.mutation = EditOperation.UPDATE;
+			else if ((dice -= rates[EditOperation.MOVE]) < 0)
+			{
+				// moving an entity in front of itself or its successor isn't a move
+				if (list.size () > 2)
+				{
+					e.mutation = EditOperation.MOVE;
+					do
+						e.target = random.nextInt (list.size () + 1);
+					while (e.target == i || e.target == i + 1);
+				}
+			}
+			else if ((dice -= rates[EditOperation.RENAME]) < 0)
+			{
+				e.mutation = EditOperation.RENAME;
+				e.newId = e.id + "_renamed";
+			}
+
+			if (e.mutation == EditOperation.UPDATE)
+				e.newValue = e.value + 1;
+		}
+	}
+
+
+	/**
+	 * Render a version of the model.
+	 *
+	 * @param later render the later version? this will also record the edit script
+	 * @return the document
+	 */
+	private Document render (boolean later)
+	{
+		Element sbml = new Element ("sbml", SBML_NS);
+		sbml.setAttribute ("level", "2");
+		sbml.setAttribute ("version", "4");
+		Element model = new Element ("model", SBML_NS);
+		model.setAttribute ("metaid", "_model");
+		model.setAttribute ("id", "synthetic");
+		model.setAttribute ("name", "synthetic model");
+		sbml.addContent (model);
+
+		for (int kind = COMPARTMENT; kind <= REACTION; kind++)
+		{
+			Element listElement = new Element (LISTS[kind], SBML_NS);
+			model.addContent (listElement);
+			List<Entity> list = entities.get (kind);
+
+			if (!later)
+			{
+				for (Entity e : list)
+					listElement.addContent (createElement (e, false));
+				continue;
+			}
+
+			HashMap<Integer, List<Entity>> movedTo = new HashMap<Integer, List<Entity>> ();
+			for (Entity e : list)
+				if (e.mutation == EditOperation.MOVE)
+				{
+					List<Entity> moved = movedTo.get (e.target);
+					if (moved == null)
+					{
+						moved = new ArrayList<Entity> ();
+						movedTo.put (e.target, moved);
+					}
+					moved.add (e);
+				}
+
+			int position = 0;
+			for (int i = 0; i <= list.size (); i++)
+			{
+				List<Entity> moved = movedTo.get (i);
+				if (moved != null)
+					for (Entity m : moved)
+						listElement.addContent (emit (m, ++position));
+				if (i == list.size ())
+					break;
+
+				Entity e = list.get (i);
+				if (e.mutation == EditOperation.MOVE)
+					continue;
+				if (e.mutation == EditOperation.DELETE)
+				{
+					editScript.add (new EditOperation (EditOperation.DELETE, getPathA (e), null, null, null, null));
+					continue;
+				}
+				listElement.addContent (emit (e, ++position));
+				if (e.mutation == EditOperation.INSERT)
+					listElement.addContent (emit (e.inserted, ++position));
+			}
+		}
+		return new Document (sbml);
+	}
+
+
+	/**
+	 * Create the element of an entity in the later version and record its operations in the edit script.
+	 *
+	 * @param e the entity
+	 * @param position the position in the later version, starting at 1
+	 * @return the element
+	 */
+	private Element emit (Entity e, int position)
+	{
+		String pathB = MODEL_PATH + LISTS[e.kind] + "[1]/" + TAGS[e.kind] + "[" + position + "]";
+		if (e.positionA == 0)
+		{
+			editScript.add (new EditOperation (EditOperation.INSERT, null, pathB, null, null, null));
+			return createElement (e, true);
+		}
+
+		String pathA = getPathA (e);
+		if (e.mutation == EditOperation.UPDATE)
+			editScript.add (new EditOperation (EditOperation.UPDATE, pathA + VALUE_PATHS[e.kind], pathB + VALUE_PATHS[e.kind], VALUE_ATTRIBUTES[e.kind], String.valueOf (e.value), String.valueOf (e.newValue)));
+		else if (e.mutation == EditOperation.MOVE)
+			editScript.add (new EditOperation (EditOperation.MOVE, pathA, pathB, null, null, null));
+		else if (e.mutation == EditOperation.RENAME)
+			editScript.add (new EditOperation (EditOperation.RENAME, pathA, pathB, "id", e.id, e.newId));
+
+		// references to renamed species
+		if (e.kind == REACTION)
+		{
+			Entity substrate = entities.get (SPECIES).get (e.substrate);
+			if (substrate.newId != null)
+			{
+				String ref = "/listOfReactants[1]/speciesReference[1]";
+				editScript.add (new EditOperation (EditOperation.UPDATE, pathA + ref, pathB + ref, "species", substrate.id, substrate.newId));
+				ref = "/kineticLaw[1]/math[1]/apply[1]/ci[2]";
+				editScript.add (new EditOperation (EditOperation.UPDATE, pathA + ref, pathB + ref, null, substrate.id, substrate.newId));
+			}
+			Entity product = entities.get (SPECIES).get (e.product);
+			if (product.newId != null)
+			{
+				String ref = "/listOfProducts[1]/speciesReference[1]";
+				editScript.add (new EditOperation (EditOperation.UPDATE, pathA + ref, pathB + ref, "species", product.id, product.newId));
+			}
+		}
+		return createElement (e, true);
+	}
+
+
+	/**
+	 * Gets the path of an entity in the former version.
+	 *
+	 * @param e the entity
+	 * @return the path
+	 */
+	private String getPathA (Entity e)
+	{
+		return MODEL_PATH + LISTS[e.kind] + "[1]/" + TAGS[e.kind] + "[" + e.positionA + "]";
+	}
+
+
+	/**
+	 * Create the element of an entity.
+	 *
+	 * @param e the entity
+	 * @param later create the element of the later version?
+	 * @return the element
+	 */
+	private Element createElement (Entity e, boolean later)
+	{
+		Element element = new Element (TAGS[e.kind], SBML_NS);
+		element.setAttribute ("metaid", e.metaId);
+		element.setAttribute ("id", e.getId (later));
+		element.setAttribute ("name", e.name);
+		if (annotations)
+			element.addContent (createAnnotation (e));
+
+		if (e.kind == COMPARTMENT)
+			element.setAttribute (VALUE_ATTRIBUTES[COMPARTMENT], String.valueOf (e.getValue (later)));
+		else if (e.kind == SPECIES)
+		{
+			element.setAttribute ("compartment", entities.get (COMPARTMENT).get (e.compartment).getId (later));
+			element.setAttribute (VALUE_ATTRIBUTES[SPECIES], String.valueOf (e.getValue (later)));
+		}
+		else
+		{
+			String substrate = entities.get (SPECIES).get (e.substrate).getId (later);
+			String product = entities.get (SPECIES).get (e.product).getId (later);
+			// the local parameter is named by the meta id, so it survives renames
+			String parameter = "k" + e.metaId;
+			element.setAttribute ("reversible", "false");
+
+			Element reactants = new Element ("listOfReactants", SBML_NS);
+			reactants.addContent (new Element ("speciesReference", SBML_NS).setAttribute ("species", substrate));
+			element.addContent (reactants);
+			Element products = new Element ("listOfProducts", SBML_NS);
+			products.addContent (new Element ("speciesReference", SBML_NS).setAttribute ("species", product));
+			element.addContent (products);
+
+			Element apply = new Element ("apply", MATHML_NS);
+			apply.addContent (new Element ("times", MATHML_NS));
+			apply.addContent (new Element ("ci", MATHML_NS).setText (parameter));
+			apply.addContent (new Element ("ci", MATHML_NS).setText (substrate));
+			Element math = new Element ("math", MATHML_NS);
+			math.addContent (apply);
+			Element parameters = new Element ("listOfParameters", SBML_NS);
+			parameters.addContent (new Element ("parameter", SBML_NS).setAttribute ("id", parameter).setAttribute (VALUE_ATTRIBUTES[REACTION], String.valueOf (e.getValue (later))));
+			Element kineticLaw = new Element ("kineticLaw", SBML_NS);
+			kineticLaw.addContent (math);
+			kineticLaw.addContent (parameters);
+			element.addContent (kineticLaw);
+		}
+		return element;
+	}
+
+
+	/**
+	 * Create the RDF annotation of an entity.
+	 *
+	 * @param e the entity
+	 * @return the annotation element
+	 */
+	private Element createAnnotation (Entity e)
+	{
+		Element li = new Element ("li", RDF_NS);
+		li.setAttribute ("resource", ANNOTATION_URIS[e.kind] + e.term, RDF_NS);
+		Element bag = new Element ("Bag", RDF_NS);
+		bag.addContent (li);
+		Element qualifier = new Element (e.kind == REACTION ? "isVersionOf" : "is", BQBIOL_NS);
+		qualifier.addContent (bag);
+		Element description = new Element ("Description", RDF_NS);
+		description.setAttribute ("about", "#" + e.metaId, RDF_NS);
+		description.addContent (qualifier);
+		Element rdf = new Element ("RDF", RDF_NS);
+		rdf.addNamespaceDeclaration (BQBIOL_NS);
+		rdf.addContent (description);
+		Element annotation = new Element ("annotation", SBML_NS);
+		annotation.addContent (rdf);
+		return annotation;
+	}
+}
@@ -5,8 +5,27 @@ package de.unirostock.sems.bives;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import org.jdom2.JDOMException;
 import org.junit.BeforeClass;
@@ -15,11 +34,35 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.algorithm.Connector;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.DiffMetrics;
+import de.unirostock.sems.bives.algorithm.IndexedConnectionManager;
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.algorithm.general.DefaultDiffAnnotator;
+import de.unirostock.sems.bives.algorithm.general.IdConnector;
+import de.unirostock.sems.bives.algorithm.general.XyDiffConnector;
 import de.unirostock.sems.bives.api.Diff;
+import de.unirostock.sems.bives.api.DiffConfig;
+import de.unirostock.sems.bives.api.DiffEngine;
+import de.unirostock.sems.bives.api.DiffJob;
+import de.unirostock.sems.bives.api.DiffResult;
+import de.unirostock.sems.bives.api.DiffService;
 import de.unirostock.sems.bives.api.RegularDiff;
+import de.unirostock.sems.bives.api.VersionChain;
+import de.unirostock.sems.bives.cache.DiffCache;
+import de.unirostock.sems.bives.cache.DiffCacheEntry;
+import de.unirostock.sems.bives.cache.DiffCacheKey;
+import de.unirostock.sems.bives.cache.DiskDiffCache;
+import de.unirostock.sems.bives.cache.MemoryDiffCache;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.bives.exception.BivesRejectedException;
+import de.unirostock.sems.bives.tools.SyntheticModel;
+import de.unirostock.sems.bives.tools.SyntheticModelGenerator;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
 import de.unirostock.sems.xmlutils.exception.XmlDocumentParseException;
 import de.unirostock.sems.xmlutils.tools.DocumentTools;
 import de.unirostock.sems.xmlutils.tools.XmlTools;
@@ -100,6 +143,981 @@ public class TestCompare
 		
 	}
 	
+	/**
+	 * Test that the parallel bottom-up step results in the same mapping as the sequential one.
+	 */
+	@Test
+	public void testParallelBottomUp ()
+	{
+		String [][] pairs = new String [][] {
+			{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+			{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+			{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+		};
+		ForkJoinPool pool = new ForkJoinPool (4);
+		try
+		{
+			for (String [] pair : pairs)
+			{
+				XyDiffConnector sequential = new XyDiffConnector (
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null),
+					new TreeDocument (XmlTools.readDocument (new File (pair[1])), null));
+				sequential.findConnections ();
+				
+				XyDiffConnector parallel = new XyDiffConnector (
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null),
+					new TreeDocument (XmlTools.readDocument (new File (pair[1])), null));
+				// fork a task for every single subtree
+				parallel.setParallelBottomUp (pool, 0);
+				parallel.findConnections ();
+				
+				assertEquals ("parallel bottom up resulted in a different mapping for " + pair[0],
+					sequential.getConnections ().toString (), parallel.getConnections ().toString ());
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error comparing parallel bottom up: " + e);
+		}
+		finally
+		{
+			pool.shutdown ();
+		}
+	}
+
+	/**
+	 * Test that ties in the bottom-up step are won by the candidate first in document order.
+	 */
+	@Test
+	public void testBottomUpTies ()
+	{
+		// the children of p vote for both p's in A with the same weight, the second one is voted for first
+		String a = "<r><p><s id=\"a\"/></p><p><s id=\"b\"/></p></r>";
+		String b = "<r><p><s id=\"b\"/><s id=\"a\"/></p></r>";
+		ForkJoinPool pool = new ForkJoinPool (4);
+		try
+		{
+			for (boolean parallel : new boolean [] {false, true})
+			{
+				TreeDocument docA = new TreeDocument (XmlTools.readDocument (a), null);
+				TreeDocument docB = new TreeDocument (XmlTools.readDocument (b), null);
+				XyDiffConnector con = new XyDiffConnector (docA, docB);
+				if (parallel)
+					con.setParallelBottomUp (pool, 0);
+				con.findConnections ();
+				
+				TreeNode pA = docA.getRoot ().getChildren ().get (0);
+				TreeNode pB = docB.getRoot ().getChildren ().get (0);
+				assertEquals ("expected the first p to win the tie, parallel: " + parallel, pA, con.getConnections ().getPartner (pB));
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error breaking ties: " + e);
+		}
+		finally
+		{
+			pool.shutdown ();
+		}
+	}
+
+	/**
+	 * Test breaking ties between candidates of the same level.
+	 */
+	@Test
+	public void testTieBreaker ()
+	{
+		// both x's in A are candidates at level 2 for the x in B
+		// the second one is closer in terms of child indexes, the first one in terms of the XPath
+		String a = "<r><g><x/></g><g><y/><y/><x/></g></r>";
+		String b = "<r><h><z/><z/><x/></h></r>";
+		try
+		{
+			for (int tieBreaker : new int [] {XyDiffConnector.TIE_BREAKER_STRUCTURAL, XyDiffConnector.TIE_BREAKER_XPATH_LEVENSHTEIN})
+			{
+				TreeDocument docA = new TreeDocument (XmlTools.readDocument (a), null);
+				TreeDocument docB = new TreeDocument (XmlTools.readDocument (b), null);
+				XyDiffConnector con = new XyDiffConnector (docA, docB);
+				con.setTieBreaker (tieBreaker);
+				con.findConnections ();
+				
+				DocumentNode x1 = (DocumentNode) ((DocumentNode) docA.getRoot ().getChildren ().get (0)).getChildren ().get (0);
+				DocumentNode x2 = (DocumentNode) ((DocumentNode) docA.getRoot ().getChildren ().get (1)).getChildren ().get (2);
+				DocumentNode xB = (DocumentNode) ((DocumentNode) docB.getRoot ().getChildren ().get (0)).getChildren ().get (2);
+				if (tieBreaker == XyDiffConnector.TIE_BREAKER_STRUCTURAL)
+					assertEquals ("expected the structurally closer candidate", x2, con.getConnections ().getPartner (xB));
+				else
+					assertEquals ("expected the candidate with the closer XPath", x1, con.getConnections ().getPartner (xB));
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error breaking ties: " + e);
+		}
+	}
+
+	/**
+	 * Test the bounded optimization of huge lists of siblings.
+	 */
+	@Test
+	public void testBoundedOptimization ()
+	{
+		// siblings of two families, each of them modified so only the optimization can match them
+		StringBuilder a = new StringBuilder ("<model><listOfEntities>");
+		StringBuilder b = new StringBuilder ("<model><listOfEntities>");
+		for (int i = 0; i < 300; i++)
+			for (String family : new String [] {"species_", "param_"})
+			{
+				a.append ("<entity name=\"").append (family).append (i).append ("\" value=\"").append (i).append ("\" unit=\"mole\"/>");
+				b.append ("<entity name=\"").append (family).append (i).append ("\" value=\"").append (i + 1).append ("\" unit=\"mole\"/>");
+			}
+		a.append ("</listOfEntities></model>");
+		b.append ("</listOfEntities></model>");
+		
+		try
+		{
+			// all pairs, buckets by family, and windows within the buckets
+			for (int maxPairs : new int [] {0, 100000, 1000})
+			{
+				TreeDocument docA = new TreeDocument (XmlTools.readDocument (a.toString ()), null);
+				TreeDocument docB = new TreeDocument (XmlTools.readDocument (b.toString ()), null);
+				XyDiffConnector con = new XyDiffConnector (docA, docB);
+				con.setBoundedOptimization (maxPairs);
+				con.findConnections ();
+				
+				List<TreeNode> entitiesB = ((DocumentNode) docB.getRoot ().getChildren ().get (0)).getChildren ();
+				for (TreeNode entity : entitiesB)
+				{
+					TreeNode partner = con.getConnections ().getPartner (entity);
+					assertNotNull ("expected " + entity.getXPath () + " to be matched, max pairs: " + maxPairs, partner);
+					assertEquals ("unexpected partner of " + entity.getXPath () + ", max pairs: " + maxPairs,
+						((DocumentNode) entity).getAttributeValue ("name"), ((DocumentNode) partner).getAttributeValue ("name"));
+				}
+			}
+			
+			// the default configuration is bounded
+			assertEquals ("expected a bounded optimization by default", XyDiffConnector.DEFAULT_MAX_OPTIMIZATION_PAIRS, DiffConfig.DEFAULT.getMaxOptimizationPairs ());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error in bounded optimization: " + e);
+		}
+	}
+
+	/**
+	 * Test that the indexed connection manager results in the same mapping as the simple one.
+	 */
+	@Test
+	public void testIndexedConnectionManager ()
+	{
+		String [][] pairs = new String [][] {
+			{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+			{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+			{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+		};
+		try
+		{
+			for (String [] pair : pairs)
+			{
+				XyDiffConnector simple = new XyDiffConnector (
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null),
+					new TreeDocument (XmlTools.readDocument (new File (pair[1])), null));
+				simple.findConnections ();
+
+				TreeDocument docA = new TreeDocument (XmlTools.readDocument (new File (pair[0])), null);
+				TreeDocument docB = new TreeDocument (XmlTools.readDocument (new File (pair[1])), null);
+				XyDiffConnector indexed = new XyDiffConnector (docA, docB);
+				indexed.setConnectionManager (new IndexedConnectionManager (docA, docB));
+				indexed.findConnections ();
+
+				assertTrue ("expected an indexed connection manager", indexed.getConnections () instanceof IndexedConnectionManager);
+				assertEquals ("indexed connection manager resulted in a different mapping for " + pair[0],
+					simple.getConnections ().toString (), indexed.getConnections ().toString ());
+
+				// weights are stored in the manager, not in the connection objects
+				IndexedConnectionManager conMgmt = (IndexedConnectionManager) indexed.getConnections ();
+				int root = conMgmt.getIndexA ().getNumber (docA.getRoot ());
+				assertEquals ("unexpected partner of the root", conMgmt.getIndexB ().getNumber (docB.getRoot ()), conMgmt.getPartnerOfA (root));
+				conMgmt.getConnectionForNode (docA.getRoot ()).setWeight (42);
+				assertEquals ("expected the weight to be stored", 42, conMgmt.getWeightOfA (root), 0);
+				assertEquals ("expected the weight to be stored", 42, conMgmt.getConnectionForNode (docB.getRoot ()).getWeight (), 0);
+
+				// the configuration selects the indexed manager
+				RegularDiff regular = new RegularDiff (new File (pair[0]), new File (pair[1]));
+				regular.mapTrees ();
+				RegularDiff indexedDiff = new RegularDiff (new File (pair[0]), new File (pair[1]));
+				indexedDiff.setConfig (new DiffConfig.Builder ().setIndexedConnections (true).build ());
+				indexedDiff.mapTrees ();
+				assertEquals ("indexed connections resulted in a different patch for " + pair[0], regular.getDiff (), indexedDiff.getDiff ());
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error comparing connection managers: " + e);
+		}
+	}
+
+	/**
+	 * Test the region-partitioned mapping.
+	 */
+	@Test
+	public void testPartitionedMapping ()
+	{
+		String [][] pairs = new String [][] {
+			{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+			{"test/paper-supp-1.xml", "test/paper-supp-2.xml"}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool (4);
+		try
+		{
+			for (String [] pair : pairs)
+			{
+				RegularDiff diff = new RegularDiff (
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null),
+					new TreeDocument (XmlTools.readDocument (new File (pair[1])), null));
+				diff.setPartitionedMapping (executor);
+				diff.mapTrees ();
+				Patch patch = diff.getPatch ();
+				TestPatching.checkPatch (patch);
+
+				// the same document should map onto itself
+				diff = new RegularDiff (
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null),
+					new TreeDocument (XmlTools.readDocument (new File (pair[0])), null));
+				diff.setPartitionedMapping (executor);
+				diff.mapTrees ();
+				patch = diff.getPatch ();
+				assertEquals ("expected no changes for " + pair[0], 0, patch.getNumDeletes () + patch.getNumInserts () + patch.getNumMoves () + patch.getNumUpdates ());
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error in partitioned mapping: " + e);
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+
+	/**
+	 * Test that the node index knows parents, child numbers, and XPaths of all nodes.
+	 */
+	@Test
+	public void testNodeIndex ()
+	{
+		try
+		{
+			TreeDocument doc = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			NodeIndex index = new NodeIndex (doc);
+			for (int i = 0; i < index.size (); i++)
+			{
+				TreeNode node = index.getNode (i);
+				assertEquals ("unexpected number", i, index.getNumber (node));
+				assertEquals ("unexpected XPath", node.getXPath (), index.getXPath (i));
+				if (node.isRoot ())
+				{
+					assertEquals ("unexpected parent of root", -1, index.getParent (i));
+					assertEquals ("unexpected child number of root", -1, index.getChildNo (i));
+					assertEquals ("unexpected parent XPath of root", "", index.getParentXPath (i));
+					assertEquals ("unexpected child number path of root", 0, index.getChildNoPath (i).length);
+					continue;
+				}
+				assertEquals ("unexpected parent", index.getNumber (node.getParent ()), index.getParent (i));
+				assertEquals ("unexpected child number", node.getParent ().getNoOfChild (node), index.getChildNo (i));
+				assertEquals ("unexpected parent XPath", node.getParent ().getXPath (), index.getParentXPath (i));
+				int [] path = index.getChildNoPath (i);
+				assertEquals ("unexpected child number path", index.getChildNo (i), path[path.length - 1]);
+				assertEquals ("unexpected depth", index.getChildNoPath (index.getParent (i)).length + 1, path.length);
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error indexing nodes: " + e);
+		}
+	}
+
+	/**
+	 * Test that identical documents are mapped one to one.
+	 */
+	@Test
+	public void testIdenticalDocuments ()
+	{
+		try
+		{
+			TreeDocument a = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			TreeDocument b = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			XyDiffConnector con = new XyDiffConnector (a, b);
+			con.findConnections ();
+			assertEquals ("expected every node to be mapped", new NodeIndex (a).size (), con.getConnections ().getConnections ().size ());
+
+			Diff diff = new RegularDiff (a, b);
+			diff.mapTrees ();
+			Patch patch = diff.getPatch ();
+			assertEquals ("expected no changes", 0, patch.getNumDeletes () + patch.getNumInserts () + patch.getNumMoves () + patch.getNumUpdates ());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error comparing identical documents: " + e);
+		}
+	}
+
+	/**
+	 * Test that a mapping with a tiny budget results in a partial, but valid patch.
+	 */
+	@Test
+	public void testMappingBudget ()
+	{
+		ForkJoinPool pool = new ForkJoinPool (4);
+		try
+		{
+			RegularDiff diff = new RegularDiff (new File ("test/BIOMD0000000006-2012-12-12.xml"), new File ("test/BIOMD0000000006-2009-03-25.xml"));
+			diff.setMappingBudget (0, 1);
+			diff.mapTrees ();
+			assertTrue ("expected a partial mapping", diff.isPartialMapping ());
+			TestPatching.checkPatch (diff.getPatch ());
+			assertNotNull ("expected a diff", diff.getDiff ());
+
+			diff = new RegularDiff (new File ("test/BIOMD0000000006-2012-12-12.xml"), new File ("test/BIOMD0000000006-2009-03-25.xml"));
+			diff.setMappingBudget (60 * 60 * 1000, 0);
+			diff.mapTrees ();
+			assertFalse ("expected a complete mapping", diff.isPartialMapping ());
+
+			// the parallel bottom up respects the budget, too
+			TreeDocument a = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			TreeDocument b = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2009-03-25.xml")), null);
+			XyDiffConnector con = new XyDiffConnector (a, b);
+			con.setParallelBottomUp (pool, 0);
+			con.setBudget (0, 1);
+			con.findConnections ();
+			assertTrue ("expected a partial mapping of the parallel bottom up", con.isPartial ());
+
+			// every mapping gets a fresh deadline
+			con = new XyDiffConnector (a, b);
+			con.setBudget (1, 0);
+			con.findConnections ();
+			Thread.sleep (5);
+			con.setBudget (60 * 60 * 1000, 0);
+			con.setConnectionManager (new SimpleConnectionManager (a, b));
+			con.findConnections ();
+			assertFalse ("expected the deadline of the previous mapping to be dropped", con.isPartial ());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error mapping with a budget: " + e);
+		}
+		finally
+		{
+			pool.shutdown ();
+		}
+	}
+
+	/**
+	 * Test reporting metrics of a comparison.
+	 */
+	@Test
+	public void testDiffListener ()
+	{
+		try
+		{
+			DiffMetrics metrics = new DiffMetrics ();
+			RegularDiff diff = new RegularDiff (new File ("test/BIOMD0000000006-2012-12-12.xml"), new File ("test/BIOMD0000000006-2009-03-25.xml"));
+			diff.setDiffListener (metrics);
+			diff.mapTrees ();
+			Patch patch = diff.getPatch ();
+			assertNotNull ("expected a diff", diff.getDiff ());
+			
+			for (String phase : new String [] {DiffListener.PHASE_CONNECTOR_INIT, DiffListener.PHASE_CONNECTOR_CONNECT, DiffListener.PHASE_CONNECTOR_EVALUATE, DiffListener.PHASE_XYDIFF_BOTTOMUP, DiffListener.PHASE_XYDIFF_TOPDOWN, DiffListener.PHASE_XYDIFF_OPTIMIZE, DiffListener.PHASE_DIFF_MAP, DiffListener.PHASE_PATCH_PRODUCE, DiffListener.PHASE_PATCH_SERIALIZE})
+				assertTrue ("expected phase " + phase, metrics.getNanos (phase) >= 0);
+			
+			assertTrue ("expected nodes in A", metrics.getCount (DiffListener.COUNT_NODES_A) > 0);
+			assertTrue ("expected nodes in B", metrics.getCount (DiffListener.COUNT_NODES_B) > 0);
+			assertTrue ("expected matched nodes", metrics.getCount (DiffListener.COUNT_MATCHED) > 0);
+			assertTrue ("expected unmatched nodes", metrics.getCount (DiffListener.COUNT_UNMATCHED_A) >= 0);
+			assertTrue ("expected candidate lists", metrics.getCount (DiffListener.COUNT_CANDIDATES) >= 0);
+			assertEquals ("unexpected number of inserts", patch.getNumInserts (), metrics.getCount (DiffListener.COUNT_PATCH_INSERTS));
+			assertEquals ("unexpected number of deletes", patch.getNumDeletes (), metrics.getCount (DiffListener.COUNT_PATCH_DELETES));
+			assertEquals ("unexpected number of updates", patch.getNumUpdates (), metrics.getCount (DiffListener.COUNT_PATCH_UPDATES));
+			assertEquals ("unexpected number of moves", patch.getNumMoves (), metrics.getCount (DiffListener.COUNT_PATCH_MOVES));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error reporting metrics: " + e);
+		}
+	}
+
+	/**
+	 * Test that the trees are evaluated only once per mapping.
+	 */
+	@Test
+	public void testSingleEvaluation ()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool (2);
+		try
+		{
+			for (boolean partitioned : new boolean [] {false, true})
+			{
+				final int [] evaluations = new int [1];
+				DiffListener listener = new DiffListener ()
+				{
+					@Override
+					public synchronized void phaseFinished (String phase, long nanos, long allocatedBytes)
+					{
+						if (phase.equals (DiffListener.PHASE_CONNECTOR_EVALUATE))
+							evaluations[0]++;
+					}
+					
+					@Override
+					public void count (String counter, long value)
+					{
+					}
+				};
+				RegularDiff diff = new RegularDiff (new File ("test/BIOMD0000000006-2012-12-12.xml"), new File ("test/BIOMD0000000006-2009-03-25.xml"));
+				if (partitioned)
+					diff.setPartitionedMapping (executor);
+				diff.setDiffListener (listener);
+				diff.mapTrees ();
+				assertEquals ("expected a single evaluation, partitioned: " + partitioned, 1, evaluations[0]);
+				TestPatching.checkPatch (diff.getPatch ());
+			}
+			
+			// connectors without evaluation
+			final int [] evaluations = new int [1];
+			TreeDocument treeA = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			TreeDocument treeB = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2009-03-25.xml")), null);
+			XyDiffConnector con = new XyDiffConnector (treeA, treeB);
+			con.setEvaluation (false);
+			con.setDiffListener (new DiffListener ()
+			{
+				@Override
+				public void phaseFinished (String phase, long nanos, long allocatedBytes)
+				{
+					if (phase.equals (DiffListener.PHASE_CONNECTOR_EVALUATE))
+						evaluations[0]++;
+				}
+				
+				@Override
+				public void count (String counter, long value)
+				{
+				}
+			});
+			con.findConnections ();
+			assertEquals ("expected no evaluation", 0, evaluations[0]);
+			assertTrue ("expected connections", con.getConnections ().getConnections ().size () > 0);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error evaluating mappings: " + e);
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+
+	/**
+	 * Test aligning groups of identical siblings.
+	 */
+	@Test
+	public void testIdenticalSiblings ()
+	{
+		try
+		{
+			StringBuilder a = new StringBuilder ("<sbml><model><listOfReactions><reaction id=\"r1\"><listOfReactants>");
+			StringBuilder b = new StringBuilder ("<sbml><model><listOfReactions><reaction id=\"r1\"><listOfReactants>");
+			for (int i = 0; i < 200; i++)
+			{
+				a.append ("<speciesReference species=\"s1\" stoichiometry=\"1\"/>");
+				b.append ("<speciesReference species=\"s1\" stoichiometry=\"1\"/>");
+				if (i == 100)
+					b.append ("<speciesReference species=\"s2\" stoichiometry=\"1\"/>");
+			}
+			a.append ("</listOfReactants></reaction></listOfReactions></model></sbml>");
+			b.append ("<speciesReference species=\"s1\" stoichiometry=\"1\"/></listOfReactants></reaction></listOfReactions></model></sbml>");
+			
+			DiffMetrics metrics = new DiffMetrics ();
+			RegularDiff diff = new RegularDiff (a.toString (), b.toString ());
+			diff.setDiffListener (metrics);
+			diff.mapTrees ();
+			Patch patch = diff.getPatch ();
+			TestPatching.checkPatch (patch);
+			
+			assertEquals ("expected no deletes", 0, patch.getNumDeletes ());
+			assertEquals ("expected no moves", 0, patch.getNumMoves ());
+			assertEquals ("expected no updates", 0, patch.getNumUpdates ());
+			assertTrue ("expected inserts", patch.getNumInserts () > 0);
+			assertTrue ("expected the siblings not to search candidates one by one", metrics.getCount (DiffListener.COUNT_CANDIDATE_LISTS) < 20);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error aligning identical siblings: " + e);
+		}
+	}
+
+	/**
+	 * Test mapping by ids if some ids are not unique.
+	 */
+	@Test
+	public void testPartialIdMatching ()
+	{
+		try
+		{
+			String a = "<root><a id=\"x\"/><b id=\"dup\"/><c id=\"dup\"/><d id=\"y\">text</d><e id=\"z\"/></root>";
+			String b = "<root><d id=\"y\">text</d><c id=\"dup\"/><a id=\"x\"/><b id=\"dup\"/><f id=\"z\"/></root>";
+			TreeDocument treeA = new TreeDocument (XmlTools.readDocument (a), null);
+			TreeDocument treeB = new TreeDocument (XmlTools.readDocument (b), null);
+			assertFalse ("expected duplicate ids", treeA.uniqueIds ());
+			
+			IdConnector con = new IdConnector (treeA, treeB, true);
+			con.findConnections ();
+			assertEquals ("expected the duplicate id to be skipped", 1, con.getNumSkippedIds ());
+			// z is unique, but the labels differ
+			assertEquals ("expected x and y to be connected", 2, con.getConnections ().getConnections ().size ());
+			assertNotNull ("expected x to be connected", con.getConnections ().getConnectionOfNodes (treeA.getRoot ().getChildren ().get (0), treeB.getRoot ().getChildren ().get (2)));
+			assertNotNull ("expected y to be connected", con.getConnections ().getConnectionOfNodes (treeA.getRoot ().getChildren ().get (3), treeB.getRoot ().getChildren ().get (0)));
+			
+			// the skipped ids are reported during a diff
+			DiffMetrics metrics = new DiffMetrics ();
+			Diff diff = new RegularDiff (a, b);
+			diff.setDiffListener (metrics);
+			diff.mapTrees ();
+			TestPatching.checkPatch (diff.getPatch ());
+			assertEquals ("expected the duplicate id to be reported", 1, metrics.getCount (DiffListener.COUNT_SKIPPED_IDS));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error mapping by ids: " + e);
+		}
+	}
+
+	/**
+	 * Test concurrent diffs using shared engines.
+	 */
+	@Test
+	public void testDiffEngine ()
+	{
+		final String [][] pairs = new String [][] {
+			{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+			{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+			{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+		};
+		final DiffEngine [] engines = new DiffEngine [] {
+			new DiffEngine (DiffConfig.DEFAULT),
+			new DiffEngine (new DiffConfig.Builder ().setMaxAttributeDistance (.5).setTieBreaker (XyDiffConnector.TIE_BREAKER_XPATH_LEVENSHTEIN).build ())
+		};
+		ExecutorService executor = Executors.newFixedThreadPool (8);
+		try
+		{
+			// sequential reference results
+			String [][] expected = new String [engines.length][pairs.length];
+			for (int e = 0; e < engines.length; e++)
+				for (int p = 0; p < pairs.length; p++)
+					expected[e][p] = summarize (engines[e].diff (new File (pairs[p][0]), new File (pairs[p][1])).getPatch ());
+			
+			List<Future<String>> results = new ArrayList<Future<String>> ();
+			for (int i = 0; i < 48; i++)
+			{
+				final DiffEngine engine = engines[i % engines.length];
+				final String [] pair = pairs[(i / engines.length) % pairs.length];
+				results.add (executor.submit (new Callable<String> ()
+				{
+					@Override
+					public String call () throws Exception
+					{
+						Patch patch = engine.diff (new File (pair[0]), new File (pair[1])).getPatch ();
+						TestPatching.checkPatch (patch);
+						return summarize (patch);
+					}
+				}));
+			}
+			for (int i = 0; i < results.size (); i++)
+				assertEquals ("concurrent diff differs from sequential diff", expected[i % engines.length][(i / engines.length) % pairs.length], results.get (i).get ());
+			
+			try
+			{
+				new DiffConfig.Builder ().setPartitionedMapping (executor).setPreprocessor (new DiffConfig.ConnectorFactory ()
+				{
+					@Override
+					public Connector createConnector (TreeDocument docA, TreeDocument docB, DiffConfig config)
+					{
+						return null;
+					}
+				}).build ();
+				fail ("expected contradicting settings to be rejected");
+			}
+			catch (IllegalStateException e)
+			{
+				// expected
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error in concurrent diffs: " + e);
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+	
+	/**
+	 * Test the diff service, including admission control, a full queue, and timeouts.
+	 */
+	@Test
+	public void testDiffService ()
+	{
+		final File fileA = new File ("test/BIOMD0000000006-2012-12-12.xml");
+		final File fileB = new File ("test/BIOMD0000000006-2009-03-25.xml");
+		ExecutorService executor = Executors.newSingleThreadExecutor ();
+		DiffService service = new DiffService (DiffConfig.DEFAULT, null, executor);
+		try
+		{
+			// regular jobs
+			service.setMaxConcurrentJobs (2);
+			List<CompletableFuture<DiffResult>> results = new ArrayList<CompletableFuture<DiffResult>> ();
+			for (int i = 0; i < 4; i++)
+				results.add (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH | DiffJob.OUTPUT_HTML_REPORT)));
+			String expected = new DiffEngine (DiffConfig.DEFAULT).diff (fileA, fileB).getDiff ();
+			for (CompletableFuture<DiffResult> result : results)
+			{
+				assertEquals ("unexpected patch", expected, result.get ().getOutput (DiffJob.OUTPUT_PATCH));
+				assertNotNull ("expected a report", result.get ().getOutput (DiffJob.OUTPUT_HTML_REPORT));
+				assertNull ("expected no graph", result.get ().getOutput (DiffJob.OUTPUT_REACTIONS_DOT));
+				assertTrue ("expected metrics", result.get ().getMetrics ().getCount (DiffListener.COUNT_NODES_A) > 0);
+			}
+			
+			// too large
+			service.setMaxJobSize (fileA.length ());
+			assertRejected (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH)));
+			service.setMaxJobSize (0);
+			
+			// block the executor, so one job is running and one is queued
+			final CountDownLatch latch = new CountDownLatch (1);
+			executor.submit (new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws Exception
+				{
+					latch.await ();
+					return null;
+				}
+			});
+			service.setMaxConcurrentJobs (1);
+			service.setQueueCapacity (1);
+			CompletableFuture<DiffResult> running = service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH));
+			CompletableFuture<DiffResult> queued = service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH));
+			assertEquals ("expected a queued job", 1, service.getQueueSize ());
+			assertRejected (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH)));
+			latch.countDown ();
+			assertEquals ("unexpected patch", expected, running.get ().getOutput (DiffJob.OUTPUT_PATCH));
+			assertEquals ("unexpected patch", expected, queued.get ().getOutput (DiffJob.OUTPUT_PATCH));
+
+			// buffered inputs of queued jobs count against the in-flight limit
+			final CountDownLatch blocker = new CountDownLatch (1);
+			executor.submit (new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws Exception
+				{
+					blocker.await ();
+					return null;
+				}
+			});
+			service.setQueueCapacity (10);
+			service.setMaxInFlightSize (fileA.length () + fileB.length () + 1);
+			byte [] bytesA = Files.readAllBytes (fileA.toPath ());
+			byte [] bytesB = Files.readAllBytes (fileB.toPath ());
+			running = service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH));
+			assertRejected (service.submit (new DiffJob (new ByteArrayInputStream (bytesA), new ByteArrayInputStream (bytesB), DiffJob.OUTPUT_PATCH)));
+			service.setMaxInFlightSize (0);
+			queued = service.submit (new DiffJob (new ByteArrayInputStream (bytesA), new ByteArrayInputStream (bytesB), DiffJob.OUTPUT_PATCH));
+			blocker.countDown ();
+			assertEquals ("unexpected patch", expected, running.get ().getOutput (DiffJob.OUTPUT_PATCH));
+			assertEquals ("unexpected patch of streams", expected, queued.get ().getOutput (DiffJob.OUTPUT_PATCH));
+
+			// the parser detects the encoding of streams
+			String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><r><a>\u00e4</a></r>";
+			String utf8 = xml.replace ("ISO-8859-1", "UTF-8");
+			assertEquals ("unexpected patch of streams in different encodings",
+				service.submit (new DiffJob (utf8, utf8, DiffJob.OUTPUT_PATCH)).get ().getOutput (DiffJob.OUTPUT_PATCH),
+				service.submit (new DiffJob (new ByteArrayInputStream (xml.getBytes (StandardCharsets.ISO_8859_1)), new ByteArrayInputStream (utf8.getBytes (StandardCharsets.UTF_8)), DiffJob.OUTPUT_PATCH)).get ().getOutput (DiffJob.OUTPUT_PATCH));
+
+			// regular diffs only produce patches
+			assertRejected (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH | DiffJob.OUTPUT_HTML_REPORT)));
+			service.setDiffFactory (new VersionChain.DiffFactory ()
+			{
+				@Override
+				public Diff createDiff (TreeDocument treeA, TreeDocument treeB)
+				{
+					return new RegularDiff (treeA, treeB);
+				}
+			});
+			assertEquals ("unexpected patch of a diff created by the factory", expected, service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH)).get ().getOutput (DiffJob.OUTPUT_PATCH));
+			// the factory's diff doesn't provide reports
+			assertRejected (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_HTML_REPORT)));
+			service.setDiffFactory (null);
+
+			// timeout
+			try
+			{
+				service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH).setTimeout (1)).get ();
+				fail ("expected the job to time out");
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue ("expected a timeout, got " + e.getCause (), e.getCause () instanceof TimeoutException);
+			}
+			
+			service.shutdown ();
+			assertRejected (service.submit (new DiffJob (fileA, fileB, DiffJob.OUTPUT_PATCH)));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error in diff service: " + e);
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+	
+	/**
+	 * Assert that a job was rejected.
+	 *
+	 * @param result the result of the job
+	 * @throws InterruptedException the interrupted exception
+	 */
+	private static void assertRejected (CompletableFuture<DiffResult> result) throws InterruptedException
+	{
+		try
+		{
+			result.get ();
+			fail ("expected the job to be rejected");
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue ("expected a rejection, got " + e.getCause (), e.getCause () instanceof BivesRejectedException);
+		}
+	}
+	
+	/**
+	 * Summarize a patch by its numbers of operations.
+	 *
+	 * @param patch the patch
+	 * @return the summary
+	 */
+	private static String summarize (Patch patch)
+	{
+		return patch.getNumInserts () + "/" + patch.getNumDeletes () + "/" + patch.getNumUpdates () + "/" + patch.getNumMoves ();
+	}
+
+	/**
+	 * Test generating synthetic models and comparing them.
+	 */
+	@Test
+	public void testSyntheticModels ()
+	{
+		try
+		{
+			SyntheticModelGenerator generator = new SyntheticModelGenerator (42);
+			generator.setApproximateSize (5000);
+			generator.setMutationRates (.02, .02, .02, .02, .02);
+			SyntheticModel model = generator.generate ();
+			
+			int nodes = new NodeIndex (model.getTreeA ()).size ();
+			assertTrue ("unexpected size of generated model: " + nodes, nodes > 4000 && nodes < 6000);
+			assertFalse ("expected different versions", model.getTreeA ().getRoot ().getSubTreeHash ().equals (model.getTreeB ().getRoot ().getSubTreeHash ()));
+			assertEquals ("expected the same model for the same seed", model.getTreeA ().getRoot ().getSubTreeHash (), generator.generate ().getTreeA ().getRoot ().getSubTreeHash ());
+			
+			for (int type = SyntheticModel.EditOperation.INSERT; type <= SyntheticModel.EditOperation.RENAME; type++)
+				assertTrue ("expected operations of type " + type, model.count (type) > 0);
+			for (SyntheticModel.EditOperation op : model.getEditScript ())
+			{
+				if (op.getType () == SyntheticModel.EditOperation.DELETE || op.getType () == SyntheticModel.EditOperation.MOVE)
+					assertNotNull ("cannot find " + op, model.getTreeA ().getNodeByPath (op.getPathA ()));
+				if (op.getType () == SyntheticModel.EditOperation.INSERT || op.getType () == SyntheticModel.EditOperation.MOVE)
+					assertNotNull ("cannot find " + op, model.getTreeB ().getNodeByPath (op.getPathB ()));
+			}
+			
+			Diff diff = new RegularDiff (model.getTreeA (), model.getTreeB ());
+			diff.mapTrees ();
+			Patch patch = diff.getPatch ();
+			TestPatching.checkPatch (patch);
+			assertTrue ("expected deletes", patch.getNumDeletes () > 0);
+			assertTrue ("expected inserts", patch.getNumInserts () > 0);
+			assertTrue ("expected updates", patch.getNumUpdates () > 0);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error generating synthetic models: " + e);
+		}
+	}
+	
+	/**
+	 * Test comparing a chain of versions.
+	 */
+	@Test
+	public void testVersionChain ()
+	{
+		List<File> versions = Arrays.asList (
+			new File ("test/BIOMD0000000006-2009-03-25.xml"),
+			new File ("test/BIOMD0000000006-2012-12-12.xml"),
+			new File ("test/BIOMD0000000006-2009-03-25.xml"));
+		ExecutorService executor = Executors.newSingleThreadExecutor ();
+		try
+		{
+			List<VersionChain.Step> steps = new VersionChain (versions, executor).stream ().collect (Collectors.<VersionChain.Step> toList ());
+			assertEquals ("expected a step per pair of versions", 2, steps.size ());
+			for (VersionChain.Step step : steps)
+			{
+				Diff diff = new RegularDiff (step.getVersionA (), step.getVersionB ());
+				diff.mapTrees ();
+				Patch patch = diff.getPatch ();
+				assertEquals ("chain results in different moves in step " + step.getIndex (), patch.getNumMoves (), step.getPatch ().getNumMoves ());
+				assertEquals ("chain results in different updates in step " + step.getIndex (), patch.getNumUpdates (), step.getPatch ().getNumUpdates ());
+				assertEquals ("chain results in different inserts in step " + step.getIndex (), patch.getNumInserts (), step.getPatch ().getNumInserts ());
+				assertEquals ("chain results in different deletes in step " + step.getIndex (), patch.getNumDeletes (), step.getPatch ().getNumDeletes ());
+				// the annotations are read after the documents were reused by the next step
+				assertEquals ("chain results in different annotations in step " + step.getIndex (), patch.getNumAnnotations (), step.getPatch ().getNumAnnotations ());
+			}
+
+			// without executor
+			assertEquals ("expected a step per pair of versions", 2, new VersionChain (versions, null).stream ().count ());
+
+			// annotations of a step taken from the iterator, read after taking the next step
+			Iterator<VersionChain.Step> it = new VersionChain (versions, null).iterator ();
+			VersionChain.Step first = it.next ();
+			it.next ();
+			Diff diff = new RegularDiff (versions.get (0), versions.get (1));
+			diff.mapTrees ();
+			assertTrue ("expected an annotated patch", first.getPatch ().isAnnotated ());
+			assertEquals ("chain results in different annotations after advancing", diff.getPatch ().getNumAnnotations (), first.getPatch ().getNumAnnotations ());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error comparing a chain of versions: " + e);
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+
+	/**
+	 * Test the cache for diff results.
+	 */
+	@Test
+	public void testDiffCache ()
+	{
+		File fileA = new File ("test/BIOMD0000000006-2012-12-12.xml");
+		File fileB = new File ("test/BIOMD0000000006-2009-03-25.xml");
+		try
+		{
+			File dir = Files.createTempDirectory ("bives-cache").toFile ();
+			DiskDiffCache disk = new DiskDiffCache (dir);
+			MemoryDiffCache memory = new MemoryDiffCache (10 * 1024 * 1024, disk);
+
+			RegularDiff diff = new RegularDiff (fileA, fileB);
+			diff.setCache (memory);
+			diff.mapTrees ();
+			String xmlDiff = diff.getDiff ();
+			Patch patch = diff.getPatch ();
+			assertEquals ("expected a single cached diff", 1, memory.getNumEntries ());
+
+			// served from memory
+			RegularDiff cached = new RegularDiff (fileA, fileB);
+			cached.setCache (memory);
+			cached.mapTrees ();
+			assertEquals ("cached diff differs", xmlDiff, cached.getDiff ());
+			Patch cachedPatch = cached.getPatch ();
+			assertEquals ("cached mapping results in different moves", patch.getNumMoves (), cachedPatch.getNumMoves ());
+			assertEquals ("cached mapping results in different updates", patch.getNumUpdates (), cachedPatch.getNumUpdates ());
+
+			// served from disk
+			cached = new RegularDiff (fileA, fileB);
+			cached.setCache (new MemoryDiffCache (10 * 1024 * 1024, disk));
+			cached.mapTrees ();
+			assertEquals ("diff cached on disk differs", xmlDiff, cached.getDiff ());
+
+			// other flags, other key
+			cached = new RegularDiff (fileA, fileB);
+			cached.setCache (memory);
+			cached.mapTrees (false, true, true);
+			assertEquals ("expected two cached diffs", 2, memory.getNumEntries ());
+
+			// tiny caches evict everything but the latest entry
+			MemoryDiffCache tiny = new MemoryDiffCache (1);
+			tiny.put (new DiffCacheKey ("a", "1", "2", true, true, false), new DiffCacheEntry (new int [] {0, 0}));
+			tiny.put (new DiffCacheKey ("b", "1", "2", true, true, false), new DiffCacheEntry (new int [] {0, 0}));
+			assertEquals ("expected eviction", 1, tiny.getNumEntries ());
+			assertNull ("expected eldest entry to be evicted", tiny.get (new DiffCacheKey ("a", "1", "2", true, true, false)));
+
+			// annotated patches are cached per annotator
+			final DiffCacheEntry [] stored = new DiffCacheEntry [1];
+			cached = new RegularDiff (fileA, fileB);
+			cached.setCache (new DiffCache ()
+			{
+				@Override
+				public DiffCacheEntry get (DiffCacheKey key)
+				{
+					return null;
+				}
+				
+				@Override
+				public void put (DiffCacheKey key, DiffCacheEntry entry)
+				{
+					stored[0] = entry;
+				}
+			});
+			cached.mapTrees ();
+			String annotated = cached.getDiff (true);
+			assertEquals ("annotated patch not served by artifact", annotated, cached.getArtifact (DiffCacheEntry.ARTIFACT_PATCH_ANNOTATED));
+			assertEquals ("expected annotated patch to be cached with its annotator", annotated,
+				stored[0].getArtifact (DiffCacheEntry.ARTIFACT_PATCH_ANNOTATED + ":" + DefaultDiffAnnotator.class.getName ()));
+			assertNull ("expected no annotated patch without annotator", stored[0].getArtifact (DiffCacheEntry.ARTIFACT_PATCH_ANNOTATED));
+			assertNull ("RegularDiff doesn't produce reports", cached.getArtifact (DiffCacheEntry.ARTIFACT_HTML_REPORT));
+
+			// corrupt files are misses
+			DiffCacheKey corrupt = new DiffCacheKey ("c", "1", "2", true, true, false);
+			for (int length : new int [] {-1, Integer.MAX_VALUE})
+			{
+				try (DataOutputStream out = new DataOutputStream (new FileOutputStream (new File (dir, corrupt.getDigest ()))))
+				{
+					out.writeInt (1);
+					out.writeInt (length);
+				}
+				assertNull ("expected corrupt file to be a miss", disk.get (corrupt));
+			}
+			disk.put (corrupt, new DiffCacheEntry (new int [] {0, 0}));
+			byte [] bytes = Files.readAllBytes (new File (dir, corrupt.getDigest ()).toPath ());
+			bytes[bytes.length - 1] = 1;
+			Files.write (new File (dir, corrupt.getDigest ()).toPath (), bytes);
+			assertNull ("expected truncated file to be a miss", disk.get (corrupt));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error testing the diff cache: " + e);
+		}
+	}
+
 	/**
 	 * Test model6.
 	 */
@@ -6,28 +6,48 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import de.binfalse.bflog.LOGGER;
+import de.unirostock.sems.bives.algorithm.DiffListener;
+import de.unirostock.sems.bives.algorithm.DiffMetrics;
 import de.unirostock.sems.bives.algorithm.NodeConnection;
 import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
 import de.unirostock.sems.bives.algorithm.general.PatchProducer;
+import de.unirostock.sems.bives.algorithm.general.XyDiffConnector;
 import de.unirostock.sems.bives.api.Diff;
 import de.unirostock.sems.bives.api.RegularDiff;
+import de.unirostock.sems.bives.ds.BinaryPatchReader;
+import de.unirostock.sems.bives.ds.BinaryPatchWriter;
+import de.unirostock.sems.bives.ds.NodeIndex;
 import de.unirostock.sems.bives.ds.Patch;
+import de.unirostock.sems.bives.ds.rdf.RdfXmlBuilder;
 import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.bives.tools.SyntheticModel;
+import de.unirostock.sems.bives.tools.SyntheticModelGenerator;
 import de.unirostock.sems.xmlutils.ds.DocumentNode;
 import de.unirostock.sems.xmlutils.ds.TreeDocument;
 import de.unirostock.sems.xmlutils.ds.TreeNode;
@@ -144,6 +164,72 @@ public class TestPatching
 		}
 	}
 	
+	/**
+	 * Test that the annotation subtree of a patch encodes the annotations.
+	 */
+	@Test
+	public void testAnnotationSubtree ()
+	{
+		try
+		{
+			Diff diff = new RegularDiff (new File ("test/annotation-1"), new File ("test/annotation-2"));
+			diff.mapTrees ();
+			Patch patch = diff.getPatch ();
+			
+			Element rdf = patch.getDocument (true).getRootElement ().getChild ("RDF", Namespace.getNamespace (RdfXmlBuilder.RDF_NS));
+			assertNotNull ("expected an annotation subtree", rdf);
+			String rdfXml = XmlTools.prettyPrintDocument (new Document (rdf.clone ()));
+			assertFalse ("expected relative URIs", rdfXml.contains (Patch.PATCH_FILE_NAME.toString ()));
+			
+			Model expected = ModelFactory.createDefaultModel ();
+			expected.read (new ByteArrayInputStream (patch.getAnnotationDocumentXml ().getBytes (StandardCharsets.UTF_8)), null, "RDF/XML");
+			Model actual = ModelFactory.createDefaultModel ();
+			actual.read (new ByteArrayInputStream (rdfXml.getBytes (StandardCharsets.UTF_8)), Patch.PATCH_FILE_NAME.toString (), "RDF/XML");
+			assertEquals ("unexpected number of statements", expected.size (), actual.size ());
+			assertTrue ("annotation subtree differs from annotations", expected.isIsomorphicWith (actual));
+			
+			// the cached subtree is reused
+			assertEquals ("expected the same document", XmlTools.prettyPrintDocument (patch.getDocument (true)), XmlTools.prettyPrintDocument (patch.getDocument (true)));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error creating annotation subtree: " + e);
+		}
+	}
+	
+	/**
+	 * Test that annotations are only created when they are requested.
+	 */
+	@Test
+	public void testDeferredAnnotations ()
+	{
+		try
+		{
+			Diff diff = new RegularDiff (new File ("test/annotation-1"), new File ("test/annotation-2"));
+			diff.mapTrees ();
+			String plain = diff.getDiff (false);
+			Patch patch = diff.getPatch ();
+			assertFalse ("annotations weren't requested", patch.isAnnotated ());
+			assertFalse ("expected no annotations in plain diff", plain.contains ("RDF"));
+
+			int numAnnotations = patch.getNumAnnotations ();
+			assertTrue ("annotations were requested", patch.isAnnotated ());
+			assertTrue ("expected some annotations", numAnnotations > 0);
+
+			// the patch is annotated only once
+			patch.getDocument (true);
+			patch.getAnnotationDocumentXml ();
+			assertEquals ("number of annotations changed", numAnnotations, patch.getNumAnnotations ());
+			assertEquals ("number of annotations changed", numAnnotations, patch.getAnnotations ().getNumStatements ());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error creating deferred annotations: " + e);
+		}
+	}
+
 	private int countAnnotationUrls (DocumentNode dn, String url)
 	{
 		int i = 0;
@@ -406,6 +492,282 @@ public class TestPatching
 		}
 	}
 
+	/**
+	 * Test encoding patches in the binary format and decoding them again.
+	 */
+	@Test
+	public void testBinaryPatch ()
+	{
+		try
+		{
+			List<Patch> patches = new ArrayList<Patch> ();
+			String [][] pairs = new String [][] {
+				{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+				{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+				{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+			};
+			for (String [] pair : pairs)
+			{
+				Diff diff = new RegularDiff (new File (pair[0]), new File (pair[1]));
+				diff.mapTrees ();
+				patches.add (diff.getPatch ());
+			}
+			SyntheticModelGenerator generator = new SyntheticModelGenerator (7);
+			generator.setApproximateSize (10000);
+			SyntheticModel model = generator.generate ();
+			Diff diff = new RegularDiff (model.getTreeA (), model.getTreeB ());
+			diff.mapTrees ();
+			patches.add (diff.getPatch ());
+			patches.add (new Patch (false));
+			
+			for (Patch patch : patches)
+			{
+				String xml = XmlTools.prettyPrintDocument (patch.getDocument (false));
+				byte [] binary = BinaryPatchWriter.encode (patch);
+				Patch decoded = BinaryPatchReader.decode (binary);
+				checkPatch (decoded);
+				assertEquals ("full diff flag differs", patch.isFullDiff (), decoded.isFullDiff ());
+				assertEquals ("decoded patch differs", xml, XmlTools.prettyPrintDocument (decoded.getDocument (false)));
+				if (patch.getNumInserts () + patch.getNumDeletes () > 100)
+					assertTrue ("binary patch not compact: " + binary.length + " bytes vs " + xml.length () + " chars", binary.length * 4 < xml.getBytes (StandardCharsets.UTF_8).length);
+			}
+			
+			// malformed input
+			byte [] binary = BinaryPatchWriter.encode (patches.get (0));
+			// header (magic, version, flags) followed by a varint that overflows into a negative number of operations
+			byte [] negative = Arrays.copyOf (binary, 5 + 10);
+			for (int i = 5; i < negative.length - 1; i++)
+				negative[i] = (byte) 0xFF;
+			negative[negative.length - 1] = 0x01;
+			for (byte [] broken : new byte [][] {"<bives/>".getBytes (StandardCharsets.UTF_8), Arrays.copyOf (binary, binary.length / 2), negative})
+			{
+				try
+				{
+					BinaryPatchReader.decode (broken);
+					fail ("expected malformed binary patch to be rejected");
+				}
+				catch (IOException e)
+				{
+					// expected
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace ();
+			fail ("unexpected error encoding binary patches: " + e);
+		}
+	}
+	
+	
+	/**
+	 * Test streaming patches while they are produced.
+	 */
+	@Test
+	public void testStreamingPatch ()
+	{
+		String [][] pairs = new String [][] {
+			{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+			{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+			{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+		};
+		try
+		{
+			for (String [] pair : pairs)
+			{
+				Diff reference = new RegularDiff (new File (pair[0]), new File (pair[1]));
+				reference.mapTrees ();
+				Patch patch = reference.getPatch ();
+				String expected = XmlTools.prettyPrintDocument (patch.getDocument (false));
+				
+				for (boolean pretty : new boolean [] {true, false})
+				{
+					Diff diff = new RegularDiff (new File (pair[0]), new File (pair[1]));
+					DiffMetrics metrics = new DiffMetrics ();
+					diff.setDiffListener (metrics);
+					diff.mapTrees ();
+					StringWriter out = new StringWriter ();
+					diff.writeDiff (out, pretty);
+					assertEquals ("streamed patch differs", expected, XmlTools.prettyPrintDocument (XmlTools.readDocument (out.toString ())));
+					assertEquals ("unexpected number of inserts", patch.getNumInserts (), metrics.getCount (DiffListener.COUNT_PATCH_INSERTS));
+					assertEquals ("unexpected number of deletes", patch.getNumDeletes (), metrics.getCount (DiffListener.COUNT_PATCH_DELETES));
+					assertEquals ("unexpected number of updates", patch.getNumUpdates (), metrics.getCount (DiffListener.COUNT_PATCH_UPDATES));
+					assertEquals ("unexpected number of moves", patch.getNumMoves (), metrics.getCount (DiffListener.COUNT_PATCH_MOVES));
+					if (!pretty)
+						assertFalse ("expected compact output", out.toString ().contains ("\n  <"));
+				}
+				
+				// writing a patch that is already in memory
+				StringWriter out = new StringWriter ();
+				reference.writeDiff (out, true);
+				assertEquals ("written patch differs", expected, XmlTools.prettyPrintDocument (XmlTools.readDocument (out.toString ())));
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace ();
+			fail ("unexpected error streaming patches: " + e);
+		}
+	}
+	
+	
+	/**
+	 * Test that the tree walks of diff and patch don't need a stack growing with the depth of the documents.
+	 */
+	@Test
+	public void testDeepDocuments ()
+	{
+		// walks with a frame per level overflow the default stack of a thread at this depth
+		final int depth = 10000;
+		final TreeDocument [] docs = new TreeDocument [3];
+		final SimpleConnectionManager [] mapping = new SimpleConnectionManager [1];
+		final ForkJoinPool pool = new ForkJoinPool (4);
+		try
+		{
+			// xmlutils builds and evaluates its trees recursively, that needs a large stack
+			runWithStack (1L << 28, new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws Exception
+				{
+					docs[0] = new TreeDocument (XmlTools.readDocument (createDeepDocument (depth, "old")), null);
+					docs[1] = new TreeDocument (XmlTools.readDocument (createDeepDocument (depth, "new")), null);
+					docs[2] = new TreeDocument (XmlTools.readDocument (createDeepDocument (depth, "old")), null);
+					
+					// map all elements, but not the texts
+					SimpleConnectionManager conMgmt = new SimpleConnectionManager (docs[0], docs[1]);
+					NodeIndex indexA = conMgmt.getIndexA ();
+					NodeIndex indexB = conMgmt.getIndexB ();
+					for (int i = 0; i < indexA.size (); i++)
+						if (indexA.getNode (i).getType () == TreeNode.DOC_NODE)
+							conMgmt.connect (indexA.getNode (i), indexB.getNode (i));
+					docs[0].getRoot ().resetModifications ();
+					docs[0].getRoot ().evaluate (conMgmt);
+					docs[1].getRoot ().resetModifications ();
+					docs[1].getRoot ().evaluate (conMgmt);
+					mapping[0] = conMgmt;
+					return null;
+				}
+			});
+			
+			// our walks have to get along with a tiny stack
+			runWithStack (128 * 1024, new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws Exception
+				{
+					SimpleConnectionManager conMgmt = mapping[0];
+					assertEquals ("expected the text to be unmatched", 1, conMgmt.getUnmatched (docs[0].getRoot (), new ArrayList<TreeNode> ()).size ());
+					
+					PatchProducer producer = new PatchProducer ();
+					producer.init (conMgmt, docs[0], docs[1]);
+					producer.produce (false);
+					Patch patch = producer.getPatch ();
+					assertEquals ("expected the text to be deleted", 1, patch.getNumDeletes ());
+					assertEquals ("expected the text to be inserted", 1, patch.getNumInserts ());
+					assertEquals ("expected no moves", 0, patch.getNumMoves ());
+					assertEquals ("expected no updates", 0, patch.getNumUpdates ());
+					
+					patch = new Patch ();
+					patch.deleteSubtree (docs[0].getRoot (), -1);
+					patch.insertSubtree (docs[1].getRoot (), -1);
+					assertEquals ("expected all nodes to be deleted", depth + 1, patch.getNumDeletes ());
+					assertEquals ("expected all nodes to be inserted", depth + 1, patch.getNumInserts ());
+					List<Element> deletes = patch.getDeletes ().getChildren ();
+					for (int i = 1; i < deletes.size (); i++)
+						assertEquals ("expected deletion to be triggered by the parent", deletes.get (i - 1).getAttributeValue ("id"), deletes.get (i).getAttributeValue ("triggeredBy"));
+					
+					// the mapping, the parallel bottom up runs on the threads of the pool, which have a default stack
+					XyDiffConnector sequential = new XyDiffConnector (docs[0], docs[1]);
+					sequential.setEvaluation (false);
+					sequential.findConnections ();
+					XyDiffConnector parallel = new XyDiffConnector (docs[0], docs[1]);
+					parallel.setEvaluation (false);
+					// fork a task for every single subtree
+					parallel.setParallelBottomUp (pool, 0);
+					parallel.findConnections ();
+					assertTrue ("expected a mapping", sequential.getConnections ().getConnections ().size () > 1);
+					assertEquals ("parallel bottom up resulted in a different mapping", sequential.getConnections ().toString (), parallel.getConnections ().toString ());
+					return null;
+				}
+			});
+			
+			runWithStack (1L << 28, new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws Exception
+				{
+					// identical documents are assigned one to one
+					Diff diff = new RegularDiff (docs[0], docs[2]);
+					diff.mapTrees ();
+					assertEquals ("expected no changes", 0, diff.getPatch ().getNumDeletes () + diff.getPatch ().getNumInserts () + diff.getPatch ().getNumMoves () + diff.getPatch ().getNumUpdates ());
+					return null;
+				}
+			});
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace ();
+			fail ("unexpected error processing deep documents: " + e);
+		}
+		finally
+		{
+			pool.shutdown ();
+		}
+	}
+	
+	/**
+	 * Create a document of nested elements with a text in the deepest element.
+	 *
+	 * @param depth the number of nested elements
+	 * @param text the text
+	 * @return the document
+	 */
+	private static String createDeepDocument (int depth, String text)
+	{
+		StringBuilder xml = new StringBuilder ();
+		for (int i = 0; i < depth; i++)
+			xml.append ("<n>");
+		xml.append (text);
+		for (int i = 0; i < depth; i++)
+			xml.append ("</n>");
+		return xml.toString ();
+	}
+	
+	/**
+	 * Run a task in a thread with a certain stack size.
+	 *
+	 * @param stackSize the stack size in bytes
+	 * @param task the task
+	 * @throws Exception the exception thrown by the task
+	 */
+	private static void runWithStack (long stackSize, final Callable<Void> task) throws Exception
+	{
+		final Throwable [] error = new Throwable [1];
+		Thread thread = new Thread (null, new Runnable ()
+		{
+			@Override
+			public void run ()
+			{
+				try
+				{
+					task.call ();
+				}
+				catch (Throwable e)
+				{
+					error[0] = e;
+				}
+			}
+		}, "deep-documents", stackSize);
+		thread.start ();
+		thread.join ();
+		if (error[0] instanceof Exception)
+			throw (Exception) error[0];
+		if (error[0] != null)
+			throw new Exception (error[0]);
+	}
+	
+	
 	/**
 	 * Check patch.
 	 *
@@ -0,0 +1,131 @@
+package de.unirostock.sems.bives.algorithm.general;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import de.unirostock.sems.bives.algorithm.SimpleConnectionManager;
+import de.unirostock.sems.bives.ds.NodeIndex;
+import de.unirostock.sems.bives.exception.BivesConnectionException;
+import de.unirostock.sems.xmlutils.ds.DocumentNode;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+import de.unirostock.sems.xmlutils.tools.XmlTools;
+
+
+/**
+ * The Class TestBottomUp.
+ */
+@RunWith(JUnit4.class)
+public class TestBottomUp
+{
+
+	/** The pairs of documents to compare. */
+	private static final String [][] PAIRS = new String [][] {
+		{"test/BIOMD0000000006-2012-12-12.xml", "test/BIOMD0000000006-2009-03-25.xml"},
+		{"test/paper-supp-1.xml", "test/paper-supp-2.xml"},
+		{"test/stuarts-math-v1.xml", "test/stuarts-math-v2.xml"}
+	};
+
+	/**
+	 * Test that the sequential and the parallel bottom-up step result in the same mapping as summing the votes in a map per node.
+	 */
+	@Test
+	public void testBottomUp ()
+	{
+		ForkJoinPool pool = new ForkJoinPool (4);
+		try
+		{
+			for (String [] pair : PAIRS)
+			{
+				TreeDocument docA = new TreeDocument (XmlTools.readDocument (new File (pair[0])), null);
+				TreeDocument docB = new TreeDocument (XmlTools.readDocument (new File (pair[1])), null);
+
+				IdConnector id = new IdConnector (docA, docB, true);
+				id.setEvaluation (false);
+				id.findConnections ();
+				SimpleConnectionManager expected = id.getConnections ();
+				referenceBottomUp (expected, new NodeIndex (docA), docB.getRoot ());
+
+				XyDiffConnector sequential = new XyDiffConnector (docA, docB);
+				sequential.findBottomUpConnections ();
+				assertEquals ("sequential bottom up resulted in a different mapping for " + pair[0], expected.toString (), sequential.getConnections ().toString ());
+
+				for (double minWeight : new double [] {0, XyDiffConnector.DEFAULT_PARALLEL_MIN_WEIGHT})
+				{
+					XyDiffConnector parallel = new XyDiffConnector (docA, docB);
+					parallel.setParallelBottomUp (pool, minWeight);
+					parallel.findBottomUpConnections ();
+					assertEquals ("parallel bottom up resulted in a different mapping for " + pair[0] + " with min weight " + minWeight, expected.toString (), parallel.getConnections ().toString ());
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error comparing bottom up: " + e);
+		}
+		finally
+		{
+			pool.shutdown ();
+		}
+	}
+
+	/**
+	 * The bottom-up step summing the votes of the children in a map per node.
+	 *
+	 * @param conMgmt the connection manager
+	 * @param indexA the index of tree A, to break ties by document order
+	 * @param nodeB the node in tree B
+	 * @return the node in tree A matching nodeB, or null
+	 * @throws BivesConnectionException the bives connection exception
+	 */
+	private TreeNode referenceBottomUp (SimpleConnectionManager conMgmt, NodeIndex indexA, TreeNode nodeB) throws BivesConnectionException
+	{
+		HashMap<TreeNode, Double> weightByCandidate = new LinkedHashMap<TreeNode, Double> ();
+		if (nodeB.getType () == TreeNode.DOC_NODE)
+			for (TreeNode child : ((DocumentNode) nodeB).getChildren ())
+			{
+				TreeNode childMatch = referenceBottomUp (conMgmt, indexA, child);
+				if (childMatch == null || childMatch.getParent () == null)
+					continue;
+				Double weight = weightByCandidate.get (childMatch.getParent ());
+				weightByCandidate.put (childMatch.getParent (), (weight == null ? 0 : weight) + child.getWeight ());
+			}
+
+		if (conMgmt.isConnected (nodeB))
+			return conMgmt.getPartner (nodeB);
+
+		double max = -1.0;
+		TreeNode best = null;
+		for (TreeNode candidate : weightByCandidate.keySet ())
+		{
+			double weight = weightByCandidate.get (candidate);
+			if (weight > max || (weight == max && indexA.getNumber (candidate) < indexA.getNumber (best)))
+			{
+				best = candidate;
+				max = weight;
+			}
+		}
+		if (best == null)
+			return null;
+
+		// same semantics as Connector#nodeAssign
+		if (conMgmt.isConnected (best))
+			return best;
+		if (best.getType () == nodeB.getType () && ((DocumentNode) best).getTagName ().equals (((DocumentNode) nodeB).getTagName ()))
+		{
+			conMgmt.connect (best, nodeB);
+			return best;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,135 @@
+package de.unirostock.sems.bives.algorithm.general;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import de.unirostock.sems.bives.ds.NodeIndex;
+import de.unirostock.sems.xmlutils.ds.TreeDocument;
+import de.unirostock.sems.xmlutils.ds.TreeNode;
+import de.unirostock.sems.xmlutils.tools.XmlTools;
+
+
+/**
+ * The Class TestCandidateIndex.
+ */
+@RunWith(JUnit4.class)
+public class TestCandidateIndex
+{
+	
+	/** The maximum level to index. */
+	private static final int MAX_LEVEL = 6;
+	
+	/**
+	 * Test that the index tables return the same candidates as a linear scan over all nodes with the hash.
+	 */
+	@Test
+	public void testCandidates ()
+	{
+		try
+		{
+			TreeDocument doc = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			CandidateIndex candidates = new CandidateIndex (doc, MAX_LEVEL);
+			NodeIndex index = new NodeIndex (doc);
+			for (int i = 0; i < index.size (); i++)
+			{
+				TreeNode node = index.getNode (i);
+				TreeNode ancestor = node;
+				for (int level = 1; level <= MAX_LEVEL; level++)
+				{
+					ancestor = ancestor.getParent ();
+					if (ancestor == null)
+						break;
+					assertEquals ("unexpected candidates for " + node.getXPath () + " at level " + level,
+						linearScan (doc, node.getSubTreeHash (), level, ancestor, null), new ArrayList<TreeNode> (candidates.getCandidates (node.getSubTreeHash (), level, ancestor)));
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error looking up candidates: " + e);
+		}
+	}
+	
+	/**
+	 * Test that removed nodes are no candidates anymore.
+	 */
+	@Test
+	public void testRemoveNode ()
+	{
+		try
+		{
+			TreeDocument doc = new TreeDocument (XmlTools.readDocument (new File ("test/BIOMD0000000006-2012-12-12.xml")), null);
+			CandidateIndex candidates = new CandidateIndex (doc, MAX_LEVEL);
+			NodeIndex index = new NodeIndex (doc);
+			
+			// build the tables of all hashes
+			for (int i = 0; i < index.size (); i++)
+				candidates.getCandidates (index.getNode (i).getSubTreeHash (), 1, index.getNode (i));
+			
+			// remove every third node
+			List<TreeNode> removed = new ArrayList<TreeNode> ();
+			for (int i = 0; i < index.size (); i += 3)
+			{
+				candidates.removeNode (index.getNode (i));
+				removed.add (index.getNode (i));
+			}
+			
+			for (int i = 0; i < index.size (); i++)
+			{
+				TreeNode node = index.getNode (i);
+				TreeNode ancestor = node;
+				for (int level = 1; level <= MAX_LEVEL; level++)
+				{
+					ancestor = ancestor.getParent ();
+					if (ancestor == null)
+						break;
+					assertEquals ("unexpected candidates for " + node.getXPath () + " at level " + level,
+						linearScan (doc, node.getSubTreeHash (), level, ancestor, removed), new ArrayList<TreeNode> (candidates.getCandidates (node.getSubTreeHash (), level, ancestor)));
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			fail ("unexpected error removing candidates: " + e);
+		}
+	}
+	
+	/**
+	 * Find the candidates by a linear scan, as it was done before the index tables.
+	 *
+	 * @param doc the document
+	 * @param hash the subtree hash
+	 * @param level the level of the ancestor
+	 * @param ancestor the ancestor
+	 * @param exclude the nodes to exclude, or null
+	 * @return the candidates in the order of the document's hash list
+	 */
+	private static List<TreeNode> linearScan (TreeDocument doc, String hash, int level, TreeNode ancestor, List<TreeNode> exclude)
+	{
+		List<TreeNode> candidates = new ArrayList<TreeNode> ();
+		List<TreeNode> nodes = doc.getNodesByHash (hash);
+		if (nodes == null)
+			return candidates;
+		for (TreeNode node : nodes)
+		{
+			if (exclude != null && exclude.contains (node))
+				continue;
+			TreeNode relative = node;
+			for (int j = 0; j < level && relative != null; j++)
+				relative = relative.getParent ();
+			if (relative == ancestor)
+				candidates.add (node);
+		}
+		return candidates;
+	}
+}